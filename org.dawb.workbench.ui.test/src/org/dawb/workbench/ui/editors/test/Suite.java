@@ -27,7 +27,8 @@ import org.junit.runners.Suite.SuiteClasses;
     SWTXYRegionsTest.class,
     SWTXYTraceTest.class,
     LargeFilesTest.class,
-    SWTXYStressTest.class
+    SWTXYStressTest.class,
+    ZipUtilsTest.class
 })
 public class Suite {
 	// Run this as a junit plugin test and all the links will be satisfied.
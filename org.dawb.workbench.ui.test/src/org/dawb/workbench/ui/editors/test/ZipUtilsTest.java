@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawb.workbench.ui.editors.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.dawb.workbench.ui.editors.zip.UnzippedFileCache;
+import org.dawb.workbench.ui.editors.zip.ZipUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The bz2 fixtures were written by the bzip2 command, not by ZipUtils:
+ * ascii.dat.bz2 with bzip2 -1 so it has several blocks, and
+ * chance_magic.dat.bz2 as two streams, one of the data of
+ * {@link #createChanceMagicData(long, int)} for each magic, joined.
+ */
+public class ZipUtilsTest {
+
+	private static final long BLOCK_MAGIC = 0x314159265359L;
+	private static final long END_MAGIC   = 0x177245385090L;
+
+	@Test
+	public void testBZip2ManyBlocks() throws Exception {
+		testRoundTrip("bz2", createData(5000000));
+	}
+
+	@Test
+	public void testBZip2OneByte() throws Exception {
+		testRoundTrip("bz2", createData(1));
+	}
+
+	@Test
+	public void testBZip2Empty() throws Exception {
+		testRoundTrip("bz2", new byte[0]);
+	}
+
+	@Test
+	public void testBZip2FromCommand() throws Exception {
+		Assert.assertArrayEquals(readResource("ascii.dat"), read(getBZip2Resource("ascii.dat.bz2")));
+	}
+
+	@Test
+	public void testBZip2Concatenated() throws Exception {
+		// Streams from the command and from ZipUtils, as pbzip2 writes them
+		final byte[] ascii = readResource("ascii.dat");
+		final byte[] data  = createData(1500000);
+		final File   file  = write(File.createTempFile("concatenated_test", ".dat.bz2"), data);
+		try {
+			final byte[] compressed = concat(readResource("ascii.dat.bz2"), read(new FileInputStream(file)), readResource("ascii.dat.bz2"));
+			Assert.assertArrayEquals(concat(ascii, data, ascii), read(ZipUtils.getStreamForStream(new ByteArrayInputStream(compressed), "bz2")));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testBZip2ChanceMagic() throws Exception {
+		final byte[] block = createChanceMagicData(BLOCK_MAGIC, 20000);
+		final byte[] end   = createChanceMagicData(END_MAGIC, 20000);
+		Assert.assertArrayEquals(concat(block, end), read(getBZip2Resource("chance_magic.dat.bz2")));
+		testRoundTrip("bz2", block);
+		testRoundTrip("bz2", end);
+	}
+
+	@Test
+	public void testBZip2Corrupt() throws Exception {
+		final byte[] compressed = readResource("ascii.dat.bz2");
+		compressed[compressed.length/2] ^= 0x10;
+		try {
+			read(ZipUtils.getStreamForStream(new ByteArrayInputStream(compressed), "bz2"));
+			Assert.fail("A corrupt block was read");
+		} catch (IOException expected) {
+			// Not data with a block missing or wrong
+		}
+	}
+
+	@Test
+	public void testGZip() throws Exception {
+		testRoundTrip("gz", createData(1000000));
+	}
+
+	@Test
+	public void testZip() throws Exception {
+		testRoundTrip("zip", createData(1000000));
+	}
+
+	@Test
+	public void testUnzippedFileCache() throws Exception {
+
+		final byte[] data = createData(2000000);
+		final File archive = write(File.createTempFile("cache_test", ".dat.bz2"), data);
+		try {
+			final File first  = UnzippedFileCache.getUnzippedFile(archive);
+			Assert.assertTrue(first.getName().endsWith(".dat"));
+			Assert.assertArrayEquals(data, read(new FileInputStream(first)));
+
+			final File second = UnzippedFileCache.getUnzippedFile(archive);
+			Assert.assertEquals(first, second);
+
+			// A changed archive is decompressed again
+			final byte[] changed = createData(1000);
+			write(archive, changed);
+			archive.setLastModified(first.lastModified()+10000);
+			final File third  = UnzippedFileCache.getUnzippedFile(archive);
+			Assert.assertFalse(first.equals(third));
+			Assert.assertArrayEquals(changed, read(new FileInputStream(third)));
+
+			UnzippedFileCache.release(first);
+			UnzippedFileCache.release(second);
+			UnzippedFileCache.release(third);
+
+		} finally {
+			archive.delete();
+		}
+	}
+
+	private void testRoundTrip(String ext, byte[] data) throws Exception {
+		final File file = write(File.createTempFile("round_trip_test", ".dat."+ext), data);
+		try {
+			Assert.assertArrayEquals(data, read(ZipUtils.getStreamForFile(file)));
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Data with only the byte values whose bits in the map of the values
+	 * used, in the header of a block, spell the magic, so the compressed
+	 * block has the magic inside it by chance. Values are never repeated
+	 * four times, which would be run length encoded and add to the map.
+	 */
+	private static byte[] createChanceMagicData(long magic, int size) {
+		final List<Integer> values = new ArrayList<Integer>();
+		for (int w = 0; w < 3; w++) {
+			final int word = (int)(magic >>> (32-16*w)) & 0xffff;
+			for (int j = 0; j < 16; j++) {
+				if (((word >>> (15-j)) & 1) != 0) values.add(16*w+j);
+			}
+		}
+		final Random random = new Random(magic);
+		final byte[] data = new byte[size];
+		for (int i = 0; i < size; i++) {
+			int index = i<values.size() ? i : random.nextInt(values.size());
+			if (i>=3 && data[i-1]==data[i-2] && data[i-2]==data[i-3] && data[i-3]==values.get(index).byteValue()) {
+				index = (index+1)%values.size();
+			}
+			data[i] = values.get(index).byteValue();
+		}
+		return data;
+	}
+
+	/**
+	 * Columns of numbers, which compress about as well as ascii data files.
+	 */
+	private static byte[] createData(int size) {
+		final Random random = new Random(size);
+		final StringBuilder buf = new StringBuilder(size+64);
+		while (buf.length()<size) {
+			buf.append(random.nextInt(1000)).append('\t').append(random.nextGaussian()).append('\n');
+		}
+		return Arrays.copyOf(buf.toString().getBytes(), size);
+	}
+
+	private static File write(File file, byte[] data) throws Exception {
+		final OutputStream out = ZipUtils.getOutputStreamForFile(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static InputStream getBZip2Resource(String name) throws Exception {
+		return ZipUtils.getStreamForStream(ZipUtilsTest.class.getResourceAsStream(name), "bz2");
+	}
+
+	private static byte[] readResource(String name) throws Exception {
+		return read(ZipUtilsTest.class.getResourceAsStream(name));
+	}
+
+	private static byte[] concat(byte[]... parts) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (byte[] part : parts) out.write(part, 0, part.length);
+		return out.toByteArray();
+	}
+
+	private static byte[] read(InputStream in) throws Exception {
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buf = new byte[8192];
+			for (int n; (n = in.read(buf))>=0;) out.write(buf, 0, n);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
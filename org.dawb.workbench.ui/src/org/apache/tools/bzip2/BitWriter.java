@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.apache.tools.bzip2;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes bits to a stream, most significant first as in BZip2, so that
+ * blocks which do not start or end on a byte can be joined.
+ */
+final class BitWriter {
+
+    private final OutputStream out;
+    private final byte[] buf = new byte[8192];
+    private int count;
+
+    /**
+     * Bits not written yet, in the lowest live bits.
+     */
+    private long bsBuff;
+    private int bsLive;
+
+    BitWriter(final OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes the lowest n bits of v, n up to 32.
+     */
+    void writeBits(final int n, final int v) throws IOException {
+        bsBuff = (bsBuff << n) | (v & ((1L << n) - 1));
+        bsLive += n;
+        while (bsLive >= 8) {
+            bsLive -= 8;
+            put((int) (bsBuff >>> bsLive));
+        }
+    }
+
+    /**
+     * Writes bits of an array.
+     * @param src
+     * @param start - index of the first bit, 0 being the highest bit of src[0]
+     * @param n - number of bits to write
+     */
+    void writeBits(final byte[] src, final long start, long n) throws IOException {
+        int i = (int) (start >>> 3);
+        final int shift = (int) (start & 7);
+        if (shift != 0 && n > 0) {
+            final int head = (int) Math.min(8 - shift, n);
+            writeBits(head, (src[i++] & 0xff) >>> (8 - shift - head));
+            n -= head;
+        }
+
+        if (bsLive == 0) {
+            // Both on a byte, so copy whole bytes.
+            final int bytes = (int) (n >>> 3);
+            drain();
+            out.write(src, i, bytes);
+            i += bytes;
+            n -= 8L * bytes;
+        } else {
+            for (; n >= 8; n -= 8) {
+                writeBits(8, src[i++]);
+            }
+        }
+
+        if (n > 0) {
+            writeBits((int) n, (src[i] & 0xff) >>> (8 - n));
+        }
+    }
+
+    /**
+     * Writes the bytes which are complete to the stream.
+     */
+    void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    /**
+     * Pads the last byte with zero bits and writes it.
+     */
+    void finish() throws IOException {
+        if (bsLive > 0) {
+            writeBits(8 - bsLive, 0);
+        }
+        drain();
+    }
+
+    private void put(final int b) throws IOException {
+        if (count == buf.length) {
+            drain();
+        }
+        buf[count++] = (byte) b;
+    }
+
+    private void drain() throws IOException {
+        if (count > 0) {
+            out.write(buf, 0, count);
+            count = 0;
+        }
+    }
+}
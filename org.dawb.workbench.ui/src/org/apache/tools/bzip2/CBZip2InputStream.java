@@ -36,9 +36,11 @@ import java.io.InputStream;
  */
 public class CBZip2InputStream extends InputStream implements BZip2Constants {
 
-    private static void reportCRCError() throws IOException {
+    private void reportCRCError() throws IOException {
         // The clean way would be to throw an exception.
-        //throw new IOException("crc error");
+        if (this.throwCRCError) {
+            throw new IOException("crc error");
+        }
 
         // Just print a message, like the previous versions of this class did
         System.err.println("BZip2 CRC error");
@@ -84,6 +86,8 @@ public class CBZip2InputStream extends InputStream implements BZip2Constants {
 
     private InputStream in;
 
+    private final boolean throwCRCError;
+
     private int currentChar = -1;
 
     private static final int EOF                  = 0;
@@ -134,9 +138,21 @@ public class CBZip2InputStream extends InputStream implements BZip2Constants {
      *  if <tt>in == null</tt>
      */
     public CBZip2InputStream(final InputStream in) throws IOException {
+        this(in, false);
+    }
+
+    /**
+     * @param throwCRCError
+     *  true to throw an IOException when a CRC does not match, instead
+     *  of printing a message and going on. Used by
+     *  {@link ParallelCBZip2InputStream} to find out whether a block
+     *  was decoded from the right bits.
+     */
+    CBZip2InputStream(final InputStream in, final boolean throwCRCError) throws IOException {
         super();
 
         this.in = in;
+        this.throwCRCError = throwCRCError;
         init();
     }
 
@@ -269,6 +269,23 @@ public class CBZip2OutputStream extends OutputStream implements BZip2Constants {
 
     public CBZip2OutputStream(OutputStream inStream, int inBlockSize)
         throws IOException {
+        this(inStream, inBlockSize, false);
+    }
+
+    private final boolean blocksOnly;
+    private int blockCount;
+    private long blockBits;
+
+    /**
+     * @param blocksOnly true to write the compressed blocks only, without
+     * the 'h' and block size at the start and the end of stream marker and
+     * combined CRC at the end. The last byte is padded with zero bits.
+     * Used by {@link ParallelCBZip2OutputStream} to join the blocks of
+     * many streams into one.
+     */
+    CBZip2OutputStream(OutputStream inStream, int inBlockSize, boolean blocksOnly)
+        throws IOException {
+        this.blocksOnly = blocksOnly;
         block = null;
         quadrant = null;
         zptr = null;
@@ -378,7 +395,12 @@ public class CBZip2OutputStream extends OutputStream implements BZip2Constants {
         }
         currentChar = -1;
         endBlock();
-        endCompression();
+        if (blocksOnly) {
+            blockBits = 8L * bytesOut + bsLive;
+            bsFinishedWithStream();
+        } else {
+            endCompression();
+        }
         closed = true;
         super.close();
         bsStream.close();
@@ -398,8 +420,10 @@ public class CBZip2OutputStream extends OutputStream implements BZip2Constants {
         /* Write `magic' bytes h indicating file-format == huffmanised,
            followed by a digit indicating blockSize100k.
         */
-        bsPutUChar('h');
-        bsPutUChar('0' + blockSize100k);
+        if (!blocksOnly) {
+            bsPutUChar('h');
+            bsPutUChar('0' + blockSize100k);
+        }
 
         combinedCRC = 0;
     }
@@ -424,6 +448,7 @@ public class CBZip2OutputStream extends OutputStream implements BZip2Constants {
         blockCRC = mCrc.getFinalCRC();
         combinedCRC = (combinedCRC << 1) | (combinedCRC >>> 31);
         combinedCRC ^= blockCRC;
+        blockCount++;
 
         /* sort the block and establish posn of original string */
         doReversibleTransformation();
@@ -463,6 +488,29 @@ public class CBZip2OutputStream extends OutputStream implements BZip2Constants {
         moveToFrontCodeAndSend();
     }
 
+    /**
+     * @return the number of blocks written, once closed.
+     */
+    int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * @return the number of bits of the blocks written, without the padding
+     * of the last byte, once closed with blocksOnly.
+     */
+    long getBlockBits() {
+        return blockBits;
+    }
+
+    /**
+     * @return the CRC of the blocks written combined as at the end of the
+     * stream, once closed.
+     */
+    int getCombinedCRC() {
+        return combinedCRC;
+    }
+
     private void endCompression() throws IOException {
         /*
           Now another magic 48-bit number, 0x177245385090, to
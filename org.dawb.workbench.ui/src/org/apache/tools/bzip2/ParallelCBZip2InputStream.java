@@ -0,0 +1,479 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.apache.tools.bzip2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An input stream that decompresses from the BZip2 format like
+ * {@link CBZip2InputStream}, but decodes many blocks at the same time.
+ *
+ * <p>The blocks of a BZip2 stream do not depend on each other. Each
+ * starts with the 48 bit magic 0x314159265359, on any bit as blocks
+ * are not padded to a byte. This stream reads the compressed source
+ * looking for the magic, and gives each block found to a pool of
+ * threads which decode it with a {@link CBZip2InputStream}. Decoded
+ * blocks are read in the order of the source. Streams joined one after
+ * the other, as written by pbzip2, are read to the end of the last.</p>
+ *
+ * <p>The magic of a block, or the 0x177245385090 magic of the end of a
+ * stream, can happen by chance inside a block. Such a block does not
+ * decode or has the wrong CRC, and is decoded again joined to the
+ * segments after it. A block which still does not decode, and a stream
+ * whose CRC is not that of its blocks, throw an IOException, where
+ * {@link CBZip2InputStream} would print a CRC error and go on.</p>
+ *
+ * <p>Instances of this class are not threadsafe.</p>
+ */
+public class ParallelCBZip2InputStream extends InputStream implements BZip2Constants {
+
+    /**
+     * Set this property to the number of threads decoding and encoding
+     * blocks, by default the number of processors.
+     */
+    static final String THREADS_PROPERTY = "org.apache.tools.bzip2.threads";
+
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long END_MAGIC   = 0x177245385090L;
+    private static final long MAGIC_MASK  = (1L << 48) - 1;
+
+    /**
+     * The most blocks after a block which does not decode that are
+     * joined to it to try again.
+     */
+    private static final int MAX_MERGE = 2;
+
+    private static ExecutorService pool;
+
+    static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(getThreads(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "BZip2 worker " + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return pool;
+    }
+
+    static int getThreads() {
+        return Math.max(1, Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * The bits of one block, from its magic to the next magic, or of the
+     * end of a stream, from the end magic to the next block.
+     */
+    private static final class Segment {
+
+        final byte[]  data;
+        final int     start;
+        final long    bits;
+
+        /**
+         * False if the source ended before the block did.
+         */
+        final boolean ended;
+
+        /**
+         * True if the segment starts with the end magic, so is the end of
+         * a stream unless the magic was a chance one inside a block.
+         */
+        final boolean trailer;
+
+        Future<byte[]> decoded;
+
+        Segment(byte[] data, int start, long bits, boolean ended, boolean trailer) {
+            this.data    = data;
+            this.start   = start;
+            this.bits    = bits;
+            this.ended   = ended;
+            this.trailer = trailer;
+        }
+
+        /**
+         * @return the CRC after the magic, of the block or for a trailer
+         *  of the whole stream.
+         */
+        int getCRC() {
+            int crc = 0;
+            for (long i = start + 48, end = start + 80; i < end; i++) {
+                crc = (crc << 1) | ((data[(int) (i >>> 3)] >>> (7 - (int) (i & 7))) & 1);
+            }
+            return crc;
+        }
+    }
+
+    private InputStream in;
+    private final int maxPending;
+    private final LinkedList<Segment> pending = new LinkedList<Segment>();
+
+    // The block being read
+    private byte[] block;
+    private int blockPos, blockLength;
+
+    // Scanning of the source
+    private final byte[] buffer = new byte[65536];
+    private int bufferPos, bufferLength;
+    private boolean sourceEnded;
+    private long bitCount;
+    private long window;
+    private long history;
+
+    // The segment being scanned, null before the first magic
+    private byte[] segment;
+    private int segmentLength;
+    private long segmentStart, segmentFirstByte;
+    private boolean segmentTrailer;
+
+    // The combined CRC of the blocks of the stream read so far
+    private int streamCRC;
+
+    /**
+     * Constructs a new ParallelCBZip2InputStream which decompresses bytes
+     * read from the specified stream. The <tt>"BZ"</tt> magic may be
+     * there or skipped, as for {@link CBZip2InputStream}.
+     *
+     * @throws IOException
+     *  if the stream does not start as BZip2 or an I/O error occurs.
+     */
+    public ParallelCBZip2InputStream(final InputStream in) throws IOException {
+        this.in = in;
+        this.maxPending = 2 * getThreads();
+
+        int magic = in.read();
+        if (magic == 'B') {
+            magic = in.read();
+            if (magic == 'Z') {
+                magic = in.read();
+            }
+        }
+        if (magic != 'h') {
+            throw new IOException("Stream is not BZip2 formatted: expected 'h'"
+                                  + " as first byte but got '" + (char) magic
+                                  + "'");
+        }
+        final int blockSize = in.read();
+        if ((blockSize < '1') || (blockSize > '9')) {
+            throw new IOException("Stream is not BZip2 formatted: illegal "
+                                  + "blocksize " + (char) blockSize);
+        }
+    }
+
+    public int read() throws IOException {
+        if (this.in == null) {
+            throw new IOException("stream closed");
+        }
+        if (blockPos == blockLength && !nextBlock()) {
+            return -1;
+        }
+        return block[blockPos++] & 0xff;
+    }
+
+    public int read(final byte[] dest, final int offs, final int len)
+        throws IOException {
+        if (offs < 0 || len < 0 || offs + len > dest.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (this.in == null) {
+            throw new IOException("stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (blockPos == blockLength && !nextBlock()) {
+            return -1;
+        }
+        final int n = Math.min(len, blockLength - blockPos);
+        System.arraycopy(block, blockPos, dest, offs, n);
+        blockPos += n;
+        return n;
+    }
+
+    public int available() throws IOException {
+        return blockLength - blockPos;
+    }
+
+    public void close() throws IOException {
+        final InputStream inShadow = this.in;
+        if (inShadow != null) {
+            try {
+                for (Segment s : pending) {
+                    if (s.decoded != null) {
+                        s.decoded.cancel(false);
+                    }
+                }
+                if (inShadow != System.in) {
+                    inShadow.close();
+                }
+            } finally {
+                pending.clear();
+                this.block = null;
+                this.segment = null;
+                this.in = null;
+            }
+        }
+    }
+
+    /**
+     * Makes the next decoded block the one read.
+     * @return false if there are no more blocks.
+     */
+    private boolean nextBlock() throws IOException {
+        while (true) {
+            fill();
+            final Segment s = pending.poll();
+            if (s == null) {
+                return false;
+            }
+            fill(); // Keep the pool busy while waiting
+            if (s.trailer) {
+                endStream(s);
+                continue;
+            }
+            try {
+                block = get(s);
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                block = recover(s, e);
+            }
+            // Decoded with the CRC checked, so it is the one stored
+            streamCRC = ((streamCRC << 1) | (streamCRC >>> 31)) ^ s.getCRC();
+            blockPos = 0;
+            blockLength = block.length;
+            if (blockLength > 0) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Checks the CRC of the stream against its blocks, as
+     * {@link CBZip2InputStream} does at its end.
+     */
+    private void endStream(final Segment s) throws IOException {
+        if (s.bits < 80) {
+            throw new IOException("unexpected end of stream");
+        }
+        if (s.getCRC() != streamCRC) {
+            throw new IOException("BZip2 stream CRC error");
+        }
+        streamCRC = 0;
+    }
+
+    private void fill() throws IOException {
+        while (pending.size() < maxPending && scan());
+    }
+
+    private static byte[] get(final Segment s) throws IOException {
+        if (!s.ended) {
+            throw new IOException("unexpected end of stream");
+        }
+        try {
+            return s.decoded.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted decoding BZip2 block");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Cannot decode BZip2 block", cause);
+        }
+    }
+
+    /**
+     * Decodes a block which did not decode again, joined to the segments
+     * after it in case the magic of the next was a chance one. A trailer
+     * is joined too even at the end of the source, as its bits may be the
+     * rest of the block followed by the real end of the stream.
+     * @throws IOException
+     *  the error of the block alone if it does not decode joined either.
+     */
+    private byte[] recover(final Segment s, final IOException e) throws IOException {
+        if (!s.ended) {
+            throw e;
+        }
+        final List<Segment> merged = new ArrayList<Segment>(MAX_MERGE + 1);
+        merged.add(s);
+        for (int m = 0; m < MAX_MERGE; m++) {
+            while (pending.size() <= m && scan());
+            if (pending.size() <= m) {
+                break;
+            }
+            final Segment next = pending.get(m);
+            if (!next.ended && !next.trailer) {
+                break;
+            }
+            merged.add(next);
+            try {
+                final byte[] ret = decode(merged, true);
+                for (int i = 1; i < merged.size(); i++) {
+                    final Segment joined = pending.poll();
+                    if (joined.decoded != null) {
+                        joined.decoded.cancel(false);
+                    }
+                }
+                return ret;
+            } catch (IOException ignored) {
+                // Try with the next one too
+            } catch (RuntimeException ignored) {
+                // Try with the next one too
+            }
+            if (!next.ended) {
+                break;
+            }
+        }
+        throw e;
+    }
+
+    /**
+     * Reads the source until the end of another block has been found
+     * and the block sent to be decoded.
+     * @return false if the source has ended.
+     */
+    private boolean scan() throws IOException {
+        while (true) {
+            if (bufferPos == bufferLength) {
+                if (sourceEnded) {
+                    return false;
+                }
+                bufferPos = 0;
+                bufferLength = Math.max(0, in.read(buffer));
+                if (bufferLength == 0) {
+                    sourceEnded = true;
+                    if (segment != null) {
+                        endSegment(bitCount, false);
+                        return true;
+                    }
+                }
+                continue;
+            }
+
+            final int b = buffer[bufferPos++] & 0xff;
+            history = (history << 8) | b;
+            if (segment != null) {
+                if (segmentLength == segment.length) {
+                    segment = Arrays.copyOf(segment, 2 * segment.length);
+                }
+                segment[segmentLength++] = (byte) b;
+            }
+
+            boolean found = false;
+            for (int k = 7; k >= 0; k--) {
+                window = (window << 1) | ((b >>> k) & 1);
+                bitCount++;
+                final long magic = window & MAGIC_MASK;
+                if (magic == BLOCK_MAGIC || magic == END_MAGIC) {
+                    // The bits after an end magic are kept too, in case it
+                    // was a chance one and they are the rest of a block.
+                    final long magicStart = bitCount - 48;
+                    if (segment != null) {
+                        endSegment(magicStart, true);
+                        found = true;
+                    }
+                    startSegment(magicStart, magic == END_MAGIC);
+                }
+            }
+            if (found) {
+                return true;
+            }
+        }
+    }
+
+    private void startSegment(final long magicStart, final boolean trailer) {
+        // The bytes the magic is in so far are the last ones read.
+        final long currentByte = (bitCount - 1) >>> 3;
+        segmentFirstByte = magicStart >>> 3;
+        segmentStart = magicStart;
+        segmentTrailer = trailer;
+        segment = new byte[trailer ? 64 : baseBlockSize];
+        segmentLength = 0;
+        for (int i = (int) (currentByte - segmentFirstByte); i >= 0; i--) {
+            segment[segmentLength++] = (byte) (history >>> (8 * i));
+        }
+    }
+
+    private void endSegment(final long end, final boolean ended) {
+        final Segment s = new Segment(segment, (int) (segmentStart - 8 * segmentFirstByte), end - segmentStart,
+                                      ended, segmentTrailer);
+        segment = null;
+        if (ended && !s.trailer) {
+            s.decoded = getPool().submit(new Callable<byte[]>() {
+                public byte[] call() throws Exception {
+                    return decode(Collections.singletonList(s), true);
+                }
+            });
+        }
+        pending.add(s);
+    }
+
+    /**
+     * Decodes blocks by making them into a stream of their own.
+     * @param segments - the bits of one block, in one or more parts
+     * @param throwCRCError
+     * @return the decoded bytes
+     */
+    private static byte[] decode(final List<Segment> segments, final boolean throwCRCError) throws IOException {
+
+        long bits = 0;
+        for (Segment s : segments) {
+            bits += s.bits;
+        }
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream((int) (bits >>> 3) + 16);
+        final BitWriter writer = new BitWriter(stream);
+        writer.writeBits(8, 'h');
+        writer.writeBits(8, '9');
+        for (Segment s : segments) {
+            writer.writeBits(s.data, s.start, s.bits);
+        }
+        writer.writeBits(16, (int) (END_MAGIC >>> 32));
+        writer.writeBits(32, (int) END_MAGIC);
+        // With one block the combined CRC is the block CRC
+        writer.writeBits(32, segments.get(0).getCRC());
+        writer.finish();
+
+        final InputStream in = new CBZip2InputStream(new ByteArrayInputStream(stream.toByteArray()), throwCRCError);
+        try {
+            byte[] ret = new byte[baseBlockSize * 9];
+            int length = 0;
+            for (int n; (n = in.read(ret, length, ret.length - length)) >= 0;) {
+                length += n;
+                if (length == ret.length) {
+                    ret = Arrays.copyOf(ret, 2 * ret.length);
+                }
+            }
+            return Arrays.copyOf(ret, length);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.apache.tools.bzip2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * An output stream that compresses into the BZip2 format (without the file
+ * header chars) like {@link CBZip2OutputStream}, but compresses many blocks
+ * at the same time.
+ *
+ * <p>The data is cut into pieces of about a block, which are compressed by
+ * the threads of {@link ParallelCBZip2InputStream} with a
+ * {@link CBZip2OutputStream} each. Their blocks are joined in order into one
+ * stream with one combined CRC, so it can be read by any BZip2 decoder.</p>
+ *
+ * <p>Instances of this class are not threadsafe.</p>
+ */
+public class ParallelCBZip2OutputStream extends OutputStream implements BZip2Constants {
+
+    private static final long END_MAGIC = 0x177245385090L;
+
+    /**
+     * The blocks of one piece of data.
+     */
+    private static final class Compressed {
+        byte[] data;
+        long   bits;
+        int    blockCount;
+        int    combinedCRC;
+    }
+
+    private OutputStream out;
+    private final BitWriter writer;
+    private final int blockSize100k;
+    private final int maxPending;
+    private final LinkedList<Future<Compressed>> pending = new LinkedList<Future<Compressed>>();
+
+    private byte[] chunk;
+    private int chunkLength;
+    private int combinedCRC;
+
+    public ParallelCBZip2OutputStream(OutputStream out) throws IOException {
+        this(out, 9);
+    }
+
+    public ParallelCBZip2OutputStream(OutputStream out, int blockSize100k) throws IOException {
+        this.out = out;
+        this.writer = new BitWriter(out);
+        this.blockSize100k = Math.max(1, Math.min(9, blockSize100k));
+        this.maxPending = 2 * ParallelCBZip2InputStream.getThreads();
+
+        // Most pieces of this size are one block after the run length
+        // coding. The few which are not just make two.
+        this.chunk = new byte[baseBlockSize * this.blockSize100k - 20];
+
+        writer.writeBits(8, 'h');
+        writer.writeBits(8, '0' + this.blockSize100k);
+    }
+
+    public void write(int b) throws IOException {
+        if (out == null) {
+            throw new IOException("stream closed");
+        }
+        chunk[chunkLength++] = (byte) b;
+        if (chunkLength == chunk.length) {
+            submit();
+        }
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (out == null) {
+            throw new IOException("stream closed");
+        }
+        while (len > 0) {
+            final int n = Math.min(len, chunk.length - chunkLength);
+            System.arraycopy(b, off, chunk, chunkLength, n);
+            chunkLength += n;
+            off += n;
+            len -= n;
+            if (chunkLength == chunk.length) {
+                submit();
+            }
+        }
+    }
+
+    /**
+     * Writes the blocks which have been compressed. Data of a block which
+     * is not full is not written until the stream is closed.
+     */
+    public void flush() throws IOException {
+        if (out == null) {
+            return;
+        }
+        while (!pending.isEmpty() && pending.getFirst().isDone()) {
+            writeNext();
+        }
+        writer.flush();
+    }
+
+    public void close() throws IOException {
+        if (out == null) {
+            return;
+        }
+        try {
+            if (chunkLength > 0) {
+                submit();
+            }
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+            writer.writeBits(16, (int) (END_MAGIC >>> 32));
+            writer.writeBits(32, (int) END_MAGIC);
+            writer.writeBits(32, combinedCRC);
+            writer.finish();
+        } finally {
+            for (Future<Compressed> f : pending) {
+                f.cancel(false);
+            }
+            pending.clear();
+            chunk = null;
+            out.close();
+            out = null;
+        }
+    }
+
+    private void submit() throws IOException {
+        final byte[] data   = chunk;
+        final int    length = chunkLength;
+        chunk = new byte[data.length];
+        chunkLength = 0;
+
+        pending.add(ParallelCBZip2InputStream.getPool().submit(new Callable<Compressed>() {
+            public Compressed call() throws Exception {
+                final ByteArrayOutputStream stream = new ByteArrayOutputStream(length / 2);
+                final CBZip2OutputStream bz = new CBZip2OutputStream(stream, blockSize100k, true);
+                bz.write(data, 0, length);
+                bz.close();
+
+                final Compressed ret = new Compressed();
+                ret.data        = stream.toByteArray();
+                ret.bits        = bz.getBlockBits();
+                ret.blockCount  = bz.getBlockCount();
+                ret.combinedCRC = bz.getCombinedCRC();
+                return ret;
+            }
+        }));
+        while (pending.size() > maxPending) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        final Compressed c;
+        try {
+            c = pending.removeFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted encoding BZip2 block");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Cannot encode BZip2 block", cause);
+        }
+        writer.writeBits(c.data, 0, c.bits);
+        // Each block turns the combined CRC one bit, so the combined CRC of
+        // the piece is joined by turning by its number of blocks.
+        combinedCRC = Integer.rotateLeft(combinedCRC, c.blockCount) ^ c.combinedCRC;
+    }
+}
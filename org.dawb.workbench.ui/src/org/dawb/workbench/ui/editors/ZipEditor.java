@@ -8,13 +8,12 @@
  */ 
 package org.dawb.workbench.ui.editors;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.dawb.common.ui.util.EclipseUtils;
-import org.dawb.common.util.io.FileUtils;
-import org.dawb.workbench.ui.editors.zip.ZipUtils;
+import org.dawb.workbench.ui.editors.zip.UnzippedFileCache;
 import org.dawb.workbench.ui.views.PlotDataPage;
 import org.eclipse.core.filesystem.EFS;
 import org.eclipse.core.filesystem.IFileStore;
@@ -49,6 +48,11 @@ public class ZipEditor extends MultiPageEditorPart implements  IPlottingSystemSe
 	private PlotDataEditor dataSetEditor;
 
 	private PlotImageEditor plotImageEditor;
+
+	/**
+	 * Decompressed files the pages use, released when they are not used.
+	 */
+	private final List<File> unzipped = new ArrayList<File>();
 	
 	@Override
 	public void init(IEditorSite site, IEditorInput input) throws PartInitException{
@@ -61,6 +65,7 @@ public class ZipEditor extends MultiPageEditorPart implements  IPlottingSystemSe
 		super.setInput(input);
 		setPartName(input.getName());
 		for (int i = 0; i < getPageCount(); i++) removePage(i);
+		releaseUnzipped();
 		createPages();
 	}
 	
@@ -124,19 +129,19 @@ public class ZipEditor extends MultiPageEditorPart implements  IPlottingSystemSe
 		if (dataEditor!=null) removePageChangedListener(dataEditor);
 		dataEditor = null;
 		super.dispose();
+		releaseUnzipped();
+	}
+
+	private void releaseUnzipped() {
+		for (File file : unzipped) UnzippedFileCache.release(file);
+		unzipped.clear();
 	}
 
 	private IEditorInput getUnzippedEditorInput() throws Exception {
 		
-        final InputStream in  = ZipUtils.getStreamForFile(EclipseUtils.getFile(getEditorInput()));
-        final String fileName = getEditorInput().getName();
-        final String zipExt   = FileUtils.getFileExtension(fileName);
-        // This might not work, depending on how file is named.
-        final String origExt  = FileUtils.getFileExtension(fileName.substring(0,fileName.length()-zipExt.length()-1));
-       
-        final File      file = File.createTempFile(fileName, "."+origExt);
-        file.deleteOnExit();
-        FileUtils.write(new BufferedInputStream(in), file);
+		// Decompressed once for all the pages and kept for when the archive is opened again.
+        final File file = UnzippedFileCache.getUnzippedFile(EclipseUtils.getFile(getEditorInput()));
+        unzipped.add(file);
        
 		final IFileStore externalFile = EFS.getLocalFileSystem().fromLocalFile(file);
 		return new FileStoreEditorInput(externalFile);
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawb.workbench.ui.editors.zip;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.dawb.common.util.io.FileUtils;
+import org.dawb.workbench.ui.Activator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the files decompressed from archives, so that opening an archive
+ * again does not decompress it again as long as it has not changed.
+ *
+ * The files are kept in the state location of the plugin, named from the
+ * path, size and modification time of the archive. When they take more than
+ * the budget, the ones used least recently are deleted, unless they are in use.
+ * A file is in use from when it is returned until it is released.
+ */
+public class UnzippedFileCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(UnzippedFileCache.class);
+
+	/**
+	 * Set this property to the megabytes of disk the decompressed files may
+	 * use, by default 4096.
+	 */
+	static final String BUDGET_PROPERTY = "org.dawb.workbench.ui.zip.cache.budget";
+
+	private static final long budget = Long.getLong(BUDGET_PROPERTY, 4096) * 1024*1024;
+
+	private static final String PART = ".part";
+
+	/**
+	 * A lock for each decompressed file by its path, so that an archive is
+	 * decompressed once however many ask for it, while others are decompressed
+	 * at the same time. A lock is removed when no thread holds or waits for it.
+	 */
+	private static final Map<String, PathLock> locks = new HashMap<String, PathLock>();
+
+	private static final class PathLock {
+		int threads;
+	}
+
+	/**
+	 * The number of times each file, by its path, has been returned and not yet
+	 * released. Files in use are not trimmed.
+	 */
+	private static final Map<String, Integer> uses = new HashMap<String, Integer>();
+
+	/**
+	 * The names of the files being written, which are not trimmed.
+	 */
+	private static final Set<String> writing = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private UnzippedFileCache() {
+	}
+
+	/**
+	 * Decompresses the archive, or finds it decompressed already. The file
+	 * has the name of the archive without the compression extension, so
+	 * that loaders can tell its type, after a prefix.
+	 *
+	 * @param archive - with an extension supported by ZipUtils
+	 * @return the decompressed file, which must not be changed. Call {@link #release(File)}
+	 *         when it is no longer used.
+	 * @throws Exception
+	 */
+	public static File getUnzippedFile(final File archive) throws Exception {
+
+		final File   dir  = getDirectory();
+		final String name = archive.getName();
+		final String ext  = FileUtils.getFileExtension(name);
+		final File   file = new File(dir, getKey(archive)+"_"+name.substring(0, name.length()-ext.length()-1));
+		final String path = file.getPath();
+
+		// In use before we look for it, so a trim either leaves it or has already deleted it.
+		use(path);
+		try {
+			final PathLock lock = lock(path);
+			try {
+				synchronized (lock) {
+					if (file.exists()) {
+						file.setLastModified(System.currentTimeMillis());
+					} else {
+						decompress(archive, file);
+					}
+				}
+			} finally {
+				unlock(path, lock);
+			}
+		} catch (Exception ne) {
+			release(file);
+			throw ne;
+		}
+
+		trim(dir);
+		return file;
+	}
+
+	/**
+	 * Call when a file from {@link #getUnzippedFile(File)} is no longer used, once
+	 * for each time it was returned, so that it may be deleted to keep to the budget.
+	 * @param file
+	 */
+	public static void release(final File file) {
+		final String path = file.getPath();
+		synchronized (uses) {
+			final Integer count = uses.get(path);
+			if (count==null) return;
+			if (count>1) {
+				uses.put(path, count-1);
+			} else {
+				uses.remove(path);
+			}
+		}
+	}
+
+	private static void use(final String path) {
+		synchronized (uses) {
+			final Integer count = uses.get(path);
+			uses.put(path, count!=null ? count+1 : 1);
+		}
+	}
+
+	private static PathLock lock(final String path) {
+		synchronized (locks) {
+			PathLock lock = locks.get(path);
+			if (lock==null) {
+				lock = new PathLock();
+				locks.put(path, lock);
+			}
+			++lock.threads;
+			return lock;
+		}
+	}
+
+	private static void unlock(final String path, final PathLock lock) {
+		synchronized (locks) {
+			if (--lock.threads==0) locks.remove(path);
+		}
+	}
+
+	/**
+	 * Written to another name and then renamed, so it is never half written.
+	 */
+	private static void decompress(final File archive, final File file) throws Exception {
+		final File part = new File(file.getParentFile(), file.getName()+PART);
+		writing.add(part.getName());
+		try {
+			final InputStream in = ZipUtils.getStreamForFile(archive);
+			try {
+				FileUtils.write(new BufferedInputStream(in), part);
+			} finally {
+				in.close();
+			}
+			if (!part.renameTo(file)) {
+				part.delete();
+				throw new IOException("Cannot rename "+part+" to "+file);
+			}
+		} finally {
+			writing.remove(part.getName());
+		}
+	}
+
+	private static File getDirectory() throws IOException {
+		final Activator activator = Activator.getDefault();
+		final File dir = activator!=null
+				       ? activator.getStateLocation().append("unzipped").toFile()
+				       : new File(System.getProperty("java.io.tmpdir"), "dawn_unzipped");
+		if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create "+dir);
+		return dir.getCanonicalFile();
+	}
+
+	/**
+	 * @return a hash of the path, size and modification time of the archive.
+	 */
+	private static String getKey(final File archive) throws Exception {
+		final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+		digest.update((archive.getCanonicalPath()+"|"+archive.length()+"|"+archive.lastModified()).getBytes("UTF-8"));
+		final StringBuilder buf = new StringBuilder();
+		for (byte b : digest.digest()) buf.append(String.format("%02x", b & 0xff));
+		return buf.toString();
+	}
+
+	/**
+	 * Deletes the files used least recently until the others fit in the budget.
+	 * Files in use or still being written are not deleted.
+	 * @param dir
+	 */
+	private static synchronized void trim(final File dir) {
+
+		final File[] files = dir.listFiles();
+		if (files==null) return;
+
+		long total = 0;
+		for (File f : files) total += f.length();
+		if (total<=budget) return;
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				final long m1 = o1.lastModified(), m2 = o2.lastModified();
+				return m1<m2 ? -1 : (m1==m2 ? 0 : 1);
+			}
+		});
+		for (File f : files) {
+			if (total<=budget) break;
+			if (writing.contains(f.getName())) continue;
+			final long length = f.length();
+			synchronized (uses) {
+				// Checked and deleted together, so the file cannot be returned in between.
+				if (uses.containsKey(f.getPath())) continue;
+				if (!f.delete()) {
+					logger.warn("Cannot delete decompressed file "+f);
+					continue;
+				}
+			}
+			total -= length;
+		}
+	}
+}
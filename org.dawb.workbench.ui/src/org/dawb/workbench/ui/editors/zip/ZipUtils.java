@@ -8,16 +8,23 @@
  */ 
 package org.dawb.workbench.ui.editors.zip;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Constructor;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
-import org.apache.tools.bzip2.CBZip2InputStream;
+import org.apache.tools.bzip2.ParallelCBZip2InputStream;
+import org.apache.tools.bzip2.ParallelCBZip2OutputStream;
 import org.dawb.common.util.io.FileUtils;
 
 public class ZipUtils {
@@ -27,7 +34,7 @@ public class ZipUtils {
 		CLASSES = new HashMap<String, Class<? extends java.io.InputStream>>(3);
 		CLASSES.put("gz",  GZIPInputStream.class);
 		CLASSES.put("zip", ZipInputStream.class);
-		CLASSES.put("bz2", CBZip2InputStream.class);
+		CLASSES.put("bz2", ParallelCBZip2InputStream.class);
 	}
 	
 	
@@ -60,4 +67,35 @@ public class ZipUtils {
 		return in;
 	}
 
+	/**
+	 * Opens a stream which compresses to the file, by the extension of the file.
+	 * A zip file has one entry, named as the file without the extension.
+	 * 
+	 * @param file
+	 * @return stream which must be closed to finish the file.
+	 * @throws Exception
+	 */
+	public static OutputStream getOutputStreamForFile(final File file) throws Exception {
+		
+		final String ext = FileUtils.getFileExtension(file);
+		if (!isExtensionSupported(ext))
+			throw new IllegalArgumentException("Can not handle the extension: " + ext);
+		
+		final OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		if ("gz".equals(ext)) {
+			return new GZIPOutputStream(out);
+			
+		} else if ("bz2".equals(ext)) {
+			out.write('B');
+			out.write('Z');
+			return new ParallelCBZip2OutputStream(out);
+			
+		} else {
+			final String name = file.getName();
+			final ZipOutputStream zip = new ZipOutputStream(out);
+			zip.putNextEntry(new ZipEntry(name.substring(0, name.length()-ext.length()-1)));
+			return zip;
+		}
+	}
+
 }
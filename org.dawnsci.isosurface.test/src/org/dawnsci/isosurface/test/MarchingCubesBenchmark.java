@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.isosurface.test;
+
+import org.dawnsci.isosurface.alg.MarchingCubes;
+import org.dawnsci.isosurface.alg.Surface;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+
+/**
+ * Prints the times of the original point hashing marching cubes and the slab
+ * version on the same volume.
+ *
+ * There is no JMH in the target platform so this is a simple timing loop. The
+ * argument is the size of the volume, 128 by default, 512 is the size of a
+ * typical tomogram.
+ */
+class MarchingCubesBenchmark {
+
+	public static void main(String[] args) {
+
+		final int size = args.length>0 ? Integer.parseInt(args[0]) : 128;
+		final DoubleDataset volume = MarchingCubesTest.createVolume(size);
+		final int[] box = new int[]{1,1,1};
+		final double isovalue = size/4d+0.123;
+
+		try {
+			for (boolean legacy : new boolean[]{true, false}) {
+				MarchingCubesTest.march(volume, box, isovalue, legacy); // Warm up
+				final long start = System.currentTimeMillis();
+				final Surface surface = MarchingCubesTest.march(volume, box, isovalue, legacy);
+				System.out.println(String.format("%s %d^3 %d vertices in %d ms", legacy ? "Legacy" : "Slab", size, 
+						                         surface.getPoints().length/3, System.currentTimeMillis()-start));
+			}
+		} finally {
+			System.clearProperty(MarchingCubes.LEGACY_PROPERTY);
+		}
+	}
+}
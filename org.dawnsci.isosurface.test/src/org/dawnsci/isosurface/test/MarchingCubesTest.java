@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.isosurface.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.dawnsci.isosurface.alg.ISurfaceChunkListener;
+import org.dawnsci.isosurface.alg.MarchingCubes;
+import org.dawnsci.isosurface.alg.MarchingCubesModel;
+import org.dawnsci.isosurface.alg.Surface;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks that the slab marching cubes gives the same surface as the original
+ * point hashing version. MarchingCubesBenchmark times the two.
+ */
+public class MarchingCubesTest {
+
+	@After
+	public void after() {
+		System.clearProperty(MarchingCubes.LEGACY_PROPERTY);
+	}
+
+	@Test
+	public void testSameAsLegacy() {
+		final DoubleDataset volume = createVolume(60);
+		for (int[] box : new int[][]{{1,1,1}, {2,3,1}, {3,2,4}}) {
+			// The first isovalue makes the brick index, the others use it.
+			for (double isovalue : new double[]{15.123, 20.0071, 12.31}) {
+
+				final Surface legacy = march(volume, box, isovalue, true);
+				final Surface slab   = march(volume, box, isovalue, false);
+
+				assertEquals(legacy.getPoints().length, slab.getPoints().length);
+				assertEquals(getTriangles(legacy), getTriangles(slab));
+			}
+		}
+	}
+
+	@Test
+	public void testChunksMakeSurface() {
+		final DoubleDataset volume = createVolume(60);
+		final int[]  box      = new int[]{1,1,1};
+		final double isovalue = 15.123;
+
+		final Surface whole = march(volume, box, isovalue, false);
+
+		final List<Surface> chunks = Collections.synchronizedList(new ArrayList<Surface>());
+		final Surface joined = march(volume, box, isovalue, new ISurfaceChunkListener() {
+			@Override
+			public void chunkDone(Surface chunk) {
+				chunks.add(chunk);
+			}
+		});
+		assertEquals(getTriangles(whole), getTriangles(joined));
+
+		int faces = 0;
+		final Set<String> triangles = new HashSet<String>();
+		for (Surface chunk : chunks) {
+			faces += chunk.getFaces().length;
+			triangles.addAll(getTriangles(chunk));
+		}
+		assertTrue(chunks.size()>1);
+		assertEquals(whole.getFaces().length, faces);
+		assertEquals(getTriangles(whole), triangles);
+	}
+
+	static Surface march(DoubleDataset volume, int[] box, double isovalue, boolean legacy) {
+		System.setProperty(MarchingCubes.LEGACY_PROPERTY, String.valueOf(legacy));
+		return march(volume, box, isovalue, null);
+	}
+
+	private static Surface march(DoubleDataset volume, int[] box, double isovalue, ISurfaceChunkListener listener) {
+
+		final MarchingCubes generator = new MarchingCubes();
+		final MarchingCubesModel model = generator.getModel();
+		model.setLazyData(volume);
+		model.setBoxSize(box);
+		model.setIsovalue(isovalue);
+		model.setVertexLimit(Integer.MAX_VALUE);
+		model.setChunkListener(listener);
+		return generator.execute(null, null);
+	}
+
+	/**
+	 * A wobbly sphere, so that the vertices are not at regular places on the edges.
+	 */
+	static DoubleDataset createVolume(int size) {
+		final double[] data = new double[size*size*size];
+		int i = 0;
+		for (int z = 0; z < size; z++) {
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					final double dx = x-size/2.0+0.3, dy = y-size/2.3, dz = z-size/1.9;
+					data[i++] = Math.sqrt(dx*dx+dy*dy+dz*dz) + 2*Math.sin(x*0.37) + 1.5*Math.cos(y*0.21+z*0.13);
+				}
+			}
+		}
+		return new DoubleDataset(data, size, size, size);
+	}
+
+	/**
+	 * The triangles as their vertex coordinates, without the ones with no area.
+	 */
+	private static Set<String> getTriangles(Surface surface) {
+		final Set<String> triangles = new HashSet<String>();
+		final float[] points = surface.getPoints();
+		final int[]   faces  = surface.getFaces();
+		for (int i = 0; i < faces.length; i += 6) {
+			final String a = getPoint(points, faces[i]);
+			final String b = getPoint(points, faces[i+2]);
+			final String c = getPoint(points, faces[i+4]);
+			if (a.equals(b) || b.equals(c) || a.equals(c)) continue;
+			triangles.add(a+" "+b+" "+c);
+		}
+		return triangles;
+	}
+
+	private static String getPoint(float[] points, int index) {
+		return points[3*index]+","+points[3*index+1]+","+points[3*index+2];
+	}
+}
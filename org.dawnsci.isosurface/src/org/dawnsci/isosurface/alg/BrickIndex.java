@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.isosurface.alg;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
+
+/**
+ * The min and max of the grid values in bricks of cells, for a dataset and box size.
+ *
+ * A cell is only cut by the isosurface if one of its corners is below the isovalue
+ * and one is not. So a brick with max below the isovalue, or min not below it, has
+ * no surface and need not be read or marched. Sparse tomograms are mostly such bricks.
+ *
+ * The index is filled in as the volume is marched the first time, it is then kept
+ * against the dataset (by identity) and box size so that changing the isovalue only
+ * reads the z planes and marches the bricks which can have surface in them.
+ */
+class BrickIndex {
+
+	/**
+	 * The side of a brick in cells.
+	 */
+	static final int BRICK = 16;
+
+	/**
+	 * The number of datasets to keep an index for.
+	 */
+	private static final int CACHE_SIZE = 4;
+
+	private static final LinkedList<BrickIndex> cache = new LinkedList<BrickIndex>();
+
+	private final WeakReference<ILazyDataset> data;
+	private final int[]   boxSize;
+	private final int     nbx, nby, nbz;
+	private final double[] min, max;
+
+	/**
+	 * @param data
+	 * @param boxSize
+	 * @param nx - grid points in x
+	 * @param ny - grid points in y
+	 * @param layers - layers of cells in z
+	 */
+	BrickIndex(ILazyDataset data, int[] boxSize, int nx, int ny, int layers) {
+		this.data    = new WeakReference<ILazyDataset>(data);
+		this.boxSize = boxSize.clone();
+		this.nbx     = (nx-1+BRICK-1)/BRICK;
+		this.nby     = (ny-1+BRICK-1)/BRICK;
+		this.nbz     = (layers+BRICK-1)/BRICK;
+		this.min     = new double[nbx*nby*nbz];
+		this.max     = new double[nbx*nby*nbz];
+		Arrays.fill(min, Double.POSITIVE_INFINITY);
+		Arrays.fill(max, Double.NEGATIVE_INFINITY);
+	}
+
+	/**
+	 * @return the complete index for this data and box size or null if there is not one yet.
+	 */
+	static BrickIndex getIndex(ILazyDataset data, int[] boxSize) {
+		synchronized (cache) {
+			for (Iterator<BrickIndex> it = cache.iterator(); it.hasNext();) {
+				final BrickIndex index = it.next();
+				final ILazyDataset cached = index.data.get();
+				if (cached==null) {
+					it.remove();
+					continue;
+				}
+				if (cached==data && Arrays.equals(index.boxSize, boxSize)) return index;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Call when every plane has been added.
+	 */
+	void setComplete() {
+		synchronized (cache) {
+			cache.addFirst(this);
+			while (cache.size()>CACHE_SIZE) cache.removeLast();
+		}
+	}
+
+	/**
+	 * Add the values of a plane of grid points, called as planes are read.
+	 * @param iz - the plane
+	 * @param plane - ny rows of nx values
+	 * @param nx
+	 * @param ny
+	 */
+	void addPlane(int iz, double[] plane, int nx, int ny) {
+
+		// The min and max of the points of each brick column in this plane,
+		// points on the boundary of two bricks are in both.
+		final double[] pmin = new double[nbx*nby];
+		final double[] pmax = new double[nbx*nby];
+		Arrays.fill(pmin, Double.POSITIVE_INFINITY);
+		Arrays.fill(pmax, Double.NEGATIVE_INFINITY);
+		for (int iy = 0; iy < ny; iy++) {
+			final int by0 = Math.max(0, (iy-1)/BRICK), by1 = Math.min(nby-1, iy/BRICK);
+			for (int ix = 0; ix < nx; ix++) {
+				double val = plane[iy*nx+ix];
+				if (Double.isNaN(val)) val = Double.POSITIVE_INFINITY; // NaN is never below the isovalue
+				final int bx0 = Math.max(0, (ix-1)/BRICK), bx1 = Math.min(nbx-1, ix/BRICK);
+				for (int by = by0; by <= by1; by++) {
+					for (int bx = bx0; bx <= bx1; bx++) {
+						final int b = by*nbx+bx;
+						if (val<pmin[b]) pmin[b] = val;
+						if (val>pmax[b]) pmax[b] = val;
+					}
+				}
+			}
+		}
+
+		// The plane is the top of cell layer iz-1 and the bottom of layer iz.
+		final int bz0 = Math.max(0, (iz-1)/BRICK), bz1 = Math.min(nbz-1, iz/BRICK);
+		synchronized (this) {
+			for (int bz = bz0; bz <= bz1; bz++) {
+				final int offset = bz*nbx*nby;
+				for (int b = 0; b < pmin.length; b++) {
+					if (pmin[b]<min[offset+b]) min[offset+b] = pmin[b];
+					if (pmax[b]>max[offset+b]) max[offset+b] = pmax[b];
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param layer - the z layer of cells
+	 * @param isovalue
+	 * @param active - set to which bricks in the layer can have surface
+	 * @return true if any brick in the layer can have surface
+	 */
+	boolean getActive(int layer, double isovalue, boolean[] active) {
+		final int offset = (layer/BRICK)*nbx*nby;
+		boolean any = false;
+		for (int b = 0; b < nbx*nby; b++) {
+			active[b] = min[offset+b]<isovalue && !(max[offset+b]<isovalue);
+			any |= active[b];
+		}
+		return any;
+	}
+
+	int getBricksX() {
+		return nbx;
+	}
+
+	int getBricksY() {
+		return nby;
+	}
+}
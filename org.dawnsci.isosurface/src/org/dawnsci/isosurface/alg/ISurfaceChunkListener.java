@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.isosurface.alg;
+
+/**
+ * Told about each part of an isosurface as soon as it has been meshed, so that
+ * the surface can be shown while the rest of the volume is still being marched.
+ */
+public interface ISurfaceChunkListener {
+
+	/**
+	 * Called from the threads doing the marching, in no particular order.
+	 *
+	 * @param chunk - the mesh of a range of z layers on its own, vertices on the
+	 *                planes it shares with other chunks are in both.
+	 */
+	public void chunkDone(Surface chunk);
+}
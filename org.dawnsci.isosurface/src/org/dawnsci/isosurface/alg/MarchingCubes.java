@@ -29,6 +29,12 @@ import org.eclipse.dawnsci.analysis.dataset.operations.AbstractOperation;
  */
 public class MarchingCubes extends AbstractOperation<MarchingCubesModel, Surface> {
 
+	/**
+	 * Set this system property to use the original, single threaded, point hashing
+	 * version of the algorithm rather than SlabMarchingCubes.
+	 */
+	public static final String LEGACY_PROPERTY = "org.dawnsci.isosurface.legacy.marching.cubes";
+
 	private int index = 0;
 	
 	public MarchingCubes() {
@@ -43,6 +49,19 @@ public class MarchingCubes extends AbstractOperation<MarchingCubesModel, Surface
 	@Override
 	public Surface execute(IDataset slice, IMonitor monitor) throws OperationException {
 		
+		if (!Boolean.getBoolean(LEGACY_PROPERTY)) {
+			final Surface surface;
+			try {
+				surface = new SlabMarchingCubes(model, monitor).execute();
+			} catch (OperationException | UnsupportedOperationException ne) {
+				throw ne;
+			} catch (Exception ne) {
+				throw new OperationException(this, ne.getMessage());
+			}
+			if (surface==null) throw new OperationException(this, "No isosurface found!");
+			return surface;
+		}
+		
 		this.index = 0;
 		
 		final Object[]           data      = parseVertices();
@@ -96,7 +115,7 @@ public class MarchingCubes extends AbstractOperation<MarchingCubesModel, Surface
 	 * 
 	 * The size of the edge table is 256.
 	 */
-	private final static int[] edgeTable = { 0x0, 0x109, 0x203, 0x30a, 0x406, 0x50f,
+	final static int[] edgeTable = { 0x0, 0x109, 0x203, 0x30a, 0x406, 0x50f,
 			0x605, 0x70c, 0x80c, 0x905, 0xa0f, 0xb06, 0xc0a, 0xd03, 0xe09,
 			0xf00, 0x190, 0x99, 0x393, 0x29a, 0x596, 0x49f, 0x795, 0x69c,
 			0x99c, 0x895, 0xb9f, 0xa96, 0xd9a, 0xc93, 0xf99, 0xe90, 0x230,
@@ -137,7 +156,7 @@ public class MarchingCubes extends AbstractOperation<MarchingCubesModel, Surface
 	 * 
 	 * The size of the triangle table is 256 x 16
 	 */
-	private final static int[][] triTable = {
+	final static int[][] triTable = {
 			{ -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
 			{ 0, 8, 3, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
 			{ 0, 1, 9, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
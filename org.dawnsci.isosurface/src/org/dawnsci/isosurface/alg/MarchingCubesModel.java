@@ -27,7 +27,8 @@ public class MarchingCubesModel extends AbstractOperationModel {
 	private int[] boxSize;
 	private double isovalueMin = Integer.MAX_VALUE;
 	private double isovalueMax = Integer.MIN_VALUE;
-	private int    vertexLimit = 1000000;
+	private int    vertexLimit = 5000000; // Vertices are primitive arrays now, see SlabMarchingCubes
+	private ISurfaceChunkListener chunkListener; // Not part of equals, it does not change the surface
 	
 	public ILazyDataset getLazyData() {
 		return lazyData;
@@ -186,5 +187,14 @@ public class MarchingCubesModel extends AbstractOperationModel {
 	public void setVertexLimit(int vertexLimit) {
 		this.vertexLimit = vertexLimit;
 	}
+	public ISurfaceChunkListener getChunkListener() {
+		return chunkListener;
+	}
+	/**
+	 * @param chunkListener - told about each part of the surface as it is made, may be null.
+	 */
+	public void setChunkListener(ISurfaceChunkListener chunkListener) {
+		this.chunkListener = chunkListener;
+	}
 
 }
@@ -0,0 +1,466 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.isosurface.alg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+
+/**
+ * The marching cubes of MarchingCubes without an object per point, cell or triangle.
+ *
+ * The volume is read one z plane at a time into primitive arrays. A vertex is
+ * created once for each cut edge of the grid and found again by the index of the
+ * edge, instead of hashing its coordinates. Vertices which fall on a grid point,
+ * or are rounded onto one, are found by the index of the point.
+ *
+ * The z layers of cells are split into ranges which are meshed in parallel. The
+ * meshes are then joined, vertices on the plane between two ranges being taken
+ * from the lower range.
+ *
+ * The first time a dataset is marched with a box size, a BrickIndex of the
+ * min and max of the values is made. After that only the z planes and bricks
+ * which can have surface at the isovalue are read and marched.
+ *
+ * The cells, the vertex positions (including the rounding to 1/1000 of a voxel)
+ * and the triangles are the same as those of the original algorithm.
+ *
+ * If the model has a chunk listener, the layers are split into more ranges than
+ * there are threads and the mesh of each range is given to the listener as soon
+ * as it is done, so that the surface can be shown as it is made.
+ */
+class SlabMarchingCubes {
+
+	/**
+	 * Smallest number of cell layers to give to one thread.
+	 */
+	private static final int MIN_LAYERS_PER_RANGE = 4;
+
+	/**
+	 * Ranges to make for each thread when there is a chunk listener.
+	 */
+	private static final int CHUNKS_PER_THREAD = 8;
+
+	// Edge i of a cell runs from the grid point (ix+EDGE_DX[i], iy+EDGE_DY[i], iz+EDGE_DZ[i])
+	// along the axis EDGE_AXIS[i] towards higher indices.
+	private static final int X = 0, Y = 1, Z = 2;
+	private static final int[] EDGE_AXIS = {X, Z, X, Z, X, Z, X, Z, Y, Y, Y, Y};
+	private static final int[] EDGE_DX   = {0, 1, 0, 0, 0, 1, 0, 0, 0, 1, 1, 0};
+	private static final int[] EDGE_DY   = {1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0, 0};
+	private static final int[] EDGE_DZ   = {1, 0, 0, 0, 1, 0, 0, 0, 1, 1, 0, 0};
+
+	private final ILazyDataset lazyData;
+	private final int[]        boxSize;
+	private final double       isovalue;
+	private final int          vertexLimit;
+	private final IMonitor     monitor;
+	private final ISurfaceChunkListener listener;
+
+	private final int nx, ny, nz;
+	private final int xLimit, yLimit;
+
+	private final AtomicInteger totalVertices = new AtomicInteger();
+
+	// One of these is null, the index to use or the one being made.
+	private BrickIndex bricks;
+	private BrickIndex building;
+
+	SlabMarchingCubes(MarchingCubesModel model, IMonitor monitor) {
+
+		this.lazyData    = model.getLazyData();
+		this.boxSize     = model.getBoxSize();
+		this.isovalue    = model.getIsovalue();
+		this.vertexLimit = model.getVertexLimit();
+		this.monitor     = monitor;
+		this.listener    = model.getChunkListener();
+
+		final int[] shape = lazyData.getShape();
+		this.xLimit = shape[2] - shape[2] % boxSize[0];
+		this.yLimit = shape[1] - shape[1] % boxSize[1];
+		this.nx     = xLimit/boxSize[0];
+		this.ny     = yLimit/boxSize[1];
+		this.nz     = (shape[0] - shape[0] % boxSize[2])/boxSize[2];
+	}
+
+	/**
+	 * @return the surface or null if there is no surface at this isovalue.
+	 */
+	Surface execute() throws Exception {
+
+		// The original algorithm marched the cells with lower z plane below nz-2
+		final int layers = nz-2;
+		if (layers<1 || nx<2 || ny<2) return null;
+
+		this.bricks   = BrickIndex.getIndex(lazyData, boxSize);
+		this.building = bricks==null ? new BrickIndex(lazyData, boxSize, nx, ny, layers) : null;
+
+		final int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), layers/MIN_LAYERS_PER_RANGE));
+		final int ranges  = listener!=null ? Math.max(threads, Math.min(layers/MIN_LAYERS_PER_RANGE, threads*CHUNKS_PER_THREAD)) : threads;
+		final List<Slab> slabs = new ArrayList<Slab>(ranges);
+		for (int i = 0; i < ranges; i++) {
+			slabs.add(new Slab(i*layers/ranges, (i+1)*layers/ranges));
+		}
+
+		if (threads==1) {
+			for (Slab slab : slabs) slab.call();
+		} else {
+			final ExecutorService pool = Executors.newFixedThreadPool(threads);
+			try {
+				final List<Future<Slab>> futures = pool.invokeAll(slabs);
+				for (Future<Slab> future : futures) {
+					try {
+						future.get();
+					} catch (ExecutionException ne) {
+						if (ne.getCause() instanceof Exception) throw (Exception)ne.getCause();
+						throw ne;
+					}
+				}
+			} finally {
+				pool.shutdownNow();
+			}
+		}
+		if (building!=null) building.setComplete();
+		return join(slabs);
+	}
+
+	/**
+	 * Joins the meshes of the slabs, in order of z.
+	 */
+	private Surface join(List<Slab> slabs) {
+
+		int vertices = 0, triangles = 0;
+		for (Slab slab : slabs) {
+			vertices  += slab.vertexCount;
+			triangles += slab.triangleCount;
+		}
+
+		final float[] points = new float[3*vertices];
+		final int[]   faces  = new int[6*triangles];
+		int v = 0, f = 0;
+
+		int[] previous = null;
+		Slab  below    = null;
+		for (Slab slab : slabs) {
+
+			final int[] global = new int[slab.vertexCount];
+			Arrays.fill(global, -1);
+
+			// Vertices on the plane shared with the slab below are that slab's.
+			if (below!=null) {
+				shared(slab.bottomNodes, below.topNodes, previous, global);
+				shared(slab.bottomX,     below.topX,     previous, global);
+				shared(slab.bottomY,     below.topY,     previous, global);
+			}
+
+			for (int i = 0; i < slab.vertexCount; i++) {
+				if (global[i]>=0) continue;
+				global[i] = v;
+				System.arraycopy(slab.points, 3*i, points, 3*v, 3);
+				++v;
+			}
+
+			f = addFaces(slab, global, faces, f);
+
+			previous = global;
+			below    = slab;
+		}
+
+		if (v<1) return null;
+		return new Surface(v<vertices ? Arrays.copyOf(points, 3*v) : points, createTexCoords(), faces);
+	}
+
+	/**
+	 * @param global - index of each vertex of the slab in the surface, or null if they are the same
+	 * @return the index in faces after the slab's triangles
+	 */
+	private static int addFaces(Slab slab, int[] global, int[] faces, int f) {
+		for (int t = 0; t < slab.triangleCount; t++) {
+			final int a = slab.triangles[3*t], b = slab.triangles[3*t+1], c = slab.triangles[3*t+2];
+			// Same order as MarchingCubes, c b a with texture indices 0 1 2
+			faces[f]   = global!=null ? global[c] : c;
+			faces[f+1] = 0;
+			faces[f+2] = global!=null ? global[b] : b;
+			faces[f+3] = 1;
+			faces[f+4] = global!=null ? global[a] : a;
+			faces[f+5] = 2;
+			f += 6;
+		}
+		return f;
+	}
+
+	private static float[] createTexCoords() {
+		return new float[] { 0, 0, (float) 0.5, (float) 0.5, 1, 1 };
+	}
+
+	private static void shared(int[] upper, int[] lower, int[] lowerGlobal, int[] global) {
+		for (int i = 0; i < upper.length; i++) {
+			if (upper[i]>=0 && lower[i]>=0) global[upper[i]] = lowerGlobal[lower[i]];
+		}
+	}
+
+	private double[] readPlane(int iz) {
+		final int z = iz*boxSize[2];
+		IDataset plane = lazyData.getSlice(new int[] {z, 0, 0}, new int[] {z+1, yLimit, xLimit}, new int[] {1, boxSize[1], boxSize[0]});
+		final Dataset data = DatasetUtils.cast(DatasetUtils.convertToDataset(plane), Dataset.FLOAT64);
+		double[] buffer = (double[])data.getBuffer();
+		if (buffer.length!=nx*ny) buffer = (double[])data.clone().getBuffer();
+		if (building!=null) building.addPlane(iz, buffer, nx, ny);
+		return buffer;
+	}
+
+	/**
+	 * The cells with lower z plane from start (inclusive) to end (exclusive)
+	 */
+	private class Slab implements Callable<Slab> {
+
+		final int start, end;
+
+		// The mesh, vertex indices are local to this slab.
+		float[] points    = new float[3*1024];
+		int     vertexCount;
+		int[]   triangles = new int[3*1024];
+		int     triangleCount;
+
+		// Vertex index of each grid point and x and y edge of the bottom and top planes, or -1
+		int[] bottomNodes, bottomX, bottomY;
+		int[] topNodes, topX, topY;
+
+		// Data and vertex indices of the planes of the layer being marched.
+		private double[] lo, hi;
+		private int      izLo;
+		private int[]    nodesLo, xLo, yLo;
+		private int[]    nodesHi, xHi, yHi;
+		private int[]    zEdges;
+
+		private final int[] cellVertices = new int[12];
+
+		// The bricks of the layer which can have surface, all true when there is no index.
+		private boolean[] active;
+
+		Slab(int start, int end) {
+			this.start = start;
+			this.end   = end;
+		}
+
+		@Override
+		public Slab call() throws Exception {
+
+			final int size = nx*ny;
+			bottomNodes = newIndex(size);
+			bottomX     = newIndex(size);
+			bottomY     = newIndex(size);
+			zEdges      = new int[size];
+
+			final int nbx = bricks!=null ? bricks.getBricksX() : (nx-1+BrickIndex.BRICK-1)/BrickIndex.BRICK;
+			final int nby = bricks!=null ? bricks.getBricksY() : (ny-1+BrickIndex.BRICK-1)/BrickIndex.BRICK;
+			active = new boolean[nbx*nby];
+			Arrays.fill(active, true);
+
+			// The top plane of the last layer marched, its data is read again if layers are skipped.
+			int izHi = start;
+			nodesHi  = bottomNodes;
+			xHi      = bottomX;
+			yHi      = bottomY;
+
+			for (int iz = start; iz < end; iz++) {
+
+				if (monitor!=null && monitor.isCancelled()) throw new InterruptedException("Isosurface cancelled");
+				if (bricks!=null && !bricks.getActive(iz, isovalue, active)) continue; // No surface, do not read
+
+				if (izHi!=iz) {
+					hi      = null;
+					nodesHi = newIndex(size);
+					xHi     = newIndex(size);
+					yHi     = newIndex(size);
+				}
+				if (hi==null) hi = readPlane(iz);
+
+				lo      = hi;
+				nodesLo = nodesHi;
+				xLo     = xHi;
+				yLo     = yHi;
+				izLo    = iz;
+
+				hi      = readPlane(iz+1);
+				nodesHi = newIndex(size);
+				xHi     = newIndex(size);
+				yHi     = newIndex(size);
+				izHi    = iz+1;
+				Arrays.fill(zEdges, -1);
+
+				march(nbx);
+			}
+
+			final boolean topMarched = izHi==end;
+			topNodes = topMarched ? nodesHi : newIndex(size);
+			topX     = topMarched ? xHi     : newIndex(size);
+			topY     = topMarched ? yHi     : newIndex(size);
+			lo = hi = null;
+
+			if (listener!=null && triangleCount>0) {
+				final int[] faces = new int[6*triangleCount];
+				addFaces(this, null, faces, 0);
+				listener.chunkDone(new Surface(Arrays.copyOf(points, 3*vertexCount), createTexCoords(), faces));
+			}
+			return this;
+		}
+
+		private void march(int nbx) {
+
+			for (int iy = 0; iy < ny-1; iy++) {
+				final int brickRow = (iy/BrickIndex.BRICK)*nbx;
+				for (int ix = 0; ix < nx-1; ix++) {
+
+					if (!active[brickRow + ix/BrickIndex.BRICK]) {
+						ix += BrickIndex.BRICK-1-ix%BrickIndex.BRICK; // Skip to the next brick
+						continue;
+					}
+
+					final int i0 = iy*nx+ix;
+					final int i1 = i0+nx;
+
+					// Same corner numbering as MarchingCubes.parseVertices()
+					int cubeIndex = 0;
+					if (hi[i1]   < isovalue) cubeIndex |= 1;
+					if (hi[i1+1] < isovalue) cubeIndex |= 2;
+					if (lo[i1+1] < isovalue) cubeIndex |= 4;
+					if (lo[i1]   < isovalue) cubeIndex |= 8;
+					if (hi[i0]   < isovalue) cubeIndex |= 16;
+					if (hi[i0+1] < isovalue) cubeIndex |= 32;
+					if (lo[i0+1] < isovalue) cubeIndex |= 64;
+					if (lo[i0]   < isovalue) cubeIndex |= 128;
+					if (cubeIndex==0 || cubeIndex==255) continue;
+
+					final int edges = MarchingCubes.edgeTable[cubeIndex];
+					for (int e = 0; e < 12; e++) {
+						if ((edges & (1<<e)) != 0) cellVertices[e] = getEdgeVertex(e, ix, iy);
+					}
+
+					final int[] tris = MarchingCubes.triTable[cubeIndex];
+					for (int t = 0; tris[t] != -1; t += 3) {
+						final int a = cellVertices[tris[t]];
+						final int b = cellVertices[tris[t+1]];
+						final int c = cellVertices[tris[t+2]];
+						if (a==b || b==c || a==c) continue; // No area
+						addTriangle(a, b, c);
+					}
+				}
+			}
+		}
+
+		private int getEdgeVertex(int e, int ix, int iy) {
+
+			final int axis = EDGE_AXIS[e];
+			final int gx   = ix+EDGE_DX[e];
+			final int gy   = iy+EDGE_DY[e];
+			final boolean upper = EDGE_DZ[e]==1;
+			final int slot = gy*nx+gx;
+
+			final int[] cache;
+			switch (axis) {
+			case X:  cache = upper ? xHi : xLo; break;
+			case Y:  cache = upper ? yHi : yLo; break;
+			default: cache = zEdges;            break;
+			}
+			if (cache[slot]>=0) return cache[slot];
+
+			// The edge runs from grid point A to grid point B
+			final double[] planeA = upper ? hi : lo;
+			final int[]    nodesA = upper ? nodesHi : nodesLo;
+			final double   va     = planeA[slot];
+			final double[] planeB;
+			final int[]    nodesB;
+			final int      slotB;
+			switch (axis) {
+			case X:  planeB = planeA; nodesB = nodesA;  slotB = slot+1;  break;
+			case Y:  planeB = planeA; nodesB = nodesA;  slotB = slot+nx; break;
+			default: planeB = hi;     nodesB = nodesHi; slotB = slot;    break;
+			}
+			final double vb = planeB[slotB];
+			final int    gz = izLo + (upper ? 1 : 0);
+
+			// Same tests as MarchingCubes.vertexInterpolation(...)
+			final int vertex;
+			if (Math.abs(isovalue - va) < 0.00001) {
+				vertex = getNodeVertex(nodesA, slot, gx, gy, gz);
+			} else if (Math.abs(isovalue - vb) < 0.00001) {
+				vertex = getNodeVertex(nodesB, slotB, gx+(axis==X?1:0), gy+(axis==Y?1:0), gz+(axis==Z?1:0));
+			} else if (Math.abs(vb - va) < 0.00001) {
+				vertex = getNodeVertex(nodesA, slot, gx, gy, gz);
+			} else {
+				final double mu = (isovalue - va) / (vb - va);
+				final int    box = boxSize[axis];
+				final double a   = (axis==X ? gx : axis==Y ? gy : gz) * box;
+				final double pos = round(a + mu * box);
+				if (pos==a) {
+					// Rounded onto a grid point, the original found that point by its coordinates.
+					vertex = getNodeVertex(nodesA, slot, gx, gy, gz);
+				} else if (pos==a+box) {
+					vertex = getNodeVertex(nodesB, slotB, gx+(axis==X?1:0), gy+(axis==Y?1:0), gz+(axis==Z?1:0));
+				} else {
+					vertex = addVertex(axis==X ? pos : gx*boxSize[0],
+							           axis==Y ? pos : gy*boxSize[1],
+							           axis==Z ? pos : gz*boxSize[2]);
+				}
+			}
+			cache[slot] = vertex;
+			return vertex;
+		}
+
+		private int getNodeVertex(int[] nodes, int slot, int gx, int gy, int gz) {
+			if (nodes[slot]<0) nodes[slot] = addVertex(gx*boxSize[0], gy*boxSize[1], gz*boxSize[2]);
+			return nodes[slot];
+		}
+
+		private int addVertex(double x, double y, double z) {
+
+			if (totalVertices.incrementAndGet()>=vertexLimit) {
+				throw new UnsupportedOperationException("The number of verices has exceeded "+vertexLimit+". The surface cannot be rendered.");
+			}
+			if (3*vertexCount+3>points.length) points = Arrays.copyOf(points, 2*points.length);
+			points[3*vertexCount]   = (float)x;
+			points[3*vertexCount+1] = (float)y;
+			points[3*vertexCount+2] = (float)z;
+			return vertexCount++;
+		}
+
+		private void addTriangle(int a, int b, int c) {
+			if (3*triangleCount+3>triangles.length) triangles = Arrays.copyOf(triangles, 2*triangles.length);
+			triangles[3*triangleCount]   = a;
+			triangles[3*triangleCount+1] = b;
+			triangles[3*triangleCount+2] = c;
+			++triangleCount;
+		}
+	}
+
+	/**
+	 * Rounding of MarchingCubes.vertexInterpolation(...)
+	 */
+	private static double round(double val) {
+		return (long) (val * 1000 + 0.5) / 1000.0;
+	}
+
+	private static int[] newIndex(int size) {
+		final int[] index = new int[size];
+		Arrays.fill(index, -1);
+		return index;
+	}
+}
@@ -8,9 +8,13 @@
  */
 package org.dawnsci.isosurface.tool;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.dawb.common.ui.monitor.ProgressMonitorWrapper;
+import org.dawnsci.isosurface.alg.ISurfaceChunkListener;
 import org.dawnsci.isosurface.alg.MarchingCubesModel;
 import org.dawnsci.isosurface.alg.Surface;
+import org.dawnsci.plotting.javafx.trace.FXIsosurfaceTrace;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
@@ -96,13 +100,34 @@ public class IsosurfaceJob extends Job {
 			if (monitor.isCanceled()) return Status.CANCEL_STATUS;
 			
 			try {
-				Surface surface    = generator.execute(null, new ProgressMonitorWrapper(monitor));
+				// Show the surface in parts as they are made if the trace can
+				final FXIsosurfaceTrace progressive = getProgressiveTrace(system);
+				final int generation = progressive!=null ? progressive.beginParts() : 0;
+				final AtomicInteger chunks = new AtomicInteger();
+				if (progressive!=null) generator.getModel().setChunkListener(new ISurfaceChunkListener() {
+					@Override
+					public void chunkDone(Surface chunk) {
+						chunks.incrementAndGet();
+						progressive.addPart(generation, chunk.getPoints(), chunk.getTexCoords(), chunk.getFaces());
+					}
+				});
+
+				Surface surface;
+				try {
+					surface = generator.execute(null, new ProgressMonitorWrapper(monitor));
+				} finally {
+					generator.getModel().setChunkListener(null);
+				}
 				
 				IDataset points     = new FloatDataset(surface.getPoints(), surface.getPoints().length);
 				IDataset textCoords = new FloatDataset(surface.getTexCoords(), surface.getTexCoords().length);
 				IDataset faces      = new IntegerDataset(surface.getFaces(), surface.getFaces().length);
 				
-				if (trace == null) {
+				if (progressive != null) {
+					// The legacy algorithm does not give parts
+					if (chunks.get()==0) progressive.addPart(generation, surface.getPoints(), surface.getTexCoords(), surface.getFaces());
+					progressive.endParts(generation, points, textCoords, faces);
+				} else if (trace == null) {
 					trace = system.createIsosurfaceTrace("isosurface");
 					trace.setData(points, textCoords, faces, null);
 				    Display.getDefault().syncExec(new Runnable() {
@@ -137,6 +162,26 @@ public class IsosurfaceJob extends Job {
 		}
 	}
 
+	/**
+	 * Makes and adds the trace, without a surface, the first time.
+	 * @return the trace if it can show a surface in parts, otherwise null.
+	 */
+	private FXIsosurfaceTrace getProgressiveTrace(final IPlottingSystem system) {
+		if (trace == null) {
+			final IIsosurfaceTrace created = system.createIsosurfaceTrace("isosurface");
+			// Other traces are made again with the first surface, they need it before they are added.
+			if (!(created instanceof FXIsosurfaceTrace)) return null;
+			trace = created;
+			trace.setData(null, null, null, null);
+		    Display.getDefault().syncExec(new Runnable() {
+		    	public void run() {
+					system.addTrace(trace); // doing this is not thread safe!
+		    	}
+		    });
+		}
+		return trace instanceof FXIsosurfaceTrace ? (FXIsosurfaceTrace)trace : null;
+	}
+
 	private void showErrorMessage(final String title, final String message) {
 		Display.getDefault().syncExec(new Runnable(){
 			@Override
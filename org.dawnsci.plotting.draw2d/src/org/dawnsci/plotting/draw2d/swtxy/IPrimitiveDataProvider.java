@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.draw2d.swtxy;
+
+import org.eclipse.nebula.visualization.xygraph.dataprovider.IDataProvider;
+
+/**
+ * A data provider which can give its values without creating an ISample
+ * for each point. Used by LineTrace to decimate large traces quickly.
+ */
+public interface IPrimitiveDataProvider extends IDataProvider {
+
+	/**
+	 * @param index
+	 * @return the x value of the point at index
+	 */
+	public double getXValue(int index);
+
+	/**
+	 * @param index
+	 * @return the y value of the point at index
+	 */
+	public double getYValue(int index);
+}
@@ -15,7 +15,6 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
-import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.plotting.api.trace.IImageStackTrace;
@@ -30,18 +29,35 @@ public class ImageStackTrace extends ImageTrace implements IImageStackTrace {
 	private int          index=0;
 	private ILazyDataset stack;
     private StackJob     stackJob;
+    private StackFrameCache frameCache;
     
 	public ImageStackTrace(String       name, 
 			               Axis         xAxis, 
 			               Axis         yAxis,
 			               ColorMapRamp intensityScale) {
 		super(name, xAxis, yAxis, intensityScale);
-		this.stackJob = new StackJob();
+		this.stackJob   = new StackJob();
+		this.frameCache = new StackFrameCache();
 	}
 
 	@Override
 	public void setStack(ILazyDataset stack) {
 		this.stack = stack;
+		frameCache.setStack(stack);
+	}
+
+	/**
+	 * @return the number of frames which were in the frame cache or being read ahead when asked for.
+	 */
+	public long getFrameCacheHits() {
+		return frameCache.getHitCount();
+	}
+
+	/**
+	 * @return the number of frames which had to be read when asked for.
+	 */
+	public long getFrameCacheMisses() {
+		return frameCache.getMissCount();
 	}
 
 	@Override
@@ -61,12 +77,11 @@ public class ImageStackTrace extends ImageTrace implements IImageStackTrace {
 		if (isActive()) {
 		    stackJob.scheduleSlice(index);
 		} else {
-			IDataset set = stack.getSlice(new int[]{index,0,0}, 
-										  new int[]{index+1,stack.getShape()[1], stack.getShape()[2]},
-										  new int[]{1,1,1});
-			set = (IDataset)set.squeeze();
-			setData((Dataset)set, getAxes(), false);
-			
+			try {
+				setData(frameCache.getFrame(index), getAxes(), false);
+			} catch (Exception ne) {
+				throw new RuntimeException("Cannot read stack frame "+index, ne);
+			}
 		}
 	}
 	
@@ -81,21 +96,25 @@ public class ImageStackTrace extends ImageTrace implements IImageStackTrace {
 			setSystem(true);
 		}
 
-		public void scheduleSlice(int index) {
+		public synchronized void scheduleSlice(int index) {
 			cancel();
 			this.index = index;
 			schedule();
 		}
 
+		private synchronized int getIndex() {
+			return index;
+		}
+
 		@Override
 		protected IStatus run(IProgressMonitor monitor) {
 			
 			try {
-				IDataset set = stack.getSlice(new int[]{index,0,0}, 
-											  new int[]{index+1,stack.getShape()[1], stack.getShape()[2]},
-											  new int[]{1,1,1});
-				set = (IDataset)set.squeeze();
-				final Dataset absData = (Dataset)set;
+				final int     index   = getIndex();
+				final Dataset absData = frameCache.getFrame(index);
+				
+				// The slider has moved on while we read, do not show this one.
+				if (monitor.isCanceled() || index!=getIndex()) return Status.CANCEL_STATUS;
 				
 				Display.getDefault().syncExec(new Runnable() {
 					public void run() {
@@ -138,6 +157,7 @@ public class ImageStackTrace extends ImageTrace implements IImageStackTrace {
 	
 	public void remove() {
         super.remove();
+        frameCache.clear();
         if (listeners!=null) listeners.clear();
         listeners = null;
 	}
@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.draw2d.swtxy;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.plotting.api.histogram.IImageService;
+import org.eclipse.dawnsci.plotting.api.histogram.ImageServiceBean;
+import org.eclipse.dawnsci.plotting.api.histogram.ImageServiceBean.ImageOrigin;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Colour mapped tiles of a large image, keyed by (level, tileX, tileY).
+ *
+ * The level is the downsample bin of ImageTrace. Tiles are in the coordinates
+ * of the drawn image, i.e. after the image origin has been applied, so that
+ * ImageTrace can copy rows of pixels out of them as it did from a full ImageData.
+ *
+ * Only the tiles which the visible window intersects are colour mapped. Tiles
+ * around the window are mapped by a background job so that they are ready when
+ * they are panned into view. The tiles are kept in least recently used order
+ * and the oldest are dropped when the memory budget is exceeded.
+ *
+ * Only 8-bit images are tiled.
+ */
+class ImageTilePyramid {
+
+	private static final Logger logger = LoggerFactory.getLogger(ImageTilePyramid.class);
+
+	/**
+	 * Side of a tile in pixels.
+	 */
+	static final int TILE_SIZE = 256;
+
+	/**
+	 * Images (after downsampling) with more pixels than this are tiled.
+	 */
+	private static final int TILE_THRESHOLD = 2048*2048;
+
+	/**
+	 * Memory budget in megabytes, set with this property, default 64.
+	 */
+	private static final String BUDGET_PROPERTY = "org.dawnsci.plotting.draw2d.image.tile.budget";
+
+	private final long budget;
+	private final LinkedHashMap<TileKey, ImageData> tiles;
+	private long bytes;
+
+	// The image currently being tiled
+	private IImageService    service;
+	private ImageServiceBean bean;
+	private Dataset          image;
+	private Dataset          mask;
+	private int              level;
+	private int              width, height;
+	private PaletteData      palette;
+
+	/**
+	 * Incremented when the tiles are cleared so that background
+	 * work for old settings can be thrown away.
+	 */
+	private int              generation;
+
+	private final PrefetchJob prefetchJob;
+
+	ImageTilePyramid() {
+		this.budget      = Long.getLong(BUDGET_PROPERTY, 64) * 1024 * 1024;
+		this.tiles       = new LinkedHashMap<TileKey, ImageData>(64, 0.75f, true); // Access order = LRU
+		this.prefetchJob = new PrefetchJob();
+	}
+
+	/**
+	 *
+	 * @param image - the downsampled image
+	 * @param bean
+	 * @return true if the image should be drawn using tiles
+	 */
+	static boolean isTileable(IDataset image, ImageServiceBean bean) {
+		if (!(image instanceof Dataset)) return false;
+		final Dataset set = (Dataset)image;
+		if (set.getRank()!=2 || set.getElementsPerItem()!=1 || set.isComplex()) return false;
+		if (bean.getFunctionObject()!=null) return false; // Not 8-bit
+		return set.getSize() > TILE_THRESHOLD;
+	}
+
+	/**
+	 * Set the downsampled image to draw tiles from. The histogram settings of the
+	 * bean are copied, the min and max must already have been set.
+	 *
+	 * @param service
+	 * @param bean
+	 * @param image
+	 * @param mask - may be null
+	 * @param level - downsample bin
+	 */
+	synchronized void setImage(IImageService service, ImageServiceBean bean, IDataset image, IDataset mask, int level) {
+		this.service = service;
+		this.bean    = bean.clone();
+		this.image   = (Dataset)image;
+		this.mask    = (Dataset)mask;
+		this.level   = level;
+
+		final int[] shape = this.image.getShape();
+		final ImageOrigin origin = getOrigin();
+		if (origin==ImageOrigin.TOP_LEFT || origin==ImageOrigin.BOTTOM_RIGHT) {
+			width  = shape[1];
+			height = shape[0];
+		} else {
+			width  = shape[0];
+			height = shape[1];
+		}
+	}
+
+	/**
+	 * Throws away all tiles, call when the histogram, palette, mask or data change.
+	 */
+	synchronized void clear() {
+		tiles.clear();
+		bytes   = 0;
+		palette = null;
+		++generation;
+		prefetchJob.cancel();
+	}
+
+	/**
+	 * Width of the drawn image at the current level.
+	 */
+	synchronized int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Height of the drawn image at the current level.
+	 */
+	synchronized int getHeight() {
+		return height;
+	}
+
+	/**
+	 * The palette of the tiles, including the cut bound colours.
+	 */
+	synchronized PaletteData getPalette() {
+		return palette;
+	}
+
+	/**
+	 * Copy a window of the image at the current level into pixels, creating any
+	 * missing tiles. Then schedules the tiles around the window to be created.
+	 *
+	 * @param x
+	 * @param y
+	 * @param w
+	 * @param h
+	 * @param pixels - w*h bytes
+	 * @return false if a tile could not be created.
+	 */
+	boolean getPixels(int x, int y, int w, int h, byte[] pixels) {
+
+		final int tx0 = x/TILE_SIZE, tx1 = (x+w-1)/TILE_SIZE;
+		final int ty0 = y/TILE_SIZE, ty1 = (y+h-1)/TILE_SIZE;
+
+		for (int ty = ty0; ty <= ty1; ty++) {
+			for (int tx = tx0; tx <= tx1; tx++) {
+
+				final ImageData tile = getTile(tx, ty);
+				if (tile==null) return false;
+
+				// Intersection of window and tile in image coordinates
+				final int ox = tx*TILE_SIZE, oy = ty*TILE_SIZE;
+				final int ix0 = Math.max(x, ox), ix1 = Math.min(x+w, ox+tile.width);
+				final int iy0 = Math.max(y, oy), iy1 = Math.min(y+h, oy+tile.height);
+				final int len = ix1-ix0;
+				if (len<1) continue;
+
+				for (int iy = iy0; iy < iy1; iy++) {
+					System.arraycopy(tile.data, (iy-oy)*tile.bytesPerLine+(ix0-ox), pixels, (iy-y)*w+(ix0-x), len);
+				}
+			}
+		}
+
+		prefetch(tx0-1, ty0-1, tx1+1, ty1+1);
+		return true;
+	}
+
+	private ImageData getTile(int tx, int ty) {
+
+		final TileKey key;
+		final int     gen;
+		synchronized (this) {
+			key = new TileKey(level, tx, ty);
+			final ImageData tile = tiles.get(key);
+			if (tile!=null) return tile;
+			gen = generation;
+		}
+		return createTile(key, gen);
+	}
+
+	/**
+	 * Colour maps one tile, may be called from the background job.
+	 */
+	private ImageData createTile(TileKey key, int gen) {
+
+		final IImageService    service;
+		final ImageServiceBean tileBean;
+		final Dataset          image, mask;
+		final int              w, h;
+		synchronized (this) {
+			if (gen!=generation || key.level!=level || this.image==null) return null;
+			service  = this.service;
+			tileBean = bean.clone(); // Same histogram settings, so the tiles share a palette lookup table
+			image    = this.image;
+			mask     = this.mask;
+			w        = width;
+			h        = height;
+		}
+
+		final int x0 = key.x*TILE_SIZE, x1 = Math.min(w, x0+TILE_SIZE);
+		final int y0 = key.y*TILE_SIZE, y1 = Math.min(h, y0+TILE_SIZE);
+		if (x0>=x1 || y0>=y1) return null;
+
+		// The part of the data which appears in the tile once the origin is applied.
+		final int[] shape = image.getShape();
+		final int[] start, stop;
+		final ImageOrigin origin = tileBean.getOrigin()!=null ? tileBean.getOrigin() : ImageOrigin.TOP_LEFT;
+		switch (origin) {
+		case BOTTOM_LEFT:
+			start = new int[]{x0, shape[1]-y1};
+			stop  = new int[]{x1, shape[1]-y0};
+			break;
+		case BOTTOM_RIGHT:
+			start = new int[]{shape[0]-y1, shape[1]-x1};
+			stop  = new int[]{shape[0]-y0, shape[1]-x0};
+			break;
+		case TOP_RIGHT:
+			start = new int[]{shape[0]-x1, y0};
+			stop  = new int[]{shape[0]-x0, y1};
+			break;
+		case TOP_LEFT:
+		default:
+			start = new int[]{y0, x0};
+			stop  = new int[]{y1, x1};
+			break;
+		}
+
+		tileBean.setImage(image.getSlice(start, stop, null));
+		tileBean.setImageValue(null); // Otherwise the clone keeps the logged full image
+		tileBean.setMask(mask!=null ? mask.getSlice(start, stop, null) : null);
+		tileBean.setMonitor(null);
+
+		final ImageData tile;
+		try {
+			tile = service.getImageData(tileBean);
+		} catch (Exception ne) {
+			logger.error("Cannot create image tile "+key, ne);
+			return null;
+		}
+		if (tile==null) return null;
+
+		synchronized (this) {
+			if (gen!=generation) return tile; // Settings changed while we worked, do not keep it.
+			final ImageData previous = tiles.put(key, tile);
+			if (previous!=null) bytes -= previous.data.length;
+			bytes  += tile.data.length;
+			palette = tile.palette;
+			evict();
+		}
+		return tile;
+	}
+
+	/**
+	 * Drop least recently used tiles until within budget.
+	 */
+	private void evict() {
+		for (Iterator<ImageData> it = tiles.values().iterator(); bytes>budget && it.hasNext();) {
+			bytes -= it.next().data.length;
+			it.remove();
+		}
+	}
+
+	private synchronized void prefetch(int tx0, int ty0, int tx1, int ty1) {
+
+		final int ntx = (width+TILE_SIZE-1)/TILE_SIZE;
+		final int nty = (height+TILE_SIZE-1)/TILE_SIZE;
+
+		final List<TileKey> missing = new ArrayList<TileKey>();
+		for (int ty = Math.max(0, ty0); ty <= Math.min(nty-1, ty1); ty++) {
+			for (int tx = Math.max(0, tx0); tx <= Math.min(ntx-1, tx1); tx++) {
+				final TileKey key = new TileKey(level, tx, ty);
+				if (!tiles.containsKey(key)) missing.add(key);
+			}
+		}
+		if (!missing.isEmpty()) prefetchJob.scheduleTiles(missing, generation);
+	}
+
+	/**
+	 * Creates the tiles around the visible ones.
+	 */
+	private class PrefetchJob extends Job {
+
+		private List<TileKey> keys;
+		private int           gen;
+
+		PrefetchJob() {
+			super("Image tiles");
+			setPriority(Job.DECORATE);
+			setUser(false);
+			setSystem(true);
+		}
+
+		synchronized void scheduleTiles(List<TileKey> keys, int gen) {
+			cancel();
+			this.keys = keys;
+			this.gen  = gen;
+			schedule();
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+
+			final List<TileKey> todo;
+			final int           g;
+			synchronized (this) {
+				todo = keys;
+				g    = gen;
+			}
+			for (TileKey key : todo) {
+				if (monitor.isCanceled()) return Status.CANCEL_STATUS;
+				synchronized (ImageTilePyramid.this) {
+					if (tiles.containsKey(key)) continue;
+				}
+				createTile(key, g);
+			}
+			return Status.OK_STATUS;
+		}
+	}
+
+	private ImageOrigin getOrigin() {
+		final ImageOrigin origin = bean.getOrigin();
+		return origin!=null ? origin : ImageOrigin.TOP_LEFT;
+	}
+
+	private static final class TileKey {
+
+		final int level, x, y;
+
+		TileKey(int level, int x, int y) {
+			this.level = level;
+			this.x     = x;
+			this.y     = y;
+		}
+
+		@Override
+		public int hashCode() {
+			return (level*31 + x)*31 + y;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof TileKey)) return false;
+			final TileKey other = (TileKey)obj;
+			return level==other.level && x==other.x && y==other.y;
+		}
+
+		@Override
+		public String toString() {
+			return "["+level+", "+x+", "+y+"]";
+		}
+	}
+}
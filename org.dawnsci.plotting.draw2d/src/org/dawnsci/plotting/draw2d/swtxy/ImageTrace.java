@@ -244,6 +244,11 @@ public class ImageTrace extends Figure implements IImageTrace, IAxisListener, IT
 	}
 	private Image            scaledImage;
 	private ImageData        imageData;
+	/**
+	 * Large images are colour mapped in tiles, only those in view, instead of to imageData.
+	 */
+	private ImageTilePyramid tiles;
+	private boolean          tiled;
 	private boolean          imageCreationAllowed = true;
 	/**
 	 * When this is called the SWT image is created
@@ -269,7 +274,7 @@ public class ImageTrace extends Figure implements IImageTrace, IAxisListener, IT
 			
 		if (!imageCreationAllowed) return false;
 
-		boolean requireImageGeneration = imageData==null || 
+		boolean requireImageGeneration = (imageData==null && !tiled) || 
 				                         rescaleType==ImageScaleType.FORCE_REIMAGE || 
 				                         rescaleType==ImageScaleType.REHISTOGRAM; // We know that it is needed
 		
@@ -317,7 +322,22 @@ public class ImageTrace extends Figure implements IImageTrace, IAxisListener, IT
 
 				}
 								
-				this.imageData   = service.getImageData(imageServiceBean);
+				tiled = ImageTilePyramid.isTileable(reducedFullImage, imageServiceBean);
+				if (tiled) {
+					// The tiles must all be coloured with the same histogram.
+					if (imageServiceBean.getMin()==null || imageServiceBean.getMax()==null) {
+						double[] fa = service.getFastStatistics(imageServiceBean);
+						if (imageServiceBean.getMin()==null) imageServiceBean.setMin(fa[0]);
+						if (imageServiceBean.getMax()==null) imageServiceBean.setMax(fa[1]);
+					}
+					if (tiles==null) tiles = new ImageTilePyramid();
+					// Zooming only changes the level, anything else changes the colours.
+					if (rescaleType!=ImageScaleType.REIMAGE_ALLOWED) tiles.clear();
+					tiles.setImage(service, imageServiceBean, reducedFullImage, imageServiceBean.getMask(), currentDownSampleBin);
+					this.imageData = null;
+				} else {
+					this.imageData   = service.getImageData(imageServiceBean);
+				}
 				
 				try {
 					ImageServiceBean intensityScaleBean = imageServiceBean.clone();
@@ -348,7 +368,7 @@ public class ImageTrace extends Figure implements IImageTrace, IAxisListener, IT
 		}
 		
 		if (monitor!=null && monitor.isCanceled()) return false;
-		if (imageData == null)
+		if (imageData == null && !tiled)
 			return false;
 
 		try {
@@ -379,8 +399,8 @@ public class ImageTrace extends Figure implements IImageTrace, IAxisListener, IT
 				double minY = yRange.getLower()/currentDownSampleBin;
 				double maxX = xRange.getUpper()/currentDownSampleBin;
 				double maxY = yRange.getUpper()/currentDownSampleBin;
-				int xSize = imageData.width;
-				int ySize = imageData.height;
+				int xSize = tiled ? tiles.getWidth()  : imageData.width;
+				int ySize = tiled ? tiles.getHeight() : imageData.height;
 				
 				// check as getLower and getUpper don't work as expected
 				if(maxX < minX){
@@ -413,11 +433,11 @@ public class ImageTrace extends Figure implements IImageTrace, IAxisListener, IT
 				
 				// Force a minimum size on the system
 				if (fullWidth <= MINIMUM_ZOOM_SIZE) {
-					if (fullWidth > imageData.width) fullWidth = MINIMUM_ZOOM_SIZE;
+					if (fullWidth > xSize) fullWidth = MINIMUM_ZOOM_SIZE;
 					isMaximumZoom = true;
 				}
 				if (fullHeight <= MINIMUM_ZOOM_SIZE) {
-					if (fullHeight > imageData.height) fullHeight = MINIMUM_ZOOM_SIZE;
+					if (fullHeight > ySize) fullHeight = MINIMUM_ZOOM_SIZE;
 					isMaximumZoom = true;
 				}
 				if (fullWidth <= MINIMUM_LABEL_SIZE && fullHeight <= MINIMUM_LABEL_SIZE) {
@@ -464,7 +484,13 @@ public class ImageTrace extends Figure implements IImageTrace, IAxisListener, IT
 				}
 				// Slice the data.
 				// Pixel slice on downsampled data = fast!
-				if (imageData.depth <= 8) {
+				if (tiled) {
+					// Only the tiles in the window are colour mapped.
+					final byte[] pixels = new byte[fullWidth*fullHeight];
+					if (!tiles.getPixels(xPix, yPix, fullWidth, fullHeight, pixels)) return false;
+					final PaletteData palette = tiles.getPalette()!=null ? tiles.getPalette() : getPaletteData();
+					data = new ImageData(fullWidth, fullHeight, 8, palette, 1, pixels);
+				} else if (imageData.depth <= 8) {
 					// NOTE Assumes 8-bit images
 					final int size   = fullWidth*fullHeight;
 					final byte[] pixels = new byte[size];
@@ -728,12 +754,14 @@ public class ImageTrace extends Figure implements IImageTrace, IAxisListener, IT
 	
 	public void sleep() {
 		if (mipMap!=null)           mipMap.clear();
+		if (tiles!=null)            tiles.clear();
 		if (maskMap!=null)          maskMap.clear();
 		if (scaledImage!=null)      scaledImage.dispose();
 	}
 	public void remove() {
 		
 		if (mipMap!=null)           mipMap.clear();
+		if (tiles!=null)            tiles.clear();
 		if (maskMap!=null)          maskMap.clear();
 		if (scaledImage!=null)      scaledImage.dispose();
 		
@@ -1021,9 +1049,11 @@ public class ImageTrace extends Figure implements IImageTrace, IAxisListener, IT
 		// what is plotted.
 		this.image = (Dataset)im;
 		if (this.mipMap!=null)  mipMap.clear();
+		if (this.tiles!=null)   tiles.clear();
 		if (scaledImage!=null && !scaledImage.isDisposed()) scaledImage.dispose();
 		scaledImage = null;
 		imageData   = null;
+		tiled       = false;
 		
 		if (imageServiceBean==null) imageServiceBean = new ImageServiceBean();
 		imageServiceBean.setImage(im);
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.draw2d.swtxy;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.nebula.visualization.xygraph.dataprovider.IDataProvider;
+import org.eclipse.nebula.visualization.xygraph.dataprovider.IDataProviderListener;
+import org.eclipse.nebula.visualization.xygraph.dataprovider.ISample;
+import org.eclipse.nebula.visualization.xygraph.dataprovider.Sample;
+import org.eclipse.nebula.visualization.xygraph.figures.Axis;
+import org.eclipse.nebula.visualization.xygraph.linearscale.Range;
+
+/**
+ * Reduces a line trace to the points which can be seen at the resolution of the screen.
+ *
+ * For each pixel column of the x axis the first, lowest, highest and last points
+ * in the column are kept. Lines drawn through these cover exactly the pixels which
+ * lines through all the points would, so there is no visible difference, but the
+ * number of points painted depends on the width of the axis rather than the size
+ * of the data.
+ *
+ * Only data with x values which never decrease and without NaNs, which break the
+ * line, can be decimated. The decimated
+ * points are cached for the last few axis ranges, so repaints and going back to
+ * a previous zoom are free. The cache is cleared when the data changes.
+ */
+class LineDecimator {
+
+	/**
+	 * Only decimate when there are more than this many points per pixel column.
+	 */
+	private static final int POINTS_PER_PIXEL = 4;
+
+	/**
+	 * Number of zoom levels to remember.
+	 */
+	private static final int CACHE_SIZE = 8;
+
+	private final Map<ZoomKey, DecimatedDataProvider> cache;
+
+	// -1 not known, 0 no, 1 yes
+	private int decimatable = -1;
+
+	LineDecimator() {
+		this.cache = new LinkedHashMap<ZoomKey, DecimatedDataProvider>(CACHE_SIZE, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ZoomKey, DecimatedDataProvider> eldest) {
+				return size()>CACHE_SIZE;
+			}
+		};
+	}
+
+	/**
+	 * Call when the data of the provider changes.
+	 */
+	void clear() {
+		cache.clear();
+		decimatable = -1;
+	}
+
+	/**
+	 *
+	 * @param prov
+	 * @param xAxis
+	 * @return the provider to paint, prov itself if it should not be decimated.
+	 */
+	IDataProvider getProvider(IDataProvider prov, Axis xAxis) {
+
+		if (prov==null || xAxis==null) return prov;
+
+		final int pixels = xAxis.isHorizontal() ? xAxis.getBounds().width : xAxis.getBounds().height;
+		if (pixels<1) return prov;
+		if (prov.getSize() <= POINTS_PER_PIXEL*pixels) return prov;
+
+		if (decimatable<0) decimatable = isDecimatable(prov) ? 1 : 0;
+		if (decimatable==0) return prov;
+
+		final Range    range = xAxis.getRange();
+		final ZoomKey  key   = new ZoomKey(range.getLower(), range.getUpper(), pixels, xAxis.isLogScaleEnabled());
+		DecimatedDataProvider decimated = cache.get(key);
+		if (decimated==null) {
+			decimated = decimate(prov, xAxis, Math.min(range.getLower(), range.getUpper()), Math.max(range.getLower(), range.getUpper()));
+			cache.put(key, decimated);
+		}
+		return decimated;
+	}
+
+	private static boolean isDecimatable(IDataProvider prov) {
+		final int size = prov.getSize();
+		double last = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < size; i++) {
+			final double x = getX(prov, i);
+			if (Double.isNaN(x) || x<last || Double.isNaN(getY(prov, i))) return false;
+			last = x;
+		}
+		return true;
+	}
+
+	private static DecimatedDataProvider decimate(IDataProvider prov, Axis xAxis, double lower, double upper) {
+
+		final int size = prov.getSize();
+
+		// The points in view, and one either side so that the lines off the edge are drawn.
+		final int start = Math.max(0,      firstIndexAbove(prov, lower, size)-1);
+		final int end   = Math.min(size-1, firstIndexAbove(prov, upper, size));
+
+		final DecimatedDataProvider ret = new DecimatedDataProvider(prov);
+		int column = Integer.MIN_VALUE;
+		int first = -1, min = -1, max = -1, last = -1;
+		double minY = 0, maxY = 0;
+
+		for (int i = start; i <= end; i++) {
+			final double y = getY(prov, i);
+			final int    c = xAxis.getValuePosition(getX(prov, i));
+			if (c!=column || first<0) {
+				if (first>=0) addColumn(ret, prov, first, min, max, last);
+				column = c;
+				first  = min = max = last = i;
+				minY   = maxY = y;
+				continue;
+			}
+			if (y<minY) {
+				minY = y;
+				min  = i;
+			}
+			if (y>maxY) {
+				maxY = y;
+				max  = i;
+			}
+			last = i;
+		}
+		if (first>=0) addColumn(ret, prov, first, min, max, last);
+		return ret;
+	}
+
+	/**
+	 * Adds the points of one column in the order of their index.
+	 */
+	private static void addColumn(DecimatedDataProvider ret, IDataProvider prov, int first, int min, int max, int last) {
+		ret.add(prov, first);
+		final int lo = Math.min(min, max), hi = Math.max(min, max);
+		if (lo>first) ret.add(prov, lo);
+		if (hi>lo && hi>first) ret.add(prov, hi);
+		if (last>hi && last>first) ret.add(prov, last);
+	}
+
+	/**
+	 * Binary search for the first point with x greater or equal to value.
+	 */
+	private static int firstIndexAbove(IDataProvider prov, double value, int size) {
+		int lo = 0, hi = size;
+		while (lo<hi) {
+			final int mid = (lo+hi)>>>1;
+			if (getX(prov, mid)<value) {
+				lo = mid+1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private static double getX(IDataProvider prov, int index) {
+		if (prov instanceof IPrimitiveDataProvider) return ((IPrimitiveDataProvider)prov).getXValue(index);
+		return prov.getSample(index).getXValue();
+	}
+
+	private static double getY(IDataProvider prov, int index) {
+		if (prov instanceof IPrimitiveDataProvider) return ((IPrimitiveDataProvider)prov).getYValue(index);
+		return prov.getSample(index).getYValue();
+	}
+
+	/**
+	 * The points kept, the samples are made once so painting does not allocate.
+	 */
+	private static class DecimatedDataProvider implements IDataProvider {
+
+		private final IDataProvider source;
+		private ISample[]           samples = new ISample[256];
+		private int                 size;
+
+		DecimatedDataProvider(IDataProvider source) {
+			this.source = source;
+		}
+
+		void add(IDataProvider prov, int index) {
+			if (size==samples.length) {
+				final ISample[] tmp = new ISample[2*samples.length];
+				System.arraycopy(samples, 0, tmp, 0, size);
+				samples = tmp;
+			}
+			samples[size++] = prov instanceof IPrimitiveDataProvider
+					        ? new Sample(getX(prov, index), getY(prov, index))
+					        : prov.getSample(index);
+		}
+
+		@Override
+		public int getSize() {
+			return size;
+		}
+
+		@Override
+		public ISample getSample(int index) {
+			if (index<0 || index>=size) return null;
+			return samples[index];
+		}
+
+		@Override
+		public Range getXDataMinMax() {
+			return source.getXDataMinMax();
+		}
+
+		@Override
+		public Range getYDataMinMax() {
+			return source.getYDataMinMax();
+		}
+
+		@Override
+		public boolean isChronological() {
+			return false;
+		}
+
+		@Override
+		public void addDataProviderListener(IDataProviderListener listener) {
+			// Never changes
+		}
+
+		@Override
+		public boolean removeDataProviderListener(IDataProviderListener listener) {
+			return false;
+		}
+
+		@Override
+		public boolean hasErrors() {
+			return false;
+		}
+	}
+
+	private static final class ZoomKey {
+
+		final double  lower, upper;
+		final int     pixels;
+		final boolean log;
+
+		ZoomKey(double lower, double upper, int pixels, boolean log) {
+			this.lower  = lower;
+			this.upper  = upper;
+			this.pixels = pixels;
+			this.log    = log;
+		}
+
+		@Override
+		public int hashCode() {
+			long bits = Double.doubleToLongBits(lower)*31 + Double.doubleToLongBits(upper);
+			return (int)(bits ^ (bits>>>32))*31 + pixels*2 + (log ? 1 : 0);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof ZoomKey)) return false;
+			final ZoomKey other = (ZoomKey)obj;
+			return Double.doubleToLongBits(lower)==Double.doubleToLongBits(other.lower) &&
+				   Double.doubleToLongBits(upper)==Double.doubleToLongBits(other.upper) &&
+				   pixels==other.pixels && log==other.log;
+		}
+	}
+}
@@ -13,6 +13,7 @@ import org.eclipse.dawnsci.plotting.api.preferences.PlottingConstants;
 import org.eclipse.dawnsci.plotting.api.trace.ITrace;
 import org.eclipse.dawnsci.plotting.api.trace.ITraceContainer;
 import org.eclipse.draw2d.ColorConstants;
+import org.eclipse.draw2d.Graphics;
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.nebula.visualization.xygraph.dataprovider.IDataProvider;
 import org.eclipse.nebula.visualization.xygraph.figures.Axis;
@@ -22,6 +23,10 @@ import org.eclipse.ui.preferences.ScopedPreferenceStore;
 /**
  * Trace with drawPolyline(...) for faster rendering.
  * 
+ * Large traces are painted from the points which can be seen at the
+ * resolution of the screen, see LineDecimator. Set the system property
+ * org.dawnsci.plotting.draw2d.line.full.rendering to paint every point.
+ * 
  * @author Matthew Gerring
  *
  */
@@ -29,8 +34,53 @@ public class LineTrace extends Trace implements ITraceContainer {
 	
 	protected String internalName; 
 	
+	private static final String FULL_RENDERING_PROPERTY = "org.dawnsci.plotting.draw2d.line.full.rendering";
+	
+	private final LineDecimator decimator;
+	
 	public LineTrace(String name) {
 		super(name);
+		this.decimator = Boolean.getBoolean(FULL_RENDERING_PROPERTY) ? null : new LineDecimator();
+	}
+	
+	@Override
+	protected void paintFigure(Graphics graphics) {
+		
+		final IDataProvider full = traceDataProvider;
+		final IDataProvider prov = isDecimated() ? decimator.getProvider(full, xAxis) : full;
+		if (prov==full) {
+			super.paintFigure(graphics);
+			return;
+		}
+		// Paint the decimated points, everything else still sees the full data.
+		try {
+			traceDataProvider = prov;
+			super.paintFigure(graphics);
+		} finally {
+			traceDataProvider = full;
+		}
+	}
+	
+	/**
+	 * Points are only dropped where they would be drawn over by the line.
+	 */
+	private boolean isDecimated() {
+		if (decimator==null) return false;
+		if (isErrorBarEnabled()) return false;
+		if (getTraceType()==TraceType.POINT) return false;
+		return getPointStyle()==null || getPointStyle()==PointStyle.NONE;
+	}
+	
+	@Override
+	public void dataChanged(IDataProvider dataProvider) {
+		if (decimator!=null) decimator.clear();
+		super.dataChanged(dataProvider);
+	}
+	
+	@Override
+	public void setDataProvider(IDataProvider dataProvider) {
+		if (decimator!=null) decimator.clear();
+		super.setDataProvider(dataProvider);
 	}
 	
 	public void init(Axis xAxis, Axis yAxis, IDataProvider dataProvider) {
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.draw2d.swtxy;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Frames of an image stack, read ahead of the stack index.
+ *
+ * When the stack index moves the frames in the direction of travel, and a few
+ * behind, are read by a small pool of threads. Reads which are no longer near
+ * the index when they start are dropped, so a fast drag of the slider only reads
+ * the frames around where it stops. Frames are kept in least recently used order
+ * within a memory budget.
+ *
+ * The budget in megabytes is set with org.dawnsci.plotting.draw2d.stack.cache.budget
+ * (default 128) and the number of read threads with org.dawnsci.plotting.draw2d.stack.cache.threads
+ * (default 2).
+ */
+class StackFrameCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(StackFrameCache.class);
+
+	private static final String BUDGET_PROPERTY  = "org.dawnsci.plotting.draw2d.stack.cache.budget";
+	private static final String THREADS_PROPERTY = "org.dawnsci.plotting.draw2d.stack.cache.threads";
+
+	/**
+	 * Frames read in the direction the index is moving.
+	 */
+	private static final int READ_AHEAD  = 8;
+
+	/**
+	 * Frames read against the direction the index is moving.
+	 */
+	private static final int READ_BEHIND = 2;
+
+	private static ExecutorService readers;
+
+	private static synchronized ExecutorService getReaders() {
+		if (readers==null) {
+			final int threads = Math.max(1, Integer.getInteger(THREADS_PROPERTY, 2));
+			readers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "Stack frame reader "+count.incrementAndGet());
+					thread.setDaemon(true);
+					thread.setPriority(Thread.NORM_PRIORITY-1);
+					return thread;
+				}
+			});
+		}
+		return readers;
+	}
+
+	private final long budget;
+	private final LinkedHashMap<Integer, Dataset> frames;
+	private final Map<Integer, Future<Dataset>>   reading;
+	private long bytes;
+
+	private ILazyDataset stack;
+	private int          position  = -1;
+	private int          direction = 1;
+
+	/**
+	 * Incremented when the stack changes, reads for an old stack are not kept.
+	 */
+	private int generation;
+
+	private final AtomicLong hits   = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	StackFrameCache() {
+		this.budget  = Long.getLong(BUDGET_PROPERTY, 128) * 1024 * 1024;
+		this.frames  = new LinkedHashMap<Integer, Dataset>(32, 0.75f, true); // Access order = LRU
+		this.reading = new HashMap<Integer, Future<Dataset>>();
+	}
+
+	synchronized void setStack(ILazyDataset stack) {
+		clear();
+		this.stack = stack;
+	}
+
+	/**
+	 * Throws away the frames and cancels any reads.
+	 */
+	synchronized void clear() {
+		for (Future<Dataset> future : reading.values()) future.cancel(false);
+		reading.clear();
+		frames.clear();
+		bytes    = 0;
+		position = -1;
+		++generation;
+	}
+
+	/**
+	 * Get a frame, from the cache if it has been read already, waiting for
+	 * it if it is being read or reading it in this thread if not.
+	 *
+	 * Then reads the frames around it in the direction the index is going.
+	 *
+	 * @param index
+	 * @return the frame, squeezed to 2D
+	 */
+	Dataset getFrame(int index) throws Exception {
+
+		final Future<Dataset> future;
+		final ILazyDataset    stack;
+		final int             gen;
+		synchronized (this) {
+			if (position>=0 && index!=position) direction = index>position ? 1 : -1;
+			position = index;
+
+			final Dataset frame = frames.get(index);
+			if (frame!=null) {
+				hits.incrementAndGet();
+				readAround(index);
+				return frame;
+			}
+			future = reading.get(index);
+			stack  = this.stack;
+			gen    = generation;
+		}
+
+		Dataset frame = future!=null ? waitFor(future) : null;
+		if (frame!=null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			frame = read(stack, index);
+			synchronized (this) {
+				if (gen==generation) put(index, frame);
+			}
+		}
+
+		synchronized (this) {
+			readAround(index);
+		}
+		return frame;
+	}
+
+	/**
+	 * @return the frame or null if the read was cancelled or dropped.
+	 */
+	private static Dataset waitFor(Future<Dataset> future) throws Exception {
+		try {
+			return future.get();
+		} catch (CancellationException ne) {
+			return null;
+		} catch (ExecutionException ne) {
+			if (ne.getCause() instanceof Exception) throw (Exception)ne.getCause();
+			throw ne;
+		}
+	}
+
+	long getHitCount() {
+		return hits.get();
+	}
+
+	long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Starts reads for the frames around index which are not in the cache,
+	 * must be called holding the lock.
+	 */
+	private void readAround(int index) {
+
+		if (stack==null) return;
+		final int size = stack.getShape()[0];
+
+		// Reads which are too far away now are not wanted.
+		for (Iterator<Map.Entry<Integer, Future<Dataset>>> it = reading.entrySet().iterator(); it.hasNext();) {
+			final Map.Entry<Integer, Future<Dataset>> entry = it.next();
+			if (!isWanted(entry.getKey(), index)) {
+				entry.getValue().cancel(false);
+				it.remove();
+			}
+		}
+
+		// Nearest first, the pool works through them in order.
+		for (int i = 1; i <= READ_AHEAD; i++) {
+			if (i<=READ_BEHIND) schedule(index-direction*i, size);
+			schedule(index+direction*i, size);
+		}
+	}
+
+	private boolean isWanted(int frame, int index) {
+		final int offset = (frame-index)*direction;
+		return offset>=-READ_BEHIND && offset<=READ_AHEAD;
+	}
+
+	private void schedule(final int frame, int size) {
+
+		if (frame<0 || frame>=size) return;
+		if (frames.containsKey(frame) || reading.containsKey(frame)) return;
+
+		final ILazyDataset stack = this.stack;
+		final int          gen   = generation;
+		final FutureTask<Dataset> task = new FutureTask<Dataset>(new Callable<Dataset>() {
+			@Override
+			public Dataset call() throws Exception {
+				synchronized (StackFrameCache.this) {
+					// The index may have moved on while this waited.
+					if (gen!=generation || !isWanted(frame, position)) return null;
+				}
+				final Dataset data = read(stack, frame);
+				synchronized (StackFrameCache.this) {
+					if (gen==generation && data!=null) put(frame, data);
+				}
+				return data;
+			}
+		}) {
+			@Override
+			protected void done() {
+				synchronized (StackFrameCache.this) {
+					// This read may have been cancelled and the frame scheduled again since.
+					if (reading.get(frame)==this) reading.remove(frame);
+				}
+			}
+		};
+		reading.put(frame, task);
+		getReaders().execute(task);
+	}
+
+	private void put(int index, Dataset frame) {
+		final Dataset previous = frames.put(index, frame);
+		if (previous!=null) bytes -= getBytes(previous);
+		bytes += getBytes(frame);
+
+		// Drop least recently used frames but never the one just added.
+		for (Iterator<Map.Entry<Integer, Dataset>> it = frames.entrySet().iterator(); bytes>budget && it.hasNext();) {
+			final Map.Entry<Integer, Dataset> entry = it.next();
+			if (entry.getKey()==index) continue;
+			bytes -= getBytes(entry.getValue());
+			it.remove();
+		}
+	}
+
+	private static long getBytes(Dataset frame) {
+		return (long)frame.getSize()*frame.getItemsize();
+	}
+
+	private static Dataset read(ILazyDataset stack, int index) throws Exception {
+		final int[] shape = stack.getShape();
+		try {
+			IDataset set = stack.getSlice(new int[]{index,0,0},
+					                      new int[]{index+1,shape[1], shape[2]},
+					                      new int[]{1,1,1});
+			return (Dataset)set.squeeze();
+		} catch (Exception ne) {
+			logger.debug("Cannot read stack frame "+index, ne);
+			throw ne;
+		}
+	}
+}
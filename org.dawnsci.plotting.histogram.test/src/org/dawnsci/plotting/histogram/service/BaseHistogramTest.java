@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.histogram.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.dawnsci.analysis.dataset.impl.BooleanDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.IntegerDataset;
+import org.eclipse.dawnsci.plotting.api.histogram.ImageServiceBean;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.dataset.function.Histogram;
+
+/**
+ * Checks the histograms made from the base histogram against the Histogram
+ * function which was used on the image before.
+ *
+ * Integer images have a bin per value so every histogram is the same. The bins
+ * of float images are placed at their centre, so the histograms are the same
+ * when the number of bins divides {@link BaseHistogram#BINS}, and the min, max
+ * and mean are always exact.
+ */
+public class BaseHistogramTest {
+
+	private static final int[] SHAPE = {300, 400};
+
+	@Test
+	public void testIntegerImage() {
+		final Random random = new Random(1);
+		final int[]  data   = new int[SHAPE[0]*SHAPE[1]];
+		for (int i = 0; i < data.length; i++) data[i] = random.nextInt(1000)-200;
+		final Dataset image = new IntegerDataset(data, SHAPE);
+
+		final BaseHistogram histo = BaseHistogram.getInstance(image, null);
+		assertEquals(true, histo.isExact());
+		checkStatistics(image, histo);
+		for (int bins : new int[]{1, 7, 100, 999, 2048}) {
+			checkHistogram(image, histo, bins);
+		}
+		checkHistogram(image, histo, 50, -100, 300);
+	}
+
+	@Test
+	public void testFloatImage() {
+		final Random   random = new Random(2);
+		final double[] data   = new double[SHAPE[0]*SHAPE[1]];
+		for (int i = 0; i < data.length; i++) data[i] = 100+15*random.nextGaussian();
+		final Dataset image = new DoubleDataset(data, SHAPE);
+
+		final BaseHistogram histo = BaseHistogram.getInstance(image, null);
+		assertEquals(false, histo.isExact());
+		checkStatistics(image, histo);
+		for (int bins : new int[]{1, 16, 256, 2048}) {
+			checkHistogram(image, histo, bins);
+		}
+	}
+
+	@Test
+	public void testMaskChangedInPlace() {
+		final Random   random = new Random(3);
+		final double[] data   = new double[SHAPE[0]*SHAPE[1]];
+		for (int i = 0; i < data.length; i++) data[i] = random.nextDouble();
+		final Dataset image = new DoubleDataset(data, SHAPE);
+
+		final BooleanDataset mask = new BooleanDataset(SHAPE);
+		mask.fill(true);
+		final BaseHistogram first = BaseHistogram.getInstance(image, mask);
+		assertEquals(data.length, first.getCount());
+
+		// A mask with the same contents finds the same histogram
+		assertSame(first, BaseHistogram.getInstance(image, mask.clone()));
+
+		// The masking tool changes the mask it has given to the image
+		mask.setAbs(0, false);
+		mask.setAbs(1, false);
+		final BaseHistogram second = BaseHistogram.getInstance(image, mask);
+		assertNotSame(first, second);
+		assertEquals(data.length-2, second.getCount());
+	}
+
+	private static void checkStatistics(Dataset image, BaseHistogram histo) {
+		final ImageServiceBean bean = new ImageServiceBean();
+		assertEquals(image.min().doubleValue(), histo.getMin(), 0);
+		assertEquals(image.max().doubleValue(), histo.getMax(), 0);
+		assertArrayEquals(new double[]{histo.getMin(), histo.getMax()}, histo.getRange(bean), 0);
+		assertEquals(((Number)image.mean()).doubleValue(), histo.getMean(bean), 1e-9*Math.abs(histo.getMax()));
+		assertEquals(image.getSize(), histo.getCount());
+	}
+
+	private static void checkHistogram(Dataset image, BaseHistogram histo, int bins) {
+		checkHistogram(image, histo, bins, histo.getMin(), histo.getMax());
+	}
+
+	private static void checkHistogram(Dataset image, BaseHistogram histo, int bins, double lo, double hi) {
+		final List<? extends Dataset> expected = new Histogram(bins, lo, hi, true).value(image);
+		final Dataset[]               actual   = histo.getHistogram(bins, lo, hi);
+		for (int i = 0; i < bins; i++) {
+			assertEquals("Bin "+i+" of "+bins, expected.get(0).getInt(i), actual[0].getInt(i));
+		}
+		for (int i = 0; i <= bins; i++) {
+			assertEquals("Edge "+i+" of "+bins, expected.get(1).getDouble(i), actual[1].getDouble(i), 1e-9*Math.abs(hi-lo));
+		}
+	}
+}
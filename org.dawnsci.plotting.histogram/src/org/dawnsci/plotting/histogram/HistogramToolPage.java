@@ -10,12 +10,12 @@ package org.dawnsci.plotting.histogram;
 
 import java.util.Arrays;
 import java.util.EventObject;
-import java.util.List;
 
 import org.dawnsci.common.widgets.decorator.BoundsDecorator;
 import org.dawnsci.common.widgets.decorator.FloatDecorator;
 import org.dawnsci.plotting.histogram.functions.ColourSchemeContribution;
 import org.dawnsci.plotting.histogram.functions.TransferFunctionContribution;
+import org.dawnsci.plotting.histogram.service.BaseHistogram;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
@@ -81,8 +81,6 @@ import org.eclipse.ui.progress.UIJob;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import uk.ac.diamond.scisoft.analysis.dataset.function.Histogram;
-
 public class HistogramToolPage extends AbstractToolPage {
 
 	private static final String ZINGER_LABEL = "Zinger Min value cutoff";
@@ -114,6 +112,7 @@ public class HistogramToolPage extends AbstractToolPage {
 	private double histoMin = 25.0;
 
 	private Dataset imageDataset;
+	private BaseHistogram baseHistogram;
 
 	private Dataset histogramX;
 	private Dataset histogramY;
@@ -320,7 +319,9 @@ public class HistogramToolPage extends AbstractToolPage {
 
 			@Override
 			public void maskChanged(PaletteEvent evt) {
-				// No action needed.
+				if (internalEvent > 0) return;
+				// Masked pixels are left out of the histogram
+				updateImage(evt.getTrace(), false);
 			}
 		};
 
@@ -955,8 +956,9 @@ public class HistogramToolPage extends AbstractToolPage {
 
 			unhide();
 
-			if (imageDataset.containsInvalidNumbers() ) {
-				logger.debug("imageDataset contains invalid numbers");
+			baseHistogram = getBaseHistogram(image);
+			if (baseHistogram.getCount() < imageDataset.getSize()) {
+				logger.debug("imageDataset contains invalid numbers or is masked");
 			}
 
 			logger.trace("Image Data is of type :" + imageDataset.getDtype());
@@ -964,8 +966,9 @@ public class HistogramToolPage extends AbstractToolPage {
 				numBins = MAX_BINS;
 			} else {
 				// set the number of points to the range
-				numBins = (Integer) imageDataset.max(true).intValue() - imageDataset.min(true).intValue();
+				numBins = (int)(baseHistogram.getMax() - baseHistogram.getMin());
 				if (numBins > MAX_BINS) numBins = MAX_BINS;
+				if (numBins < 1) numBins = 1;
 			}
 
 			ImageServiceBean bean = image.getImageServiceBean();
@@ -1029,6 +1032,14 @@ public class HistogramToolPage extends AbstractToolPage {
  		return im;
 	}
 
+	/**
+	 * The histogram of the image is only made when the image or mask change,
+	 * the one plotted is made from it.
+	 */
+	private BaseHistogram getBaseHistogram(IPaletteTrace image) {
+		return BaseHistogram.getInstance(imageDataset, image.getImageServiceBean().getMask());
+	}
+
 	private void removeImagePaletteListener() {
 		if (getControl()==null) return; // We cannot plot unless its been created.
 
@@ -1067,14 +1078,13 @@ public class HistogramToolPage extends AbstractToolPage {
 		// calculate the histogram for the whole image
 		double rMax = rangeMax;
 		double rMin = rangeMin;
-		if (Double.isInfinite(rMax)) rMax = imageDataset.max(true).doubleValue();
-		if (Double.isInfinite(rMin)) rMin = imageDataset.min(true).doubleValue();
+		if (Double.isInfinite(rMax)) rMax = baseHistogram.getMax();
+		if (Double.isInfinite(rMin)) rMin = baseHistogram.getMin();
 
-		Histogram hist = new Histogram(numBins, rMin, rMax, true);
-		List<? extends Dataset> histogram_values = hist.value(imageDataset);
-		histogramX = histogram_values.get(1).getSliceView(new Slice(numBins));
+		Dataset[] histogram_values = baseHistogram.getHistogram(numBins, rMin, rMax);
+		histogramX = histogram_values[1].getSliceView(new Slice(numBins));
 		histogramX.setName("Intensity");
-		histogramY = histogram_values.get(0);
+		histogramY = histogram_values[0];
 		histogramY = Maths.log10((Maths.add(histogramY, 1.0)));
 		histogramY.setName("Histogram");
 
@@ -1095,9 +1105,10 @@ public class HistogramToolPage extends AbstractToolPage {
 		if (image==null) return;
 
 		imageDataset = getImageData(image);
+		baseHistogram = getBaseHistogram(image);
 
-		if (Double.isInfinite(scaleMaxTemp)) scaleMaxTemp = imageDataset.max(true).doubleValue();
-		if (Double.isInfinite(scaleMinTemp)) scaleMinTemp = imageDataset.min(true).doubleValue();
+		if (Double.isInfinite(scaleMaxTemp)) scaleMaxTemp = baseHistogram.getMax();
+		if (Double.isInfinite(scaleMinTemp)) scaleMinTemp = baseHistogram.getMin();
 
 		if (mode == FIXED) {
 			if (scaleMaxTemp > scaleMax) scaleMax = scaleMaxTemp;
@@ -1,7 +1,6 @@
 package org.dawnsci.plotting.histogram;
 
-import java.util.List;
-
+import org.dawnsci.plotting.histogram.service.BaseHistogram;
 import org.dawnsci.plotting.histogram.ui.HistogramViewer;
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
@@ -17,8 +16,6 @@ import org.eclipse.dawnsci.plotting.api.trace.PaletteEvent;
 import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.swt.graphics.PaletteData;
 
-import uk.ac.diamond.scisoft.analysis.dataset.function.Histogram;
-
 public class ImageHistogramProvider implements IHistogramProvider {
 
 	private static final int MAX_BINS = 2048;
@@ -30,6 +27,7 @@ public class ImageHistogramProvider implements IHistogramProvider {
 
 	private IDataset imageDataset;
 	private ImageServiceBean bean;
+	private BaseHistogram baseHistogram;
 
 	/**
 	 * Calculated histogram, index 0 for Y values, 1 for X values
@@ -44,6 +42,7 @@ public class ImageHistogramProvider implements IHistogramProvider {
 		this.image = null;
 		this.imageDataset = null;
 		this.bean = null;
+		this.baseHistogram = null;
 	}
 
 	private void setImage(IPaletteTrace image){
@@ -51,6 +50,8 @@ public class ImageHistogramProvider implements IHistogramProvider {
 		this.image = image;
 		this.imageDataset = getImageData(image);
 		this.bean = image.getImageServiceBean();
+		// Shared with the histogram tool and the image service, range and bin changes are made from it
+		this.baseHistogram = BaseHistogram.getInstance(imageDataset, bean.getMask());
 	}
 
 	/**
@@ -75,10 +76,11 @@ public class ImageHistogramProvider implements IHistogramProvider {
 			return MAX_BINS;
 		} else {
 			// set the number of points to the range
-			int numBins = (Integer) imageDataset.max(true).intValue()
-					- imageDataset.min(true).intValue();
+			int numBins = (int) (baseHistogram.getMax() - baseHistogram.getMin());
 			if (numBins > MAX_BINS)
 				numBins = MAX_BINS;
+			if (numBins < 1)
+				numBins = 1;
 			return numBins;
 		}
 	}
@@ -86,14 +88,14 @@ public class ImageHistogramProvider implements IHistogramProvider {
 	public double getMaximumRange() {
 		double max = bean.getMaximumCutBound().getBound().doubleValue();
 		if (Double.isInfinite(max))
-			max = imageDataset.max(true).doubleValue();
+			max = baseHistogram.getMax();
 		return max;
 	}
 
 	public double getMininumRange() {
 		double rMin = bean.getMinimumCutBound().getBound().doubleValue();
 		if (Double.isInfinite(rMin))
-			rMin = imageDataset.min(true).doubleValue();
+			rMin = baseHistogram.getMin();
 		return rMin;
 	}
 
@@ -149,18 +151,17 @@ public class ImageHistogramProvider implements IHistogramProvider {
 	 *
 	 * @return Calculated histogram, index 0 for Y values, 1 for X values
 	 */
-	private IDataset[] generateHistogramData(IDataset imageDataset, int numBins) {
+	private IDataset[] generateHistogramData(int numBins) {
 		double rangeMax = getMaximumRange();
 		double rangeMin = getMininumRange();
 
-		Histogram hist = new Histogram(numBins, rangeMin, rangeMax, true);
-		List<? extends Dataset> histogram_values = hist.value(imageDataset);
+		Dataset[] histogram_values = baseHistogram.getHistogram(numBins, rangeMin, rangeMax);
 
-		Dataset histogramX = histogram_values.get(1).getSliceView(
+		Dataset histogramX = histogram_values[1].getSliceView(
 				new Slice(numBins));
 		histogramX.setName("Intensity");
 
-		Dataset histogramY = histogram_values.get(0);
+		Dataset histogramY = histogram_values[0];
 		histogramY = Maths.log10((Maths.add(histogramY, 1.0)));
 		histogramY.setName("Histogram");
 
@@ -177,8 +178,7 @@ public class ImageHistogramProvider implements IHistogramProvider {
 		double histoMax = getMax();
 
 
-		IDataset[] histogramData = generateHistogramData(imageDataset,
-				getNumberOfBins());
+		IDataset[] histogramData = generateHistogramData(getNumberOfBins());
 		final IDataset histogramY = histogramData[0];
 		final IDataset histogramX = histogramData[1];
 
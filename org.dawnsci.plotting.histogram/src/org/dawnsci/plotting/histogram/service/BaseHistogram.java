@@ -0,0 +1,468 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.histogram.service;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.dawnsci.analysis.api.dataset.DataEvent;
+import org.eclipse.dawnsci.analysis.api.dataset.IDataListener;
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.IDynamicDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.BooleanDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.IntegerDataset;
+import org.eclipse.dawnsci.plotting.api.histogram.ImageServiceBean;
+
+/**
+ * A fine histogram of an image, made once in parallel, from which the histograms
+ * shown for any range and number of bins are made by adding up its bins. Changing
+ * the range, the number of bins or the cut bounds does not go back to the image.
+ *
+ * Masked pixels, NaNs and infinities are left out. Integer images with a range smaller
+ * than {@link #BINS} have one bin per value so that histograms of them are exact, otherwise
+ * values are placed at the centre of their bin, which is a {@link #BINS}th of the range.
+ * The smallest and largest value of each bin are kept, so the min and max are exact unless
+ * a cut bound falls inside the first or last bin.
+ *
+ * The last few are kept for the image and mask they were made from, so that the histogram
+ * tools and the auto-contrast of the image service share them. The mask is compared by its
+ * contents, as the masking tool edits it in place, and the histogram is made again if the
+ * image is a dynamic dataset which changes.
+ */
+public class BaseHistogram implements IDataListener {
+
+	/**
+	 * Maximum number of bins in the base histogram.
+	 */
+	public static final int BINS = 1<<16;
+
+	private static final int CACHE_SIZE = 4;
+
+	/**
+	 * Images smaller than this are not worth sending to the pool, nor are parts
+	 * of an image smaller than this.
+	 */
+	private static final int MIN_PARALLEL_SIZE = 256*256;
+
+	/**
+	 * Parts per thread, so that a thread which finishes early can take another.
+	 */
+	private static final int PARTS_PER_THREAD = 4;
+
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+	private static final LinkedList<BaseHistogram> cache = new LinkedList<BaseHistogram>();
+
+	private static ExecutorService pool;
+
+	private static synchronized ExecutorService getPool() {
+		if (pool==null) {
+			pool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "Base histogram "+count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return pool;
+	}
+
+	/**
+	 * Returns the histogram of the image, making it if it is not already cached.
+	 * @param image
+	 * @param mask - may be null, false is masked as with the image mask.
+	 * @return histogram
+	 */
+	public static BaseHistogram getInstance(IDataset image, IDataset mask) {
+		final boolean[] msk  = getMask(mask);
+		final long[]    bits = pack(msk);
+		synchronized (cache) {
+			for (Iterator<BaseHistogram> it = cache.iterator(); it.hasNext();) {
+				final BaseHistogram histo = it.next();
+				final IDataset      set   = histo.image.get();
+				if (set==null || histo.stale) {
+					it.remove();
+					histo.disconnect();
+					continue;
+				}
+				if (set==image && Arrays.equals(histo.maskBits, bits)) {
+					it.remove();
+					cache.addFirst(histo);
+					return histo;
+				}
+			}
+
+			final BaseHistogram histo = new BaseHistogram(image, msk, bits);
+			cache.addFirst(histo);
+			if (cache.size()>CACHE_SIZE) cache.removeLast().disconnect();
+			return histo;
+		}
+	}
+
+	private final WeakReference<IDataset> image;
+	private final long[] maskBits;
+	private volatile boolean stale;
+
+	private final double min, max;
+	private final long   count;
+
+	private final boolean exact;
+	private final double  width;
+	private final int[]    counts;
+	private final double[] sums, mins, maxs;
+
+	/**
+	 * @param data
+	 * @param msk - mask as a boolean per pixel, may be null
+	 * @param bits - the same mask packed, which the cache compares
+	 */
+	private BaseHistogram(IDataset data, boolean[] msk, long[] bits) {
+
+		this.image    = new WeakReference<IDataset>(data);
+		this.maskBits = bits;
+
+		final Dataset   set = getContiguous(DatasetUtils.convertToDataset(data));
+
+		final Scan range = run(set, msk, 0, 0, 0);
+		this.min   = range.min;
+		this.max   = range.max;
+		this.count = range.count;
+
+		if (count==0) {
+			this.exact  = false;
+			this.width  = 1;
+			this.counts = new int[0];
+			this.sums   = new double[0];
+			this.mins   = new double[0];
+			this.maxs   = new double[0];
+		} else {
+			this.exact  = !set.hasFloatingPointElements() && max-min<BINS;
+			final int bins = exact ? (int)(max-min)+1 : (max>min ? BINS : 1);
+			this.width  = exact ? 1 : (max>min ? (max-min)/BINS : 1);
+
+			final Scan binning = run(set, msk, bins, min, width);
+			this.counts = binning.counts;
+			this.sums   = binning.sums;
+			this.mins   = binning.mins;
+			this.maxs   = binning.maxs;
+		}
+
+		if (data instanceof IDynamicDataset) ((IDynamicDataset)data).addDataListener(this);
+	}
+
+	/**
+	 * Scans the image in parts on the pool and adds the parts together.
+	 * @return scan of the whole image
+	 */
+	private static Scan run(Dataset set, boolean[] mask, int bins, double start, double width) {
+		final int size  = set.getSize();
+		final int parts = Math.min(THREADS*PARTS_PER_THREAD, size/MIN_PARALLEL_SIZE);
+		if (THREADS<2 || parts<2) return new Scan(set, mask, 0, size, bins, start, width).scan();
+
+		final List<Scan> scans = new ArrayList<Scan>(parts);
+		for (int i = 0; i < parts; i++) {
+			final int from = (int)((long)size*i/parts);
+			final int to   = (int)((long)size*(i+1)/parts);
+			scans.add(new Scan(set, mask, from, to, bins, start, width));
+		}
+		try {
+			for (Future<Scan> future : getPool().invokeAll(scans)) future.get();
+		} catch (InterruptedException ne) {
+			// Keep the interrupt for the caller but still make the histogram.
+			Thread.currentThread().interrupt();
+			return new Scan(set, mask, 0, size, bins, start, width).scan();
+		} catch (ExecutionException ne) {
+			final Throwable cause = ne.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error)            throw (Error)cause;
+			throw new RuntimeException(cause);
+		}
+
+		final Scan total = scans.get(0);
+		for (int i = 1; i < parts; i++) total.merge(scans.get(i));
+		return total;
+	}
+
+	@Override
+	public void dataChangePerformed(DataEvent evt) {
+		stale = true;
+	}
+
+	private void disconnect() {
+		stale = true;
+		final IDataset set = image.get();
+		if (set instanceof IDynamicDataset) ((IDynamicDataset)set).removeDataListener(this);
+	}
+
+	/**
+	 * @return the smallest value left in or Double.MAX_VALUE if there is none.
+	 */
+	public double getMin() {
+		return count>0 ? min : Double.MAX_VALUE;
+	}
+
+	/**
+	 * @return the largest value left in or -Double.MAX_VALUE if there is none.
+	 */
+	public double getMax() {
+		return count>0 ? max : -Double.MAX_VALUE;
+	}
+
+	/**
+	 * @return number of pixels left in
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return true if the image has integer values which each have their own bin.
+	 */
+	public boolean isExact() {
+		return exact;
+	}
+
+	/**
+	 * The value which the pixels of the bin are counted at.
+	 */
+	private double getValue(int bin) {
+		if (exact) return min+bin;
+		if (counts.length==1) return min;
+		return min+(bin+0.5)*width;
+	}
+
+	/**
+	 * Same as the uk.ac.diamond.scisoft.analysis.dataset.function.Histogram
+	 * of the image with outliers ignored.
+	 *
+	 * @param numBins
+	 * @param lo
+	 * @param hi
+	 * @return counts and the numBins+1 edges of the bins
+	 */
+	public Dataset[] getHistogram(int numBins, double lo, double hi) {
+
+		final int[]  hist = new int[numBins];
+		final double step = (hi-lo)/numBins;
+		for (int b = 0; b < counts.length; b++) {
+			if (counts[b]==0) continue;
+			final double value = getValue(b);
+			if (value<lo || value>hi) continue;
+			int i = step>0 ? (int)((value-lo)/step) : 0;
+			if (i>=numBins) i = numBins-1;
+			hist[i]+=counts[b];
+		}
+
+		final double[] edges = new double[numBins+1];
+		for (int i = 0; i <= numBins; i++) edges[i] = lo+i*step;
+
+		return new Dataset[]{new IntegerDataset(hist, numBins), new DoubleDataset(edges, numBins+1)};
+	}
+
+	/**
+	 * @param bean
+	 * @return smallest and largest value inside the cut bounds of the bean, as
+	 *         Double.MAX_VALUE and -Double.MAX_VALUE if there is none.
+	 */
+	public double[] getRange(ImageServiceBean bean) {
+		int first = -1, last = -1;
+		for (int b = 0; b < counts.length; b++) {
+			if (counts[b]==0 || !bean.isInBounds(getValue(b))) continue;
+			if (first<0) first = b;
+			last = b;
+		}
+		if (first<0) return new double[]{Double.MAX_VALUE, -Double.MAX_VALUE};
+		return new double[]{mins[first], maxs[last]};
+	}
+
+	/**
+	 * @param bean
+	 * @return mean of the values inside the cut bounds of the bean or NaN if there are none.
+	 */
+	public double getMean(ImageServiceBean bean) {
+		double total = 0;
+		long   n     = 0;
+		for (int b = 0; b < counts.length; b++) {
+			if (counts[b]==0 || !bean.isInBounds(getValue(b))) continue;
+			total += sums[b];
+			n     += counts[b];
+		}
+		return n>0 ? total/n : Double.NaN;
+	}
+
+	/**
+	 * @param bean
+	 * @param percent - 0 to 100
+	 * @return the percentile of the values inside the cut bounds of the bean or NaN if there are none.
+	 */
+	public double getPercentile(ImageServiceBean bean, double percent) {
+		long n = 0;
+		for (int b = 0; b < counts.length; b++) {
+			if (counts[b]>0 && bean.isInBounds(getValue(b))) n += counts[b];
+		}
+		if (n==0) return Double.NaN;
+
+		final double target = Math.max(0, Math.min(100, percent))/100d*(n-1);
+		long below = 0;
+		for (int b = 0; b < counts.length; b++) {
+			if (counts[b]==0 || !bean.isInBounds(getValue(b))) continue;
+			if (below+counts[b]>target) {
+				if (exact || counts.length==1) return getValue(b);
+				// Spread evenly over the bin
+				final double value = min+(b+(target-below+0.5)/counts[b])*width;
+				return Math.max(min, Math.min(max, value));
+			}
+			below += counts[b];
+		}
+		return max;
+	}
+
+	/**
+	 * A dataset whose buffer is its data in order, so that pixels and mask line up
+	 */
+	private static Dataset getContiguous(Dataset set) {
+		final Object buf = set.getBuffer();
+		if (buf==null || Array.getLength(buf)!=set.getSize()) {
+			return set.clone();
+		}
+		return set;
+	}
+
+	private static boolean[] getMask(IDataset maskData) {
+		if (maskData==null) return null;
+		Dataset set = DatasetUtils.convertToDataset(maskData);
+		if (!(set instanceof BooleanDataset)) set = DatasetUtils.cast(set, Dataset.BOOL);
+		set = getContiguous(set);
+		return ((BooleanDataset)set).getData();
+	}
+
+	/**
+	 * @return the mask a bit per pixel, a 64th of the size to keep and compare,
+	 *         after its length as a mask shorter than the image leaves the rest in.
+	 */
+	private static long[] pack(boolean[] msk) {
+		if (msk==null) return null;
+		final long[] bits = new long[1+((msk.length+63) >>> 6)];
+		bits[0] = msk.length;
+		for (int i = 0; i < msk.length; i++) {
+			if (msk[i]) bits[1+(i >>> 6)] |= 1L << i;
+		}
+		return bits;
+	}
+
+	/**
+	 * Finds the range of the values or, if there are bins, counts them.
+	 */
+	private static final class Scan implements Callable<Scan> {
+
+		private final Dataset   set;
+		private final boolean[] mask;
+		private final int       from, to, bins;
+		private final double    start, width;
+
+		private double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+		private long   count;
+		private int[]    counts;
+		private double[] sums, mins, maxs;
+
+		/**
+		 * @param bins - 0 to find the range
+		 * @param start of the first bin
+		 * @param width of the bins
+		 */
+		Scan(Dataset set, boolean[] mask, int from, int to, int bins, double start, double width) {
+			this.set   = set;
+			this.mask  = mask;
+			this.from  = from;
+			this.to    = to;
+			this.bins  = bins;
+			this.start = start;
+			this.width = width;
+		}
+
+		@Override
+		public Scan call() {
+			return scan();
+		}
+
+		Scan scan() {
+			if (bins==0) {
+				range();
+			} else {
+				bin();
+			}
+			return this;
+		}
+
+		private void range() {
+			for (int i = from; i < to; i++) {
+				if (mask!=null && i<mask.length && !mask[i]) continue;
+				final double val = set.getElementDoubleAbs(i);
+				if (Double.isNaN(val) || Double.isInfinite(val)) continue;
+				if (val<min) min = val;
+				if (val>max) max = val;
+				++count;
+			}
+		}
+
+		private void bin() {
+			counts = new int[bins];
+			sums   = new double[bins];
+			mins   = new double[bins];
+			maxs   = new double[bins];
+			for (int i = from; i < to; i++) {
+				if (mask!=null && i<mask.length && !mask[i]) continue;
+				final double val = set.getElementDoubleAbs(i);
+				if (Double.isNaN(val) || Double.isInfinite(val)) continue;
+				int b = (int)((val-start)/width);
+				if (b>=bins) b = bins-1;
+				if (counts[b]==0 || val<mins[b]) mins[b] = val;
+				if (counts[b]==0 || val>maxs[b]) maxs[b] = val;
+				counts[b]++;
+				sums[b]+=val;
+			}
+		}
+
+		/**
+		 * Adds another part of the image to this one, both must have been scanned.
+		 */
+		void merge(Scan hi) {
+			min    = Math.min(min, hi.min);
+			max    = Math.max(max, hi.max);
+			count += hi.count;
+			if (bins>0) {
+				for (int b = 0; b < bins; b++) {
+					if (hi.counts[b]==0) continue;
+					if (counts[b]==0 || hi.mins[b]<mins[b]) mins[b] = hi.mins[b];
+					if (counts[b]==0 || hi.maxs[b]>maxs[b]) maxs[b] = hi.maxs[b];
+					counts[b] += hi.counts[b];
+					sums[b]   += hi.sums[b];
+				}
+			}
+		}
+	}
+}
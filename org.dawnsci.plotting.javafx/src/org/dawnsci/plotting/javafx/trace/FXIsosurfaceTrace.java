@@ -8,8 +8,13 @@
  */
 package org.dawnsci.plotting.javafx.trace;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
 import javafx.embed.swt.FXCanvas;
 import javafx.scene.Cursor;
@@ -29,6 +34,11 @@ import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.swt.widgets.Display;
 
 /**
+ * 
+ * The surface may be given all at once with setData(...) or in parts as it is
+ * made, with beginParts(), addPart(...) and endParts(...). Parts are added to the
+ * scene by an animation timer, which merges the parts waiting into meshes of up
+ * to a number of triangles each frame so that the FX thread is not held up.
  * 
  * @author fcp94556
  *
@@ -36,6 +46,11 @@ import org.eclipse.swt.widgets.Display;
  */
 public class FXIsosurfaceTrace extends Image3DTrace implements IIsosurfaceTrace {
 
+	/**
+	 * Number of triangles of a surface coming in parts to add to the scene in one frame, 100000 by default.
+	 */
+	public static final String TRIANGLES_PER_FRAME_PROPERTY = "org.dawnsci.plotting.javafx.isosurface.trianglesPerFrame";
+
 	private FXCanvas           canvas;
 	private Dataset            points;
 	private Dataset            textCoords;
@@ -44,6 +59,26 @@ public class FXIsosurfaceTrace extends Image3DTrace implements IIsosurfaceTrace
 	private CullFace cullFace = CullFace.NONE;
 	private int[] rgb;
 	private double opacity=0.5;
+	private boolean framed;
+
+	// The surface currently being made in parts, parts of older ones are dropped.
+	private final AtomicInteger generation = new AtomicInteger();
+	private final Queue<Part>   parts      = new ConcurrentLinkedQueue<Part>();
+	private AnimationTimer      partTimer;     // FX thread only
+	private int                 shownGeneration;
+
+	private static final class Part {
+		final int     generation;
+		final float[] points;
+		final float[] texCoords;
+		final int[]   faces; // null for the end of the surface
+		Part(int generation, float[] points, float[] texCoords, int[] faces) {
+			this.generation = generation;
+			this.points     = points;
+			this.texCoords  = texCoords;
+			this.faces      = faces;
+		}
+	}
 	
 	public FXIsosurfaceTrace(IPlottingSystemViewer viewer, 	FXCanvas canvas, String traceName) {
 		super(viewer, traceName);
@@ -126,6 +161,7 @@ public class FXIsosurfaceTrace extends Image3DTrace implements IIsosurfaceTrace
 		
 
 		scene = new SurfaceDisplayer(root, result, material, toJavaFX());
+		framed = points!=null;
 
 		canvas.setScene(scene);
 	}
@@ -148,6 +184,10 @@ public class FXIsosurfaceTrace extends Image3DTrace implements IIsosurfaceTrace
 			return;
 		} else {
 			scene.updateTransforms();
+			// Any surface being made in parts is replaced by this one
+			shownGeneration = generation.incrementAndGet();
+			parts.clear();
+			scene.clearSurfaceParts();
 			TriangleMesh mesh = (TriangleMesh)scene.getIsosurface().getMesh();
 			marry(mesh);
 			
@@ -162,11 +202,163 @@ public class FXIsosurfaceTrace extends Image3DTrace implements IIsosurfaceTrace
 	}
 
 	private void marry(TriangleMesh mesh) {
+		if (points==null) return; // Coming in parts
 		mesh.getPoints().setAll((float[])points.getBuffer());
 		mesh.getTexCoords().setAll((float[])textCoords.getBuffer());
 		mesh.getFaces().setAll((int[])faces.getBuffer());
 	}
 
+	/**
+	 * Starts a new surface which will be given in parts, the surface shown and any
+	 * parts of an earlier surface not yet shown are removed. May be called from any thread.
+	 * 
+	 * @return the number to give with the parts of this surface.
+	 */
+	public int beginParts() {
+		final int gen = generation.incrementAndGet();
+		parts.clear();
+		startPartTimer();
+		return gen;
+	}
+
+	/**
+	 * Adds a part of the surface, which is shown in a later frame. May be called
+	 * from any thread, the arrays must not be changed afterwards.
+	 * 
+	 * @param generation - from beginParts(), the part is dropped if a newer surface has been begun.
+	 * @param points
+	 * @param texCoords
+	 * @param faces - indices into the points and texCoords of this part
+	 */
+	public void addPart(int generation, float[] points, float[] texCoords, int[] faces) {
+		if (generation!=this.generation.get()) return;
+		parts.add(new Part(generation, points, texCoords, faces));
+		startPartTimer();
+	}
+
+	/**
+	 * Ends a surface given in parts.
+	 * 
+	 * @param generation - from beginParts()
+	 * @param points - of the whole surface, for getData()
+	 * @param textCoords
+	 * @param faces
+	 */
+	public void endParts(int generation, IDataset points, IDataset textCoords, IDataset faces) {
+		if (generation!=this.generation.get()) return;
+		this.points     = (Dataset)points;
+		this.textCoords = (Dataset)textCoords;
+		this.faces      = (Dataset)faces;
+		parts.add(new Part(generation, null, null, null));
+		startPartTimer();
+	}
+
+	private void startPartTimer() {
+		if (!Platform.isFxApplicationThread()) {
+			Platform.runLater(new Runnable() {
+				public void run() {
+					startPartTimer();
+				}
+			});
+			return;
+		}
+		if (partTimer==null) {
+			partTimer = new AnimationTimer() {
+				@Override
+				public void handle(long now) {
+					if (!addParts()) stop();
+				}
+			};
+		}
+		partTimer.start();
+	}
+
+	/**
+	 * Adds the parts waiting, up to a number of triangles, to the scene.
+	 * @return true if there are parts left.
+	 */
+	private boolean addParts() {
+
+		if (scene==null) return true; // Not made yet
+
+		final int current = generation.get();
+		if (shownGeneration!=current) {
+			scene.clearSurfaceParts();
+			TriangleMesh mesh = (TriangleMesh)scene.getIsosurface().getMesh();
+			mesh.getPoints().clear();
+			mesh.getTexCoords().clear();
+			mesh.getFaces().clear();
+			shownGeneration = current;
+		}
+
+		final int   budget    = Integer.getInteger(TRIANGLES_PER_FRAME_PROPERTY, 100000);
+		final List<Part> batch = new ArrayList<Part>();
+		int triangles = 0;
+		for (Part part = parts.peek(); part!=null; part = parts.peek()) {
+
+			if (part.generation!=current) {
+				parts.poll();
+				continue;
+			}
+			if (part.faces==null) { // End of the surface
+				parts.poll();
+				addBatch(batch);
+				batch.clear();
+				if (!framed) {
+					scene.frame();
+					framed = true;
+				}
+				continue;
+			}
+
+			final int size = part.faces.length/6;
+			if (!batch.isEmpty() && triangles+size>budget) break;
+			parts.poll();
+			batch.add(part);
+			triangles += size;
+		}
+		addBatch(batch);
+		canvas.redraw();
+		return !parts.isEmpty();
+	}
+
+	/**
+	 * Adds the parts to the scene as one mesh.
+	 */
+	private void addBatch(List<Part> batch) {
+
+		if (batch.isEmpty()) return;
+		int npoints = 0, ntex = 0, nfaces = 0;
+		for (Part part : batch) {
+			npoints += part.points.length;
+			ntex    += part.texCoords.length;
+			nfaces  += part.faces.length;
+		}
+
+		final float[] points    = new float[npoints];
+		final float[] texCoords = new float[ntex];
+		final int[]   faces     = new int[nfaces];
+		int p = 0, t = 0, f = 0;
+		for (Part part : batch) {
+			System.arraycopy(part.points,    0, points,    p, part.points.length);
+			System.arraycopy(part.texCoords, 0, texCoords, t, part.texCoords.length);
+			// Faces are point and texture index pairs
+			for (int i = 0; i < part.faces.length; i+=2) {
+				faces[f+i]   = part.faces[i]   + p/3;
+				faces[f+i+1] = part.faces[i+1] + t/2;
+			}
+			p += part.points.length;
+			t += part.texCoords.length;
+			f += part.faces.length;
+		}
+
+		final TriangleMesh mesh = new TriangleMesh();
+		mesh.getPoints().setAll(points);
+		mesh.getTexCoords().setAll(texCoords);
+		mesh.getFaces().setAll(faces);
+		scene.addSurfacePart(mesh);
+	}
+
 	@Override
 	public CullFace getCullFace() {
 		return cullFace;
@@ -21,6 +21,7 @@ import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Material;
 import javafx.scene.shape.CullFace;
+import javafx.scene.shape.Mesh;
 import javafx.scene.shape.MeshView;
 
 /**
@@ -34,6 +35,8 @@ class SurfaceDisplayer extends Scene{
 	private final SurfaceTransformations camOffset;
 	
 	private MeshView isosurface;
+	private Group surfaceGroup;
+	private EventHandler<MouseEvent> positionHandler;
 	private double surfaceX = 400; 
 	private double surfaceY = 520;
 	private double surfaceZ = 0;
@@ -104,6 +107,7 @@ class SurfaceDisplayer extends Scene{
 		this.setOnScroll(null);
 		
 		if (isosurface!=null) isosurface.setOnMouseMoved(null);
+		if (surfaceGroup!=null) surfaceGroup.getChildren().clear();
 		if (cam!=null)        cam.getChildren().removeAll();
 		if (camOffset!=null)  camOffset.getChildren().removeAll();
 		
@@ -129,9 +133,44 @@ class SurfaceDisplayer extends Scene{
         
         group.getChildren().add(isosurface);
 		
+        surfaceGroup = group;
         return group;
 	}
 
+	/**
+	 * Adds a part of the surface shown next to the main mesh with the same material and transforms.
+	 * @param mesh
+	 */
+	public void addSurfacePart(Mesh mesh) {
+		MeshView part = new MeshView(mesh);
+		part.setMaterial(isosurface.getMaterial());
+		part.setCullFace(isosurface.getCullFace());
+		part.setCursor(isosurface.getCursor());
+		part.setScaleX(isosurface.getScaleX());
+		part.setScaleY(isosurface.getScaleY());
+		part.setScaleZ(isosurface.getScaleZ());
+		part.setTranslateX(isosurface.getTranslateX());
+		part.setTranslateY(isosurface.getTranslateY());
+		part.setTranslateZ(isosurface.getTranslateZ());
+		part.setOnMouseMoved(positionHandler);
+		surfaceGroup.getChildren().add(part);
+	}
+
+	/**
+	 * Removes the parts added with addSurfacePart(...), the main mesh is kept.
+	 */
+	public void clearSurfaceParts() {
+		surfaceGroup.getChildren().retainAll(isosurface);
+	}
+
+	/**
+	 * Points the camera at the middle of the surface, for when the surface was
+	 * empty as the scene was made.
+	 */
+	public void frame() {
+		frameCam(this);
+	}
+
 /**
  * The following four methods( frameCam, setCamTranslate, setCamPivot, setCamOffsets) have been taken
  * from the source code from the Rotation tutorial of JavaFX written by Oracle
@@ -225,7 +264,7 @@ class SurfaceDisplayer extends Scene{
         	}
         });
 
-		isosurface.setOnMouseMoved(new EventHandler<MouseEvent>(){
+		positionHandler = new EventHandler<MouseEvent>(){
 
 			@Override
 			public void handle(MouseEvent event) {
@@ -242,7 +281,8 @@ class SurfaceDisplayer extends Scene{
 				positionLabel.setText(buf.toString());
 			}
 
-		});
+		};
+		isosurface.setOnMouseMoved(positionHandler);
 	}
 
 	/**
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.jmx;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.eclipse.dawnsci.plotting.api.IPlottingSystem;
+
+/**
+ * Loopback harness for the stream plotting protocol. Sends images to a server in
+ * the same VM, which gives them to a plotting system which only counts them, and
+ * prints the frames per second for each way of sending them. For comparison it
+ * also prints how many frames per second can be serialised, which is what a JMX
+ * call has to do with each image before sending it.
+ *
+ * Arguments are the image size, 1024 by default, and the number of frames, 100 by default.
+ * In each frame a square of 64 pixels moves over a fixed noisy background.
+ */
+class StreamPlottingBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		final int size   = args.length>0 ? Integer.parseInt(args[0]) : 1024;
+		final int frames = args.length>1 ? Integer.parseInt(args[1]) : 100;
+
+		final AtomicInteger plotted = new AtomicInteger();
+		final IPlottingSystem system = (IPlottingSystem)Proxy.newProxyInstance(StreamPlottingBenchmark.class.getClassLoader(),
+				new Class<?>[]{IPlottingSystem.class}, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("updatePlot2D")) plotted.incrementAndGet();
+						return null;
+					}
+				});
+
+		final StreamPlottingServer server = new StreamPlottingServer(0) {
+			@Override
+			protected IPlottingSystem getPlottingSystem(String plotName) {
+				return system;
+			}
+		};
+		server.start();
+		try {
+			final DoubleDataset[] images = createImages(size, frames);
+			System.out.println(String.format("%d frames of %dx%d doubles", frames, size, size));
+			System.out.println(String.format("Serialised:         %8.1f fps", serialise(images)));
+
+			for (boolean delta : new boolean[]{false, true}) {
+				for (boolean compressed : new boolean[]{false, true}) {
+					final StreamPlottingClient client = new StreamPlottingClient("benchmark", "localhost", server.getPort());
+					try {
+						client.setDelta(delta);
+						client.setCompressed(compressed);
+						plotted.set(0);
+						final double fps = send(client, images);
+						if (plotted.get()!=2*images.length) throw new IllegalStateException("Only "+plotted.get()+" frames were plotted!");
+						System.out.println(String.format("Stream%-14s%8.1f fps", (delta ? " delta" : "")+(compressed ? " deflate" : "")+":", fps));
+					} finally {
+						client.close();
+					}
+				}
+			}
+		} finally {
+			server.stop();
+		}
+	}
+
+	private static DoubleDataset[] createImages(int size, int frames) {
+
+		final double[] background = new double[size*size];
+		final Random random = new Random(1);
+		for (int i = 0; i < background.length; i++) background[i] = 100+10*random.nextGaussian();
+
+		final DoubleDataset[] images = new DoubleDataset[frames];
+		for (int f = 0; f < frames; f++) {
+			final double[] data = background.clone();
+			final int x0 = (f*7)%(size-64), y0 = (f*3)%(size-64);
+			for (int y = y0; y < y0+64; y++) {
+				for (int x = x0; x < x0+64; x++) data[y*size+x] += 1000;
+			}
+			images[f] = new DoubleDataset(data, size, size);
+		}
+		return images;
+	}
+
+	/**
+	 * Sends all the images once to warm up and once timed.
+	 */
+	private static double send(StreamPlottingClient client, DoubleDataset[] images) throws IOException {
+		for (DoubleDataset image : images) client.updatePlot2D(image, null, "image");
+		client.sync();
+
+		final long start = System.nanoTime();
+		for (DoubleDataset image : images) client.updatePlot2D(image, null, "image");
+		client.sync();
+		return images.length/((System.nanoTime()-start)/1e9);
+	}
+
+	private static double serialise(DoubleDataset[] images) throws IOException {
+		final OutputStream sink = new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		};
+		final long start = System.nanoTime();
+		for (DoubleDataset image : images) {
+			final ObjectOutputStream out = new ObjectOutputStream(sink);
+			out.writeObject(image);
+			out.close();
+		}
+		return images.length/((System.nanoTime()-start)/1e9);
+	}
+}
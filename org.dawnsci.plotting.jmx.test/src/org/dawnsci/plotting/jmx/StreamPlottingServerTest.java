@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.jmx;
+
+import static org.dawnsci.plotting.jmx.StreamProtocol.*;
+
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.eclipse.dawnsci.plotting.api.IPlottingSystem;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the server ends connections which say they will send more than
+ * it accepts, rather than allocating it.
+ */
+public class StreamPlottingServerTest {
+
+	private StreamPlottingServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		final IPlottingSystem system = (IPlottingSystem)Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[]{IPlottingSystem.class}, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						return null;
+					}
+				});
+		server = new StreamPlottingServer(0) {
+			@Override
+			protected IPlottingSystem getPlottingSystem(String plotName) {
+				return system;
+			}
+		};
+		server.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		server.stop();
+	}
+
+	@Test
+	public void testSync() throws Exception {
+		final Socket socket = connect();
+		try {
+			send(socket, hello("test"), header(SYNC, 0));
+			Assert.assertEquals(1, socket.getInputStream().read());
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void testNameTooLong() throws Exception {
+		final ByteBuffer hello = buffer(8).putInt(MAGIC).putInt(Integer.MAX_VALUE);
+		assertClosed(hello);
+	}
+
+	@Test
+	public void testFrameTooLong() throws Exception {
+		assertClosed(hello("test"), header(SYNC, MAX_FRAME_LENGTH+1));
+	}
+
+	@Test
+	public void testDataTooLong() throws Exception {
+		// A 1x1 image which says it has a gigabyte of data
+		final ByteBuffer frame = buffer(64);
+		frame.put(FULL).put(FLOAT64).putInt(-1).put((byte)2).putInt(1).putInt(1).putInt(1<<30).putInt(8).putDouble(1);
+		frame.putInt(-1).putInt(-1);
+		assertClosed(hello("test"), header(UPDATE_PLOT_2D, frame.position()), frame);
+	}
+
+	private void assertClosed(ByteBuffer... buffers) throws Exception {
+		final Socket socket = connect();
+		try {
+			send(socket, buffers);
+			final InputStream in = socket.getInputStream();
+			Assert.assertEquals(-1, in.read());
+		} finally {
+			socket.close();
+		}
+	}
+
+	private Socket connect() throws Exception {
+		final Socket socket = new Socket(InetAddress.getByName(null), server.getPort());
+		socket.setSoTimeout(10000);
+		return socket;
+	}
+
+	private static void send(Socket socket, ByteBuffer... buffers) throws Exception {
+		for (ByteBuffer buffer : buffers) {
+			socket.getOutputStream().write(buffer.array(), 0, buffer.position());
+		}
+		socket.getOutputStream().flush();
+	}
+
+	private static ByteBuffer hello(String name) throws Exception {
+		final byte[] bytes = name.getBytes("UTF-8");
+		return buffer(8+bytes.length).putInt(MAGIC).putInt(bytes.length).put(bytes);
+	}
+
+	private static ByteBuffer header(byte operation, int size) {
+		return buffer(HEADER_LENGTH).put(operation).putInt(size);
+	}
+
+	private static ByteBuffer buffer(int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
@@ -30,78 +30,78 @@ class JMXAxisSystem extends JMXSystemObject implements IAxisSystem{
 
 	@Override
 	public IAxis createAxis(String title, boolean isYAxis, int side) {
-		return 	(IAxis)call(getMethodName(Thread.currentThread().getStackTrace()), 
+		return 	(IAxis)call("createAxis", 
 		                   new String[]{String.class.getName(), boolean.class.getName(), int.class.getName()},
 				           title, isYAxis, side);
 	}
 
 	@Override
 	public IAxis getSelectedYAxis() {
-		return (IAxis)call(getMethodName(Thread.currentThread().getStackTrace()));
+		return (IAxis)call("getSelectedYAxis");
 	}
 
 	@Override
 	public void setSelectedYAxis(IAxis yAxis) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), yAxis);
+		call("setSelectedYAxis", yAxis);
 	}
 
 	@Override
 	public IAxis getSelectedXAxis() {
-		return (IAxis)call(getMethodName(Thread.currentThread().getStackTrace()));
+		return (IAxis)call("getSelectedXAxis");
 	}
 
 	@Override
 	public void setSelectedXAxis(IAxis xAxis) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), xAxis);
+		call("setSelectedXAxis", xAxis);
 	}
 
 	@Override
 	public void autoscaleAxes() {
-		call(getMethodName(Thread.currentThread().getStackTrace()));
+		call("autoscaleAxes");
 	}
 
 
 	@Override
 	public IAxis removeAxis(IAxis axis) {
-		return (IAxis)call(getMethodName(Thread.currentThread().getStackTrace()), axis);	
+		return (IAxis)call("removeAxis", axis);	
 	}  
 
 	@SuppressWarnings("unchecked")
 	@Override
 	public List<IAxis> getAxes() {
-		return (List<IAxis>)call(getMethodName(Thread.currentThread().getStackTrace()));	
+		return (List<IAxis>)call("getAxes");	
 	}
 	
 	@Override
 	public IAxis getAxis(String name) {
-		return (IAxis)call(getMethodName(Thread.currentThread().getStackTrace()), name);	
+		return (IAxis)call("getAxis", name);	
 	}
 
 
 	@Override
 	public void addPositionListener(IPositionListener l) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), new Class[]{IPositionListener.class}, l);
+		call("addPositionListener", new Class[]{IPositionListener.class}, l);
 	}
 
 	@Override
 	public void removePositionListener(IPositionListener l) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), new Class[]{IPositionListener.class}, l);
+		call("removePositionListener", new Class[]{IPositionListener.class}, l);
 	}
 
 
 	@Override
 	public void addClickListener(IClickListener l) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), new Class[]{IClickListener.class}, l);
+		call("addClickListener", new Class[]{IClickListener.class}, l);
 	}
 
 	@Override
 	public void removeClickListener(IClickListener l) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), new Class[]{IClickListener.class}, l);
+		call("removeClickListener", new Class[]{IClickListener.class}, l);
 	}
 
 	@Override
 	public void resetAxes() {
-		call(getMethodName(Thread.currentThread().getStackTrace()));
+		call("resetAxes");
 	}
 
 }
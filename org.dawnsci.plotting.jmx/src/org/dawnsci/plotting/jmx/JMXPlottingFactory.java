@@ -30,4 +30,17 @@ public class JMXPlottingFactory {
 	public static IAxisSystem getAxisSystem(final String plotName, final String hostName, final int port) throws Exception {
 		return new JMXAxisSystem(plotName, hostName, port);
 	}
+
+	/**
+	 * Gets a client for streaming data to the plotting system, which is much faster
+	 * than JMX for large datasets. The remote client must be running a StreamPlottingServer.
+	 * @param plotName
+	 * @param hostName
+	 * @param port - see StreamPlottingServer.PORT_PROPERTY
+	 * @return
+	 * @throws Exception
+	 */
+	public static StreamPlottingClient getStreamingClient(final String plotName, final String hostName, final int port) throws Exception {
+		return new StreamPlottingClient(plotName, hostName, port);
+	}
 }
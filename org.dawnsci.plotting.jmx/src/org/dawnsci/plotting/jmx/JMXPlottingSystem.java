@@ -83,251 +83,251 @@ public class JMXPlottingSystem extends JMXSystemObject implements IPlottingSyste
 
 	@Override
 	public IImageTrace createImageTrace(String traceName) {
-		return (IImageTrace)call(getMethodName(Thread.currentThread().getStackTrace()), traceName);
+		return (IImageTrace)call("createImageTrace", traceName);
 	}
 
 	@Override
 	public IVectorTrace createVectorTrace(String traceName) {
-		return (IVectorTrace)call(getMethodName(Thread.currentThread().getStackTrace()), traceName);
+		return (IVectorTrace)call("createVectorTrace", traceName);
 	}
 
 	public Control setControl(Control alternative, boolean isToolbar) {
-		throw new RuntimeException("Expert method "+getMethodName(Thread.currentThread().getStackTrace())+" is not allowed in JMX mode!");
+		throw new RuntimeException("Expert method setControl is not allowed in JMX mode!");
 	}
 
 	@Override
 	public ILineTrace createLineTrace(String traceName) {
-		return (ILineTrace)call(getMethodName(Thread.currentThread().getStackTrace()), traceName);
+		return (ILineTrace)call("createLineTrace", traceName);
 	}
 
 	@Override
 	public ISurfaceTrace createSurfaceTrace(String traceName) {
-		return (ISurfaceTrace)call(getMethodName(Thread.currentThread().getStackTrace()), traceName);
+		return (ISurfaceTrace)call("createSurfaceTrace", traceName);
 	}
 	@Override
 	public IIsosurfaceTrace createIsosurfaceTrace(String traceName) {
-		return (IIsosurfaceTrace)call(getMethodName(Thread.currentThread().getStackTrace()), traceName);
+		return (IIsosurfaceTrace)call("createIsosurfaceTrace", traceName);
 	}
 
 	@Override
 	public IMulti2DTrace createMulti2DTrace(String traceName) {
-		return (IMulti2DTrace)call(getMethodName(Thread.currentThread().getStackTrace()), traceName);
+		return (IMulti2DTrace)call("createMulti2DTrace", traceName);
 	}
 
 	@Override
 	public ILineStackTrace createLineStackTrace(String traceName) {
-		return (ILineStackTrace)call(getMethodName(Thread.currentThread().getStackTrace()), traceName);
+		return (ILineStackTrace)call("createLineStackTrace", traceName);
 	}
 
 	@Override
 	public IScatter3DTrace createScatter3DTrace(String traceName) {
-		return (IScatter3DTrace)call(getMethodName(Thread.currentThread().getStackTrace()), traceName);
+		return (IScatter3DTrace)call("createScatter3DTrace", traceName);
 	}
 
 	@Override
 	public IImageStackTrace createImageStackTrace(String traceName) {
-		return (IImageStackTrace)call(getMethodName(Thread.currentThread().getStackTrace()), traceName);
+		return (IImageStackTrace)call("createImageStackTrace", traceName);
 	}
 
 	@Override
 	public void addTrace(ITrace trace) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), trace);
+		call("addTrace", trace);
 	}
 
 	@Override
 	public void removeTrace(ITrace trace) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), trace);
+		call("removeTrace", trace);
 	}
 
 	@Override
 	public ITrace getTrace(String name) {
-		return (ITrace)call(getMethodName(Thread.currentThread().getStackTrace()), name);
+		return (ITrace)call("getTrace", name);
 	}
 
 	@Override
 	public Collection<ITrace> getTraces() {
-		return (Collection<ITrace>)call(getMethodName(Thread.currentThread().getStackTrace()));
+		return (Collection<ITrace>)call("getTraces");
 	}
 
 	@Override
 	public Collection<ITrace> getTraces(Class<? extends ITrace> clazz) {
-		return (Collection<ITrace>)call(getMethodName(Thread.currentThread().getStackTrace()), clazz);
+		return (Collection<ITrace>)call("getTraces", clazz);
 	}
 
 	@Override
 	public void addTraceListener(ITraceListener l) {
-		call(getMethodName(Thread.currentThread().getStackTrace()),l);
+		call("addTraceListener",l);
 	}
 
 	@Override
 	public void removeTraceListener(ITraceListener l) {
-		call(getMethodName(Thread.currentThread().getStackTrace()),l);
+		call("removeTraceListener",l);
 	}
 
 	@Override
 	public void renameTrace(ITrace trace, String name) throws Exception {
-		call(getMethodName(Thread.currentThread().getStackTrace()), trace, name);
+		call("renameTrace", trace, name);
 	}
 
 	@Override
 	public void moveTrace(String oldName, String name) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), oldName, name);
+		call("moveTrace", oldName, name);
 	}
 
 	@Override
 	public IRegion createRegion(String name, RegionType regionType) throws Exception {
-		return (IRegion)call(getMethodName(Thread.currentThread().getStackTrace()), name, regionType);
+		return (IRegion)call("createRegion", name, regionType);
 	}
 
 	@Override
 	public void addRegion(IRegion region) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), region);
+		call("addRegion", region);
 	}
 
 	@Override
 	public void removeRegion(IRegion region) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), region);
+		call("removeRegion", region);
 	}
 
 	@Override
 	public IRegion getRegion(String name) {
-		return (IRegion)call(getMethodName(Thread.currentThread().getStackTrace()),name);
+		return (IRegion)call("getRegion",name);
 	}
 
 	@Override
 	public Collection<IRegion> getRegions(RegionType type) {
-		return (Collection<IRegion>)call(getMethodName(Thread.currentThread().getStackTrace()), type);
+		return (Collection<IRegion>)call("getRegions", type);
 	}
 
 	@Override
 	public boolean addRegionListener(IRegionListener l) {
-		return (Boolean)call(getMethodName(Thread.currentThread().getStackTrace()), l);
+		return (Boolean)call("addRegionListener", l);
 	}
 
 	@Override
 	public boolean removeRegionListener(IRegionListener l) {
-		return (Boolean)call(getMethodName(Thread.currentThread().getStackTrace()), l);
+		return (Boolean)call("removeRegionListener", l);
 	}
 
 	@Override
 	public void clearRegions() {
-		call(getMethodName(Thread.currentThread().getStackTrace()));
+		call("clearRegions");
 	}
 	@Override
 	public void clearTraces() {
-		call(getMethodName(Thread.currentThread().getStackTrace()));
+		call("clearTraces");
 	}
 
 	@Override
 	public Collection<IRegion> getRegions() {
-		return (Collection<IRegion>)call(getMethodName(Thread.currentThread().getStackTrace()));
+		return (Collection<IRegion>)call("getRegions");
 	}
 
 	@Override
 	public void renameRegion(IRegion region, String name) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), region, name);
+		call("renameRegion", region, name);
 	}
 
 	@Override
 	public IAxis createAxis(String title, boolean isYAxis, int side) {
-		return 	(IAxis)call(getMethodName(Thread.currentThread().getStackTrace()), 
+		return 	(IAxis)call("createAxis", 
 				           new Class[]{String.class, boolean.class, int.class},
 				           title, isYAxis, side);
 	}
 
 	@Override
 	public IAxis getSelectedYAxis() {
-		return (IAxis)call(getMethodName(Thread.currentThread().getStackTrace()));
+		return (IAxis)call("getSelectedYAxis");
 	}
 
 	@Override
 	public void setSelectedYAxis(IAxis yAxis) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), yAxis);
+		call("setSelectedYAxis", yAxis);
 	}
 
 	@Override
 	public IAxis getSelectedXAxis() {
-		return (IAxis)call(getMethodName(Thread.currentThread().getStackTrace()));
+		return (IAxis)call("getSelectedXAxis");
 	}
 
 	@Override
 	public void setSelectedXAxis(IAxis xAxis) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), xAxis);
+		call("setSelectedXAxis", xAxis);
 	}
 
 	@Override
 	public void autoscaleAxes() {
-		call(getMethodName(Thread.currentThread().getStackTrace()));
+		call("autoscaleAxes");
 	}
 
 	@Override
 	public IAnnotation createAnnotation(String name) throws Exception {
-		return (IAnnotation)call(getMethodName(Thread.currentThread().getStackTrace()), name);
+		return (IAnnotation)call("createAnnotation", name);
 	}
 
 	@Override
 	public void addAnnotation(IAnnotation annot) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), annot);
+		call("addAnnotation", annot);
 	}
 
 	@Override
 	public void removeAnnotation(IAnnotation annot) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), annot);
+		call("removeAnnotation", annot);
 	}
 
 	@Override
 	public IAnnotation getAnnotation(String name) {
-		return (IAnnotation)call(getMethodName(Thread.currentThread().getStackTrace()), name);
+		return (IAnnotation)call("getAnnotation", name);
 	}
 
 	@Override
 	public void clearAnnotations() {
-		call(getMethodName(Thread.currentThread().getStackTrace()));
+		call("clearAnnotations");
 	}
 
 	@Override
 	public void renameAnnotation(IAnnotation annotation, String name) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), annotation, name);
+		call("renameAnnotation", annotation, name);
 	}
 
 	@Override
 	public void printPlotting() {
-		call(getMethodName(Thread.currentThread().getStackTrace()));
+		call("printPlotting");
 	}
 
 	@Override
 	public void copyPlotting() {
-		call(getMethodName(Thread.currentThread().getStackTrace()));
+		call("copyPlotting");
 	}
 
 	@Override
 	public String savePlotting(String filename) throws Exception {
-		return (String)call(getMethodName(Thread.currentThread().getStackTrace()), filename);
+		return (String)call("savePlotting", filename);
 	}
 
 	@Override
 	public void savePlotting(String filename, String filetype) throws Exception {
-		call(getMethodName(Thread.currentThread().getStackTrace()), filename, filetype);
+		call("savePlotting", filename, filetype);
 	}
 
 	@Override
 	public String getTitle() {
-		return (String)call(getMethodName(Thread.currentThread().getStackTrace()));
+		return (String)call("getTitle");
 	}
 
 	@Override
 	public void setTitle(String title) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), title);
+		call("setTitle", title);
 	}
 
 	@Override
 	public void setTitleColor(Color color) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), color);
+		call("setTitleColor", color);
 	}
 
 	@Override
 	public void setBackgroundColor(Color color) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), color);
+		call("setBackgroundColor", color);
 	}
 
 	@Override
@@ -342,81 +342,81 @@ public class JMXPlottingSystem extends JMXSystemObject implements IPlottingSyste
 
 	@Override
 	public String getPlotName() {
-		return (String)call(getMethodName(Thread.currentThread().getStackTrace()));
+		return (String)call("getPlotName");
 	}
 
 	@Override
 	public List<ITrace> createPlot1D(IDataset x, List<? extends IDataset> ys, IProgressMonitor monitor) {
-		return (List<ITrace>)call(getMethodName(Thread.currentThread().getStackTrace()), x,ys,monitor);
+		return (List<ITrace>)call("createPlot1D", x,ys,monitor);
 	}
 
 	@Override
 	public List<ITrace> createPlot1D(IDataset x,
 			List<? extends IDataset> ys, String title, IProgressMonitor monitor) {
-		return (List<ITrace>)call(getMethodName(Thread.currentThread().getStackTrace()), x,ys, title, monitor);
+		return (List<ITrace>)call("createPlot1D", x,ys, title, monitor);
 	}
 
 	@Override
 	public List<ITrace> updatePlot1D(IDataset x,
 			List<? extends IDataset> ys, IProgressMonitor monitor) {
-		return (List<ITrace>)call(getMethodName(Thread.currentThread().getStackTrace()), x,ys,monitor);
+		return (List<ITrace>)call("updatePlot1D", x,ys,monitor);
 	}
 
 	@Override
 	public List<ITrace> updatePlot1D(IDataset x, List<? extends IDataset> ys, String plotTitle, IProgressMonitor monitor) {
-		return (List<ITrace>)call(getMethodName(Thread.currentThread().getStackTrace()), x, ys, plotTitle, monitor);
+		return (List<ITrace>)call("updatePlot1D", x, ys, plotTitle, monitor);
 	}
 
 	@Override
 	public ITrace createPlot2D(IDataset image,
 			List<? extends IDataset> axes, IProgressMonitor monitor) {
-		return (ITrace)call(getMethodName(Thread.currentThread().getStackTrace()), image,axes,monitor);
+		return (ITrace)call("createPlot2D", image,axes,monitor);
 	}
 
 	@Override
 	public ITrace updatePlot2D(IDataset image,
 			List<? extends IDataset> axes, IProgressMonitor monitor) {
-		return (ITrace)call(getMethodName(Thread.currentThread().getStackTrace()), image,axes,monitor);
+		return (ITrace)call("updatePlot2D", image,axes,monitor);
 	}
 
 	@Override
 	public void setPlotType(PlotType plotType) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), plotType);
+		call("setPlotType", plotType);
 	}
 
 	@Override
 	public void append(String dataSetName, Number xValue, Number yValue, IProgressMonitor monitor) throws Exception {
-		call(getMethodName(Thread.currentThread().getStackTrace()), dataSetName,xValue,yValue,monitor);
+		call("append", dataSetName,xValue,yValue,monitor);
 	}
 
 	@Override
 	public void reset() {
-		call(getMethodName(Thread.currentThread().getStackTrace()));
+		call("reset");
 	}
 
 	@Override
 	public void resetAxes() {
-		call(getMethodName(Thread.currentThread().getStackTrace()));
+		call("resetAxes");
 	}
 
 	@Override
 	public void clear() {
-		call(getMethodName(Thread.currentThread().getStackTrace()));
+		call("clear");
 	}
 
 	@Override
 	public void dispose() {
-		call(getMethodName(Thread.currentThread().getStackTrace()));
+		call("dispose");
 	}
 
 	@Override
 	public void repaint() {
-		call(getMethodName(Thread.currentThread().getStackTrace()));
+		call("repaint");
 	}
 	
 	@Override
 	public void repaint(boolean autoScale) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), new Class[]{boolean.class}, autoScale);
+		call("repaint", new Class[]{boolean.class}, autoScale);
 	}
 
 	@Override
@@ -431,109 +431,109 @@ public class JMXPlottingSystem extends JMXSystemObject implements IPlottingSyste
 
 	@Override
 	public PlotType getPlotType() {
-		return (PlotType)call(getMethodName(Thread.currentThread().getStackTrace()));
+		return (PlotType)call("getPlotType");
 	}
 
 	@Override
 	public boolean is2D() {
-		return (Boolean)call(getMethodName(Thread.currentThread().getStackTrace()));
+		return (Boolean)call("is2D");
 	}
 
 	@Override
 	public IActionBars getActionBars() {
-		return (IActionBars)call(getMethodName(Thread.currentThread().getStackTrace()));
+		return (IActionBars)call("getActionBars");
 	}
 
 	@Override
 	public IPlotActionSystem getPlotActionSystem() {
-		return (IPlotActionSystem)call(getMethodName(Thread.currentThread().getStackTrace()));
+		return (IPlotActionSystem)call("getPlotActionSystem");
 	}
 
 	@Override
 	public void setDefaultCursor(int cursorType) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), new Class[] { int.class }, cursorType);
+		call("setDefaultCursor", new Class[] { int.class }, cursorType);
 	}
 
 	@Override
 	public IAxis removeAxis(IAxis axis) {
-		return (IAxis) call(getMethodName(Thread.currentThread().getStackTrace()), axis);
+		return (IAxis) call("removeAxis", axis);
 	}
 
 	@Override
 	public List<IAxis> getAxes() {
-		return (List<IAxis>) call(getMethodName(Thread.currentThread().getStackTrace()));
+		return (List<IAxis>) call("getAxes");
 	}
 	
 	@Override
 	public IAxis getAxis(String name) {
-		return (IAxis)call(getMethodName(Thread.currentThread().getStackTrace()), name);	
+		return (IAxis)call("getAxis", name);	
 	}
 
 
 	@Override
 	public void addPositionListener(IPositionListener l) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), new Class[] { IPositionListener.class }, l);
+		call("addPositionListener", new Class[] { IPositionListener.class }, l);
 	}
 
 	@Override
 	public void removePositionListener(IPositionListener l) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), new Class[] { IPositionListener.class }, l);
+		call("removePositionListener", new Class[] { IPositionListener.class }, l);
 	}
 
 	@Override
 	public void setKeepAspect(boolean b) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), new Class[] { boolean.class }, b);
+		call("setKeepAspect", new Class[] { boolean.class }, b);
 	}
 
 	@Override
 	public boolean isShowIntensity() {
-		return (Boolean)call(getMethodName(Thread.currentThread().getStackTrace()));
+		return (Boolean)call("isShowIntensity");
 	}
 
 	@Override
 	public void setShowIntensity(boolean b) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), new Class[] { boolean.class }, b);
+		call("setShowIntensity", new Class[] { boolean.class }, b);
 	}
 
 	@Override
 	public void setShowLegend(boolean b) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), new Class[] { boolean.class }, b);
+		call("setShowLegend", new Class[] { boolean.class }, b);
 	}
 
 	@SuppressWarnings("rawtypes")
 	@Override
 	public Object getAdapter(Class adapter) {
-		return call(getMethodName(Thread.currentThread().getStackTrace()), new Class[] { adapter }, adapter);
+		return call("getAdapter", new Class[] { adapter }, adapter);
 	}
 
 
 	@Override
 	public boolean isDisposed() {
-		return (Boolean)call(getMethodName(Thread.currentThread().getStackTrace()));
+		return (Boolean)call("isDisposed");
 	}
 
 	@Override
 	public void setColorOption(ColorOption colorOption) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), new Class[] { ColorOption.class }, colorOption);
+		call("setColorOption", new Class[] { ColorOption.class }, colorOption);
 	}
 
 	@Override
 	public boolean isRescale() {
-		return (Boolean)call(getMethodName(Thread.currentThread().getStackTrace()));
+		return (Boolean)call("isRescale");
 	}
 
 	@Override
 	public void setRescale(boolean rescale) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), new Class[] { boolean.class }, rescale);
+		call("setRescale", new Class[] { boolean.class }, rescale);
 	}
 
 	@Override
 	public void setFocus() {
-		call(getMethodName(Thread.currentThread().getStackTrace()));
+		call("setFocus");
 	}
 	
 	public boolean isXFirst() {
-		return (Boolean)call(getMethodName(Thread.currentThread().getStackTrace()));
+		return (Boolean)call("isXFirst");
 	}
 
 	/**
@@ -541,10 +541,10 @@ public class JMXPlottingSystem extends JMXSystemObject implements IPlottingSyste
 	 * @param xFirst
 	 */
 	public void setXFirst(boolean xFirst) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), new Class[]{boolean.class}, xFirst);
+		call("setXFirst", new Class[]{boolean.class}, xFirst);
 	}
 	public void fireWillPlot(final TraceWillPlotEvent evt) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), evt);
+		call("fireWillPlot", evt);
 	}
 	
 	/**
@@ -552,71 +552,71 @@ public class JMXPlottingSystem extends JMXSystemObject implements IPlottingSyste
 	 * @param evt
 	 */
 	public void fireTraceUpdated(final TraceEvent evt) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), evt);		
+		call("fireTraceUpdated", evt);		
 	}
 
 	public void fireTraceAdded(final TraceEvent evt) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), evt);		
+		call("fireTraceAdded", evt);		
 	}
 
 	@Override
 	public IWorkbenchPart getPart() {
-		return (IWorkbenchPart)call(getMethodName(Thread.currentThread().getStackTrace()));
+		return (IWorkbenchPart)call("getPart");
 	}
 
 	@Override
 	public List<ITrace> createPlot1D(IDataset x, List<? extends IDataset> ys,
 			List<String> dataNames, String title, IProgressMonitor monitor) {
-		return (List<ITrace>)call(getMethodName(Thread.currentThread().getStackTrace()), x,ys,dataNames, title, monitor);
+		return (List<ITrace>)call("createPlot1D", x,ys,dataNames, title, monitor);
 	}
 
 	@Override
 	public List<ITrace> updatePlot1D(IDataset x, List<? extends IDataset> ys,
 			List<String> dataNames, IProgressMonitor monitor) {
-		return (List<ITrace>)call(getMethodName(Thread.currentThread().getStackTrace()), x,ys,dataNames, monitor);
+		return (List<ITrace>)call("updatePlot1D", x,ys,dataNames, monitor);
 	}
 
 	@Override
 	public ITrace createPlot2D(IDataset image, List<? extends IDataset> axes,
 			String dataName, IProgressMonitor monitor) {
-		return (ITrace)call(getMethodName(Thread.currentThread().getStackTrace()), image, axes, dataName, monitor);
+		return (ITrace)call("createPlot2D", image, axes, dataName, monitor);
 	}
 
 	@Override
 	public ITrace updatePlot2D(IDataset image, List<? extends IDataset> axes,
 			String dataName, IProgressMonitor monitor) {
-		return (ITrace)call(getMethodName(Thread.currentThread().getStackTrace()), image, axes, dataName, monitor);
+		return (ITrace)call("updatePlot2D", image, axes, dataName, monitor);
 	}
 	
 
 	@Override
 	public void setEnabled(boolean enabled) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), new Class[]{boolean.class}, enabled);		
+		call("setEnabled", new Class[]{boolean.class}, enabled);		
 	}
 
 	@Override
 	public boolean isEnabled() {
-		return (Boolean)call(getMethodName(Thread.currentThread().getStackTrace()));
+		return (Boolean)call("isEnabled");
 	}
 
 
 	@Override
 	public void addClickListener(IClickListener l) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), new Class[]{IClickListener.class}, l);
+		call("addClickListener", new Class[]{IClickListener.class}, l);
 	}
 
 	@Override
 	public void removeClickListener(IClickListener l) {
-		call(getMethodName(Thread.currentThread().getStackTrace()), new Class[]{IClickListener.class}, l);
+		call("removeClickListener", new Class[]{IClickListener.class}, l);
 	}
 	@Override
 	public void clearRegionTool() {
-		call(getMethodName(Thread.currentThread().getStackTrace()));
+		call("clearRegionTool");
 	}
 
 	@Override
 	public void printScaledPlotting() {
-		call(getMethodName(Thread.currentThread().getStackTrace()));
+		call("printScaledPlotting");
 	}
 
 }
@@ -34,23 +34,6 @@ class JMXSystemObject {
 	    this.remotePlotName = new ObjectName("remote.plotting.system/"+plotName+":type=RemotePlottingSystem");
 	}
 
-	protected static final String getMethodName ( StackTraceElement ste[] ) {  
-		   
-	    String methodName = "";  
-	    boolean flag = false;  
-	   
-	    for ( StackTraceElement s : ste ) {  
-	   
-	        if ( flag ) {  
-	   
-	            methodName = s.getMethodName();  
-	            break;  
-	        }  
-	        flag = s.getMethodName().equals( "getStackTrace" );  
-	    }  
-	    return methodName;  
-	}
-
 	/**
 	 * Calls method in a SWT thread safe way.
 	 * @param methodName
@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.jmx;
+
+import static org.dawnsci.plotting.jmx.StreamProtocol.*;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+
+/**
+ * Sends the plotting calls which carry data to a remote plotting system over a
+ * socket, as the primitive buffers of the datasets rather than serialised objects.
+ * This is for streaming, for instance live images from an acquisition server; the
+ * other methods of the plotting system, and those which return traces, are still
+ * available with JMXPlottingSystem.
+ *
+ * The plotting system must be in a client with a StreamPlottingServer running, see
+ * StreamPlottingServer.PORT_PROPERTY. Calls do not wait for the plot to be done,
+ * use sync() for that. Errors in the remote plotting system are logged there.
+ *
+ * Images given to updatePlot2D(...) are sent as the parts which have changed since
+ * the last image of the same name, if that is smaller. They can also be deflated.
+ */
+public class StreamPlottingClient {
+
+	/**
+	 * Size in bytes of the blocks compared to find the changes in an image.
+	 */
+	private static final int DELTA_BLOCK    = 512;
+
+	/**
+	 * Size in bytes below which data is not worth compressing.
+	 */
+	private static final int MIN_COMPRESSED = 4096;
+
+	private final SocketChannel         channel;
+	private final StreamProtocol.Output out;
+	private final Map<String, Image>    images;   // The last image of each name, for deltas
+	private final ByteBuffer            reply;
+
+	private boolean  compressed;
+	private boolean  delta = true;
+	private Deflater deflater;
+	private byte[]   work;     // Deltas are made in here
+	private byte[]   zipped;   // and compressed data in here
+	private byte[]   spare;    // Bytes of an image no longer needed, used for the next one
+
+	private static final class Image {
+		final byte   type;
+		final int[]  shape;
+		final byte[] bytes;
+		Image(byte type, int[] shape, byte[] bytes) {
+			this.type  = type;
+			this.shape = shape;
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * @param plotName - the name of the plotting system as registered in the PlottingFactory.
+	 * @param hostName
+	 * @param port - of the StreamPlottingServer
+	 * @throws IOException
+	 */
+	public StreamPlottingClient(final String plotName, final String hostName, final int port) throws IOException {
+
+		this.channel = SocketChannel.open(new InetSocketAddress(hostName, port));
+		channel.socket().setTcpNoDelay(true);
+		this.out    = new StreamProtocol.Output();
+		this.images = new HashMap<String, Image>(7);
+		this.reply  = ByteBuffer.allocate(1).order(ByteOrder.LITTLE_ENDIAN);
+
+		final byte[]     name  = plotName.getBytes("UTF-8");
+		final ByteBuffer hello = ByteBuffer.allocate(8+name.length).order(ByteOrder.LITTLE_ENDIAN);
+		hello.putInt(MAGIC).putInt(name.length).put(name);
+		hello.flip();
+		writeFully(channel, hello);
+	}
+
+	/**
+	 * @param compressed - true to deflate data, which is worth it for images with
+	 *                     large areas which are the same or over slow networks.
+	 */
+	public synchronized void setCompressed(boolean compressed) {
+		this.compressed = compressed;
+	}
+
+	/**
+	 * @param delta - false to always send whole images, true by default.
+	 */
+	public synchronized void setDelta(boolean delta) {
+		this.delta = delta;
+	}
+
+	public synchronized void createPlot1D(IDataset x, List<? extends IDataset> ys, String title) throws IOException {
+		plot1D(CREATE_PLOT_1D, x, ys, title);
+	}
+
+	public synchronized void updatePlot1D(IDataset x, List<? extends IDataset> ys, String title) throws IOException {
+		plot1D(UPDATE_PLOT_1D, x, ys, title);
+	}
+
+	public synchronized void createPlot2D(IDataset image, List<? extends IDataset> axes, String dataName) throws IOException {
+		plot2D(CREATE_PLOT_2D, image, axes, dataName);
+	}
+
+	public synchronized void updatePlot2D(IDataset image, List<? extends IDataset> axes, String dataName) throws IOException {
+		plot2D(UPDATE_PLOT_2D, image, axes, dataName);
+	}
+
+	public synchronized void append(String dataSetName, Number xValue, Number yValue) throws IOException {
+		out.begin(APPEND);
+		out.putString(dataSetName);
+		out.ensure(16).putDouble(xValue.doubleValue()).putDouble(yValue.doubleValue());
+		send();
+	}
+
+	public synchronized void clear() throws IOException {
+		out.begin(CLEAR);
+		send();
+	}
+
+	public synchronized void reset() throws IOException {
+		out.begin(RESET);
+		send();
+	}
+
+	public synchronized void setTitle(String title) throws IOException {
+		out.begin(SET_TITLE);
+		out.putString(title);
+		send();
+	}
+
+	public synchronized void repaint() throws IOException {
+		out.begin(REPAINT);
+		send();
+	}
+
+	/**
+	 * Waits until the remote plotting system has been given everything sent before.
+	 * @throws IOException
+	 */
+	public synchronized void sync() throws IOException {
+		out.begin(SYNC);
+		send();
+		readFully(channel, reply, 1);
+	}
+
+	public synchronized void close() throws IOException {
+		images.clear();
+		if (deflater!=null) deflater.end();
+		channel.close();
+	}
+
+	private void plot1D(byte operation, IDataset x, List<? extends IDataset> ys, String title) throws IOException {
+		out.begin(operation);
+		putDataset(x, null);
+		putDatasets(ys);
+		out.putString(title);
+		send();
+	}
+
+	private void plot2D(byte operation, IDataset image, List<? extends IDataset> axes, String dataName) throws IOException {
+		out.begin(operation);
+		putDataset(image, dataName!=null ? dataName : "");
+		putDatasets(axes);
+		out.putString(dataName);
+		send();
+	}
+
+	private void send() throws IOException {
+		final ByteBuffer frame = out.end();
+		if (frame.remaining()-HEADER_LENGTH > MAX_FRAME_LENGTH) {
+			throw new IOException("Stream plotting frame of "+frame.remaining()+" bytes is larger than the server accepts");
+		}
+		writeFully(channel, frame);
+	}
+
+	private void putDatasets(List<? extends IDataset> sets) {
+		out.ensure(4).putInt(sets!=null ? sets.size() : -1);
+		if (sets!=null) for (IDataset set : sets) putDataset(set, null);
+	}
+
+	/**
+	 * @param set
+	 * @param key - name of the image for deltas, or null if the dataset is not an image.
+	 */
+	private void putDataset(IDataset set, String key) {
+
+		if (set==null) {
+			out.ensure(1).put(NULL);
+			return;
+		}
+
+		Dataset data = DatasetUtils.convertToDataset(set);
+		byte    type = getType(data);
+		if (type==0) {
+			data = DatasetUtils.cast(data, Dataset.FLOAT64);
+			type = FLOAT64;
+		}
+		Object buffer = data.getBuffer();
+		if (buffer==null || Array.getLength(buffer)!=data.getSize()) {
+			data   = data.clone();
+			buffer = data.getBuffer();
+		}
+
+		final int[] shape  = data.getShape();
+		final int   length = data.getSize()*getElementSize(type);
+		final byte[] bytes = spare!=null && spare.length==length ? spare : new byte[length];
+		spare = null;
+		toBytes(buffer, type, bytes);
+
+		// Either the bytes or the changes to them
+		byte   encoding  = FULL;
+		byte[] raw       = bytes;
+		int    rawLength = length;
+
+		final Image previous = key!=null ? images.get(key) : null;
+		if (delta && previous!=null && previous.type==type && Arrays.equals(previous.shape, shape)) {
+			final int changes = getDelta(previous.bytes, bytes, length/2);
+			if (changes>=0) {
+				encoding  = DELTA;
+				raw       = work;
+				rawLength = changes;
+			}
+		}
+
+		byte[] stored       = raw;
+		int    storedLength = rawLength;
+		if (compressed && rawLength>=MIN_COMPRESSED) {
+			if (deflater==null) deflater = new Deflater(Deflater.BEST_SPEED);
+			if (zipped==null || zipped.length<rawLength) zipped = new byte[rawLength];
+			deflater.reset();
+			deflater.setInput(raw, 0, rawLength);
+			deflater.finish();
+			final int size = deflater.deflate(zipped, 0, rawLength);
+			if (deflater.finished() && size<rawLength) {
+				encoding    |= COMPRESSED;
+				stored       = zipped;
+				storedLength = size;
+			}
+		}
+
+		out.ensure(2).put(encoding).put(type);
+		out.putString(data.getName());
+		final ByteBuffer buf = out.ensure(1+4*shape.length+8+storedLength);
+		buf.put((byte)shape.length);
+		for (int s : shape) buf.putInt(s);
+		buf.putInt(rawLength).putInt(storedLength);
+		buf.put(stored, 0, storedLength);
+
+		if (key!=null) {
+			images.put(key, new Image(type, shape, bytes));
+			if (previous!=null) spare = previous.bytes;
+		} else {
+			spare = bytes;
+		}
+	}
+
+	/**
+	 * Writes the runs of blocks which differ into work.
+	 * @return the length of the runs written or -1 if they would be longer than limit.
+	 */
+	private int getDelta(byte[] previous, byte[] current, int limit) {
+
+		if (work==null || work.length<limit+DELTA_BLOCK+12) work = new byte[limit+DELTA_BLOCK+12];
+		final ByteBuffer runs = ByteBuffer.wrap(work).order(ByteOrder.LITTLE_ENDIAN);
+		runs.putInt(0); // Number of runs
+
+		int count = 0;
+		int start = -1; // Of the run being found
+		for (int off = 0; ; off += DELTA_BLOCK) {
+			final boolean last = off>=current.length;
+			final int     end  = Math.min(off+DELTA_BLOCK, current.length);
+			boolean changed = false;
+			for (int i = off; i < end; i++) {
+				if (previous[i]!=current[i]) {
+					changed = true;
+					break;
+				}
+			}
+			if (changed) {
+				if (start<0) start = off;
+				continue;
+			}
+			if (start>=0) { // Run ended before this block
+				final int size = Math.min(off, current.length)-start;
+				if (runs.position()+8+size>limit) return -1;
+				runs.putInt(start).putInt(size).put(current, start, size);
+				++count;
+				start = -1;
+			}
+			if (last) break;
+		}
+		runs.putInt(0, count);
+		return runs.position();
+	}
+}
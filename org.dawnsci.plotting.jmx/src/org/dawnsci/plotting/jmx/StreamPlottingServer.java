@@ -0,0 +1,395 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.jmx;
+
+import static org.dawnsci.plotting.jmx.StreamProtocol.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.plotting.api.IPlottingSystem;
+import org.eclipse.dawnsci.plotting.api.PlottingFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receives the calls of StreamPlottingClient and gives them to the plotting systems
+ * of this client. Each connection is read by a thread of its own and its frames are
+ * given to the handler for their operation from a table made once.
+ *
+ * There is no authentication, so by default the server only listens on the loopback
+ * interface, see HOST_PROPERTY. Names, frames and datasets larger than the limits of
+ * StreamProtocol end the connection.
+ */
+public class StreamPlottingServer {
+
+	private static final Logger logger = LoggerFactory.getLogger(StreamPlottingServer.class);
+
+	/**
+	 * Port to listen for StreamPlottingClient on. There is no server unless this is set.
+	 */
+	public static final String PORT_PROPERTY = "org.dawnsci.plotting.jmx.stream.port";
+
+	/**
+	 * Host name or address of the interface to listen on, loopback if this is not set.
+	 * Anyone who can connect can plot, so only set it to an interface of a trusted network.
+	 */
+	public static final String HOST_PROPERTY = "org.dawnsci.plotting.jmx.stream.host";
+
+	private static StreamPlottingServer instance;
+
+	/**
+	 * Starts the server for the plotting systems of this client, if PORT_PROPERTY is
+	 * set and it is not already running.
+	 * @throws IOException
+	 */
+	public static synchronized void startIfRequired() throws IOException {
+		if (instance!=null) return;
+		final Integer port = Integer.getInteger(PORT_PROPERTY);
+		if (port==null) return;
+		final StreamPlottingServer server = new StreamPlottingServer(System.getProperty(HOST_PROPERTY), port);
+		server.start();
+		instance = server;
+	}
+
+	private final String        host;
+	private final int           port;
+	private ServerSocketChannel serverChannel;
+	private volatile boolean    stopped;
+
+	/**
+	 * Listens on the loopback interface.
+	 * @param port - 0 for any free port, see getPort()
+	 */
+	StreamPlottingServer(int port) {
+		this(null, port);
+	}
+
+	/**
+	 * @param host - of the interface to listen on, null for loopback
+	 * @param port - 0 for any free port, see getPort()
+	 */
+	StreamPlottingServer(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	void start() throws IOException {
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().bind(new InetSocketAddress(InetAddress.getByName(host), port));
+
+		final Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "Stream plotting server "+getPort());
+		acceptor.setDaemon(true);
+		acceptor.start();
+		logger.debug("Stream plotting server listening on "+serverChannel.socket().getLocalSocketAddress());
+	}
+
+	int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	void stop() throws IOException {
+		stopped = true;
+		serverChannel.close();
+	}
+
+	/**
+	 * @param plotName
+	 * @return the plotting system to give the calls of a client for this plot to.
+	 */
+	protected IPlottingSystem getPlottingSystem(String plotName) {
+		return PlottingFactory.getPlottingSystem(plotName);
+	}
+
+	private void accept() {
+		while (!stopped) {
+			try {
+				final Connection connection = new Connection(serverChannel.accept());
+				final Thread thread = new Thread(connection, "Stream plotting connection");
+				thread.setDaemon(true);
+				thread.start();
+			} catch (IOException ne) {
+				if (!stopped) logger.error("Cannot accept stream plotting connection", ne);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Carries out an operation with its arguments read from the frame.
+	 */
+	private static abstract class Handler {
+		abstract void handle(Connection connection, IPlottingSystem system, ByteBuffer in) throws Exception;
+	}
+
+	private static final Handler[] HANDLERS = new Handler[OPERATIONS];
+	static {
+		HANDLERS[CREATE_PLOT_1D] = new Handler() {
+			@Override
+			void handle(Connection connection, IPlottingSystem system, ByteBuffer in) throws Exception {
+				final IDataset       x     = connection.getDataset(in, null);
+				final List<IDataset> ys    = connection.getDatasets(in);
+				system.createPlot1D(x, ys, getString(in), null);
+			}
+		};
+		HANDLERS[UPDATE_PLOT_1D] = new Handler() {
+			@Override
+			void handle(Connection connection, IPlottingSystem system, ByteBuffer in) throws Exception {
+				final IDataset       x     = connection.getDataset(in, null);
+				final List<IDataset> ys    = connection.getDatasets(in);
+				system.updatePlot1D(x, ys, getString(in), null);
+			}
+		};
+		HANDLERS[CREATE_PLOT_2D] = new Handler() {
+			@Override
+			void handle(Connection connection, IPlottingSystem system, ByteBuffer in) throws Exception {
+				final IDataset       image = connection.getImage(in);
+				final List<IDataset> axes  = connection.getDatasets(in);
+				system.createPlot2D(image, axes, getString(in), null);
+			}
+		};
+		HANDLERS[UPDATE_PLOT_2D] = new Handler() {
+			@Override
+			void handle(Connection connection, IPlottingSystem system, ByteBuffer in) throws Exception {
+				final IDataset       image = connection.getImage(in);
+				final List<IDataset> axes  = connection.getDatasets(in);
+				system.updatePlot2D(image, axes, getString(in), null);
+			}
+		};
+		HANDLERS[APPEND] = new Handler() {
+			@Override
+			void handle(Connection connection, IPlottingSystem system, ByteBuffer in) throws Exception {
+				final String name = getString(in);
+				system.append(name, in.getDouble(), in.getDouble(), null);
+			}
+		};
+		HANDLERS[CLEAR] = new Handler() {
+			@Override
+			void handle(Connection connection, IPlottingSystem system, ByteBuffer in) throws Exception {
+				system.clear();
+			}
+		};
+		HANDLERS[RESET] = new Handler() {
+			@Override
+			void handle(Connection connection, IPlottingSystem system, ByteBuffer in) throws Exception {
+				system.reset();
+			}
+		};
+		HANDLERS[SET_TITLE] = new Handler() {
+			@Override
+			void handle(Connection connection, IPlottingSystem system, ByteBuffer in) throws Exception {
+				system.setTitle(getString(in));
+			}
+		};
+		HANDLERS[REPAINT] = new Handler() {
+			@Override
+			void handle(Connection connection, IPlottingSystem system, ByteBuffer in) throws Exception {
+				system.repaint();
+			}
+		};
+		HANDLERS[SYNC] = new Handler() {
+			@Override
+			void handle(Connection connection, IPlottingSystem system, ByteBuffer in) throws Exception {
+				connection.reply();
+			}
+		};
+	}
+
+	private static final class Image {
+		final byte   type;
+		final int[]  shape;
+		final byte[] bytes;
+		Image(byte type, int[] shape, byte[] bytes) {
+			this.type  = type;
+			this.shape = shape;
+			this.bytes = bytes;
+		}
+	}
+
+	private final class Connection implements Runnable {
+
+		private final SocketChannel      channel;
+		private final Map<String, Image> images;   // The last image of each name, for deltas
+		private final Inflater           inflater;
+		private ByteBuffer               buffer;
+		private String                   imageName; // Of the image being read
+
+		Connection(SocketChannel channel) {
+			this.channel  = channel;
+			this.images   = new HashMap<String, Image>(7);
+			this.inflater = new Inflater();
+		}
+
+		@Override
+		public void run() {
+			String plotName = null;
+			try {
+				buffer = readFully(channel, buffer, 8);
+				if (buffer.getInt()!=MAGIC) throw new IOException("Not a stream plotting client");
+				final int length = buffer.getInt();
+				if (length<0 || length>MAX_NAME_LENGTH) throw new IOException("Bad stream plotting name length "+length);
+				buffer   = readFully(channel, buffer, length);
+				plotName = new String(buffer.array(), buffer.arrayOffset(), length, "UTF-8");
+
+				final IPlottingSystem system = getPlottingSystem(plotName);
+				if (system==null) throw new IOException("There is no plotting system called "+plotName);
+
+				while (!stopped) {
+					buffer = readFully(channel, buffer, HEADER_LENGTH);
+					final byte operation = buffer.get();
+					final int  size      = buffer.getInt();
+					if (operation<0 || operation>=OPERATIONS || size<0 || size>MAX_FRAME_LENGTH) {
+						throw new IOException("Bad stream plotting frame "+operation+" of "+size+" bytes");
+					}
+
+					buffer = readFully(channel, buffer, size);
+					try {
+						HANDLERS[operation].handle(this, system, buffer);
+					} catch (IOException ne) {
+						throw ne;
+					} catch (Exception ne) {
+						logger.error("Unable to process stream plotting command "+operation+" for "+plotName, ne);
+					}
+				}
+			} catch (IOException ne) {
+				if (!stopped) logger.debug("Stream plotting connection for "+plotName+" ended: "+ne.getMessage());
+			} finally {
+				inflater.end();
+				try {
+					channel.close();
+				} catch (IOException ignored) {
+					// Nothing more to do
+				}
+			}
+		}
+
+		void reply() throws IOException {
+			writeFully(channel, ByteBuffer.wrap(new byte[]{1}));
+		}
+
+		List<IDataset> getDatasets(ByteBuffer in) throws IOException {
+			final int count = in.getInt();
+			if (count<0) return null;
+			final List<IDataset> ret = new ArrayList<IDataset>(count);
+			for (int i = 0; i < count; i++) ret.add(getDataset(in, null));
+			return ret;
+		}
+
+		/**
+		 * Reads the image of a 2D plot, the name for deltas is the data name after the axes.
+		 */
+		IDataset getImage(ByteBuffer in) throws IOException {
+			// The data name comes after the image and the axes, find it first.
+			final int start = in.position();
+			skipDataset(in);
+			final int count = in.getInt();
+			for (int i = 0; i < count; i++) skipDataset(in);
+			final String name = getString(in);
+			in.position(start);
+			return getDataset(in, name!=null ? name : "");
+		}
+
+		/**
+		 * @param in
+		 * @param key - name of the image for deltas, or null if the dataset is not an image.
+		 */
+		IDataset getDataset(ByteBuffer in, String key) throws IOException {
+
+			final byte encoding = in.get();
+			if (encoding==NULL) return null;
+			final byte   type  = in.get();
+			final String name  = getString(in);
+			final int    rank  = in.get();
+			if (rank<0) throw new IOException("Bad stream plotting rank "+rank);
+			final int[]  shape = new int[rank];
+			long size = getElementSize(type);
+			for (int i = 0; i < shape.length; i++) {
+				shape[i] = in.getInt();
+				if (shape[i]<0) throw new IOException("Bad stream plotting shape "+Arrays.toString(shape));
+				size *= shape[i];
+				if (size>MAX_FRAME_LENGTH) throw new IOException("Stream plotting dataset "+name+" is too large");
+			}
+			final int rawLength    = in.getInt();
+			final int storedLength = in.getInt();
+			if (rawLength<0 || rawLength>MAX_FRAME_LENGTH || ((encoding & ~COMPRESSED)!=DELTA && rawLength!=size)) {
+				throw new IOException("Bad stream plotting data length "+rawLength+" for "+name);
+			}
+			if (storedLength<0 || storedLength>in.remaining()) {
+				throw new IOException("Bad stream plotting stored length "+storedLength+" for "+name);
+			}
+
+			final byte[] raw = new byte[rawLength];
+			if ((encoding & COMPRESSED)!=0) {
+				inflater.reset();
+				inflater.setInput(in.array(), in.arrayOffset()+in.position(), storedLength);
+				try {
+					if (inflater.inflate(raw)!=rawLength) throw new IOException("Stream plotting data is short");
+				} catch (DataFormatException ne) {
+					throw new IOException("Stream plotting data cannot be inflated", ne);
+				}
+				in.position(in.position()+storedLength);
+			} else {
+				in.get(raw);
+			}
+
+			final byte[] bytes;
+			if ((encoding & ~COMPRESSED)==DELTA) {
+				final Image previous = key!=null ? images.get(key) : null;
+				if (previous==null || previous.type!=type || !Arrays.equals(previous.shape, shape)) {
+					throw new IOException("Stream plotting delta for "+key+" does not match the last image");
+				}
+				bytes = previous.bytes.clone();
+				final ByteBuffer runs  = ByteBuffer.wrap(raw).order(in.order());
+				final int        count = runs.getInt();
+				for (int i = 0; i < count; i++) {
+					final int offset = runs.getInt();
+					final int length = runs.getInt();
+					if (offset<0 || length<0 || offset>bytes.length-length) {
+						throw new IOException("Stream plotting delta for "+key+" is outside the image");
+					}
+					runs.get(bytes, offset, length);
+				}
+			} else {
+				bytes = raw;
+			}
+			if (key!=null) images.put(key, new Image(type, shape, bytes));
+
+			final Dataset ret = toDataset(bytes, type, shape);
+			if (name!=null) ret.setName(name);
+			return ret;
+		}
+
+		private void skipDataset(ByteBuffer in) {
+			if (in.get()==NULL) return;
+			in.get();
+			getString(in);
+			final int rank = in.get();
+			in.position(in.position()+4*rank+4);
+			in.position(in.position()+4+in.getInt(in.position()));
+		}
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.jmx;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+import org.eclipse.dawnsci.analysis.dataset.impl.ByteDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.FloatDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.IntegerDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.LongDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.ShortDataset;
+
+/**
+ * The frames of the streaming remote plotting protocol used by StreamPlottingClient
+ * and StreamPlottingServer.
+ *
+ * After connecting, the client sends MAGIC and the name of the plotting system. Each
+ * call is then a frame of the operation (one byte), the length of the rest (int) and
+ * the arguments. All numbers are little-endian. A string is its length in bytes, -1
+ * for null, and then UTF-8.
+ *
+ * A dataset is its encoding, element type, name, rank, shape, raw length and stored
+ * length and then the stored bytes. The raw bytes are either all the elements in order
+ * or, for DELTA, the number of runs and then each run of bytes which changed since the
+ * last image of the same name, as offset, length and bytes. The raw bytes are deflated
+ * when the encoding has COMPRESSED set.
+ */
+final class StreamProtocol {
+
+	static final int MAGIC = 0x31535044; // "DPS1"
+
+	// Operations, the index into the server's dispatch table
+	static final byte CREATE_PLOT_1D = 0;
+	static final byte UPDATE_PLOT_1D = 1;
+	static final byte CREATE_PLOT_2D = 2;
+	static final byte UPDATE_PLOT_2D = 3;
+	static final byte APPEND         = 4;
+	static final byte CLEAR          = 5;
+	static final byte RESET          = 6;
+	static final byte SET_TITLE      = 7;
+	static final byte REPAINT        = 8;
+	static final byte SYNC           = 9;
+	static final int  OPERATIONS     = 10;
+
+	// Dataset encodings
+	static final byte NULL       = 0;
+	static final byte FULL       = 1;
+	static final byte DELTA      = 2;
+	static final byte COMPRESSED = 0x10;
+
+	// Element types
+	static final byte FLOAT64 = 1;
+	static final byte FLOAT32 = 2;
+	static final byte INT64   = 3;
+	static final byte INT32   = 4;
+	static final byte INT16   = 5;
+	static final byte INT8    = 6;
+
+	static final int HEADER_LENGTH = 5;
+
+	/**
+	 * Largest plot name, and frame or raw data of a dataset, which is accepted. The
+	 * server allocates what the client says it will send, so these are checked first.
+	 */
+	static final int MAX_NAME_LENGTH  = 64*1024;
+	static final int MAX_FRAME_LENGTH = 512*1024*1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private StreamProtocol() {
+	}
+
+	/**
+	 * @param data
+	 * @return the element type or 0 if the dataset has to be sent as FLOAT64.
+	 */
+	static byte getType(Dataset data) {
+		switch (data.getDtype()) {
+		case Dataset.FLOAT64: return FLOAT64;
+		case Dataset.FLOAT32: return FLOAT32;
+		case Dataset.INT64:   return INT64;
+		case Dataset.INT32:   return INT32;
+		case Dataset.INT16:   return INT16;
+		case Dataset.INT8:    return INT8;
+		default:              return 0;
+		}
+	}
+
+	static int getElementSize(byte type) {
+		switch (type) {
+		case FLOAT64:
+		case INT64:   return 8;
+		case FLOAT32:
+		case INT32:   return 4;
+		case INT16:   return 2;
+		case INT8:    return 1;
+		default:      throw new IllegalArgumentException("Unknown element type "+type);
+		}
+	}
+
+	/**
+	 * Writes the elements of a buffer of the type into bytes, little-endian.
+	 */
+	static void toBytes(Object buffer, byte type, byte[] bytes) {
+		final ByteBuffer out = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		switch (type) {
+		case FLOAT64: out.asDoubleBuffer().put((double[])buffer); break;
+		case FLOAT32: out.asFloatBuffer().put((float[])buffer);   break;
+		case INT64:   out.asLongBuffer().put((long[])buffer);     break;
+		case INT32:   out.asIntBuffer().put((int[])buffer);       break;
+		case INT16:   out.asShortBuffer().put((short[])buffer);   break;
+		default:      out.put((byte[])buffer);                    break;
+		}
+	}
+
+	/**
+	 * @return a dataset of the elements in the bytes, which are copied.
+	 */
+	static Dataset toDataset(byte[] bytes, byte type, int[] shape) {
+		final ByteBuffer in   = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		final int        size = bytes.length/getElementSize(type);
+		switch (type) {
+		case FLOAT64: {
+			final double[] data = new double[size];
+			in.asDoubleBuffer().get(data);
+			return new DoubleDataset(data, shape);
+		}
+		case FLOAT32: {
+			final float[] data = new float[size];
+			in.asFloatBuffer().get(data);
+			return new FloatDataset(data, shape);
+		}
+		case INT64: {
+			final long[] data = new long[size];
+			in.asLongBuffer().get(data);
+			return new LongDataset(data, shape);
+		}
+		case INT32: {
+			final int[] data = new int[size];
+			in.asIntBuffer().get(data);
+			return new IntegerDataset(data, shape);
+		}
+		case INT16: {
+			final short[] data = new short[size];
+			in.asShortBuffer().get(data);
+			return new ShortDataset(data, shape);
+		}
+		default:
+			return new ByteDataset(bytes.clone(), shape);
+		}
+	}
+
+	static String getString(ByteBuffer in) {
+		final int length = in.getInt();
+		if (length<0) return null;
+		final String ret = new String(in.array(), in.arrayOffset()+in.position(), length, UTF8);
+		in.position(in.position()+length);
+		return ret;
+	}
+
+	/**
+	 * Reads exactly length bytes into the buffer, which is made bigger if needed.
+	 * @return the buffer, flipped ready to get the bytes.
+	 */
+	static ByteBuffer readFully(ReadableByteChannel channel, ByteBuffer buffer, int length) throws IOException {
+		if (buffer==null || buffer.capacity()<length) {
+			final int grown = buffer!=null ? Math.min(MAX_FRAME_LENGTH, 2*buffer.capacity()) : 1024;
+			buffer = ByteBuffer.allocate(Math.max(length, grown)).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		buffer.clear();
+		buffer.limit(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer)<0) throw new EOFException("Remote plotting connection closed");
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) channel.write(buffer);
+	}
+
+	/**
+	 * A frame being written, which grows as arguments are added.
+	 */
+	static final class Output {
+
+		private ByteBuffer buffer = ByteBuffer.allocate(64*1024).order(ByteOrder.LITTLE_ENDIAN);
+
+		/**
+		 * Starts a new frame for the operation.
+		 */
+		void begin(byte operation) {
+			buffer.clear();
+			buffer.put(operation);
+			buffer.putInt(0); // Length, filled in by end()
+		}
+
+		/**
+		 * @return the frame, ready to write.
+		 */
+		ByteBuffer end() {
+			buffer.putInt(1, buffer.position()-HEADER_LENGTH);
+			buffer.flip();
+			return buffer;
+		}
+
+		/**
+		 * @return the buffer with room for at least size more bytes.
+		 */
+		ByteBuffer ensure(int size) {
+			if (buffer.remaining()<size) {
+				final ByteBuffer bigger = ByteBuffer.allocate(Math.max(2*buffer.capacity(), buffer.position()+size)).order(ByteOrder.LITTLE_ENDIAN);
+				buffer.flip();
+				bigger.put(buffer);
+				buffer = bigger;
+			}
+			return buffer;
+		}
+
+		void putString(String value) {
+			if (value==null) {
+				ensure(4).putInt(-1);
+				return;
+			}
+			final byte[] bytes = value.getBytes(UTF8);
+			ensure(4+bytes.length).putInt(bytes.length).put(bytes);
+		}
+	}
+}
@@ -42,11 +42,13 @@ import de.jreality.math.MatrixBuilder;
 import de.jreality.scene.Appearance;
 import de.jreality.scene.Camera;
 import de.jreality.scene.Geometry;
+import de.jreality.scene.IndexedFaceSet;
 import de.jreality.scene.IndexedLineSet;
 import de.jreality.scene.PointSet;
 import de.jreality.scene.SceneGraphComponent;
 import de.jreality.scene.data.Attribute;
 import de.jreality.scene.data.DataList;
+import de.jreality.scene.data.DoubleArrayArray;
 import de.jreality.shader.CommonAttributes;
 import de.jreality.shader.DefaultGeometryShader;
 import de.jreality.shader.DefaultPointShader;
@@ -151,6 +153,18 @@ public class DataSet3DPlot3D implements IDataSet3DCorePlot {
 	private SurfPlotStyles currentStyle = SurfPlotStyles.FILLED;
 
 	private SurfacePlotROI roi;
+	private SurfacePyramid pyramid;
+
+	/**
+	 * Last surface made by createGraphGeometry and the two sets of vertex arrays
+	 * which are written in turn, so that new values never go into the arrays the
+	 * surface is being drawn from.
+	 */
+	private IndexedFaceSet surfaceMesh;
+	private int surfaceXSize;
+	private double[][] surfaceCoords = new double[2][];
+	private double[][] surfaceColours = new double[2][];
+	private int surfaceBuffer;
 	
 	/**
 	 * Constructor of a DataSet3DPlot3D
@@ -644,8 +658,26 @@ public class DataSet3DPlot3D implements IDataSet3DCorePlot {
 		int xSize = displayData.getShape()[1];
 		int ySize = displayData.getShape()[0];
 		determineGraphSize(xAspect,yAspect);
-		double[] coords = new double[xSize * ySize * 3];
-		double[] colours = new double[xSize * ySize * 3];
+
+		// When only the values have changed the faces and edges of the surface
+		// being shown are kept and just its vertex positions and colours replaced.
+		boolean reuse = surfaceMesh != null && graph != null &&
+						graph.getGeometry() == surfaceMesh &&
+						surfaceXSize == xSize &&
+						surfaceMesh.getNumPoints() == xSize * ySize;
+		if (reuse) {
+			surfaceBuffer = 1 - surfaceBuffer;
+		} else {
+			surfaceCoords = new double[2][];
+			surfaceColours = new double[2][];
+			surfaceBuffer = 0;
+		}
+		if (surfaceCoords[surfaceBuffer] == null) {
+			surfaceCoords[surfaceBuffer] = new double[xSize * ySize * 3];
+			surfaceColours[surfaceBuffer] = new double[xSize * ySize * 3];
+		}
+		double[] coords = surfaceCoords[surfaceBuffer];
+		double[] colours = surfaceColours[surfaceBuffer];
 		double xStep = xSpan / xSize;
 		double yStep = ySpan / ySize;
 		setScalingSmallFlag(globalZmin);
@@ -691,6 +723,11 @@ public class DataSet3DPlot3D implements IDataSet3DCorePlot {
 				}
 			}
 		}
+		if (reuse) {
+			surfaceMesh.setVertexAttributes(Attribute.COORDINATES, new DoubleArrayArray.Inlined(coords, 3));
+			surfaceMesh.setVertexAttributes(Attribute.COLORS, new DoubleArrayArray.Inlined(colours, 3));
+			return surfaceMesh;
+		}
 		QuadMeshFactory quadFactory = new QuadMeshFactory();		
 		quadFactory.setVLineCount(ySize); 
 		quadFactory.setULineCount(xSize);
@@ -703,7 +740,9 @@ public class DataSet3DPlot3D implements IDataSet3DCorePlot {
 		quadFactory.setGenerateEdgesFromFaces(true);
 		quadFactory.setEdgeFromQuadMesh(false);
 		quadFactory.update();
-		return quadFactory.getIndexedFaceSet();
+		surfaceMesh = quadFactory.getIndexedFaceSet();
+		surfaceXSize = xSize;
+		return surfaceMesh;
 	}
 	
 	protected void buildDisplayDataSet()
@@ -873,7 +912,6 @@ public class DataSet3DPlot3D implements IDataSet3DCorePlot {
 
 		if (monitor != null && monitor.isCanceled()) return Status.CANCEL_STATUS;
 
-		displayData = currentData.getSlice(startP,endP, null);
 		if (roi.getXSamplingMode() > 0 ||
 			roi.getYSamplingMode() > 0) {
 			int xDim = Math.abs(windowEndPosX - windowStartPosX);
@@ -900,14 +938,22 @@ public class DataSet3DPlot3D implements IDataSet3DCorePlot {
 			int ySampleRate = (int)Math.round((double)yDim / (double)ySize);
 			Downsample sample = null;
 			// if bin is provided
-			if (roi.getXBinShape() != 1 && roi.getYBinShape() != 1)
+			if (roi.getXBinShape() != 1 && roi.getYBinShape() != 1) {
+				displayData = currentData.getSlice(startP,endP, null);
 				sample = new Downsample(mode,
 						roi.getXBinShape(),
 						roi.getYBinShape());
-			else
-				sample = new Downsample(mode,
-						  (roi.getYSamplingMode() == roi.getXSamplingMode() ? ySampleRate : 1),
-						   xSampleRate);
+			} else if (roi.getYSamplingMode() == roi.getXSamplingMode()) {
+				// start from the nearest level of detail rather than the full window
+				if (pyramid == null || !pyramid.isFor(currentData, mode))
+					pyramid = new SurfacePyramid(currentData, mode);
+				int level = pyramid.getLevel(startP, endP, new int[] {ySampleRate, xSampleRate});
+				displayData = pyramid.getWindow(startP, endP, level);
+				sample = new Downsample(mode, ySampleRate >> level, xSampleRate >> level);
+			} else {
+				displayData = currentData.getSlice(startP,endP, null);
+				sample = new Downsample(mode, 1, xSampleRate);
+			}
 
 			displayData = sample.value(displayData).get(0);
 			if (roi.getYSamplingMode() != roi.getXSamplingMode() &&
@@ -926,6 +972,8 @@ public class DataSet3DPlot3D implements IDataSet3DCorePlot {
 				sample = new Downsample(mode,ySampleRate,1);
 				displayData = sample.value(displayData).get(0);					
 			}
+		} else {
+			displayData = currentData.getSlice(startP,endP, null);
 		}
 		return Status.OK_STATUS;
 	}
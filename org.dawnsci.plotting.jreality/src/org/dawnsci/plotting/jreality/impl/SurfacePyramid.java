@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.dawnsci.plotting.jreality.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.downsample.DownsampleMode;
+
+import uk.ac.diamond.scisoft.analysis.dataset.function.Downsample;
+
+/**
+ * Levels of detail of a surface, each level being the one before downsampled by
+ * two in both dimensions. Levels are made the first time they are asked for and
+ * kept, so moving or resizing a window over a large surface only has to downsample
+ * the part of the nearest level which is in the window rather than the full data.
+ *
+ * A level is only used when the window and the sampling rates line up with its
+ * blocks, so that the surface is exactly the same as one downsampled from the data.
+ */
+class SurfacePyramid {
+
+	private final IDataset       data;
+	private final DownsampleMode mode;
+	private final List<IDataset> levels;
+
+	SurfacePyramid(IDataset data, DownsampleMode mode) {
+		this.data   = data;
+		this.mode   = mode;
+		this.levels = new ArrayList<IDataset>(8);
+		levels.add(data);
+	}
+
+	/**
+	 * @param data
+	 * @param mode
+	 * @return true if this was made for the same dataset with the same mode.
+	 */
+	boolean isFor(IDataset data, DownsampleMode mode) {
+		return this.data == data && this.mode == mode;
+	}
+
+	/**
+	 * @param startP - y, x start in the data
+	 * @param endP - y, x end in the data, exclusive
+	 * @param rates - y, x sampling rates
+	 * @return the coarsest level whose window, downsampled by the rates divided by
+	 *         its scale, is the same as the data window downsampled by the rates.
+	 *         0 is the data.
+	 */
+	int getLevel(int[] startP, int[] endP, int[] rates) {
+		int level = 0;
+		while (isAligned(level+1, startP, endP, rates)) {
+			++level;
+		}
+		return level;
+	}
+
+	/**
+	 * @return true if the rates are multiples of the scale of the level and the
+	 *         window is made of whole blocks of it.
+	 */
+	private boolean isAligned(int level, int[] startP, int[] endP, int[] rates) {
+		final int[] shape = data.getShape();
+		final int   mask  = (1 << level) - 1;
+		for (int i = 0; i < 2; i++) {
+			if ((shape[i] >> level) <= 1) return false;
+			if ((rates[i] & mask) != 0 || (startP[i] & mask) != 0 || (endP[i] & mask) != 0) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param startP - y, x start in the data
+	 * @param endP - y, x end in the data, exclusive
+	 * @param level
+	 * @return the part of the level which covers the window.
+	 */
+	synchronized IDataset getWindow(int[] startP, int[] endP, int level) {
+
+		while (levels.size() <= level) {
+			final Downsample sample = new Downsample(mode, 2, 2);
+			levels.add(sample.value(levels.get(levels.size()-1)).get(0));
+		}
+
+		final IDataset set   = levels.get(level);
+		final int[]    shape = set.getShape();
+		final int[]    start = new int[2];
+		final int[]    end   = new int[2];
+		for (int i = 0; i < 2; i++) {
+			start[i] = Math.min(startP[i] >> level, shape[i]-1);
+			end[i]   = Math.min(Math.max(start[i]+1, (endP[i] + (1 << level) - 1) >> level), shape[i]);
+		}
+		return set.getSlice(start, end, null);
+	}
+}
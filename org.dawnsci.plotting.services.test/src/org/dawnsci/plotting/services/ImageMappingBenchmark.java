@@ -0,0 +1,42 @@
+package org.dawnsci.plotting.services;
+
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.plotting.api.histogram.ImageServiceBean.ImageOrigin;
+
+/**
+ * Times the banded, parallel image mapping against the original pixel by
+ * pixel loops for each origin and data type, and prints the times.
+ *
+ * There is no JMH in the target platform so this is a simple warmed up
+ * timing loop. The argument is the image size, 2048 by default.
+ */
+class ImageMappingBenchmark {
+
+	private static final int WARM_UP = 3;
+	private static final int REPEATS = 5;
+
+	public static void main(String[] args) {
+
+		final int size = args.length>0 ? Integer.parseInt(args[0]) : 2048;
+		for (ImageOrigin origin : ImageOrigin.values()) {
+			for (int dtype : ImageMappingTest.DTYPES) {
+				Dataset image = ImageMappingTest.createImage(dtype, size, size);
+				long serial   = time(image, origin, false);
+				long parallel = time(image, origin, true);
+				System.out.println(String.format("%-12s dtype=%-2d serial %6d ms, banded %6d ms, speed up %.1f",
+						                         origin, dtype, serial, parallel, (double)serial/Math.max(1, parallel)));
+			}
+		}
+	}
+
+	private static long time(Dataset image, ImageOrigin origin, boolean parallel) {
+
+		final ImageService service = new ImageService();
+		service.parallelMapping = parallel;
+		for (int i = 0; i < WARM_UP; i++) service.getImageData(ImageMappingTest.createBean(image, null, origin));
+
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < REPEATS; i++) service.getImageData(ImageMappingTest.createBean(image, null, origin));
+		return (System.currentTimeMillis()-start)/REPEATS;
+	}
+}
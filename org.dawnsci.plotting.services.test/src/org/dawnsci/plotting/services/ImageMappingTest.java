@@ -0,0 +1,117 @@
+package org.dawnsci.plotting.services;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.eclipse.dawnsci.analysis.dataset.impl.BooleanDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Comparisons;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.impl.Random;
+import org.eclipse.dawnsci.plotting.api.histogram.ImageServiceBean;
+import org.eclipse.dawnsci.plotting.api.histogram.ImageServiceBean.ImageOrigin;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.eclipse.swt.graphics.RGB;
+import org.junit.Test;
+
+/**
+ * Compares the banded, parallel image mapping with the original
+ * pixel by pixel loops for each origin and data type. The mapped
+ * bytes must be identical. Integer images are also checked with
+ * the palette lookup tables.
+ *
+ * ImageMappingBenchmark times the two.
+ */
+public class ImageMappingTest {
+
+	static final int[] DTYPES = {Dataset.INT8, Dataset.INT16, Dataset.INT32, Dataset.INT64, Dataset.FLOAT32, Dataset.FLOAT64};
+
+	@Test
+	public void testSameAsSerialSmall() {
+		for (ImageOrigin origin : ImageOrigin.values()) {
+			for (int dtype : DTYPES) {
+				Dataset image = createImage(dtype, 37, 53);
+				assertSame(image, null, origin);
+				assertSame(image, createMask(image), origin);
+			}
+		}
+	}
+
+	@Test
+	public void testSameAsSerialLarge() {
+		for (ImageOrigin origin : ImageOrigin.values()) {
+			Dataset image = createImage(Dataset.INT32, 1024, 768);
+			assertSame(image, null, origin);
+			assertSame(image, createMask(image), origin);
+		}
+	}
+
+	@Test
+	public void testSameAsSerialView() {
+		Dataset image = createImage(Dataset.FLOAT64, 512, 512);
+		Dataset view  = image.getSliceView(new int[]{10,20}, new int[]{400,300}, null);
+		for (ImageOrigin origin : ImageOrigin.values()) {
+			assertSame(view, null, origin);
+		}
+	}
+
+	@Test
+	public void testLookupTableSameAsSerial() {
+		for (boolean log : new boolean[]{false, true}) {
+			for (int dtype : new int[]{Dataset.INT8, Dataset.INT16, Dataset.INT32}) {
+				Dataset image = createImage(dtype, 300, 400);
+				assertSame(image, null, ImageOrigin.TOP_LEFT, log);
+				assertSame(image, createMask(image), ImageOrigin.BOTTOM_LEFT, log);
+			}
+		}
+	}
+
+	private void assertSame(Dataset image, BooleanDataset mask, ImageOrigin origin) {
+		assertSame(image, mask, origin, false);
+	}
+
+	private void assertSame(Dataset image, BooleanDataset mask, ImageOrigin origin, boolean log) {
+
+		final ImageService service = new ImageService();
+		service.parallelMapping = false;
+		ImageServiceBean bean = createBean(image, mask, origin);
+		bean.setLogColorScale(log);
+		ImageData serial = service.getImageData(bean);
+
+		service.parallelMapping = true;
+		bean = createBean(image, mask, origin);
+		bean.setLogColorScale(log);
+		ImageData banded = service.getImageData(bean);
+
+		assertEquals(serial.width,  banded.width);
+		assertEquals(serial.height, banded.height);
+		assertArrayEquals(origin+" "+image.getDtype(), serial.data, banded.data);
+	}
+
+	static ImageServiceBean createBean(Dataset image, BooleanDataset mask, ImageOrigin origin) {
+		ImageServiceBean bean = new ImageServiceBean();
+		bean.setImage(image);
+		bean.setMask(mask);
+		bean.setOrigin(origin);
+		bean.setMin(10);
+		bean.setMax(90);
+		bean.setPalette(createGreyPalette());
+		return bean;
+	}
+
+	static Dataset createImage(int dtype, int rows, int cols) {
+		Dataset image = Random.rand(0, 100, rows, cols);
+		return DatasetUtils.cast(image, dtype);
+	}
+
+	private static BooleanDataset createMask(Dataset image) {
+		return Comparisons.lessThan(Random.rand(image.getShape()), 0.9);
+	}
+
+	private static PaletteData createGreyPalette() {
+		RGB[] rgbs = new RGB[256];
+		for (int i = 0; i < rgbs.length; i++) rgbs[i] = new RGB(i, i, i);
+		return new PaletteData(rgbs);
+	}
+}
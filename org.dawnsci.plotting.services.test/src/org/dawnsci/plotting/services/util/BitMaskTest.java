@@ -0,0 +1,93 @@
+package org.dawnsci.plotting.services.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.eclipse.dawnsci.analysis.dataset.impl.BooleanDataset;
+import org.junit.Test;
+
+public class BitMaskTest {
+
+	private static final int ROWS = 37, COLS = 101; // Rows do not line up with words
+
+	@Test
+	public void testRanges() {
+
+		final Random  random = new Random(1);
+		final BitMask mask   = new BitMask(ROWS, COLS);
+		final BitSet  check  = new BitSet(ROWS*COLS);
+		for (int i = 0; i < 1000; i++) {
+			final int     from  = random.nextInt(ROWS*COLS);
+			final int     to    = Math.min(ROWS*COLS, from+random.nextInt(300));
+			final boolean value = random.nextBoolean();
+			mask.set(from, to, value);
+			check.set(from, to, value);
+		}
+		assertSame(check, mask);
+	}
+
+	@Test
+	public void testOperations() {
+
+		final BitSet  a = createBits(2), b = createBits(3);
+		final BitMask ma = createMask(a), mb = createMask(b);
+
+		final BitSet and = (BitSet)a.clone();
+		and.and(b);
+		assertSame(and, ma.copy().and(mb));
+
+		final BitSet or = (BitSet)a.clone();
+		or.or(b);
+		assertSame(or, ma.copy().or(mb));
+
+		final BitSet andNot = (BitSet)a.clone();
+		andNot.andNot(b);
+		assertSame(andNot, ma.copy().andNot(mb));
+
+		final BitSet not = (BitSet)a.clone();
+		not.flip(0, ROWS*COLS);
+		assertSame(not, ma.copy().not());
+	}
+
+	@Test
+	public void testDataset() {
+
+		final BitSet  bits = createBits(4);
+		final BitMask mask = createMask(bits);
+
+		final BooleanDataset set = mask.toDataset();
+		for (int y = 0; y < ROWS; y++) {
+			for (int x = 0; x < COLS; x++) {
+				assertEquals(bits.get(y*COLS+x), set.getBoolean(y, x));
+			}
+		}
+		assertEquals(mask, BitMask.valueOf(set));
+	}
+
+	private static BitSet createBits(long seed) {
+		final Random random = new Random(seed);
+		final BitSet bits   = new BitSet(ROWS*COLS);
+		for (int i = 0; i < ROWS*COLS; i++) {
+			// Long runs as in a real mask
+			if (random.nextInt(20)==0) bits.set(i, Math.min(ROWS*COLS, i+random.nextInt(200)));
+		}
+		return bits;
+	}
+
+	private static BitMask createMask(BitSet bits) {
+		final BitMask mask = new BitMask(ROWS, COLS);
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i+1)) mask.set(i, true);
+		return mask;
+	}
+
+	private static void assertSame(BitSet check, BitMask mask) {
+		assertEquals(check.cardinality(), mask.cardinality());
+		for (int i = 0; i < ROWS*COLS; i++) {
+			assertEquals(check.get(i), mask.get(i));
+			assertEquals(check.nextSetBit(i), mask.nextSetBit(i));
+			assertEquals(check.nextClearBit(i), mask.nextClearBit(i));
+		}
+	}
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.services;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dawnsci.plotting.services.util.BitMask;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.plotting.api.histogram.ImageServiceBean;
+import org.eclipse.dawnsci.plotting.api.histogram.ImageServiceBean.ImageOrigin;
+
+/**
+ * Maps an image to palette indices by splitting the output into bands of rows
+ * which are run on a shared pool of daemon threads.
+ *
+ * Unlike the indexed loops in ImageService, the primitive buffer of the dataset
+ * is read directly. The image origin is dealt with by working out once where the
+ * first output pixel lies in the buffer and how far to step for each output row
+ * and column, so each band is a tight loop over one primitive array.
+ *
+ * If a PaletteLookupTable is given the raw integer values are used to gather
+ * the palette indices from the table instead.
+ *
+ * When the output rows run along the image rows the mask is read a run at a time,
+ * masked runs are filled and only the unmasked pixels are mapped.
+ *
+ * Package private, use ImageService.getImageData(...)
+ */
+class BandedImageMapper {
+
+	/**
+	 * The number of output rows below which we do not split a band any further.
+	 */
+	private static final int MIN_BAND_ROWS = 32;
+
+	/**
+	 * Bands per thread, so that a thread which finishes early can take another.
+	 */
+	private static final int BANDS_PER_THREAD = 4;
+
+	/**
+	 * Images smaller than this are not worth sending to the pool.
+	 */
+	private static final int MIN_PARALLEL_SIZE = 256*256;
+
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+	private static ExecutorService pool;
+
+	private static synchronized ExecutorService getPool() {
+		if (pool==null) {
+			pool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "Image mapper "+count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return pool;
+	}
+
+	private final ImageServiceBean bean;
+	private final Object           buffer;
+	private final int              dtype;
+	private final BitMask          mask;
+	private final byte[]           lookup;
+	private final long             lookupOffset;
+
+	// Geometry of the output in terms of the source buffer
+	private final int              width, height;
+	private final int              start, rowStride, colStride;
+
+	// Colour mapping
+	private final double min, max, scale, maxPixel, minCut, maxCut;
+
+	/**
+	 *
+	 * @param bean - used to check for cancellation only
+	 * @param image - 2D image, not RGB or complex
+	 * @param mask - may be null
+	 * @param lut - may be null, if set the image must be the raw integer image the table was made for.
+	 * @param origin
+	 * @param min
+	 * @param max
+	 * @param scale
+	 * @param maxPixel
+	 * @param minCut
+	 * @param maxCut
+	 */
+	BandedImageMapper(ImageServiceBean bean,
+			          Dataset          image,
+			          BitMask          mask,
+			          PaletteLookupTable lut,
+			          ImageOrigin      origin,
+			          double min, double max, double scale, double maxPixel, double minCut, double maxCut) {
+
+		this.bean     = bean;
+		this.min      = min;
+		this.max      = max;
+		this.scale    = scale;
+		this.maxPixel = maxPixel;
+		this.minCut   = minCut;
+		this.maxCut   = maxCut;
+
+		image = getContiguous(image);
+		this.dtype  = image.getDtype();
+		this.buffer = image.getBuffer();
+		this.mask   = mask;
+		this.lookup       = lut!=null ? lut.getTable()  : null;
+		this.lookupOffset = lut!=null ? lut.getOffset() : 0;
+
+		final int[] shape = image.getShape();
+		final int rows = shape[0];
+		final int cols = shape[1];
+
+		// For each origin, the buffer index of output pixel (r,c) is start + r*rowStride + c*colStride
+		switch (origin) {
+		case BOTTOM_LEFT:
+			width     = rows;
+			height    = cols;
+			start     = cols-1;
+			rowStride = -1;
+			colStride = cols;
+			break;
+		case BOTTOM_RIGHT:
+			width     = cols;
+			height    = rows;
+			start     = rows*cols-1;
+			rowStride = -cols;
+			colStride = -1;
+			break;
+		case TOP_RIGHT:
+			width     = rows;
+			height    = cols;
+			start     = (rows-1)*cols;
+			rowStride = 1;
+			colStride = -cols;
+			break;
+		case TOP_LEFT:
+		default:
+			width     = cols;
+			height    = rows;
+			start     = 0;
+			rowStride = cols;
+			colStride = 1;
+			break;
+		}
+	}
+
+	int getWidth() {
+		return width;
+	}
+
+	int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Map the image into the array given, which must be width*height long.
+	 * @param scaledImageAsByte
+	 * @return false if the bean was cancelled part way through.
+	 */
+	boolean map(final byte[] scaledImageAsByte) {
+
+		final int bands = Math.min(THREADS*BANDS_PER_THREAD, height/MIN_BAND_ROWS);
+		if (width*height < MIN_PARALLEL_SIZE || THREADS<2 || bands<2) {
+			mapRows(0, height, scaledImageAsByte);
+			return !bean.isCancelled();
+		}
+
+		final List<Band> tasks = new ArrayList<Band>(bands);
+		for (int i = 0; i < bands; i++) {
+			tasks.add(new Band(i*height/bands, (i+1)*height/bands, scaledImageAsByte));
+		}
+		try {
+			for (Future<Object> future : getPool().invokeAll(tasks)) future.get();
+		} catch (InterruptedException ne) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException ne) {
+			final Throwable cause = ne.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error)            throw (Error)cause;
+			throw new RuntimeException(cause);
+		}
+		return !bean.isCancelled();
+	}
+
+	private class Band implements Callable<Object> {
+
+		private final int    from, to;
+		private final byte[] scaledImageAsByte;
+
+		Band(int from, int to, byte[] scaledImageAsByte) {
+			this.from = from;
+			this.to   = to;
+			this.scaledImageAsByte = scaledImageAsByte;
+		}
+
+		@Override
+		public Object call() {
+			mapRows(from, to, scaledImageAsByte);
+			return null;
+		}
+	}
+
+	/**
+	 * Maps output rows [from, to)
+	 * @param from
+	 * @param to
+	 * @param out
+	 */
+	private void mapRows(final int from, final int to, final byte[] out) {
+
+		for (int r = from; r < to; ++r) {
+			if (bean.isCancelled()) return;
+
+			final int outStart = r*width;
+			final int src      = start + r*rowStride;
+			if (mask==null) {
+				mapPixels(src, out, outStart, width);
+				
+			} else if (colStride==1) {
+				// Runs of unmasked pixels are mapped, runs of masked ones filled.
+				final int end = src+width;
+				for (int s = src; s < end;) {
+					if (mask.get(s)) {
+						final int e = Math.min(end, mask.nextClearBit(s));
+						mapPixels(s, out, outStart+(s-src), e-s);
+						s = e;
+					} else {
+						final int next = mask.nextSetBit(s);
+						final int e    = next<0 ? end : Math.min(end, next);
+						Arrays.fill(out, outStart+(s-src), outStart+(e-src), ImageService.NAN_PIX_BYTE);
+						s = e;
+					}
+				}
+				
+			} else {
+				// Output rows go down the image columns, map them all then mask.
+				mapPixels(src, out, outStart, width);
+				for (int i = 0, s = src; i < width; ++i, s+=colStride) {
+					if (!mask.get(s)) out[outStart+i] = ImageService.NAN_PIX_BYTE;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Maps count output pixels from src onwards.
+	 */
+	private void mapPixels(final int src, final byte[] out, final int outStart, final int count) {
+		switch (dtype) {
+		case Dataset.INT8:
+			mapRow((byte[])buffer, src, out, outStart, count);
+			break;
+		case Dataset.INT16:
+			mapRow((short[])buffer, src, out, outStart, count);
+			break;
+		case Dataset.INT32:
+			mapRow((int[])buffer, src, out, outStart, count);
+			break;
+		case Dataset.INT64:
+			mapRow((long[])buffer, src, out, outStart, count);
+			break;
+		case Dataset.FLOAT32:
+			mapRow((float[])buffer, src, out, outStart, count);
+			break;
+		default: // FLOAT64, other types are cast in getContiguous(...)
+			mapRow((double[])buffer, src, out, outStart, count);
+			break;
+		}
+	}
+
+	// One loop per primitive type so that the JIT sees a single array type in each.
+
+	private void mapRow(final byte[] data, int src, final byte[] out, final int outStart, final int count) {
+		final int end = outStart+count;
+		if (lookup!=null) {
+			final int off = (int)lookupOffset;
+			for (int i = outStart; i < end; ++i, src+=colStride) {
+				out[i] = lookup[data[src]-off];
+			}
+			return;
+		}
+		for (int i = outStart; i < end; ++i, src+=colStride) {
+			out[i] = getPixelColorIndex(data[src]);
+		}
+	}
+
+	private void mapRow(final short[] data, int src, final byte[] out, final int outStart, final int count) {
+		final int end = outStart+count;
+		if (lookup!=null) {
+			final int off = (int)lookupOffset;
+			for (int i = outStart; i < end; ++i, src+=colStride) {
+				out[i] = lookup[data[src]-off];
+			}
+			return;
+		}
+		for (int i = outStart; i < end; ++i, src+=colStride) {
+			out[i] = getPixelColorIndex(data[src]);
+		}
+	}
+
+	private void mapRow(final int[] data, int src, final byte[] out, final int outStart, final int count) {
+		final int end = outStart+count;
+		if (lookup!=null) {
+			final long off = lookupOffset;
+			for (int i = outStart; i < end; ++i, src+=colStride) {
+				out[i] = lookup[(int)(data[src]-off)];
+			}
+			return;
+		}
+		for (int i = outStart; i < end; ++i, src+=colStride) {
+			out[i] = getPixelColorIndex(data[src]);
+		}
+	}
+
+	private void mapRow(final long[] data, int src, final byte[] out, final int outStart, final int count) {
+		final int end = outStart+count;
+		if (lookup!=null) {
+			final long off = lookupOffset;
+			for (int i = outStart; i < end; ++i, src+=colStride) {
+				out[i] = lookup[(int)(data[src]-off)];
+			}
+			return;
+		}
+		for (int i = outStart; i < end; ++i, src+=colStride) {
+			out[i] = getPixelColorIndex(data[src]);
+		}
+	}
+
+	private void mapRow(final float[] data, int src, final byte[] out, final int outStart, final int count) {
+		final int end = outStart+count;
+		for (int i = outStart; i < end; ++i, src+=colStride) {
+			out[i] = getPixelColorIndex(data[src]);
+		}
+	}
+
+	private void mapRow(final double[] data, int src, final byte[] out, final int outStart, final int count) {
+		final int end = outStart+count;
+		for (int i = outStart; i < end; ++i, src+=colStride) {
+			out[i] = getPixelColorIndex(data[src]);
+		}
+	}
+
+	private final byte getPixelColorIndex(final double val) {
+		return ImageService.getPixelColorIndex(val, min, max, scale, maxPixel, minCut, maxCut);
+	}
+
+	/**
+	 * Views share the (larger) buffer of the dataset they were sliced from, so
+	 * those are copied. Types without a fast loop are cast to double.
+	 *
+	 * @param set
+	 * @return a dataset whose buffer is exactly its data in row major order.
+	 */
+	private static Dataset getContiguous(Dataset set) {
+
+		switch (set.getDtype()) {
+		case Dataset.INT8:
+		case Dataset.INT16:
+		case Dataset.INT32:
+		case Dataset.INT64:
+		case Dataset.FLOAT32:
+		case Dataset.FLOAT64:
+			break;
+		default:
+			return DatasetUtils.cast(set, Dataset.FLOAT64);
+		}
+
+		final Object buf = set.getBuffer();
+		if (buf==null || Array.getLength(buf)!=set.getSize()) {
+			return set.clone();
+		}
+		return set;
+	}
+}
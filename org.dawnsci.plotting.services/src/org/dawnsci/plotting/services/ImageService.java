@@ -15,16 +15,16 @@ import java.awt.image.IndexColorModel;
 import java.awt.image.WritableRaster;
 
 import org.dawb.common.services.ServiceManager;
+import org.dawnsci.plotting.histogram.service.BaseHistogram;
+import org.dawnsci.plotting.services.util.BitMask;
 import org.dawnsci.plotting.services.util.SWTImageUtils;
 import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.preferences.InstanceScope;
-import org.eclipse.dawnsci.analysis.dataset.impl.BooleanDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
 import org.eclipse.dawnsci.analysis.dataset.impl.IndexIterator;
 import org.eclipse.dawnsci.analysis.dataset.impl.Maths;
 import org.eclipse.dawnsci.analysis.dataset.impl.RGBDataset;
-import org.eclipse.dawnsci.analysis.dataset.impl.Stats;
 import org.eclipse.dawnsci.plotting.api.histogram.HistogramBound;
 import org.eclipse.dawnsci.plotting.api.histogram.IImageService;
 import org.eclipse.dawnsci.plotting.api.histogram.IPaletteService;
@@ -87,6 +87,24 @@ public class ImageService extends AbstractServiceFactory implements IImageServic
 		// Important do nothing here, OSGI may start the service more than once.
 	}
 	
+	/**
+	 * Set this property to go back to mapping pixels one at a time on the calling thread.
+	 */
+	private static final String SERIAL_MAPPING_PROPERTY = "org.dawnsci.plotting.services.image.serial.mapping";
+
+	/**
+	 * If true images are mapped in bands of rows on a pool of threads.
+	 * Package private for testing.
+	 */
+	/* package */ boolean parallelMapping = !Boolean.getBoolean(SERIAL_MAPPING_PROPERTY);
+
+	/**
+	 * Images with fewer pixels than this have their min, max and mean worked out
+	 * exactly rather than from the base histogram, unless a median or outlier
+	 * bounds are wanted.
+	 */
+	private static final int MIN_HISTOGRAM_SIZE = 512*512;
+	
 	/**
 	 * This method is not thread safe
 	 */
@@ -95,13 +113,13 @@ public class ImageService extends AbstractServiceFactory implements IImageServic
 		return new Image(Display.getCurrent(), data);
 	}
 	
-	private static final int MIN_PIX_INDEX = 253;
-	private static final int NAN_PIX_INDEX = 254;
-	private static final int MAX_PIX_INDEX = 255;
+	static final int MIN_PIX_INDEX = 253;
+	static final int NAN_PIX_INDEX = 254;
+	static final int MAX_PIX_INDEX = 255;
 	
-	private static final byte MIN_PIX_BYTE = (byte)(MIN_PIX_INDEX & 0xFF);
-	private static final byte NAN_PIX_BYTE = (byte)(NAN_PIX_INDEX & 0xFF);
-	private static final byte MAX_PIX_BYTE = (byte)(MAX_PIX_INDEX & 0xFF);
+	static final byte MIN_PIX_BYTE = (byte)(MIN_PIX_INDEX & 0xFF);
+	static final byte NAN_PIX_BYTE = (byte)(NAN_PIX_INDEX & 0xFF);
+	static final byte MAX_PIX_BYTE = (byte)(MAX_PIX_INDEX & 0xFF);
 	
 	/**
 	 * getImageData(...) provides an image in a given palette data and origin.
@@ -210,9 +228,8 @@ public class ImageService extends AbstractServiceFactory implements IImageServic
 		}
 		if (bean.isCancelled()) return null;
 		
-		BooleanDataset mask = bean.getMask()!=null
-							? (BooleanDataset)DatasetUtils.cast((Dataset)bean.getMask(), Dataset.BOOL)
-							: null;
+		// Packed once, an eighth of the memory of a cast to a BooleanDataset
+		final BitMask mask = BitMask.valueOf(bean.getMask());
 
 		ImageData imageData = null;
 
@@ -222,6 +239,14 @@ public class ImageService extends AbstractServiceFactory implements IImageServic
 		// forces the use of on byte.
 		final byte[] scaledImageAsByte = new byte[len];
 
+		if (parallelMapping) {
+			// Integer images gather their palette index from a table, the raw data is used for this.
+			final PaletteLookupTable lut = PaletteLookupTable.getTable(bean, oImage, min, max, scale, maxPixel, minCut, maxCut);
+			final BandedImageMapper mapper = new BandedImageMapper(bean, lut!=null ? oImage : image, mask, lut, origin, min, max, scale, maxPixel, minCut, maxCut);
+			if (!mapper.map(scaledImageAsByte)) return null;
+			return new ImageData(mapper.getWidth(), mapper.getHeight(), 8, palette, 1, scaledImageAsByte);
+		}
+
 		if (origin==ImageOrigin.TOP_LEFT) { 
 			
 			int index = 0;
@@ -231,7 +256,7 @@ public class ImageService extends AbstractServiceFactory implements IImageServic
 				for (int j = 0; j<shape[1]; ++j) {
 					
 					// This saves a value lookup when the pixel is certainly masked.
-					scaledImageAsByte[index] = mask==null || mask.getBoolean(i,j)
+					scaledImageAsByte[index] = mask==null || mask.get(i,j)
 									? getPixelColorIndex(image.getDouble(i,j), min, max, scale, maxPixel, minCut, maxCut)
 									: NAN_PIX_BYTE;
 					++index;
@@ -249,7 +274,7 @@ public class ImageService extends AbstractServiceFactory implements IImageServic
 				for (int j = 0; j<shape[0]; ++j) {
 					
 					// This saves a value lookup when the pixel is certainly masked.
-					scaledImageAsByte[index]  = mask==null || mask.getBoolean(j,i)
+					scaledImageAsByte[index]  = mask==null || mask.get(j,i)
 									? getPixelColorIndex(image.getDouble(j,i), min, max, scale, maxPixel, minCut, maxCut)
 									: NAN_PIX_BYTE;
 					index++;
@@ -267,7 +292,7 @@ public class ImageService extends AbstractServiceFactory implements IImageServic
 				for (int j = shape[1]-1; j>=0; --j) {
 
 					// This saves a value lookup when the pixel is certainly masked.
-					scaledImageAsByte[index] = mask==null || mask.getBoolean(i,j)
+					scaledImageAsByte[index] = mask==null || mask.get(i,j)
 									? getPixelColorIndex(image.getDouble(i,j), min, max, scale, maxPixel, minCut, maxCut)
 									: NAN_PIX_BYTE;
 						index++;
@@ -283,7 +308,7 @@ public class ImageService extends AbstractServiceFactory implements IImageServic
 			for (int i = 0; i<shape[1]; ++i) {
 				if (bean.isCancelled()) return null;
 				for (int j = shape[0]-1; j>=0; --j) {
-					scaledImageAsByte[index]  = mask==null || mask.getBoolean(j,i)
+					scaledImageAsByte[index]  = mask==null || mask.get(j,i)
 									? getPixelColorIndex(image.getDouble(j, i), min, max, scale, maxPixel, minCut, maxCut)
 									: NAN_PIX_BYTE;
 					index++;
@@ -376,7 +401,7 @@ public class ImageService extends AbstractServiceFactory implements IImageServic
 	}
 
 	/**
-	 * private finals inline well by the compiler.
+	 * finals inline well by the compiler. Package private for BandedImageMapper.
 	 * @param val
 	 * @param min
 	 * @param max
@@ -384,7 +409,7 @@ public class ImageService extends AbstractServiceFactory implements IImageServic
 	 * @param maxPixel
 	 * @param scaledImageAsByte
 	 */
-	private final static byte getPixelColorIndex(final double  val, 
+	final static byte getPixelColorIndex(final double  val, 
 												 final double  min, 
 												 final double  max, 
 												 final double  scale, 
@@ -465,72 +490,70 @@ public class ImageService extends AbstractServiceFactory implements IImageServic
 		
 		Dataset image    = getImageLoggedData(bean);
 		
-		if (bean.getHistogramType()==HistoType.OUTLIER_VALUES && !bean.isLogColorScale()) {
-
-			double[] ret = null;
-			try {
-			    double[] stats = Stats.outlierValues(image, bean.getLo(), bean.getHi(), -1);
-			    ret = new double[]{stats[0], stats[1], -1};
-			} catch (IllegalArgumentException iae) {
-				bean.setLo(10);
-				bean.setHi(90);
-			    double[] stats = Stats.outlierValues(image, bean.getLo(), bean.getHi(), -1);
-			    ret = new double[]{stats[0], stats[1], -1};
-			}
-
-		    if (bean.isLogColorScale() && ret!=null) {
-		    	ret = new double[]{Math.pow(10, ret[0]), Math.pow(10, ret[1]), -1};
-			}
-
-			return ret;
-		}
+		final boolean outliers = bean.getHistogramType()==HistoType.OUTLIER_VALUES && !bean.isLogColorScale();
+		final boolean median   = bean.getHistogramType()==HistoType.MEDIAN;
 		
+		// Large images use the base histogram shared with the histogram tools, which
+		// is made once for each image and mask, instead of going over the pixels again.
+		// Percentiles always come from it, so that they do not depend on the image size.
+		final BaseHistogram histo = image.getSize()>=MIN_HISTOGRAM_SIZE || outliers || median
+				                  ? BaseHistogram.getInstance(image, bean.getMask())
+				                  : null;
+
 		double min = Double.MAX_VALUE;
 		double max = -Double.MAX_VALUE;
-		double sum = 0.0;
-		int size = 0;
+		double mean = Double.NaN;
 		
-		BooleanDataset mask = bean.getMask()!=null
-	                        ? (BooleanDataset) DatasetUtils.cast(bean.getMask(), Dataset.BOOL)
-	                        : null;
-
-	    // Big loop warning:
-	    final IndexIterator it = image.getIterator();
-	    final IndexIterator mit = mask == null ? null : mask.getIterator();
-		while (it.hasNext()) {
+		if (histo!=null) {
+			final double[] range = histo.getRange(bean);
+			min  = range[0];
+			max  = range[1];
+			mean = histo.getMean(bean);
+		} else {
+			double sum = 0.0;
+			int size = 0;
 			
-			final double val = image.getElementDoubleAbs(it.index);
-			if (mit != null && mit.hasNext()) {
-				if (!mask.getElementBooleanAbs(mit.index)) {
+			final BitMask mask = BitMask.valueOf(bean.getMask());
+			final int     msize = mask == null ? 0 : mask.getSize();
+	
+		    // Big loop warning:
+		    final IndexIterator it = image.getIterator();
+			for (int i = 0; it.hasNext(); i++) {
+				
+				if (i < msize && !mask.get(i)) {
 					continue; // Masked!
-			    }
+				}
+				final double val = image.getElementDoubleAbs(it.index);
+	
+				if (Double.isNaN(val))      continue;
+				if (!bean.isInBounds(val))  continue;
+	
+				sum += val;
+				if (val < min) min = val;
+				if (val > max) max = val;
+				size++;
 			}
-
-			if (Double.isNaN(val))      continue;
-			if (!bean.isInBounds(val))  continue;
-
-			sum += val;
-			if (val < min) min = val;
-			if (val > max) max = val;
-			size++;
+			mean = sum / size;
+		}
+		
+		if (outliers) {
+			if (bean.getLo()<0 || bean.getHi()>100 || bean.getLo()>=bean.getHi()) {
+				bean.setLo(10);
+				bean.setHi(90);
+			}
+			return new double[]{histo.getPercentile(bean, bean.getLo()), histo.getPercentile(bean, bean.getHi()), -1};
 		}
 		
 		double retMax = Double.NaN;
 		double retExtra = Double.NaN;
 		
-		if (bean.getHistogramType()==HistoType.MEDIAN) { 
+		if (median) { 
 			
-			double median = Double.NaN;
-			try {
-				median = ((Number)Stats.median(image)).doubleValue(); // SLOW
-			} catch (Exception ne) {
-				median = ((Number)Stats.median(image.cast(Dataset.INT16))).doubleValue();// SLOWER
-			}
-			retMax = 2 * median;
-			retExtra=median;
+			final double med = histo.getPercentile(bean, 50);
+			retMax = 2 * med;
+			retExtra=med;
 			
 		} else { // Use mean based histo
-			double mean = sum / size;
 			retMax = (Math.E)*mean; // Not statistical, E seems to be better than 3...
 			retExtra=mean;
 
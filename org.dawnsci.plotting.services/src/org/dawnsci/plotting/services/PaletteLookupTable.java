@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.services;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.plotting.api.histogram.ImageServiceBean;
+
+/**
+ * A table from raw integer pixel value to palette index.
+ *
+ * Integer detector images have millions of pixels but only a few thousand
+ * distinct values, so instead of running the clamp, scale and cut sequence of
+ * ImageService.getPixelColorIndex(...) for every pixel we run it once for each
+ * value in the range of the image and then gather the bytes from the table.
+ *
+ * Tables are cached against the histogram settings (min, max, cut bounds, log
+ * scale) they were built for, not the bean, so images and tiles of images with
+ * the same settings share a table. A table serves any image whose range lies
+ * within its own, and is widened when an image with the same settings is out of
+ * its range, so the tiles of one image end up using a single table. This makes a
+ * contrast change on a 16-bit image a table rebuild rather than a full floating
+ * point pass.
+ *
+ * Package private, used by ImageService and BandedImageMapper.
+ */
+class PaletteLookupTable {
+
+	/**
+	 * Largest table we will build, 1MB.
+	 */
+	private static final int MAX_TABLE_SIZE = 1<<20;
+
+	/**
+	 * The number of settings which we remember tables for. Normally there is one
+	 * set of settings per image trace.
+	 */
+	private static final int CACHE_SIZE = 16;
+
+	private static final LinkedList<PaletteLookupTable> cache = new LinkedList<PaletteLookupTable>();
+
+	private final int     dtype;
+	private final long    lo, hi;
+	private final double  min, max, scale, maxPixel, minCut, maxCut;
+	private final boolean log;
+	private final double  logOffset;
+
+	private final byte[]  table;
+
+	private PaletteLookupTable(int dtype, long lo, long hi,
+			                   double min, double max, double scale, double maxPixel, double minCut, double maxCut,
+			                   boolean log, double logOffset) {
+		this.dtype     = dtype;
+		this.lo        = lo;
+		this.hi        = hi;
+		this.min       = min;
+		this.max       = max;
+		this.scale     = scale;
+		this.maxPixel  = maxPixel;
+		this.minCut    = minCut;
+		this.maxCut    = maxCut;
+		this.log       = log;
+		this.logOffset = logOffset;
+		this.table     = new byte[(int)(hi-lo+1)];
+		fill();
+	}
+
+	private void fill() {
+		final boolean subtract = !Double.isNaN(logOffset) && !Double.isInfinite(logOffset);
+		for (int i = 0; i < table.length; i++) {
+			double val = lo+i;
+			if (log) {
+				// Same operations as ImageService.getImageLoggedDataCalc(...)
+				if (subtract) val = val - logOffset;
+				val = Math.log10(val);
+			}
+			table[i] = ImageService.getPixelColorIndex(val, min, max, scale, maxPixel, minCut, maxCut);
+		}
+	}
+
+	/**
+	 * The value to subtract from a raw pixel value to get its position in the table.
+	 * @return
+	 */
+	long getOffset() {
+		return lo;
+	}
+
+	/**
+	 * The palette indices, to be indexed by (raw value - getOffset())
+	 * @return
+	 */
+	byte[] getTable() {
+		return table;
+	}
+
+	private boolean isFor(int dtype,
+			              double min, double max, double scale, double maxPixel, double minCut, double maxCut,
+			              boolean log, double logOffset) {
+		return this.dtype==dtype &&
+			   same(this.min, min) && same(this.max, max) && same(this.scale, scale) && same(this.maxPixel, maxPixel) &&
+			   same(this.minCut, minCut) && same(this.maxCut, maxCut) &&
+			   this.log==log && (!log || same(this.logOffset, logOffset));
+	}
+
+	private static boolean same(double a, double b) {
+		return Double.doubleToLongBits(a)==Double.doubleToLongBits(b);
+	}
+
+	/**
+	 * Get the table for these settings, building it if no table for them covers the
+	 * range of the image. The image must be the raw (not logged) image and the other
+	 * arguments are those worked out by ImageService.getImageData(...), logged if
+	 * the bean is in log colour scale.
+	 *
+	 * @return the table or null if the image is not an integer image with a small enough range.
+	 */
+	static PaletteLookupTable getTable(ImageServiceBean bean, Dataset image,
+			                           double min, double max, double scale, double maxPixel, double minCut, double maxCut) {
+
+		final int dtype = image.getDtype();
+		long lo, hi;
+		switch (dtype) {
+		case Dataset.INT8:
+			lo = Byte.MIN_VALUE;
+			hi = Byte.MAX_VALUE;
+			break;
+		case Dataset.INT16:
+			lo = Short.MIN_VALUE;
+			hi = Short.MAX_VALUE;
+			break;
+		case Dataset.INT32:
+		case Dataset.INT64:
+			// Unsigned 16-bit data is held in INT32, the range is cached on the dataset.
+			lo = image.min().longValue();
+			hi = image.max().longValue();
+			break;
+		default:
+			return null;
+		}
+		final long tableSize = hi-lo+1;
+		if (tableSize<1 || tableSize>MAX_TABLE_SIZE) return null;
+
+		final boolean log       = bean.isLogColorScale();
+		final double  logOffset = log ? bean.getLogOffset() : Double.NaN;
+
+		synchronized (cache) {
+			boolean widened = false;
+			for (Iterator<PaletteLookupTable> it = cache.iterator(); it.hasNext();) {
+				final PaletteLookupTable table = it.next();
+				if (!table.isFor(dtype, min, max, scale, maxPixel, minCut, maxCut, log, logOffset)) continue;
+
+				if (table.lo<=lo && hi<=table.hi) {
+					it.remove();
+					cache.addFirst(table);
+					return table;
+				}
+				// Another part of the same image, or the same image with a new range.
+				final long wlo = Math.min(lo, table.lo), whi = Math.max(hi, table.hi);
+				if (whi-wlo+1<=MAX_TABLE_SIZE) {
+					it.remove();
+					lo = wlo;
+					hi = whi;
+					widened = true;
+				}
+				break;
+			}
+			if (!widened && tableSize>image.getSize()) return null; // Quicker to map each pixel.
+
+			final PaletteLookupTable table = new PaletteLookupTable(dtype, lo, hi, min, max, scale, maxPixel, minCut, maxCut, log, logOffset);
+			cache.addFirst(table);
+			while (cache.size()>CACHE_SIZE) cache.removeLast();
+			return table;
+		}
+	}
+}
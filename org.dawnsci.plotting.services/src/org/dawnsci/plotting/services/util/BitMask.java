@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.services.util;
+
+import java.util.Arrays;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.BooleanDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.impl.IndexIterator;
+
+/**
+ * A mask packed 64 pixels to a long, an eighth of the size of a BooleanDataset.
+ *
+ * As with the mask datasets a set bit (true) is a pixel which is left and a clear
+ * bit (false) is one which is masked. Pixels are in row major order.
+ *
+ * The operations work on whole words so combining masks, counting pixels and
+ * finding runs of masked or unmasked pixels do not look at each pixel. Loops over
+ * an image can use {@link #nextSetBit(int)} and {@link #nextClearBit(int)} to
+ * skip runs of masked pixels.
+ *
+ * Use {@link #valueOf(IDataset)} and {@link #toDataset()} to go to and from the
+ * BooleanDataset which the plotting API uses for masks.
+ *
+ * Not thread safe for writing.
+ */
+public class BitMask {
+
+	private static final long ALL = 0xFFFFFFFFFFFFFFFFL;
+
+	private final int[]  shape;
+	private final int    size;
+	private final long[] words;
+
+	/**
+	 * A mask with every pixel masked (clear).
+	 * @param shape
+	 */
+	public BitMask(int... shape) {
+		this.shape = shape.clone();
+		int size = 1;
+		for (int i : shape) size *= i;
+		this.size  = size;
+		this.words = new long[(size+63) >>> 6];
+	}
+
+	/**
+	 * Packs a mask dataset.
+	 * @param mask - any dataset, non-zero values are true
+	 * @return packed mask or null if mask is null
+	 */
+	public static BitMask valueOf(IDataset mask) {
+
+		if (mask == null) return null;
+
+		final Dataset set   = DatasetUtils.convertToDataset(mask);
+		final BitMask bits  = new BitMask(set.getShape());
+		final long[]  words = bits.words;
+
+		final Object buffer = set.getBuffer();
+		if (buffer instanceof boolean[] && ((boolean[])buffer).length==bits.size) {
+			// Usual case, read the array directly
+			final boolean[] data = (boolean[])buffer;
+			for (int i = 0; i < data.length; i++) {
+				if (data[i]) words[i >>> 6] |= 1L << i;
+			}
+		} else {
+			final IndexIterator it = set.getIterator();
+			for (int i = 0; it.hasNext(); i++) {
+				if (set.getElementBooleanAbs(it.index)) words[i >>> 6] |= 1L << i;
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * @return a BooleanDataset with the same values, for code which needs one.
+	 */
+	public BooleanDataset toDataset() {
+		final boolean[] data = new boolean[size];
+		for (int start = nextSetBit(0); start >= 0;) {
+			final int end = nextClearBit(start);
+			Arrays.fill(data, start, end, true);
+			start = nextSetBit(end);
+		}
+		final BooleanDataset ret = new BooleanDataset(data, shape);
+		ret.setName("mask");
+		return ret;
+	}
+
+	public int[] getShape() {
+		return shape.clone();
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public boolean get(int index) {
+		return (words[index >>> 6] & (1L << index)) != 0;
+	}
+
+	public boolean get(int y, int x) {
+		return get(y*shape[1]+x);
+	}
+
+	public void set(int index, boolean value) {
+		if (value) {
+			words[index >>> 6] |= 1L << index;
+		} else {
+			words[index >>> 6] &= ~(1L << index);
+		}
+	}
+
+	public void set(boolean value, int y, int x) {
+		set(y*shape[1]+x, value);
+	}
+
+	/**
+	 * Sets the pixels from fromIndex (inclusive) to toIndex (exclusive), a word at a time.
+	 * @param fromIndex
+	 * @param toIndex
+	 * @param value
+	 */
+	public void set(int fromIndex, int toIndex, boolean value) {
+
+		if (fromIndex >= toIndex) return;
+
+		final int  first     = fromIndex >>> 6;
+		final int  last      = (toIndex-1) >>> 6;
+		final long firstMask = ALL << fromIndex;
+		final long lastMask  = ALL >>> -toIndex;
+
+		if (first == last) {
+			setBits(first, firstMask & lastMask, value);
+			return;
+		}
+		setBits(first, firstMask, value);
+		Arrays.fill(words, first+1, last, value ? ALL : 0L);
+		setBits(last, lastMask, value);
+	}
+
+	private void setBits(int word, long bits, boolean value) {
+		if (value) {
+			words[word] |= bits;
+		} else {
+			words[word] &= ~bits;
+		}
+	}
+
+	/**
+	 * Sets every pixel.
+	 * @param value
+	 */
+	public void fill(boolean value) {
+		Arrays.fill(words, value ? ALL : 0L);
+		clearTail();
+	}
+
+	/**
+	 * Unmasked only where both are unmasked.
+	 * @param other - same size
+	 * @return this
+	 */
+	public BitMask and(BitMask other) {
+		checkSize(other);
+		for (int i = 0; i < words.length; i++) words[i] &= other.words[i];
+		return this;
+	}
+
+	/**
+	 * Unmasked where either is unmasked.
+	 * @param other - same size
+	 * @return this
+	 */
+	public BitMask or(BitMask other) {
+		checkSize(other);
+		for (int i = 0; i < words.length; i++) words[i] |= other.words[i];
+		return this;
+	}
+
+	/**
+	 * Unmasked where this is unmasked and other is masked.
+	 * @param other - same size
+	 * @return this
+	 */
+	public BitMask andNot(BitMask other) {
+		checkSize(other);
+		for (int i = 0; i < words.length; i++) words[i] &= ~other.words[i];
+		return this;
+	}
+
+	/**
+	 * Inverts the mask.
+	 * @return this
+	 */
+	public BitMask not() {
+		for (int i = 0; i < words.length; i++) words[i] = ~words[i];
+		clearTail();
+		return this;
+	}
+
+	/**
+	 * @return the number of unmasked pixels
+	 */
+	public int cardinality() {
+		int count = 0;
+		for (long word : words) count += Long.bitCount(word);
+		return count;
+	}
+
+	/**
+	 * @param fromIndex
+	 * @return the first unmasked pixel at or after fromIndex or -1 if there is none.
+	 */
+	public int nextSetBit(int fromIndex) {
+		if (fromIndex >= size) return -1;
+		int  w    = fromIndex >>> 6;
+		long word = words[w] & (ALL << fromIndex);
+		while (true) {
+			if (word != 0) return (w << 6) + Long.numberOfTrailingZeros(word);
+			if (++w == words.length) return -1;
+			word = words[w];
+		}
+	}
+
+	/**
+	 * @param fromIndex
+	 * @return the first masked pixel at or after fromIndex, which is the size if there is none.
+	 */
+	public int nextClearBit(int fromIndex) {
+		if (fromIndex >= size) return size;
+		int  w    = fromIndex >>> 6;
+		long word = ~words[w] & (ALL << fromIndex);
+		while (true) {
+			if (word != 0) return Math.min(size, (w << 6) + Long.numberOfTrailingZeros(word));
+			if (++w == words.length) return size;
+			word = ~words[w];
+		}
+	}
+
+	/**
+	 * @param index
+	 * @return the word holding pixels 64*index to 64*index+63, the lowest bit is the first pixel.
+	 */
+	public long getWord(int index) {
+		return words[index];
+	}
+
+	public int getWordCount() {
+		return words.length;
+	}
+
+	public BitMask copy() {
+		final BitMask ret = new BitMask(shape);
+		System.arraycopy(words, 0, ret.words, 0, words.length);
+		return ret;
+	}
+
+	private void checkSize(BitMask other) {
+		if (other.size != size) throw new IllegalArgumentException("The masks must be the same size!");
+	}
+
+	/**
+	 * Bits past the last pixel are kept clear so that counting and comparing works.
+	 */
+	private void clearTail() {
+		if ((size & 63) != 0) words[words.length-1] &= ALL >>> -size;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31*Arrays.hashCode(shape) + Arrays.hashCode(words);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof BitMask)) return false;
+		final BitMask other = (BitMask) obj;
+		return Arrays.equals(shape, other.shape) && Arrays.equals(words, other.words);
+	}
+}
@@ -11,13 +11,13 @@ package org.dawnsci.plotting.system;
 import java.util.Collection;
 import java.util.HashSet;
 
+import org.dawnsci.plotting.draw2d.swtxy.IPrimitiveDataProvider;
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.IErrorDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
 import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
-import org.eclipse.nebula.visualization.xygraph.dataprovider.IDataProvider;
 import org.eclipse.nebula.visualization.xygraph.dataprovider.IDataProviderListener;
 import org.eclipse.nebula.visualization.xygraph.dataprovider.ISample;
 import org.eclipse.nebula.visualization.xygraph.dataprovider.Sample;
@@ -29,13 +29,22 @@ import org.eclipse.nebula.visualization.xygraph.linearscale.Range;
  * @author Matthew Gerring
  *
  */
-class LightWeightDataProvider implements IDataProvider {
+class LightWeightDataProvider implements IPrimitiveDataProvider {
 	
 	private Dataset x;
 	private Dataset y;
 	private Dataset xerr;
 	private Dataset yerr;
 	private Range cachedXRange, cachedYRange;
+	
+	/**
+	 * Used once append(...) has been called, null otherwise.
+	 */
+	private StreamBuffer stream;
+	/**
+	 * The maximum number of points kept when appending, 0 for no limit.
+	 */
+	private int appendWindow;
 
 	public LightWeightDataProvider() {
 		
@@ -46,6 +55,7 @@ class LightWeightDataProvider implements IDataProvider {
 
 	@Override
 	public int getSize() {
+		if (stream!=null) return stream.size();
 		if (y==null) return 0;
 		if (y.getShape()==null || y.getShape().length<1) return 0;
 		return y.getSize();
@@ -53,6 +63,10 @@ class LightWeightDataProvider implements IDataProvider {
 
 	@Override
 	public ISample getSample(int index) {
+		if (stream!=null) {
+			if (index<0 || index>=stream.size()) return null;
+			return new Sample(stream.getX(index), stream.getY(index));
+		}
 		if (x==null||y==null) return null;
 		try {
 			final double xDat = x.getDouble(index);
@@ -67,8 +81,21 @@ class LightWeightDataProvider implements IDataProvider {
 		}
 	}
 
+	@Override
+	public double getXValue(int index) {
+		if (stream!=null) return stream.getX(index);
+		return x.getDouble(index);
+	}
+
+	@Override
+	public double getYValue(int index) {
+		if (stream!=null) return stream.getY(index);
+		return y.getDouble(index);
+	}
+
 	@Override
 	public Range getXDataMinMax() {
+		if (stream!=null) return stream.size()>0 ? new Range(stream.getXMin(), stream.getXMax()) : new Range(0,100);
 		if (x==null) return new Range(0,100);
 		if (cachedXRange!=null) return cachedXRange;
 		try {
@@ -81,6 +108,7 @@ class LightWeightDataProvider implements IDataProvider {
 
 	@Override
 	public Range getYDataMinMax() {
+		if (stream!=null) return stream.size()>0 ? new Range(stream.getYMin(), stream.getYMax()) : new Range(0,100);
 		if (y==null) return new Range(0,100);
 		if (cachedYRange!=null) return cachedYRange;
 		try {
@@ -130,6 +158,7 @@ class LightWeightDataProvider implements IDataProvider {
 	}
 	
 	private void setDataInternal(IDataset xData, IDataset yData) {
+		this.stream = null;
 		this.x = DatasetUtils.convertToDataset(xData);
 		this.y = DatasetUtils.convertToDataset(yData);
 		ILazyDataset xel = x.getError();
@@ -147,48 +176,98 @@ class LightWeightDataProvider implements IDataProvider {
 		}
 	}
 
+	/**
+	 * Once points have been appended this is a view of the buffer they are
+	 * kept in, which may change as more are appended.
+	 */
 	public Dataset getY() {
+		if (stream!=null) {
+			if (y==null) y = stream.getYView();
+		}
 		return y;
 	}
 	
+	/**
+	 * Once points have been appended this is a view of the buffer they are
+	 * kept in, which may change as more are appended.
+	 */
 	public Dataset getX() {
+		if (stream!=null) {
+			if (x==null) x = stream.getXView();
+		}
 		return x;
 	}
+	
+	/**
+	 * Sets the maximum number of points kept by append(...), the oldest
+	 * are dropped. Zero, the default, keeps all the points.
+	 * 
+	 * @param window
+	 */
+	public void setAppendWindow(int window) {
+		this.appendWindow = window;
+		if (stream!=null) stream.setCapacity(window);
+	}
+	
+	public int getAppendWindow() {
+		return appendWindow;
+	}
 
 	/**
 	 * Works if x and y have not been set yet.
-	 * Should be possible to make this faster by adding mode whereby viewed size is constant and
-	 * append adds to end and removes from start.
+	 * 
+	 * The first append copies the data into a primitive buffer, after that
+	 * each point is added in constant time. If an append window is set the
+	 * buffer is circular and keeps the last points.
 	 * 
 	 * @param xValue
 	 * @param yValue
 	 */
 	public void append(Number xValue, Number yValue) {
-
+		startStreaming();
+		stream.add(xValue.doubleValue(), yValue.doubleValue());
+		this.x = null; // Created again if asked for
+		this.y = null;
+	    fireDataProviderListeners();
+	}
+	
+	/**
+	 * Appends a block of points and notifies the listeners once.
+	 * 
+	 * @param xValues
+	 * @param yValues
+	 * @param length the number of points to take from the arrays
+	 */
+	public void append(double[] xValues, double[] yValues, int length) {
+		startStreaming();
+		for (int i = 0; i < length; i++) stream.add(xValues[i], yValues[i]);
+		this.x = null;
+		this.y = null;
+	    fireDataProviderListeners();
+	}
+	
+	private void startStreaming() {
+		if (stream!=null) return;
+		
 		final double[] xArray = x!=null && x.getShape()!=null && x.getShape().length>0
 				              ? (double[])DatasetUtils.cast(x, Dataset.FLOAT64).getBuffer()
 		                      : new double[0];
 		final double[] yArray = y!=null && y.getShape()!=null && y.getShape().length>0
 	                          ? (double[])DatasetUtils.cast(y, Dataset.FLOAT64).getBuffer()
                               : new double[0];
-	                          
-	    final double[] xa = new double[xArray.length+1];
-	    System.arraycopy(xArray, 0, xa, 0, xArray.length);
-	    xa[xa.length-1] = xValue.doubleValue();
-	    this.x = new DoubleDataset(xa, xa.length);
-	    
-	    final double[] ya = new double[yArray.length+1];
-	    System.arraycopy(yArray, 0, ya, 0, yArray.length);
-	    ya[ya.length-1] = yValue.doubleValue();
-	    this.y = new DoubleDataset(ya, ya.length);
-	    
+		                      
+		stream = new StreamBuffer(appendWindow, Math.max(xArray.length, 16));
+		for (int i = 0; i < Math.min(xArray.length, yArray.length); i++) {
+			stream.add(xArray[i], yArray[i]);
+		}
+		this.xerr = null;
+		this.yerr = null;
 		this.cachedXRange = null;
 		this.cachedYRange = null;
-	    
-	    fireDataProviderListeners();
 	}
 
 	public boolean hasErrors() {
+		if (stream!=null) return false;
 		if (x instanceof IErrorDataset && ((IErrorDataset) x).hasErrors())
 			return true;
 		if (y instanceof IErrorDataset && ((IErrorDataset) y).hasErrors())
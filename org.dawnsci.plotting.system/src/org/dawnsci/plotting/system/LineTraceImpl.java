@@ -375,6 +375,16 @@ public class LineTraceImpl implements ILineTrace, ITraceListener{
 		return trace;
 	}
 
+	/**
+	 * Sets the number of points kept when points are appended to this trace,
+	 * the oldest are dropped. Zero, the default, keeps all the points.
+	 * @param window
+	 */
+	public void setAppendWindow(int window) {
+		LightWeightDataProvider prov = (LightWeightDataProvider)trace.getDataProvider();
+		if (prov!=null) prov.setAppendWindow(window);
+	}
+
 	private boolean settingLineData = false;
 	/**
 	 * You may need a repaint after calling this
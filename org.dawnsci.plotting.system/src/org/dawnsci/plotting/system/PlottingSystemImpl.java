@@ -23,6 +23,7 @@ import org.dawb.common.ui.util.GridUtils;
 import org.dawnsci.plotting.AbstractPlottingSystem;
 import org.dawnsci.plotting.Activator;
 import org.dawnsci.plotting.PlottingActionBarManager;
+import org.dawnsci.plotting.jmx.StreamPlottingServer;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IAdaptable;
 import org.eclipse.core.runtime.IConfigurationElement;
@@ -205,6 +206,13 @@ public class PlottingSystemImpl extends AbstractPlottingSystem {
 		} catch (Exception e) {
 			logger.error("Unable to register plotting system "+plotName, e);
 		}
+		try {
+			StreamPlottingServer.startIfRequired();
+		} catch (NoClassDefFoundError ne) {
+			logger.debug("No stream plotting server, org.dawnsci.plotting.jmx is not installed");
+		} catch (Exception e) {
+			logger.error("Unable to start stream plotting server", e);
+		}
 		
 		if (mservice!=null) {
 			mservice.publish(new MacroEventObject(this));
@@ -490,6 +498,101 @@ public class PlottingSystemImpl extends AbstractPlottingSystem {
 		}
 	}
 
+	/**
+	 * Time between repaints when blocks of points are appended, about one frame.
+	 */
+	private static final int APPEND_REFRESH_MS = 16;
+
+	/**
+	 * Points appended from any thread, waiting to be added to their traces on the UI thread.
+	 */
+	private final Map<String, AppendBuffer> pendingAppends = new LinkedHashMap<String, AppendBuffer>();
+	private boolean appendScheduled;
+
+	/**
+	 * Appends a block of points without blocking the caller. Blocks sent to a trace
+	 * between repaints are added together so the trace is repainted at most once a frame.
+	 */
+	@Override
+	public void append( final String           name, 
+			            final double[]         xValues,
+					    final double[]         yValues,
+					    final IProgressMonitor monitor) throws Exception  {       
+		
+		if (!this.plottingMode.is1D())
+			throw new Exception("Can only add in 1D mode!");
+		if (name == null || "".equals(name))
+			throw new IllegalArgumentException("The dataset name must not be null or empty string!");
+		if (xValues.length!=yValues.length)
+			throw new IllegalArgumentException("The x and y values must be the same length!");
+
+		synchronized (pendingAppends) {
+			AppendBuffer buffer = pendingAppends.get(name);
+			if (buffer==null) {
+				buffer = new AppendBuffer();
+				pendingAppends.put(name, buffer);
+			}
+			buffer.add(xValues, yValues);
+			if (appendScheduled) return;
+			appendScheduled = true;
+		}
+
+		getDisplay().asyncExec(new Runnable() {
+			@Override
+			public void run() {
+				getDisplay().timerExec(APPEND_REFRESH_MS, new Runnable() {
+					@Override
+					public void run() {
+						flushAppends();
+					}
+				});
+			}
+		});
+	}
+
+	private void flushAppends() {
+		final Map<String, AppendBuffer> pending;
+		synchronized (pendingAppends) {
+			pending = new LinkedHashMap<String, AppendBuffer>(pendingAppends);
+			pendingAppends.clear();
+			appendScheduled = false;
+		}
+		if (traceMap==null) return;
+		for (String name : pending.keySet()) {
+			final AppendBuffer buffer = pending.get(name);
+			final ITrace wrapper = traceMap.get(name);
+			if (!(wrapper instanceof LineTraceImpl)) {
+				logger.warn("Cannot append "+buffer.size+" points to '"+name+"', there is no line trace of that name");
+				continue;
+			}
+
+			final Trace trace = ((LineTraceImpl)wrapper).getTrace();
+			LightWeightDataProvider prov = (LightWeightDataProvider)trace.getDataProvider();
+			if (prov==null) {
+				logger.warn("Cannot append "+buffer.size+" points to '"+name+"', the trace has no data");
+				continue;
+			}
+			prov.append(buffer.xs, buffer.ys, buffer.size);
+		}
+	}
+
+	private static class AppendBuffer {
+		double[] xs = new double[64];
+		double[] ys = new double[64];
+		int      size;
+
+		void add(double[] x, double[] y) {
+			if (size+x.length>xs.length) {
+				final int length = Math.max(2*xs.length, size+x.length);
+				xs = Arrays.copyOf(xs, length);
+				ys = Arrays.copyOf(ys, length);
+			}
+			System.arraycopy(x, 0, xs, size, x.length);
+			System.arraycopy(y, 0, ys, size, y.length);
+			size+=x.length;
+		}
+	}
+
 	/**
      * Do not call before createPlotPart(...)
      */
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.system;
+
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+
+/**
+ * Primitive x,y buffer for points appended to a line trace.
+ *
+ * If the capacity is zero the buffer grows as needed, otherwise it is circular
+ * and the oldest point is overwritten. A circular buffer keeps each point twice,
+ * capacity apart, so the points in order are always one run of the array and
+ * can be given out as a view without copying.
+ *
+ * The min and max of x and y are kept as points are added. In a circular buffer
+ * they are kept in monotonic queues, so dropping the oldest point never needs
+ * the points to be looked at again.
+ *
+ * Not thread safe, used from the UI thread.
+ */
+class StreamBuffer {
+
+	private double[] xs, ys;
+	private int      start, size;
+	private int      capacity;
+
+	/**
+	 * The number of points added since the buffer was made, the sequence number of the next point.
+	 */
+	private long     count;
+
+	// Used when the buffer grows, nothing is dropped.
+	private double   xMin, xMax, yMin, yMax;
+
+	// Used when the buffer is circular, null otherwise.
+	private Extremes xLow, xHigh, yLow, yHigh;
+
+	/**
+	 *
+	 * @param capacity 0 to grow as needed
+	 * @param initialSize used if capacity is 0
+	 */
+	StreamBuffer(int capacity, int initialSize) {
+		this.capacity = capacity;
+		final int length = capacity>0 ? 2*capacity : Math.max(initialSize, 1);
+		this.xs = new double[length];
+		this.ys = new double[length];
+		resetRange();
+	}
+
+	int size() {
+		return size;
+	}
+
+	double getX(int index) {
+		return xs[start+index];
+	}
+
+	double getY(int index) {
+		return ys[start+index];
+	}
+
+	void add(double x, double y) {
+
+		if (capacity>0) {
+			final int slot;
+			if (size==capacity) {
+				// Full circular buffer, drop the oldest.
+				final long oldest = count-size;
+				xLow.drop(oldest);
+				xHigh.drop(oldest);
+				yLow.drop(oldest);
+				yHigh.drop(oldest);
+				slot  = start;
+				start = (start+1)%capacity;
+			} else {
+				slot  = (start+size)%capacity;
+				++size;
+			}
+			xs[slot] = xs[slot+capacity] = x;
+			ys[slot] = ys[slot+capacity] = y;
+			xLow.add(count, x);
+			xHigh.add(count, x);
+			yLow.add(count, y);
+			yHigh.add(count, y);
+			++count;
+			return;
+		}
+
+		if (size==xs.length) grow(2*xs.length);
+		xs[size] = x;
+		ys[size] = y;
+		++size;
+		++count;
+		// NaNs fail all the comparisons and are ignored.
+		if (x<xMin) xMin = x;
+		if (x>xMax) xMax = x;
+		if (y<yMin) yMin = y;
+		if (y>yMax) yMax = y;
+	}
+
+	/**
+	 * Change the capacity, keeping the newest points.
+	 * @param capacity 0 to grow as needed
+	 */
+	void setCapacity(int capacity) {
+		final int keep = capacity>0 ? Math.min(size, capacity) : size;
+		final double[] ox = xs, oy = ys;
+		final int      from = start+size-keep;
+
+		this.capacity = capacity;
+		this.xs    = new double[capacity>0 ? 2*capacity : Math.max(keep, 1)];
+		this.ys    = new double[xs.length];
+		this.start = 0;
+		this.size  = 0;
+		this.count = 0;
+		resetRange();
+		for (int i = 0; i < keep; i++) add(ox[from+i], oy[from+i]);
+	}
+
+	private void grow(int length) {
+		final double[] nx = new double[length];
+		final double[] ny = new double[length];
+		System.arraycopy(xs, start, nx, 0, size);
+		System.arraycopy(ys, start, ny, 0, size);
+		xs = nx;
+		ys = ny;
+		start = 0;
+	}
+
+	/**
+	 * The dataset shares the buffer, so the oldest of its points can change
+	 * when points are appended. Copy it to keep it.
+	 *
+	 * @return a view of the x values in order
+	 */
+	Dataset getXView() {
+		return getView(xs);
+	}
+
+	/**
+	 * The dataset shares the buffer, so the oldest of its points can change
+	 * when points are appended. Copy it to keep it.
+	 *
+	 * @return a view of the y values in order
+	 */
+	Dataset getYView() {
+		return getView(ys);
+	}
+
+	private Dataset getView(double[] values) {
+		final Dataset all = new DoubleDataset(values, values.length);
+		if (start==0 && size==values.length) return all;
+		return all.getSliceView(new int[]{start}, new int[]{start+size}, null);
+	}
+
+	double getXMin() {
+		return xLow!=null ? xLow.get() : xMin;
+	}
+
+	double getXMax() {
+		return xHigh!=null ? xHigh.get() : xMax;
+	}
+
+	double getYMin() {
+		return yLow!=null ? yLow.get() : yMin;
+	}
+
+	double getYMax() {
+		return yHigh!=null ? yHigh.get() : yMax;
+	}
+
+	private void resetRange() {
+		xMin = Double.POSITIVE_INFINITY;
+		xMax = Double.NEGATIVE_INFINITY;
+		yMin = Double.POSITIVE_INFINITY;
+		yMax = Double.NEGATIVE_INFINITY;
+		if (capacity>0) {
+			xLow  = new Extremes(false, capacity);
+			xHigh = new Extremes(true,  capacity);
+			yLow  = new Extremes(false, capacity);
+			yHigh = new Extremes(true,  capacity);
+		} else {
+			xLow = xHigh = yLow = yHigh = null;
+		}
+	}
+
+	/**
+	 * The points of the window which may yet be its min (or max), oldest first.
+	 * Each is smaller (or larger) than all the points before it in the queue, so
+	 * the head is the min (or max) of the window. A new point removes the ones
+	 * at the tail which it beats, as they are dropped from the window before it.
+	 */
+	private static final class Extremes {
+
+		private final boolean  max;
+		private final long[]   seqs;
+		private final double[] values;
+		private int            head, length;
+
+		Extremes(boolean max, int capacity) {
+			this.max    = max;
+			this.seqs   = new long[capacity];
+			this.values = new double[capacity];
+		}
+
+		void add(long seq, double value) {
+			if (Double.isNaN(value)) return; // Ignored, as the dataset min and max do
+			while (length>0) {
+				final double last = values[(head+length-1)%values.length];
+				if (max ? last>value : last<value) break;
+				--length;
+			}
+			final int tail = (head+length)%values.length;
+			seqs[tail]   = seq;
+			values[tail] = value;
+			++length;
+		}
+
+		/**
+		 * Called when the point with this sequence number leaves the window.
+		 */
+		void drop(long seq) {
+			if (length>0 && seqs[head]==seq) {
+				head = (head+1)%values.length;
+				--length;
+			}
+		}
+
+		double get() {
+			if (length==0) return max ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+			return values[head];
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.tools.diffraction;
+
+import org.apache.commons.math3.analysis.MultivariateFunction;
+import org.apache.commons.math3.optim.ConvergenceChecker;
+import org.apache.commons.math3.optim.InitialGuess;
+import org.apache.commons.math3.optim.MaxEval;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.optim.SimpleBounds;
+import org.apache.commons.math3.optim.SimplePointChecker;
+import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
+import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunction;
+import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.CMAESOptimizer;
+import org.apache.commons.math3.random.Well19937a;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Runs the optimiser and the commons math CMAESOptimizer with the settings of
+ * BeamCenterRefinement from the same seed, they should find the same points.
+ */
+public class ParallelCMAESOptimizerTest {
+
+	private static final int      LAMBDA = 15;
+	private static final double[] SIGMA  = {3, 3};
+	private static final double[] START  = {100, 200};
+	private static final double[] LOWER  = {80, 180};
+	private static final double[] UPPER  = {120, 220};
+
+	/**
+	 * A peak like that of the beam position, with a ripple.
+	 */
+	private static final MultivariateFunction PEAK = new MultivariateFunction() {
+		@Override
+		public double value(double[] x) {
+			final double dx = x[0]-104.3, dy = x[1]-196.2;
+			return 10/(1+(dx*dx+2*dy*dy+dx*dy)/20) + 0.1*Math.sin(x[0]) * Math.cos(x[1]);
+		}
+	};
+
+	/**
+	 * Largest outside the bounds, so the points are repaired and penalised.
+	 */
+	private static final MultivariateFunction SLOPE = new MultivariateFunction() {
+		@Override
+		public double value(double[] x) {
+			return x[0] - 0.5*(x[1]-205)*(x[1]-205);
+		}
+	};
+
+	@Test
+	public void testPeak() throws Exception {
+		for (int seed = 1; seed <= 5; seed++) {
+			compare(PEAK, seed, 10000, new SimplePointChecker<PointValuePair>(1e-3, 1e-4));
+		}
+	}
+
+	@Test
+	public void testPeakWithoutChecker() throws Exception {
+		compare(PEAK, 6, 10000, null);
+	}
+
+	@Test
+	public void testBounds() throws Exception {
+		for (int seed = 1; seed <= 5; seed++) {
+			compare(SLOPE, seed, 10000, new SimplePointChecker<PointValuePair>(1e-3, 1e-4));
+		}
+	}
+
+	@Test
+	public void testEvaluationBudget() throws Exception {
+		final int max = 100;
+		final ParallelCMAESOptimizer optimizer = compare(PEAK, 7, max, null);
+		Assert.assertTrue(optimizer.getEvaluations()<=max);
+		Assert.assertEquals(1+LAMBDA*((max-1)/LAMBDA), optimizer.getEvaluations());
+	}
+
+	private static ParallelCMAESOptimizer compare(MultivariateFunction function, int seed, int max,
+			                                      ConvergenceChecker<PointValuePair> checker) throws Exception {
+
+		final CMAESOptimizer expected = new CMAESOptimizer(max, 0.0, true, 0, 10, new Well19937a(seed), false, checker);
+		final PointValuePair best = expected.optimize(new MaxEval(max),
+				new ObjectiveFunction(function),
+				GoalType.MAXIMIZE,
+				new CMAESOptimizer.PopulationSize(LAMBDA),
+				new CMAESOptimizer.Sigma(SIGMA),
+				new SimpleBounds(LOWER, UPPER),
+				new InitialGuess(START));
+
+		final ParallelCMAESOptimizer optimizer = new ParallelCMAESOptimizer(max, 0.0, true, 10, new Well19937a(seed), checker);
+		final PointValuePair result = optimizer.maximize(function, max, LAMBDA, SIGMA, LOWER, UPPER, START, null);
+
+		Assert.assertArrayEquals("Seed "+seed, best.getPoint(), result.getPoint(), 1e-9);
+		Assert.assertEquals("Seed "+seed, best.getValue(), result.getValue(), 1e-9);
+		if (expected.getEvaluations()<=max) {
+			Assert.assertEquals("Seed "+seed, expected.getEvaluations(), optimizer.getEvaluations());
+		}
+		return optimizer;
+	}
+}
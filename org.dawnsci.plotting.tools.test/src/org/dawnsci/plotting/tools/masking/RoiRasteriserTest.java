@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.tools.masking;
+
+import java.util.Random;
+
+import org.eclipse.dawnsci.analysis.api.roi.IROI;
+import org.eclipse.dawnsci.analysis.dataset.roi.LinearROI;
+import org.eclipse.dawnsci.analysis.dataset.roi.PolygonalROI;
+import org.eclipse.dawnsci.analysis.dataset.roi.RectangularROI;
+import org.eclipse.dawnsci.analysis.dataset.roi.SectorROI;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the pixels covered by the rasterised regions against the per pixel
+ * test MaskObject used before, containsPoint or isNearOutline for lines, on
+ * every pixel of the image.
+ *
+ * Most of the regions are random and not on whole pixels. The whole pixel
+ * boxes and polygons have their edges on rows and columns of pixels, which
+ * containsPoint includes, and only edges on which the crossings are exact.
+ */
+public class RoiRasteriserTest {
+
+	private static final int   WIDTH  = 300, HEIGHT = 200;
+	private static final int[] SHAPE  = {HEIGHT, WIDTH};
+	private static final int   REGIONS = 50;
+
+	@Test
+	public void testRectangles() {
+		final Random random = new Random(1);
+		for (int i = 0; i < REGIONS; i++) {
+			final double angle = i%5==0 ? 0 : random.nextDouble()*2*Math.PI;
+			check(new RectangularROI(random.nextDouble()*WIDTH-20.3, random.nextDouble()*HEIGHT-20.3,
+					                 1+random.nextDouble()*100, 1+random.nextDouble()*80, angle), 0);
+		}
+	}
+
+	@Test
+	public void testRectangleOverImage() {
+		check(new RectangularROI(-10.5, -10.5, WIDTH+20, HEIGHT+20, 0), 0);
+	}
+
+	@Test
+	public void testWholePixelRectangles() {
+		final Random random = new Random(5);
+		for (int i = 0; i < REGIONS; i++) {
+			check(new RectangularROI(random.nextInt(WIDTH+20)-20, random.nextInt(HEIGHT+20)-20,
+					                 1+random.nextInt(100), 1+random.nextInt(80), 0), 0);
+		}
+		check(new RectangularROI(0, 0, WIDTH-1, HEIGHT-1, 0), 0);
+	}
+
+	@Test
+	public void testWholePixelPolygons() {
+		final Random random = new Random(6);
+		for (int i = 0; i < REGIONS; i++) {
+			final int x = random.nextInt(WIDTH)-10, y = random.nextInt(HEIGHT)-10;
+			final int w = 2+random.nextInt(80),     h = 2+random.nextInt(60);
+			final int cx = x+1+random.nextInt(w-1), cy = y+1+random.nextInt(h-1);
+			// An L shape, then a right angled triangle with edges at 45 degrees
+			check(new PolygonalROI(new double[][]{{x, y}, {x+w, y}, {x+w, cy}, {cx, cy}, {cx, y+h}, {x, y+h}}), 0);
+			check(new PolygonalROI(new double[][]{{x, y}, {x+w, y}, {x, y+w}}), 0);
+			check(new PolygonalROI(new double[][]{{x+w, y}, {x+w, y+w}, {x, y+w}}), 0);
+		}
+	}
+
+	@Test
+	public void testSectors() {
+		final Random random = new Random(2);
+		for (int i = 0; i < REGIONS; i++) {
+			final double inner = random.nextDouble()*30;
+			final double start = random.nextDouble()*2*Math.PI;
+			check(new SectorROI(random.nextDouble()*WIDTH+0.3, random.nextDouble()*HEIGHT+0.3,
+					            inner, inner+1+random.nextDouble()*60,
+					            start, start+0.1+random.nextDouble()*(2*Math.PI-0.2)), 0);
+		}
+	}
+
+	@Test
+	public void testPolygons() {
+		final Random random = new Random(3);
+		for (int i = 0; i < REGIONS; i++) {
+			final double[][] points = new double[3+random.nextInt(8)][];
+			for (int p = 0; p < points.length; p++) {
+				points[p] = new double[]{random.nextDouble()*(WIDTH+20)-10, random.nextDouble()*(HEIGHT+20)-10};
+			}
+			check(new PolygonalROI(points), 0);
+		}
+	}
+
+	@Test
+	public void testLines() {
+		final Random random = new Random(4);
+		for (int i = 0; i < REGIONS; i++) {
+			check(new LinearROI(new double[]{random.nextDouble()*WIDTH, random.nextDouble()*HEIGHT},
+					            new double[]{random.nextDouble()*WIDTH, random.nextDouble()*HEIGHT}), 1+random.nextInt(10));
+		}
+	}
+
+	private static void check(IROI roi, double lineWidth) {
+
+		final boolean[] covered = new boolean[WIDTH*HEIGHT];
+		final RoiRasteriser rasteriser = RoiRasteriser.create(roi, lineWidth, SHAPE);
+		Assert.assertNotNull(rasteriser);
+
+		final int[] rows = rasteriser.getRows();
+		if (rows!=null) {
+			for (int y = rows[0]; y <= rows[1]; y++) {
+				final int[] spans = rasteriser.getSpans(y);
+				if (spans==null) continue;
+				for (int i = 0; i < spans.length; i+=2) {
+					Assert.assertTrue("Spans out of order in row "+y+" of "+roi, i==0 || spans[i]>spans[i-1]+1);
+					for (int x = spans[i]; x <= spans[i+1]; x++) covered[y*WIDTH+x] = true;
+				}
+			}
+		}
+
+		final double distance = Math.max(0.5, lineWidth/2.);
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				final boolean expected = roi instanceof LinearROI
+						               ? ((LinearROI)roi).isNearOutline(x, y, distance)
+						               : roi.containsPoint(x, y);
+				if (expected != covered[y*WIDTH+x]) {
+					Assert.fail("Pixel "+x+","+y+" is "+(expected ? "" : "not ")+"in "+roi+" but was "+(expected ? "not " : "")+"rasterised");
+				}
+			}
+		}
+	}
+}
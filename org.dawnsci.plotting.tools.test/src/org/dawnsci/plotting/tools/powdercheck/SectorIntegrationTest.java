@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.tools.powdercheck;
+
+import java.util.List;
+import java.util.Random;
+
+import javax.vecmath.Vector3d;
+
+import org.eclipse.dawnsci.analysis.api.diffraction.DetectorProperties;
+import org.eclipse.dawnsci.analysis.api.diffraction.DiffractionCrystalEnvironment;
+import org.eclipse.dawnsci.analysis.api.metadata.IDiffractionMetadata;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.junit.Assert;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.diffraction.powder.NonPixelSplittingIntegration;
+import uk.ac.diamond.scisoft.analysis.io.DiffractionMetadata;
+import uk.ac.diamond.scisoft.analysis.roi.XAxis;
+
+/**
+ * Checks the profiles of all the sectors from one pass over the image against
+ * a non pixel splitting integration of each sector on its own, as the powder
+ * check did before.
+ *
+ * The beam centre is not on a pixel, so that no pixel is on the edge of a
+ * sector. The image is smooth in radius with a little noise, so a pixel on the
+ * edge of a radial bin, which the two may round differently, moves the mean of
+ * a bin very little.
+ */
+public class SectorIntegrationTest {
+
+	private static final int WIDTH = 500, HEIGHT = 400;
+	private static final int SECTOR_WIDTH = 10;
+
+	@Test
+	public void testAngle() {
+		check(XAxis.ANGLE);
+	}
+
+	@Test
+	public void testQ() {
+		check(XAxis.Q);
+	}
+
+	@Test
+	public void testCached() {
+		final IDiffractionMetadata md = createMetadata();
+		final int[] shape = new int[]{HEIGHT, WIDTH};
+		final SectorIntegration integration = SectorIntegration.getInstance(md, shape, XAxis.ANGLE, 360/SECTOR_WIDTH);
+		Assert.assertSame(integration, SectorIntegration.getInstance(createMetadata(), shape, XAxis.ANGLE, 360/SECTOR_WIDTH));
+
+		md.getDetector2DProperties().setBeamCentreCoords(new double[]{200.29, 150.61});
+		Assert.assertNotSame(integration, SectorIntegration.getInstance(md, shape, XAxis.ANGLE, 360/SECTOR_WIDTH));
+	}
+
+	private static void check(XAxis xAxis) {
+		final IDiffractionMetadata md    = createMetadata();
+		final Dataset              image = createImage();
+
+		final SectorIntegration sectors  = SectorIntegration.getInstance(md, image.getShape(), xAxis, 360/SECTOR_WIDTH);
+		final Dataset[]         profiles = sectors.integrate(image);
+		final Dataset           axis     = sectors.getAxis();
+		Assert.assertEquals(360/SECTOR_WIDTH, profiles.length);
+
+		final NonPixelSplittingIntegration npsi = new NonPixelSplittingIntegration(md);
+		npsi.setAxisType(xAxis);
+		for (int s = 0; s < profiles.length; s++) {
+			final int i = -180 + s*SECTOR_WIDTH;
+			npsi.setAzimuthalRange(new double[]{i, i+SECTOR_WIDTH});
+			final List<Dataset> out = npsi.integrate(image);
+
+			final Dataset expectedAxis    = out.get(0);
+			final Dataset expectedProfile = out.get(1);
+			Assert.assertEquals(expectedAxis.getSize(),    axis.getSize());
+			Assert.assertEquals(expectedProfile.getSize(), profiles[s].getSize());
+			for (int b = 0; b < axis.getSize(); b++) {
+				final double x = expectedAxis.getDouble(b);
+				Assert.assertEquals(x, axis.getDouble(b), 1e-9*Math.abs(x));
+				final double y = expectedProfile.getDouble(b);
+				Assert.assertEquals("Sector "+i+" bin "+b, y, profiles[s].getDouble(b), 1e-3*Math.abs(y));
+			}
+		}
+	}
+
+	private static IDiffractionMetadata createMetadata() {
+		final DetectorProperties detector = new DetectorProperties(new Vector3d(0, 0, 200), HEIGHT, WIDTH, 0.172, 0.172, 0, 0, 0);
+		detector.setBeamCentreCoords(new double[]{240.37, 190.83});
+		final DiffractionCrystalEnvironment environment = new DiffractionCrystalEnvironment(1.0, 0, 0, 1);
+		return new DiffractionMetadata(null, detector, environment);
+	}
+
+	/**
+	 * Rings around the beam centre plus a little noise.
+	 */
+	private static Dataset createImage() {
+		final Random   random = new Random(1);
+		final double[] values = new double[WIDTH*HEIGHT];
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				final double r = Math.hypot(x-240.37, y-190.83);
+				values[y*WIDTH+x] = 1000 + 200*Math.sin(r/15) + random.nextDouble();
+			}
+		}
+		return new DoubleDataset(values, HEIGHT, WIDTH);
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.tools.utils;
+
+import java.util.Random;
+
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.IntegerDataset;
+import org.eclipse.dawnsci.analysis.dataset.roi.RectangularROI;
+import org.junit.Assert;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.roi.ROIProfile;
+
+/**
+ * Checks the sums, means, variances and profiles of random boxes from the
+ * summed-area table against those of the box sliced out of the image and
+ * against the box profile, which go over every pixel.
+ *
+ * The bright image is a small signal on a large background, where the sums
+ * of the whole table are far larger than those of a box.
+ */
+public class IntegralImageTest {
+
+	private static final int WIDTH = 400, HEIGHT = 300;
+	private static final int BOXES = 200;
+
+	@Test
+	public void testBrightImage() {
+		final Random random = new Random(1);
+		final double[] values = new double[WIDTH*HEIGHT];
+		for (int i = 0; i < values.length; i++) values[i] = 1e8 + 10*random.nextGaussian();
+		final Dataset image = new DoubleDataset(values, HEIGHT, WIDTH);
+		final IntegralImage integral = new IntegralImage(image);
+
+		for (int i = 0; i < BOXES; i++) {
+			final int[] box = createBox(random);
+			final Dataset slice = slice(image, box);
+			final double  sum   = ((Number)slice.sum(true)).doubleValue();
+			final int     count = (int)slice.getSize();
+
+			Assert.assertEquals(count, integral.getCount(box[0], box[1], box[2], box[3]));
+			Assert.assertEquals(sum, integral.getSum(box[0], box[1], box[2], box[3]), 1e-10*Math.abs(sum));
+			Assert.assertEquals(sum/count, integral.getMean(box[0], box[1], box[2], box[3]), 1e-10*Math.abs(sum/count));
+			if (count<2) continue;
+			final double variance = ((Number)slice.variance()).doubleValue();
+			Assert.assertEquals(variance, integral.getVariance(box[0], box[1], box[2], box[3]), 1e-6*variance);
+		}
+	}
+
+	@Test
+	public void testIntegerImage() {
+		final Random random = new Random(2);
+		final int[] values = new int[WIDTH*HEIGHT];
+		for (int i = 0; i < values.length; i++) values[i] = 1000000 + random.nextInt(65536);
+		final Dataset image = new IntegerDataset(values, HEIGHT, WIDTH);
+		final IntegralImage integral = new IntegralImage(image);
+
+		for (int i = 0; i < BOXES; i++) {
+			final int[] box = createBox(random);
+			final double sum = ((Number)slice(image, box).sum(true)).doubleValue();
+			Assert.assertEquals(sum, integral.getSum(box[0], box[1], box[2], box[3]), 0);
+		}
+	}
+
+	@Test
+	public void testNaNs() {
+		final Random random = new Random(3);
+		final double[] values = new double[WIDTH*HEIGHT];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = random.nextInt(20)==0 ? Double.NaN : 5000 + 100*random.nextDouble();
+		}
+		final Dataset image = new DoubleDataset(values, HEIGHT, WIDTH);
+		final IntegralImage integral = new IntegralImage(image);
+		Assert.assertTrue(integral.hasNaN());
+
+		for (int i = 0; i < BOXES; i++) {
+			final int[] box = createBox(random);
+			final Dataset slice = slice(image, box);
+			int count = 0;
+			for (double value : ((DoubleDataset)slice.clone()).getData()) if (!Double.isNaN(value)) ++count;
+			final double sum = ((Number)slice.sum(true)).doubleValue();
+
+			Assert.assertEquals(count, integral.getCount(box[0], box[1], box[2], box[3]));
+			Assert.assertEquals(sum, integral.getSum(box[0], box[1], box[2], box[3]), 1e-9*Math.abs(sum));
+		}
+	}
+
+	@Test
+	public void testProfiles() {
+		final Random random = new Random(4);
+		final double[] values = new double[WIDTH*HEIGHT];
+		for (int i = 0; i < values.length; i++) values[i] = 1e6 + 1000*random.nextDouble();
+		final Dataset image = new DoubleDataset(values, HEIGHT, WIDTH);
+		final IntegralImage integral = new IntegralImage(image);
+
+		for (int i = 0; i < BOXES; i++) {
+			final int[] box = createBox(random);
+			final Dataset[] profiles = ROIProfile.box(image, new RectangularROI(box[0], box[1], box[2]-box[0], box[3]-box[1], 0));
+			checkProfile(profiles[0], integral.getXProfile(box[0], box[1], box[2], box[3]));
+			checkProfile(profiles[1], integral.getYProfile(box[0], box[1], box[2], box[3]));
+		}
+	}
+
+	@Test
+	public void testClipped() {
+		final Random random = new Random(5);
+		final double[] values = new double[WIDTH*HEIGHT];
+		for (int i = 0; i < values.length; i++) values[i] = random.nextDouble();
+		final Dataset image = new DoubleDataset(values, HEIGHT, WIDTH);
+		final IntegralImage integral = new IntegralImage(image);
+
+		final double sum = ((Number)image.sum(true)).doubleValue();
+		Assert.assertEquals(sum, integral.getSum(-10, -10, WIDTH+10, HEIGHT+10), 1e-9*sum);
+		Assert.assertEquals(0, integral.getSum(WIDTH, 0, WIDTH+10, HEIGHT), 0);
+		Assert.assertEquals(0, integral.getCount(-10, -10, 0, 0));
+		Assert.assertNull(integral.getXProfile(0, HEIGHT, WIDTH, HEIGHT+10));
+	}
+
+	private static void checkProfile(Dataset expected, Dataset actual) {
+		Assert.assertNotNull(actual);
+		Assert.assertEquals(expected.getSize(), actual.getSize());
+		for (int i = 0; i < expected.getSize(); i++) {
+			final double value = expected.getDouble(i);
+			Assert.assertEquals(value, actual.getDouble(i), 1e-10*Math.abs(value));
+		}
+	}
+
+	/**
+	 * @return x0, y0, x1, y1 of a box inside the image
+	 */
+	private static int[] createBox(Random random) {
+		final int x0 = random.nextInt(WIDTH-1),  y0 = random.nextInt(HEIGHT-1);
+		final int x1 = x0+1+random.nextInt(Math.min(100, WIDTH-x0));
+		final int y1 = y0+1+random.nextInt(Math.min(100, HEIGHT-y0));
+		return new int[]{x0, y0, x1, y1};
+	}
+
+	private static Dataset slice(Dataset image, int[] box) {
+		return image.getSliceView(new int[]{box[1], box[0]}, new int[]{box[3], box[2]}, null);
+	}
+}
@@ -15,6 +15,7 @@ import org.dawb.common.ui.menu.CheckableActionGroup;
 import org.dawb.common.ui.menu.MenuAction;
 import org.dawb.common.ui.widgets.FontExtenderWidget;
 import org.dawb.common.util.number.DoubleUtils;
+import org.dawnsci.plotting.tools.utils.IntegralImage;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
@@ -130,6 +131,7 @@ public class RegionSumTool extends AbstractToolPage implements IROIListener {
 
 			@Override
 			protected void update(TraceEvent evt) {
+				if (evt.getSource() instanceof IImageTrace) IntegralImage.invalidate((IImageTrace)evt.getSource());
 				RegionSumTool.this.update(region, currentROI, false);
 			}
 		};
@@ -462,20 +464,30 @@ public class RegionSumTool extends AbstractToolPage implements IROIListener {
 		int yInc = bounds.getPoint()[1]<bounds.getEndPoint()[1] ? 1 : -1;
 
 		if(image == null) return;
-		Dataset dataRegion = (Dataset)image.getData();
-
-		if(dataRegion == null) return;
-		try {
-			dataRegion = dataRegion.getSlice(
-					new int[] { yStartPt, xStartPt },
-					new int[] { yStopPt, xStopPt },
-					new int[] {yInc, xInc});
-			if (monitor!= null && monitor.isCanceled()) return;
-		} catch (IllegalArgumentException e) {
-			logger.debug("Error getting region data:"+ e);
+		final double sum;
+		// The table is made once for each image, after that a sum is four lookups however large the box is
+		final IntegralImage integral = IntegralImage.getInstance(image);
+		if (integral!=null && integral.isExact()) {
+			final int x0 = xInc>0 ? xStartPt : xStopPt+1, x1 = xInc>0 ? xStopPt : xStartPt+1;
+			final int y0 = yInc>0 ? yStartPt : yStopPt+1, y1 = yInc>0 ? yStopPt : yStartPt+1;
+			sum = integral.getSum(x0, y0, x1, y1);
+		} else {
+			Dataset dataRegion = (Dataset)image.getData();
+
+			if(dataRegion == null) return;
+			try {
+				dataRegion = dataRegion.getSlice(
+						new int[] { yStartPt, xStartPt },
+						new int[] { yStopPt, xStopPt },
+						new int[] {yInc, xInc});
+				if (monitor!= null && monitor.isCanceled()) return;
+			} catch (IllegalArgumentException e) {
+				logger.debug("Error getting region data:"+ e);
+			}
+			sum = (Double)dataRegion.sum(true);
 		}
 		//round the Sum to n decimal
-		double value = DoubleUtils.roundDouble((Double)dataRegion.sum(true), precision);
+		double value = DoubleUtils.roundDouble(sum, precision);
 
 		if(isSciNotation){
 			sumStr = sciNotationFormat.format(value);
@@ -10,18 +10,15 @@
 package org.dawnsci.plotting.tools.diffraction;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.math3.analysis.MultivariateFunction;
 import org.apache.commons.math3.optim.ConvergenceChecker;
-import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
-import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunction;
-import org.apache.commons.math3.optim.InitialGuess;
-import org.apache.commons.math3.optim.MaxEval;
 import org.apache.commons.math3.optim.PointValuePair;
-import org.apache.commons.math3.optim.SimpleBounds;
 import org.apache.commons.math3.optim.SimplePointChecker;
-import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.CMAESOptimizer;
 import org.apache.commons.math3.random.Well19937a;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
@@ -32,12 +29,14 @@ import org.eclipse.dawnsci.analysis.api.diffraction.DiffractionCrystalEnvironmen
 import org.eclipse.dawnsci.analysis.api.metadata.IDiffractionMetadata;
 import org.eclipse.dawnsci.analysis.api.metadata.IMetadata;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.roi.ROISliceUtils;
 import org.eclipse.dawnsci.analysis.dataset.roi.SectorROI;
 import org.eclipse.swt.widgets.Display;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import uk.ac.diamond.scisoft.analysis.diffraction.QSpace;
+import uk.ac.diamond.scisoft.analysis.fitting.Fitter;
 import uk.ac.diamond.scisoft.analysis.fitting.Generic1DFitter;
 import uk.ac.diamond.scisoft.analysis.fitting.functions.CompositeFunction;
 import uk.ac.diamond.scisoft.analysis.fitting.functions.Gaussian;
@@ -48,11 +47,50 @@ import uk.ac.diamond.scisoft.analysis.roi.XAxis;
 
 /**
  * Class for optimising sector region position to increase base on 1D radial profile
+ * 
+ * The beam positions of each generation of the optimiser are tried at the same time
+ * so {@link #value(double[])} is thread safe and does not change the metadata, the
+ * metadata shows the best position of each generation as it goes.
+ *
+ * The peaks are found once, at the start position, and at every position each peak
+ * is fitted again over a few widths either side of it, starting from the peaks of the
+ * best position so far. Every position is scored with the same fit so that their
+ * values can be compared. Values are kept for positions the optimiser comes back to
+ * while the peaks the fits start from stay the same.
  */
 public class BeamCenterRefinement implements MultivariateFunction {
 
+	/**
+	 * Beam positions closer than this, in pixels, are taken to be the same.
+	 */
+	private static final double POSITION_TOLERANCE = 1e-3;
+	private static final int    CACHE_SIZE         = 1024;
+	private static final int    WARM_FIT_EVAL      = 1000;
+
 	private IProgressMonitor monitor;
 	private ArrayList<IPeak> initPeaks;
+	
+	private volatile List<IPeak> warmPeaks; // Start of the fits, from the best position so far
+	private final Map<List<Long>, Evaluation> evaluations = Collections.synchronizedMap(new LinkedHashMap<List<Long>, Evaluation>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<List<Long>, Evaluation> eldest) {
+			return size()>CACHE_SIZE;
+		}
+	});
+	
+	/**
+	 * The value of a beam position, the peaks fitted for it and the peaks the fits started from.
+	 */
+	private static final class Evaluation {
+		final double      value;
+		final List<IPeak> peaks, start;
+		Evaluation(double value, List<IPeak> peaks, List<IPeak> start) {
+			this.value = value;
+			this.peaks = peaks;
+			this.start = start;
+		}
+	}
 
 	private Dataset dataset, mask;
 	private SectorROI sroi;
@@ -85,7 +123,7 @@ public class BeamCenterRefinement implements MultivariateFunction {
 	 * @param cmaesInputSigma
 	 *            Initial search volume
 	 * @param cmaesMaxIterations
-	 *            Maximal number of iterations
+	 *            Maximal number of iterations, also the maximal number of evaluations
 	 * @param cmaesCheckFeasableCount
 	 *            Number of times new random objective variables are generated when they are out of bounds
 	 * @param cmaesChecker
@@ -130,17 +168,38 @@ public class BeamCenterRefinement implements MultivariateFunction {
 	 */
 	@Override
 	public double value(final double[] beamxy) {
+		return evaluate(beamxy).value;
+	}
+	
+	private Evaluation evaluate(final double[] beamxy) {
 
-		if (monitor.isCanceled()) {
-			return Double.NaN;
+		final List<IPeak> start = warmPeaks;
+		if (start==null || (monitor!=null && monitor.isCanceled())) {
+			return new Evaluation(Double.NaN, null, start);
 		}
-		Display.getDefault().syncExec(new Runnable() {
-			@Override
-			public void run() {
-				((IDiffractionMetadata) dataset.getMetadata()).getDetector2DProperties().setBeamCentreCoords(
-						beamxy);
-			}
-		});
+		
+		final List<Long> key = getKey(beamxy);
+		Evaluation evaluation = evaluations.get(key);
+		if (evaluation!=null && evaluation.start==start) return evaluation;
+		
+		final Dataset[] profile = getProfile(beamxy);
+		final List<IPeak> peaks = fitWarmPeaks(start, profile[0], profile[1]);
+		if (peaks==null || checkPeakOverlap(peaks)) {
+			return remember(key, new Evaluation(Double.NaN, null, start));
+		}
+		
+		double error = 0.0;
+		for (IPeak fitPeak : peaks) {
+			error += Math.log(1.0 + fitPeak.getHeight() / fitPeak.getFWHM());
+		}
+		logger.info("Error value for beam postion ({}, {}) is {}", new Object[] { beamxy[0], beamxy[1], error });
+		return remember(key, new Evaluation(error, peaks, start));
+	}
+	
+	/**
+	 * @return the radial axis and the profile of the sector with its centre at the beam position
+	 */
+	private Dataset[] getProfile(final double[] beamxy) {
 		SectorROI tmpRoi = new SectorROI(sroi.getPointX(), sroi.getPointY(), sroi.getRadius(0), sroi.getRadius(1), sroi.getAngle(0),
 				sroi.getAngle(1), 1.0, true, sroi.getSymmetry());
 		QSpace qSpace = null;
@@ -150,34 +209,87 @@ public class BeamCenterRefinement implements MultivariateFunction {
 			DetectorProperties detprops = dm.getDetector2DProperties();
 	    	DiffractionCrystalEnvironment diffexp = dm.getDiffractionCrystalEnvironment();
 	    	if (detprops != null && diffexp != null) {
+	    		// Each position has its own copy, the metadata is left alone
+	    		detprops = detprops.clone();
+	    		detprops.setBeamCentreCoords(beamxy);
 		    	qSpace = new QSpace(detprops, diffexp);
 	    	}
 		}
 		Dataset[] intresult = ROIProfile.sector(dataset, mask, tmpRoi, true, false, false, qSpace, axis, false);
-		Dataset axis = intresult[4];
-		double error = 0.0;
-		ArrayList<IPeak> peaks = new ArrayList<IPeak>(initPeaks.size());
-		List<CompositeFunction> fittedGaussian = Generic1DFitter.fitPeakFunctions(axis, intresult[0], Gaussian.class, new GeneticAlg(0.0001),
+		return new Dataset[] { intresult[4], intresult[0] };
+	}
+	
+	/**
+	 * Finds the peaks on the whole profile at the start position, which the fits
+	 * at every position then start from.
+	 * 
+	 * @return peaks or null if the fit goes wrong.
+	 */
+	private List<IPeak> findStartPeaks(final double[] beamxy) {
+		final Dataset[] profile = getProfile(beamxy);
+		final List<IPeak> peaks = new ArrayList<IPeak>(initPeaks.size());
+		List<CompositeFunction> fittedGaussian = Generic1DFitter.fitPeakFunctions(profile[0], profile[1], Gaussian.class, new GeneticAlg(0.0001),
 				10, initPeaks.size());
 		for (CompositeFunction peakFit : fittedGaussian) {
 			try {
-				IPeak fitPeak = new Gaussian(peakFit.getFunction(0).getParameters());
-				peaks.add(fitPeak);
-				error += Math.log(1.0 + fitPeak.getHeight() / fitPeak.getFWHM());
+				peaks.add(new Gaussian(peakFit.getFunction(0).getParameters()));
 			} catch (Exception e) {
-				logger.warn("Peak fitting failed during beam position optimisation", e);
-				return Double.NaN;
+				logger.warn("Peak fitting failed at the start of beam position optimisation", e);
+				return null;
 			}
-
 		}
-		if (checkPeakOverlap(peaks)) {
-			return Double.NaN;
+		return peaks.isEmpty() ? null : peaks;
+	}
+	
+	private static List<Long> getKey(double[] beamxy) {
+		final List<Long> key = new ArrayList<Long>(beamxy.length);
+		for (double v : beamxy) key.add(Math.round(v/POSITION_TOLERANCE));
+		return key;
+	}
+	
+	private Evaluation remember(List<Long> key, Evaluation evaluation) {
+		evaluations.put(key, evaluation);
+		return evaluation;
+	}
+	
+	/**
+	 * Fits each peak again, over a few widths either side of it, starting from where it was.
+	 * 
+	 * @return peaks or null if a fit goes wrong.
+	 */
+	private List<IPeak> fitWarmPeaks(List<IPeak> start, Dataset axis, Dataset profile) {
+		
+		final List<IPeak> peaks = new ArrayList<IPeak>(start.size());
+		for (IPeak peak : start) {
+			final double fwhm = peak.getFWHM();
+			if (!(fwhm>0)) return null;
+			
+			int from = ROISliceUtils.findPositionOfClosestValueInAxis(axis, peak.getPosition()-2*fwhm);
+			int to   = ROISliceUtils.findPositionOfClosestValueInAxis(axis, peak.getPosition()+2*fwhm);
+			if (from>to) {
+				final int tmp = from;
+				from = to;
+				to   = tmp;
+			}
+			if (to-from < 5) return null;
+			
+			final Dataset x = axis.getSlice(new int[] {from}, new int[] {to+1}, null);
+			final Dataset y = profile.getSlice(new int[] {from}, new int[] {to+1}, null);
+			y.isubtract(y.min());
+			
+			try {
+				final Gaussian fit = new Gaussian(peak.getPosition(), fwhm, peak.getArea());
+				Fitter.ApacheNelderMeadFit(new Dataset[] { x }, y, fit, WARM_FIT_EVAL);
+				if (!(fit.getFWHM()>0) || fit.getPosition()<x.min().doubleValue() || fit.getPosition()>x.max().doubleValue()) return null;
+				peaks.add(fit);
+			} catch (Exception ne) {
+				return null;
+			}
 		}
-		logger.info("Error value for beam postion ({}, {}) is {}", new Object[] { beamxy[0], beamxy[1], error });
-		return error;
+		return peaks;
 	}
 
-	private boolean checkPeakOverlap(ArrayList<IPeak> peaks) {
+	private boolean checkPeakOverlap(List<IPeak> peaks) {
 		if (peaks.size() < 2)
 			return false;
 		for (int i = 0; i < peaks.size() - 1; i++) {
@@ -212,24 +324,46 @@ public class BeamCenterRefinement implements MultivariateFunction {
 
 				function.setInitPeaks(initPeaks);
 				function.setMonitor(monitor);
+				evaluations.clear();
+				warmPeaks = findStartPeaks(startPosition);
+				if (warmPeaks==null) {
+					logger.error("No peaks found at the start position for beam position optimisation");
+					return Status.CANCEL_STATUS;
+				}
 
 				final double[] lB = new double [] {startPosition[0] - 20, startPosition[1] - 20};
 				final double[] uB = new double [] {startPosition[0] + 20, startPosition[1] + 20};
-				CMAESOptimizer beamPosOptimizer = new CMAESOptimizer(cmaesMaxIterations,
+				ParallelCMAESOptimizer beamPosOptimizer = new ParallelCMAESOptimizer(cmaesMaxIterations,
 						0.0,
 						true,
-						0,
 						cmaesCheckFeasableCount,
 						new Well19937a(),
-						false,
 						cmaesChecker);
-				final PointValuePair result = beamPosOptimizer.optimize(new MaxEval(cmaesMaxIterations),
-						new ObjectiveFunction(function),
-						GoalType.MAXIMIZE,
-						new CMAESOptimizer.PopulationSize(cmaesLambda),
-						new CMAESOptimizer.Sigma(cmaesInputSigma),
-						new SimpleBounds(lB, uB),
-						new InitialGuess(startPosition));
+				beamPosOptimizer.setGenerationListener(new ParallelCMAESOptimizer.GenerationListener() {
+					@Override
+					public void generationDone(int generation, PointValuePair best) {
+						final Evaluation evaluation = evaluations.get(getKey(best.getPointRef()));
+						if (evaluation!=null && evaluation.peaks!=null) warmPeaks = evaluation.peaks;
+						
+						final double[] position = best.getPoint();
+						Display.getDefault().asyncExec(new Runnable() {
+							@Override
+							public void run() {
+								((IDiffractionMetadata) dataset.getMetadata()).getDetector2DProperties().setBeamCentreCoords(
+										position);
+							}
+						});
+					}
+				});
+				
+				final PointValuePair result;
+				try {
+					result = beamPosOptimizer.maximize(function, cmaesMaxIterations, cmaesLambda, cmaesInputSigma, lB, uB, startPosition, monitor);
+				} catch (Exception ne) {
+					logger.error("Beam position optimisation failed", ne);
+					return Status.CANCEL_STATUS;
+				}
+				if (result==null) return Status.CANCEL_STATUS;
 				
 				final double[] newBeamPosition = result.getPoint();
 				logger.info("Optimiser terminated at beam position ({}, {}) with the value {}", new Object[] { newBeamPosition[0], newBeamPosition[1], result.getValue() });
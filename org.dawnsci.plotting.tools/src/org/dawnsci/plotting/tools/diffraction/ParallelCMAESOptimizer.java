@@ -0,0 +1,514 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.dawnsci.plotting.tools.diffraction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.commons.math3.analysis.MultivariateFunction;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.optim.ConvergenceChecker;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * CMA-ES which works out the values of all the points of a generation at once,
+ * the function must be thread safe. It takes the same steps as the commons math
+ * CMAESOptimizer with a full covariance matrix, including active CMA, repair and
+ * penalty of points outside the bounds and the stopping rules, in the same order,
+ * so for the same random generator it finds the same points. That evaluates points
+ * one after another and gives no way to do a generation together.
+ *
+ * The evaluations are limited in the same way as by MaxEval: a generation which
+ * would go over the limit is not done and the best point so far is returned.
+ */
+class ParallelCMAESOptimizer {
+
+	/**
+	 * Told the best point of each generation, called from the optimising thread.
+	 */
+	interface GenerationListener {
+		void generationDone(int generation, PointValuePair best);
+	}
+
+	private static ForkJoinPool pool;
+
+	private static synchronized ForkJoinPool getPool() {
+		if (pool==null) pool = new ForkJoinPool();
+		return pool;
+	}
+
+	private static final double STOP_TOL_FUN      = 1e-12;
+	private static final double STOP_TOL_HIST_FUN = 1e-13;
+
+	private final int             maxIterations, checkFeasableCount;
+	private final double          stopFitness;
+	private final boolean         isActiveCMA;
+	private final RandomGenerator random;
+	private final ConvergenceChecker<PointValuePair> checker;
+	private GenerationListener    listener;
+
+	private int evaluations;
+
+	/**
+	 * The arguments of the commons math CMAESOptimizer, without diagonal only
+	 * generations or statistics.
+	 *
+	 * @param maxIterations - most generations
+	 * @param stopFitness - stop once a value above this is found, 0 to carry on
+	 * @param isActiveCMA - to also move the covariance away from the worst points
+	 * @param checkFeasableCount - times a point outside the bounds is drawn again
+	 * @param random
+	 * @param checker - may be null
+	 */
+	ParallelCMAESOptimizer(int maxIterations, double stopFitness, boolean isActiveCMA, int checkFeasableCount,
+			               RandomGenerator random, ConvergenceChecker<PointValuePair> checker) {
+		this.maxIterations      = maxIterations;
+		this.stopFitness        = stopFitness;
+		this.isActiveCMA        = isActiveCMA;
+		this.checkFeasableCount = checkFeasableCount;
+		this.random             = random;
+		this.checker            = checker;
+	}
+
+	void setGenerationListener(GenerationListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return number of times the function was evaluated by the last maximize
+	 */
+	int getEvaluations() {
+		return evaluations;
+	}
+
+	/**
+	 * @param function - thread safe
+	 * @param maxEvaluations - most evaluations of the function, as MaxEval
+	 * @param lambda - population size
+	 * @param inputSigma - initial spread in each dimension
+	 * @param lower bounds
+	 * @param upper bounds
+	 * @param start point
+	 * @param monitor - may be null
+	 * @return the point with the largest value found
+	 * @throws Exception if the function cannot be evaluated
+	 */
+	PointValuePair maximize(final MultivariateFunction function, int maxEvaluations, int lambda, double[] inputSigma,
+			                double[] lower, double[] upper, double[] start, IProgressMonitor monitor) throws Exception {
+
+		final int n = start.length;
+		evaluations = 0;
+
+		// Selection
+		final int      mu      = lambda/2;
+		final double   logMu2  = Math.log(mu+0.5);
+		final double[] weights = new double[mu];
+		double sumW = 0, sumW2 = 0;
+		for (int i = 0; i < mu; i++) {
+			weights[i] = -Math.log(i+1) + logMu2;
+			sumW  += weights[i];
+			sumW2 += weights[i]*weights[i];
+		}
+		for (int i = 0; i < mu; i++) weights[i] *= 1/sumW;
+		final double mueff = sumW*sumW/sumW2;
+
+		// Adaptation
+		double sigma = -Double.MAX_VALUE;
+		for (double s : inputSigma) sigma = Math.max(sigma, s);
+		final double stopTolUpX = 1e3*sigma;
+		final double stopTolX   = 1e-11*sigma;
+
+		final double cc     = (4+mueff/n) / (n+4+2*mueff/n);
+		final double cs     = (mueff+2) / (n+mueff+3.);
+		final double damps  = (1 + 2*Math.max(0, Math.sqrt((mueff-1)/(n+1))-1))
+				            * Math.max(0.3, 1 - n/(1e-6+maxIterations)) + cs;
+		final double ccov1  = 2 / ((n+1.3)*(n+1.3)+mueff);
+		final double ccovmu = Math.min(1-ccov1, 2*(mueff-2+1/mueff) / ((n+2)*(n+2)+mueff));
+		final double chiN   = Math.sqrt(n)*(1 - 1/((double)4*n) + 1/((double)21*n*n));
+
+		double[]         xmean = start.clone();
+		final double[]   pc    = new double[n], ps = new double[n];
+		final double[]   diagD = new double[n], diagC = new double[n];
+		final double[][] B     = new double[n][n];
+		final double[][] BD    = new double[n][n];
+		double[][]       C     = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			diagD[i] = inputSigma[i]*(1/sigma);
+			diagC[i] = diagD[i]*diagD[i];
+			B[i][i]  = 1;
+			BD[i][i] = diagD[i];
+			C[i][i]  = 1;
+		}
+
+		final double[] history = new double[10 + (int)(3*10*n/(double)lambda)];
+		Arrays.fill(history, Double.MAX_VALUE);
+
+		// The value is minimised as the negative of the function, with a penalty
+		// for the distance outside the bounds scaled by the last range of values.
+		double valueRange = 1;
+		if (++evaluations > maxEvaluations) return null;
+		double bestValue = getFitness(function.value(repair(start, lower, upper)), start, lower, upper, valueRange);
+		push(history, bestValue);
+		PointValuePair optimum = new PointValuePair(start, -bestValue), lastResult = null;
+
+		for (int generation = 1; generation <= maxIterations; generation++) {
+
+			if (monitor!=null && monitor.isCanceled()) break;
+			if (evaluations+lambda > maxEvaluations) break;
+
+			// Draw the population, columns of arz and arx
+			final double[][] arz = new double[n][lambda];
+			for (int r = 0; r < n; r++) {
+				for (int k = 0; k < lambda; k++) arz[r][k] = random.nextGaussian();
+			}
+			final double[][] arx = new double[n][lambda];
+			for (int k = 0; k < lambda; k++) {
+				double[] x = null;
+				for (int i = 0; i < checkFeasableCount+1; i++) {
+					x = new double[n];
+					for (int r = 0; r < n; r++) {
+						double sum = 0;
+						for (int j = 0; j < n; j++) sum += BD[r][j]*arz[j][k];
+						x[r] = xmean[r] + sum*sigma;
+					}
+					if (i>=checkFeasableCount || isFeasible(x, lower, upper)) break;
+					for (int r = 0; r < n; r++) arz[r][k] = random.nextGaussian();
+				}
+				for (int r = 0; r < n; r++) arx[r][k] = x[r];
+			}
+
+			// Work out the values together
+			final double[] fitness = evaluate(function, arx, lower, upper, valueRange);
+			evaluations += lambda;
+
+			// Move the mean to the weighted best half
+			final int[]      arindex = sortedIndices(fitness);
+			final double[]   xold    = xmean;
+			final double[][] bestArx = selectColumns(arx, arindex, 0, mu);
+			final double[][] bestArz = selectColumns(arz, arindex, 0, mu);
+			xmean = multiply(bestArx, weights);
+			final double[] zmean = multiply(bestArz, weights);
+
+			// Paths
+			final double[] bz = multiply(B, zmean);
+			double normps = 0;
+			for (int r = 0; r < n; r++) {
+				ps[r]   = ps[r]*(1-cs) + bz[r]*Math.sqrt(cs*(2-cs)*mueff);
+				normps += ps[r]*ps[r];
+			}
+			normps = Math.sqrt(normps);
+			final boolean hsig = normps / Math.sqrt(1-Math.pow(1-cs, 2*generation)) / chiN < 1.4+2/((double)n+1);
+			for (int r = 0; r < n; r++) {
+				pc[r] *= 1-cc;
+				if (hsig) pc[r] += (xmean[r]-xold[r])*(Math.sqrt(cc*(2-cc)*mueff)/sigma);
+			}
+
+			// Covariance
+			final double[][] arpos = new double[n][mu];
+			for (int r = 0; r < n; r++) {
+				for (int i = 0; i < mu; i++) arpos[r][i] = (bestArx[r][i]-xold[r])*(1/sigma);
+			}
+			double oldFac = hsig ? 0 : ccov1*cc*(2-cc);
+			oldFac += 1-ccov1-ccovmu;
+			double negccov = 0, posccov = ccovmu;
+			double[][] cneg = null;
+			if (isActiveCMA) {
+				// The worst half, their lengths swapped in order so the longest counts least
+				negccov = (1-ccovmu)*0.25*mueff / (Math.pow(n+2, 1.5)+2*mueff);
+				final int[]      reverse = reverse(arindex);
+				final double[][] arzneg  = selectColumns(arz, reverse, 0, mu);
+				final double[]   norms   = new double[mu];
+				for (int i = 0; i < mu; i++) {
+					double sum = 0;
+					for (int r = 0; r < n; r++) sum += arzneg[r][i]*arzneg[r][i];
+					norms[i] = Math.sqrt(sum);
+				}
+				final int[]    idx    = sortedIndices(norms);
+				final int[]    idxRev = reverse(idx);
+				final double[] ratio  = new double[mu];
+				for (int i = 0; i < mu; i++) ratio[i] = norms[idxRev[i]]/norms[idx[i]];
+				final int[]    idxInv = inverse(idx);
+				final double[] scale  = new double[mu];
+				double scaled = 0;
+				for (int i = 0; i < mu; i++) {
+					scale[i] = ratio[idxInv[i]];
+					scaled  += scale[i]*scale[i]*weights[i];
+				}
+				// Keep at least 0.66 of the variance in all directions
+				final double negcovMax = (1-0.66)/scaled;
+				if (negccov>negcovMax) negccov = negcovMax;
+
+				for (int r = 0; r < n; r++) {
+					for (int i = 0; i < mu; i++) arzneg[r][i] *= scale[i];
+				}
+				final double[][] artmp = multiply(BD, arzneg);
+				cneg = new double[n][n];
+				for (int r = 0; r < n; r++) {
+					for (int c = 0; c < n; c++) {
+						double sum = 0;
+						for (int i = 0; i < mu; i++) sum += artmp[r][i]*weights[i]*artmp[c][i];
+						cneg[r][c] = sum;
+					}
+				}
+				oldFac  += 0.5*negccov;
+				posccov += 0.5*negccov;
+			}
+			final double[][] next = new double[n][n];
+			for (int r = 0; r < n; r++) {
+				for (int c = 0; c < n; c++) {
+					double rankMu = 0;
+					for (int i = 0; i < mu; i++) rankMu += arpos[r][i]*posccov*(weights[i]*arpos[c][i]);
+					next[r][c] = C[r][c]*oldFac + pc[r]*pc[c]*ccov1 + rankMu;
+					if (cneg!=null) next[r][c] -= cneg[r][c]*negccov;
+				}
+			}
+			C = next;
+			updateBD(C, B, diagD, diagC, BD);
+
+			sigma *= Math.exp(Math.min(1, (normps/chiN-1)*cs/damps));
+
+			final double   bestFitness  = fitness[arindex[0]];
+			final double   worstFitness = fitness[arindex[lambda-1]];
+			final double[] bestPoint    = getColumn(bestArx, 0);
+			if (listener!=null) listener.generationDone(generation, new PointValuePair(repair(bestPoint, lower, upper), -bestFitness));
+			if (bestValue>bestFitness) {
+				bestValue  = bestFitness;
+				lastResult = optimum;
+				optimum    = new PointValuePair(repair(bestPoint, lower, upper), -bestFitness);
+				if (checker!=null && lastResult!=null && checker.converged(generation, optimum, lastResult)) break;
+			}
+
+			// Stopping rules
+			if (stopFitness!=0 && bestFitness < -stopFitness) break;
+			boolean small = true;
+			for (int i = 0; i < n && small; i++) {
+				small = sigma*Math.max(Math.abs(pc[i]), Math.sqrt(diagC[i])) <= stopTolX;
+			}
+			if (small) break;
+			boolean large = false;
+			for (int i = 0; i < n && !large; i++) {
+				large = sigma*Math.sqrt(diagC[i]) > stopTolUpX;
+			}
+			if (large) break;
+			final double historyBest  = min(history);
+			final double historyWorst = max(history);
+			if (generation>2 && Math.max(historyWorst, worstFitness)-Math.min(historyBest, bestFitness) < STOP_TOL_FUN) break;
+			if (generation>history.length && historyWorst-historyBest < STOP_TOL_HIST_FUN) break;
+			if (max(diagD)/min(diagD) > 1e7) break;
+			if (checker!=null) {
+				final PointValuePair current = new PointValuePair(bestPoint, -bestFitness);
+				if (lastResult!=null && checker.converged(generation, current, lastResult)) break;
+				lastResult = current;
+			}
+
+			// Spread out again if the values are flat
+			if (bestValue==fitness[arindex[(int)(0.1+lambda/4.)]]) sigma *= Math.exp(0.2+cs/damps);
+			if (generation>2 && Math.max(historyWorst, bestFitness)-Math.min(historyBest, bestFitness)==0) {
+				sigma *= Math.exp(0.2+cs/damps);
+			}
+			push(history, bestFitness);
+			valueRange = worstFitness-bestFitness;
+		}
+		return optimum;
+	}
+
+	/**
+	 * Evaluates the columns of arx, moved onto the bounds, at the same time.
+	 * @return fitness to minimise of each column
+	 */
+	private static double[] evaluate(final MultivariateFunction function, double[][] arx,
+			                         double[] lower, double[] upper, double valueRange) throws Exception {
+		final int lambda = arx[0].length;
+		final double[][] points = new double[lambda][];
+		final List<Callable<Double>> tasks = new ArrayList<Callable<Double>>(lambda);
+		for (int k = 0; k < lambda; k++) {
+			points[k] = getColumn(arx, k);
+			final double[] repaired = repair(points[k], lower, upper);
+			tasks.add(new Callable<Double>() {
+				@Override
+				public Double call() throws Exception {
+					return function.value(repaired);
+				}
+			});
+		}
+		final List<Future<Double>> values = getPool().invokeAll(tasks);
+
+		final double[] fitness = new double[lambda];
+		for (int k = 0; k < lambda; k++) {
+			try {
+				fitness[k] = getFitness(values.get(k).get(), points[k], lower, upper, valueRange);
+			} catch (ExecutionException ne) {
+				if (ne.getCause() instanceof Exception) throw (Exception)ne.getCause();
+				throw ne;
+			}
+		}
+		return fitness;
+	}
+
+	private static double getFitness(double value, double[] x, double[] lower, double[] upper, double valueRange) {
+		final double[] repaired = repair(x, lower, upper);
+		double penalty = 0;
+		for (int i = 0; i < x.length; i++) penalty += Math.abs(x[i]-repaired[i])*valueRange;
+		return -(value + -penalty);
+	}
+
+	/**
+	 * Makes the eigen decomposition of C, which is made symmetric and kept
+	 * well conditioned, into B and the lengths diagD, and BD their product.
+	 */
+	private static void updateBD(double[][] C, double[][] B, double[] diagD, double[] diagC, double[][] BD) {
+
+		final int n = diagD.length;
+		for (int r = 0; r < n; r++) {
+			for (int c = 0; c < r; c++) C[r][c] = C[c][r];
+		}
+		final EigenDecomposition eigen   = new EigenDecomposition(new Array2DRowRealMatrix(C, false));
+		final RealMatrix         vectors = eigen.getV();
+		final double[]           lengths = eigen.getRealEigenvalues();
+		for (int j = 0; j < n; j++) {
+			diagD[j] = lengths[j];
+			for (int i = 0; i < n; i++) B[i][j] = vectors.getEntry(i, j);
+		}
+
+		if (min(diagD)<=0) {
+			for (int i = 0; i < n; i++) if (diagD[i]<0) diagD[i] = 0;
+			addDiagonal(C, diagD, max(diagD)/1e14);
+		}
+		if (max(diagD) > 1e14*min(diagD)) {
+			addDiagonal(C, diagD, max(diagD)/1e14-min(diagD));
+		}
+		for (int i = 0; i < n; i++) {
+			diagC[i] = C[i][i];
+			diagD[i] = Math.sqrt(diagD[i]);
+		}
+		for (int r = 0; r < n; r++) {
+			for (int c = 0; c < n; c++) BD[r][c] = B[r][c]*diagD[c];
+		}
+	}
+
+	private static void addDiagonal(double[][] C, double[] diagD, double tfac) {
+		for (int i = 0; i < diagD.length; i++) {
+			C[i][i]  += tfac;
+			diagD[i] += tfac;
+		}
+	}
+
+	/**
+	 * @return the indices of the values from smallest to largest, NaN last
+	 */
+	private static int[] sortedIndices(final double[] values) {
+		final Integer[] order = new Integer[values.length];
+		for (int i = 0; i < order.length; i++) order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(values[a], values[b]);
+			}
+		});
+		final int[] ret = new int[order.length];
+		for (int i = 0; i < ret.length; i++) ret[i] = order[i];
+		return ret;
+	}
+
+	private static int[] reverse(int[] indices) {
+		final int[] ret = new int[indices.length];
+		for (int i = 0; i < indices.length; i++) ret[i] = indices[indices.length-i-1];
+		return ret;
+	}
+
+	private static int[] inverse(int[] indices) {
+		final int[] ret = new int[indices.length];
+		for (int i = 0; i < indices.length; i++) ret[indices[i]] = i;
+		return ret;
+	}
+
+	private static double[][] selectColumns(double[][] m, int[] cols, int from, int to) {
+		final double[][] ret = new double[m.length][to-from];
+		for (int r = 0; r < m.length; r++) {
+			for (int c = from; c < to; c++) ret[r][c-from] = m[r][cols[c]];
+		}
+		return ret;
+	}
+
+	private static double[] getColumn(double[][] m, int c) {
+		final double[] ret = new double[m.length];
+		for (int r = 0; r < m.length; r++) ret[r] = m[r][c];
+		return ret;
+	}
+
+	private static double[] multiply(double[][] m, double[] v) {
+		final double[] ret = new double[m.length];
+		for (int r = 0; r < m.length; r++) {
+			double sum = 0;
+			for (int i = 0; i < v.length; i++) sum += m[r][i]*v[i];
+			ret[r] = sum;
+		}
+		return ret;
+	}
+
+	private static double[][] multiply(double[][] a, double[][] b) {
+		final int cols = b[0].length;
+		final double[][] ret = new double[a.length][cols];
+		for (int r = 0; r < a.length; r++) {
+			for (int c = 0; c < cols; c++) {
+				double sum = 0;
+				for (int i = 0; i < b.length; i++) sum += a[r][i]*b[i][c];
+				ret[r][c] = sum;
+			}
+		}
+		return ret;
+	}
+
+	private static void push(double[] values, double value) {
+		System.arraycopy(values, 0, values, 1, values.length-1);
+		values[0] = value;
+	}
+
+	private static double min(double[] values) {
+		double min = Double.MAX_VALUE;
+		for (double v : values) if (min>v) min = v;
+		return min;
+	}
+
+	private static double max(double[] values) {
+		double max = -Double.MAX_VALUE;
+		for (double v : values) if (max<v) max = v;
+		return max;
+	}
+
+	private static boolean isFeasible(double[] x, double[] lower, double[] upper) {
+		for (int i = 0; i < x.length; i++) {
+			if (x[i]<lower[i] || x[i]>upper[i]) return false;
+		}
+		return true;
+	}
+
+	private static double[] repair(double[] x, double[] lower, double[] upper) {
+		final double[] ret = x.clone();
+		for (int i = 0; i < x.length; i++) {
+			if (x[i]<lower[i]) {
+				ret[i] = lower[i];
+			} else if (x[i]>upper[i]) {
+				ret[i] = upper[i];
+			}
+		}
+		return ret;
+	}
+}
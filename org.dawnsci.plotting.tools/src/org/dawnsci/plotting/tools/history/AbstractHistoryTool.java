@@ -417,6 +417,7 @@ public abstract class AbstractHistoryTool extends AbstractToolPage implements Mo
 		bean.setSelected(false);
 		updatePlot(bean, false);
 		getHistoryCache().remove(bean.getTraceKey());
+		bean.dispose();
 	    refresh();
 	}
 
@@ -433,8 +434,10 @@ public abstract class AbstractHistoryTool extends AbstractToolPage implements Mo
 		final Iterator<String> it = getHistoryCache().keySet().iterator();
 		while (it.hasNext()) {
 			String key = it.next();
-			if (!getHistoryCache().get(key).isModifiable()) continue;
+			final HistoryBean bean = getHistoryCache().get(key);
+			if (!bean.isModifiable()) continue;
 			it.remove();
+			bean.dispose();
 		}
 	}
 
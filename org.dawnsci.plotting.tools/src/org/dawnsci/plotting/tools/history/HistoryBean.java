@@ -44,6 +44,7 @@ class HistoryBean {
 	
 	// Image compare
 	private Dataset       data;
+	private ImageStore.Entry      storedData;
 	private List<IDataset>        axes;
 	private Operator              operator;
 	private int                   weighting=100;
@@ -126,11 +127,45 @@ class HistoryBean {
 			} catch (Exception e) {
 				// Allowed
 			}
+		if (storedData!=null) return storedData.getDataset();
 		return data;
 	}
 	public void setData(Dataset data) {
 		this.data = data;
 	}
+	/**
+	 * Keeps the image in the image store, which may move it off the heap.
+	 * @param storedData
+	 */
+	public void setStoredData(ImageStore.Entry storedData) {
+		this.storedData = storedData;
+		this.data       = null;
+	}
+	/**
+	 * The data for combining, which is read from the image store
+	 * without bringing it back onto the heap.
+	 * @return null if there is no data
+	 */
+	public ImageStore.Values getValues() {
+		if (expression==null && storedData!=null) return storedData;
+		final Dataset data = getData();
+		return data!=null ? ImageStore.wrap(data) : null;
+	}
+	/**
+	 * @return shape of the data, without reading it back from the image store.
+	 */
+	public int[] getDataShape() {
+		if (expression==null && storedData!=null) return storedData.getShape();
+		final Dataset data = getData();
+		return data!=null ? data.getShape() : null;
+	}
+	/**
+	 * Call when the bean is removed from the history.
+	 */
+	public void dispose() {
+		if (storedData!=null) storedData.dispose();
+		storedData = null;
+	}
 	public void setXdata(Dataset xdata) {
 		this.xdata = xdata;
 	}
@@ -213,6 +248,7 @@ class HistoryBean {
 		int result = 1;
 		result = prime * result + ((axes == null) ? 0 : axes.hashCode());
 		result = prime * result + ((data == null) ? 0 : data.hashCode());
+		result = prime * result + ((storedData == null) ? 0 : storedData.hashCode());
 		result = prime * result
 				+ ((expression == null) ? 0 : expression.hashCode());
 		result = prime * result
@@ -252,6 +288,8 @@ class HistoryBean {
 				return false;
 		} else if (!data.equals(other.data))
 			return false;
+		if (storedData != other.storedData)
+			return false;
 		if (expression == null) {
 			if (other.expression != null)
 				return false;
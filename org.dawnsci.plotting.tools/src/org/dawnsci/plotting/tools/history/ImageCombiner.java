@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.tools.history;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dawb.common.gpu.IOperation;
+import org.dawb.common.gpu.Operator;
+import org.dawnsci.plotting.tools.history.ImageStore.Values;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+
+/**
+ * Combines the images of the image history in one pass over the pixels. Each
+ * block of pixels is read from every image, weighted and combined into the one
+ * result, rather than making a weighted copy and a new result for each image.
+ *
+ * The images are combined in order from the first, as a, b, c -> ((a op b) op c).
+ * Operators which cannot be done a pixel at a time here are given to the
+ * {@link IOperation} with the result so far.
+ */
+class ImageCombiner {
+
+	private static final int BLOCK = 4096;
+
+	private final IOperation  operation;
+	private final int[]       shape;
+	private final List<Term>  terms;
+	private Values            first;
+
+	private static final class Term {
+		final Values   values;
+		final Operator operator;
+		final double   weight;
+		Term(Values values, Operator operator, double weight) {
+			this.values   = values;
+			this.operator = operator;
+			this.weight   = weight;
+		}
+	}
+
+	/**
+	 * @param operation - used for operators which are not combined here
+	 * @param first - the image the others are combined with, not weighted.
+	 */
+	ImageCombiner(IOperation operation, Values first) {
+		this.operation = operation;
+		this.first     = first;
+		this.shape     = first.getShape();
+		this.terms     = new ArrayList<Term>(7);
+	}
+
+	/**
+	 * @param shape
+	 * @return true if an image of this shape can be combined with the first.
+	 */
+	boolean isCompatibleWith(int[] shape) {
+		return isCompatible(this.shape, shape);
+	}
+
+	/**
+	 * @return true if the shapes are the same when dimensions of one are left out.
+	 */
+	static boolean isCompatible(int[] shape, int[] other) {
+		if (shape==null || other==null) return false;
+		return squeeze(shape).equals(squeeze(other));
+	}
+
+	private static List<Integer> squeeze(int[] shape) {
+		final List<Integer> ret = new ArrayList<Integer>(shape.length);
+		for (int s : shape) if (s!=1) ret.add(s);
+		return ret;
+	}
+
+	/**
+	 * @param values
+	 * @param operator
+	 * @param weighting - percentage of the image to use, from 1 to 100
+	 */
+	void add(Values values, Operator operator, int weighting) {
+		terms.add(new Term(values, operator, weighting<100 ? weighting/100d : 1d));
+	}
+
+	/**
+	 * @param monitor - may be null
+	 * @return the combined image or null if the monitor was cancelled.
+	 */
+	Dataset combine(IProgressMonitor monitor) {
+
+		final List<Term> fused = new ArrayList<Term>(terms.size());
+		for (Term term : terms) {
+			if (isFused(term.operator)) {
+				fused.add(term);
+				continue;
+			}
+
+			if (!fused.isEmpty()) {
+				final Dataset a = combine(fused, monitor);
+				if (a==null) return null;
+				first = ImageStore.wrap(a);
+				fused.clear();
+			}
+			Dataset data = term.values.getDataset();
+			if (term.weight<1) data = operation.process(data, term.weight, Operator.MULTIPLY);
+			first = ImageStore.wrap(operation.process(first.getDataset(), data, term.operator));
+		}
+
+		if (fused.isEmpty()) return first.getDataset();
+		return combine(fused, monitor);
+	}
+
+	private static boolean isFused(Operator operator) {
+		switch (operator) {
+		case ADD:
+		case SUBTRACT:
+		case MULTIPLY:
+		case DIVIDE:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private Dataset combine(List<Term> fused, IProgressMonitor monitor) {
+
+		int size = 1;
+		for (int s : shape) size*=s;
+
+		final double[] result = new double[size];
+		final double[] a      = new double[Math.min(BLOCK, size)];
+		final double[] b      = new double[a.length];
+		for (int start = 0; start < size; start+=BLOCK) {
+
+			if (monitor!=null && monitor.isCanceled()) return null;
+
+			final int count = Math.min(BLOCK, size-start);
+			first.read(start, a, count);
+			for (Term term : fused) {
+				term.values.read(start, b, count);
+				final double w = term.weight;
+				switch (term.operator) {
+				case ADD:
+					for (int i = 0; i < count; i++) a[i] += w*b[i];
+					break;
+				case SUBTRACT:
+					for (int i = 0; i < count; i++) a[i] -= w*b[i];
+					break;
+				case MULTIPLY:
+					for (int i = 0; i < count; i++) a[i] *= w*b[i];
+					break;
+				default:
+					for (int i = 0; i < count; i++) a[i] /= w*b[i];
+					break;
+				}
+			}
+			System.arraycopy(a, 0, result, start, count);
+		}
+		return new DoubleDataset(result, shape);
+	}
+}
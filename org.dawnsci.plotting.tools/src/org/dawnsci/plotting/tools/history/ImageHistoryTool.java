@@ -224,14 +224,15 @@ public class ImageHistoryTool extends AbstractHistoryTool implements MouseListen
 		if (name==null) name = getPart().getTitle();
 		
 		final HistoryBean bean = new HistoryBean(this);
-		bean.setData(data);
+		bean.setStoredData(ImageStore.store(data));
 		final List<IDataset> axes = getImageTrace()!=null ? getImageTrace().getAxes() : null;
 		bean.setAxes(axes);
 		bean.setTraceName(name);
 		bean.setPlotName(getPlottingSystem().getPlotName());
 		bean.setOperator(Operator.ADD);
 		final String key = bean.getTraceKey();
-		imageHistory.put(key, bean);
+		final HistoryBean old = imageHistory.put(key, bean);
+		if (old!=null) old.dispose();
 	}
 	
 	private static IAction include;
@@ -397,8 +398,8 @@ public class ImageHistoryTool extends AbstractHistoryTool implements MouseListen
 			}
 		}
 		
-		Dataset a  = od!=null&&includeCurrentPlot
-				           ? od 
+		ImageCombiner a = od!=null&&includeCurrentPlot
+				           ? new ImageCombiner(operation, ImageStore.wrap(od))
 				           : null;
 		if (od!=null && od.getRank()!=2) return null; // This is image compare!
 		
@@ -412,13 +413,14 @@ public class ImageHistoryTool extends AbstractHistoryTool implements MouseListen
 			if (!bean.isSelected()) continue;
 			if (bean.getWeighting()<1) continue;
 			
+			final ImageStore.Values values = bean.getValues();
 			if (a==null) { 
-				if (bean.getData()==null) continue;
-				a = bean.getData();
+				if (values==null) continue;
+				a = new ImageCombiner(operation, values);
 				continue;
 			}
 			
-			if (!a.isCompatibleWith(bean.getData())) {
+			if (values==null || !a.isCompatibleWith(values.getShape())) {
 				bean.setSelected(false);
 				Display.getDefault().syncExec(new Runnable() {
 					public void run() {
@@ -428,14 +430,10 @@ public class ImageHistoryTool extends AbstractHistoryTool implements MouseListen
 				continue;
 			}
 			
-			Dataset data = bean.getData();
-			if (bean.getWeighting()<100) { // Reduce its intensity
-				data = operation.process(data, bean.getWeighting()/100d, Operator.MULTIPLY);
-			}
-			a = operation.process(a, data, bean.getOperator());
+			a.add(values, bean.getOperator(), bean.getWeighting()); // Weighting below 100 reduces its intensity
 		}
 
-		return a;
+		return a!=null ? a.combine(monitor) : null;
 	}
 	
 	public void setPlotImage(final Dataset plot) {
@@ -605,7 +603,7 @@ public class ImageHistoryTool extends AbstractHistoryTool implements MouseListen
 			}
 			if (columnIndex==4) {
 				try {
-			        return Arrays.toString(bean.getData().getShape());
+			        return Arrays.toString(bean.getDataShape());
 				} catch (Throwable ne) {
 					return "";
 				}
@@ -651,8 +649,7 @@ public class ImageHistoryTool extends AbstractHistoryTool implements MouseListen
 			if (od==null) return true;
 			if (!(element instanceof HistoryBean)) return true;
 			HistoryBean bean = (HistoryBean)element;
-			if (bean.getData()==null) return false;
-			return od.isCompatibleWith(bean.getData());
+			return ImageCombiner.isCompatible(od.getShape(), bean.getDataShape());
 		}
 
 		public void dispose() {
@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.tools.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.eclipse.dawnsci.analysis.dataset.impl.ByteDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.FloatDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.IntegerDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.LongDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.ShortDataset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the images of the image history within a budget of heap. When the images
+ * held go over the budget, those least recently used are written to memory mapped
+ * temporary files and dropped from the heap. They are read back when asked for.
+ *
+ * The images combined by the history tool are read through {@link Values} a block
+ * at a time, straight from the file if they are not on the heap, so combining does
+ * not bring them back.
+ *
+ * Stored images must not be changed afterwards. Images of types which are not plain
+ * numbers are always kept on the heap.
+ */
+final class ImageStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(ImageStore.class);
+
+	/**
+	 * Set this property to the megabytes of heap the image history may use,
+	 * by default a quarter of the maximum heap.
+	 */
+	static final String BUDGET_PROPERTY = "org.dawnsci.plotting.tools.history.budget";
+
+	private static final long budget = Long.getLong(BUDGET_PROPERTY, Runtime.getRuntime().maxMemory()/(4*1024*1024)) * 1024*1024;
+
+	/**
+	 * Entries on the heap, least recently used first.
+	 */
+	private static final LinkedHashMap<Entry, Entry> resident = new LinkedHashMap<Entry, Entry>(16, 0.75f, true);
+	private static long residentBytes;
+
+	private ImageStore() {
+
+	}
+
+	/**
+	 * The values of an image, read in blocks.
+	 */
+	interface Values {
+
+		int[] getShape();
+
+		/**
+		 * @param start - index of the first value, in row major order
+		 * @param values - filled with the values
+		 * @param count - number to read
+		 */
+		void read(int start, double[] values, int count);
+
+		/**
+		 * @return the whole image as a dataset
+		 */
+		Dataset getDataset();
+	}
+
+	/**
+	 * @param data
+	 * @return entry which holds the data until disposed.
+	 */
+	static Entry store(Dataset data) {
+		final Entry entry = new Entry(data);
+		synchronized (resident) {
+			addResident(entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * @param data
+	 * @return values of a dataset which is not kept in the store.
+	 */
+	static Values wrap(Dataset data) {
+		return new DatasetValues(data);
+	}
+
+	private static void addResident(Entry entry) {
+		resident.put(entry, entry);
+		residentBytes += entry.bytes;
+
+		for (Iterator<Entry> it = resident.keySet().iterator(); residentBytes>budget && it.hasNext();) {
+			final Entry eldest = it.next();
+			if (eldest==entry || !eldest.isSpillable()) continue;
+			try {
+				eldest.spill();
+				it.remove();
+				residentBytes -= eldest.bytes;
+			} catch (IOException ne) {
+				logger.error("Cannot write history image to "+eldest.file, ne);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Reads contiguous datasets directly, others are copied once.
+	 */
+	private static final class DatasetValues implements Values {
+
+		private final Dataset data;
+
+		DatasetValues(Dataset data) {
+			final Object buf = data.getBuffer();
+			this.data = buf!=null && Array.getLength(buf)==data.getSize() ? data : data.clone();
+		}
+
+		@Override
+		public int[] getShape() {
+			return data.getShape();
+		}
+
+		@Override
+		public void read(int start, double[] values, int count) {
+			for (int i = 0; i < count; i++) values[i] = data.getElementDoubleAbs(start+i);
+		}
+
+		@Override
+		public Dataset getDataset() {
+			return data;
+		}
+	}
+
+	/**
+	 * An image in the store, on the heap or in a file.
+	 */
+	static final class Entry implements Values {
+
+		private final int    dtype;
+		private final int[]  shape;
+		private final String name;
+		private final long   bytes;
+
+		private Dataset          data;   // null when spilled
+		private File             file;   // kept once written, the data does not change
+		private MappedByteBuffer buffer;
+
+		private Entry(Dataset set) {
+			final Object buf = set.getBuffer();
+			this.data  = buf!=null && Array.getLength(buf)==set.getSize() ? set : set.clone();
+			this.dtype = data.getDtype();
+			this.shape = data.getShape();
+			this.name  = data.getName();
+			this.bytes = (long)data.getSize()*data.getItemsize();
+		}
+
+		private boolean isSpillable() {
+			switch (dtype) {
+			case Dataset.INT8:
+			case Dataset.INT16:
+			case Dataset.INT32:
+			case Dataset.INT64:
+			case Dataset.FLOAT32:
+			case Dataset.FLOAT64:
+				return bytes<=Integer.MAX_VALUE;
+			default:
+				return false;
+			}
+		}
+
+		/**
+		 * Called with the store locked.
+		 */
+		private void spill() throws IOException {
+			if (file==null) {
+				final File tmp = File.createTempFile("image_history", ".dat");
+				tmp.deleteOnExit();
+				final RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+				try {
+					final FileChannel channel = raf.getChannel();
+					final MappedByteBuffer map = channel.map(MapMode.READ_WRITE, 0, bytes);
+					map.order(ByteOrder.nativeOrder());
+					write(map, data.getBuffer());
+					this.buffer = map; // Stays mapped when the file is closed
+					this.file   = tmp;
+				} finally {
+					raf.close();
+				}
+			}
+			data = null;
+		}
+
+		private void write(ByteBuffer map, Object buf) {
+			switch (dtype) {
+			case Dataset.INT8:    map.put((byte[])buf); break;
+			case Dataset.INT16:   map.asShortBuffer().put((short[])buf); break;
+			case Dataset.INT32:   map.asIntBuffer().put((int[])buf); break;
+			case Dataset.INT64:   map.asLongBuffer().put((long[])buf); break;
+			case Dataset.FLOAT32: map.asFloatBuffer().put((float[])buf); break;
+			default:              map.asDoubleBuffer().put((double[])buf); break;
+			}
+		}
+
+		private ByteBuffer getBuffer() {
+			return buffer.duplicate().order(ByteOrder.nativeOrder());
+		}
+
+		private Dataset load() {
+			final ByteBuffer map = getBuffer();
+			final int        size = (int)(bytes/getItemSize());
+			Dataset set;
+			switch (dtype) {
+			case Dataset.INT8:
+				final byte[] b = new byte[size];
+				map.get(b);
+				set = new ByteDataset(b, shape);
+				break;
+			case Dataset.INT16:
+				final short[] s = new short[size];
+				map.asShortBuffer().get(s);
+				set = new ShortDataset(s, shape);
+				break;
+			case Dataset.INT32:
+				final int[] i = new int[size];
+				map.asIntBuffer().get(i);
+				set = new IntegerDataset(i, shape);
+				break;
+			case Dataset.INT64:
+				final long[] l = new long[size];
+				map.asLongBuffer().get(l);
+				set = new LongDataset(l, shape);
+				break;
+			case Dataset.FLOAT32:
+				final float[] f = new float[size];
+				map.asFloatBuffer().get(f);
+				set = new FloatDataset(f, shape);
+				break;
+			default:
+				final double[] d = new double[size];
+				map.asDoubleBuffer().get(d);
+				set = new DoubleDataset(d, shape);
+				break;
+			}
+			set.setName(name);
+			return set;
+		}
+
+		private int getItemSize() {
+			switch (dtype) {
+			case Dataset.INT8:    return 1;
+			case Dataset.INT16:   return 2;
+			case Dataset.INT32:
+			case Dataset.FLOAT32: return 4;
+			default:              return 8;
+			}
+		}
+
+		@Override
+		public int[] getShape() {
+			return shape.clone();
+		}
+
+		/**
+		 * The image, read back from its file if it is not on the heap.
+		 */
+		@Override
+		public Dataset getDataset() {
+			synchronized (resident) {
+				if (data!=null) {
+					resident.get(this); // Most recently used
+					return data;
+				}
+				if (buffer==null) return null; // Disposed
+				data = load();
+				addResident(this);
+				return data;
+			}
+		}
+
+		@Override
+		public void read(int start, double[] values, int count) {
+			synchronized (resident) {
+				if (data!=null) {
+					for (int i = 0; i < count; i++) values[i] = data.getElementDoubleAbs(start+i);
+					return;
+				}
+				final ByteBuffer map = getBuffer();
+				switch (dtype) {
+				case Dataset.INT8:
+					for (int i = 0; i < count; i++) values[i] = map.get(start+i);
+					break;
+				case Dataset.INT16:
+					for (int i = 0; i < count; i++) values[i] = map.getShort(2*(start+i));
+					break;
+				case Dataset.INT32:
+					for (int i = 0; i < count; i++) values[i] = map.getInt(4*(start+i));
+					break;
+				case Dataset.INT64:
+					for (int i = 0; i < count; i++) values[i] = map.getLong(8*(start+i));
+					break;
+				case Dataset.FLOAT32:
+					for (int i = 0; i < count; i++) values[i] = map.getFloat(4*(start+i));
+					break;
+				default:
+					for (int i = 0; i < count; i++) values[i] = map.getDouble(8*(start+i));
+					break;
+				}
+			}
+		}
+
+		/**
+		 * Drops the image and deletes its file.
+		 */
+		void dispose() {
+			synchronized (resident) {
+				if (resident.remove(this)!=null) residentBytes -= bytes;
+				data   = null;
+				buffer = null;
+				// The mapping is only released when collected so on some systems the file stays until exit.
+				if (file!=null && !file.delete()) file.deleteOnExit();
+				file = null;
+			}
+		}
+	}
+}
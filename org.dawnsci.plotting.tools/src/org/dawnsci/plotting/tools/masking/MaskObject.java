@@ -19,19 +19,17 @@ import java.util.concurrent.RecursiveAction;
 import org.dawb.common.ui.image.ShapeType;
 import org.dawnsci.plotting.AbstractPlottingSystem;
 import org.dawnsci.plotting.AbstractPlottingViewer;
+import org.dawnsci.plotting.services.util.BitMask;
 import org.dawnsci.plotting.tools.Activator;
 import org.eclipse.core.commands.ExecutionException;
 import org.eclipse.core.commands.operations.DefaultOperationHistory;
 import org.eclipse.core.commands.operations.IOperationHistory;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.dawnsci.analysis.api.roi.IROI;
-import org.eclipse.dawnsci.analysis.api.roi.IRectangularROI;
 import org.eclipse.dawnsci.analysis.dataset.impl.BooleanDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Comparisons;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.IndexIterator;
-import org.eclipse.dawnsci.analysis.dataset.roi.LinearROI;
-import org.eclipse.dawnsci.analysis.dataset.roi.PointROI;
 import org.eclipse.dawnsci.plotting.api.IPlottingSystem;
 import org.eclipse.dawnsci.plotting.api.axis.IAxis;
 import org.eclipse.dawnsci.plotting.api.preferences.PlottingConstants;
@@ -113,18 +111,19 @@ public class MaskObject {
 	public void process(BooleanDataset savedMask) {
 		createMaskIfNeeded();
 		
-        MaskOperation op = new MaskOperation(maskDataset, savedMask.getSize()/16);
-		final int[] shape = savedMask.getShape();
-		for (int y = 0; y<shape[0]; ++y) {
-			for (int x = 0; x<shape[1]; ++x) {
-		        try {
-		        	// We only add the falses 
-		        	if (!savedMask.getBoolean(y,x)) {
-		        		toggleMask(op, Boolean.FALSE, y,x);
-		        	}
-		        } catch (Throwable ignored) {
-		        	continue;
-		        }
+        MaskOperation op = new MaskOperation(maskDataset, 16);
+		final int[]   shape = savedMask.getShape();
+		final int     rows  = Math.min(shape[0], maskDataset.getShape()[0]);
+		final int     cols  = Math.min(shape[1], maskDataset.getShape()[1]);
+		final BitMask saved = BitMask.valueOf(savedMask);
+		for (int y = 0; y<rows; ++y) {
+			// We only add the falses, a run at a time
+			final int row = y*shape[1];
+			for (int x = saved.nextClearBit(row)-row; x<cols; x = saved.nextClearBit(row+x)-row) {
+				final int next = saved.nextSetBit(row+x);
+				final int end  = next<0 ? cols : Math.min(cols, next-row);
+				addChanges(op, y, x, end-1, Boolean.FALSE);
+				x = end;
 			}
 		}
 		
@@ -394,25 +393,20 @@ public class MaskObject {
 			final int[]      shape  = imageDataset.getShape();
 			
 			if (Boolean.getBoolean("org.dawnsci.plotting.tools.masking.no.thread.pool")) {
-				MAIN_LOOP: for (int y = 0; y<shape[0]; ++y) {
-					for (int x = 0; x<shape[1]; ++x) {
-						for (IRegion region : validRegions) {
-							monitor.worked(1);
-							try {
-								if (region.getCoordinateSystem().isDisposed()) break MAIN_LOOP;
-								if (region.getROI().containsPoint(x, y)) {
-									toggleMask(op, !region.isMaskRegion(), y, x);
-								}
-							} catch (Throwable ne) {
-								logger.trace("Cannot process point "+(new Point(x,y)), ne);
-								continue;
-							}
-						}
+				MAIN_LOOP: for (IRegion region : validRegions) {
+					if (region.getCoordinateSystem().isDisposed()) break MAIN_LOOP;
+					final RoiRasteriser raster = RoiRasteriser.create(region.getROI(), getScreenPixelWidth(region), shape);
+					final int[]         rows   = raster!=null ? raster.getRows() : null;
+					if (rows==null) continue;
+					for (int y = rows[0]; y<=rows[1]; ++y) {
+						if (monitor.isCanceled()) break MAIN_LOOP;
+						monitor.worked(1);
+						maskSpans(op, raster, y, !region.isMaskRegion());
 					}
 				}
 			} else {
 				// NORMALLY
-				pool.invoke(new MaskRegionsAction(op, shape, regions, monitor));
+				pool.invoke(new MaskRegionsAction(op, shape, validRegions, monitor));
 			}
 
 			try {
@@ -426,7 +420,54 @@ public class MaskObject {
 		return true;
 	}
 	
-	private static int INC = 100; // The amount of columns to do for each task.
+	/**
+	 * Adds the runs of pixels in the row covered by the region which are not mv already.
+	 * @param op
+	 * @param raster
+	 * @param y
+	 * @param mv
+	 */
+	private void maskSpans(MaskOperation op, RoiRasteriser raster, int y, boolean mv) {
+		final int[] spans = raster.getSpans(y);
+		if (spans==null) return;
+		for (int i = 0; i < spans.length; i+=2) {
+			addChanges(op, y, spans[i], spans[i+1], mv);
+		}
+	}
+	
+	/**
+	 * Adds the pixels from xStart to xEnd in row y which are not mv already.
+	 */
+	private void addChanges(MaskOperation op, int y, int xStart, int xEnd, boolean mv) {
+		final int row = y*maskDataset.getShape()[1];
+		int start = -1;
+		for (int x = xStart; x <= xEnd; ++x) {
+			if (maskDataset.getAbs(row+x)!=mv) {
+				if (start<0) start = x;
+			} else if (start>=0) {
+				op.addSpan(mv, y, start, x-1);
+				start = -1;
+			}
+		}
+		if (start>=0) op.addSpan(mv, y, start, xEnd);
+	}
+	
+    /**
+     * Get pixel width in data coordinates.
+     * @param region
+     * @return
+     */
+	private static double getScreenPixelWidth(IRegion region) {
+		final int widPix = region.getLineWidth();
+		double[] s = region.getCoordinateSystem().getValueFromPosition(new double[]{0, 0});
+		double[] e = region.getCoordinateSystem().getValueFromPosition(new double[]{widPix, widPix});
+		//return Math.pow((Math.pow(e[0]-s[0], 2)+Math.pow(e[1]-s[1], 2)), 0.5);
+		// FIXME This is not right but works for many images that we have. 
+		// Those with significantly different axis scales, it will not.
+		return Math.min(e[0]-s[0], e[1]-s[1]);
+	}
+	
+	private static int INC = 100; // The amount of rows to do for each task.
 	
 		
 	private class MaskRegionsAction extends RecursiveAction {
@@ -464,22 +505,6 @@ public class MaskObject {
 			}
 			invokeAll(actions);
 		}
-		
-        /**
-         * Get pixel width in data coordinates.
-         * @param region
-         * @return
-         */
-		public double getScreenPixelWidth(IRegion region) {
-			final int widPix = region.getLineWidth();
-			double[] s = region.getCoordinateSystem().getValueFromPosition(new double[]{0, 0});
-			double[] e = region.getCoordinateSystem().getValueFromPosition(new double[]{widPix, widPix});
-			//return Math.pow((Math.pow(e[0]-s[0], 2)+Math.pow(e[1]-s[1], 2)), 0.5);
-			// FIXME This is not right but works for many images that we have. 
-			// Those with significantly different axis scales, it will not.
-			return Math.min(e[0]-s[0], e[1]-s[1]);
-		}
-
 	}
 
 	private class RegionAction extends MaskRegionsAction {
@@ -513,45 +538,17 @@ public class MaskObject {
 		@Override
 		protected void compute() {
 			
-			
-			// We use the bounding box of the region.
-			final IRectangularROI bounds = roi.getBounds();
-			if (bounds == null)
+			final RoiRasteriser raster = RoiRasteriser.create(roi, lineWidth, shape);
+			if (raster == null)
 				return; // unbounded region
-
-			final double[] beg = bounds.getPoint();
-			if (roi!=null && roi instanceof PointROI) {
-				int x = Math.max(0, (int) Math.round(beg[0]));
-				int y = Math.max(0, (int) Math.round(beg[1]));
-				op.addVertex(!isMasking, y, x);
-				return; // We done it innit!
-			}
-			
 			
-			final double[] end = bounds.getEndPoint();
-
-			if (roi instanceof LinearROI) { // special case where isNearOutline is used for mask
-				double distance = Math.max(0.5, lineWidth/2.);
-				beg[0] -= distance;
-				beg[1] -= distance;
-				end[0] += distance;
-				end[1] += distance;
-			}
-
-			int xStart = Math.max(0, (int) Math.round(beg[0]));
-			int xEnd   = Math.min(shape[1] - 1, (int) Math.round(end[0]));
-			
-			int yStart = Math.max(0, (int) Math.round(beg[1]));
-			int yEnd   = Math.min(shape[0] - 1, (int) Math.round(end[1]));
-
-			final Collection<RegionAction> actions = new ArrayList<RegionAction>(yEnd/INC);
-			// We loop all pixels here because looping bounds boxes of rois did not work yet.
+			final int[] rows = raster.getRows();
+			if (rows == null)
+				return; // not on the image
 
-			for (int y=yStart; y<yEnd; y+=INC) { 
-				
-				final int yMax = Math.min(yStart+INC, yEnd);
-				actions.add(new PixelAction(op, xStart, xEnd, yStart, yMax, isMasking, roi, lineWidth, monitor));
-				yStart+=INC;
+			final Collection<PixelAction> actions = new ArrayList<PixelAction>((rows[1]-rows[0])/INC+1);
+			for (int y = rows[0]; y <= rows[1]; y+=INC) { 
+				actions.add(new PixelAction(op, raster, y, Math.min(y+INC, rows[1]+1), isMasking, monitor));
 				if (monitor.isCanceled()) return;
 			}
 			invokeAll(actions);
@@ -559,102 +556,45 @@ public class MaskObject {
 	}
 	
 	/**
-	 * Each PixelAction does around 100,000 of the pixels.
+	 * Each PixelAction does up to INC rows of the region.
 	 * 
 	 * @author Matthew Gerring
 	 */
-	private class PixelAction extends RegionAction {
+	private class PixelAction extends RecursiveAction {
 
 		/**
 		 * 
 		 */
 		private static final long serialVersionUID = -6539202270251672297L;
 		
-		private int xStart, xEnd;
-		private int yStart, yEnd;
+		private final MaskOperation    op;
+		private final RoiRasteriser    raster;
+		private final int              yStart, yEnd;
+		private final boolean          isMasking;
+		private final IProgressMonitor monitor;
 
-		public PixelAction(MaskOperation op, 
-				           int xStart, int xEnd,
+		public PixelAction(MaskOperation op, RoiRasteriser raster,
 				           int yStart, int yEnd,
-				           boolean isMasking, IROI roi, double lineWidth, 
-				           IProgressMonitor monitor) {
+				           boolean isMasking, IProgressMonitor monitor) {
 			
-			super(op, null, roi, lineWidth, isMasking, monitor);
-			this.xStart  = xStart;
-			this.xEnd    = xEnd;
-			this.yStart  = yStart;
-			this.yEnd    = yEnd;
+			this.op        = op;
+			this.raster    = raster;
+			this.yStart    = yStart;
+			this.yEnd      = yEnd;
+			this.isMasking = isMasking;
+			this.monitor   = monitor;
 		}
 
 		@Override
 		protected void compute() {
-			if (roi instanceof LinearROI) {
-				double distance = Math.max(0.5, lineWidth/2.);
-				for (int y = yStart; y < yEnd; ++y) {
-					if (monitor.isCanceled()) return;
-					monitor.worked(1);
-
-					for (int x = xStart; x < xEnd; ++x) {
-
-						if (maskDataset.getBoolean(y, x) != isMasking)
-							continue;
-						try {
-							if (roi.isNearOutline(x, y, distance)) {
-								op.addVertex(!isMasking, y, x);
-							}
-						} catch (Throwable ne) {
-							logger.trace("Cannot process point " + (new Point(x, y)), ne);
-							return;
-						}
-					}
-				}
-			} else {
-				row_loop:
-				for (int y = yStart; y < yEnd; ++y) {
-					if (monitor.isCanceled())
-						return;
-					monitor.worked(1);
-
-					// use scanlines
-					double[] xs = roi.findHorizontalIntersections(y);
-					if (xs == null)
-						continue row_loop;
-
-					int xe = (int) xs[0];
-					if (xe >= xEnd)
-						continue row_loop;
-					if (xs.length == 1) {
-						if (xe >= xStart) {
-							toggleMask(op, !isMasking, y, xe);
-						}
-						continue row_loop;
-					}
-
-					int i = 1;
-					int xb;
-					do { // find first pair where end is past the start
-						xb = xe;
-						if (i >= xs.length)
-							continue row_loop;
-						xe = (int) xs[i++];
-					} while (xe < xStart);
-
-					while (true) {
-						if (xb >= xEnd) {
-							continue row_loop;
-						}
-
-						if (roi.containsPoint((xb + xe)/2, y)) {
-							for (int k = Math.max(xStart, xb); k <= Math.min(xEnd - 1, xe); k++) {
-								toggleMask(op, !isMasking, y, k);
-							}
-						}
-
-						xb = xe;
-						if (i >= xs.length)
-							continue row_loop;
-						xe = (int) xs[i++];
-					}
+			for (int y = yStart; y < yEnd; ++y) {
+				if (monitor.isCanceled()) return;
+				monitor.worked(1);
+				try {
+					maskSpans(op, raster, y, !isMasking);
+				} catch (Throwable ne) {
+					logger.trace("Cannot process row " + y, ne);
+					return;
 				}
 			}
 		}
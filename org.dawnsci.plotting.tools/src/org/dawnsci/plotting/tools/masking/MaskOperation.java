@@ -14,6 +14,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -49,6 +50,14 @@ public class MaskOperation extends AbstractOperation {
 	private Collection<MaskPoint>  vertexList;
 	private byte[]          compressedVertices; // Used to reduce memory, works really well and fast.
 	private BooleanDataset  maskDataset;
+	
+	/**
+	 * Runs of pixels in a row which change, four ints each: the row, 
+	 * the first and last x and 1 if the pixels are set true or 0 if false.
+	 */
+	private int[]           spans = new int[64];
+	private int             spanCount;
+	private int             spanPixels;
 
 	public MaskOperation(BooleanDataset maskDataset, int maxExpectedSize) {
 		super("Mask operation");
@@ -63,6 +72,7 @@ public class MaskOperation extends AbstractOperation {
 		try {
 			Collection<MaskPoint> vl = getVertexList();
 			for (MaskPoint mp : vl)  maskDataset.set(mp.is(), mp.getY(), mp.getX());
+			fillSpans(false);
 			compressVertexList();
 			return Status.OK_STATUS;
 		} catch (Throwable ne) {
@@ -108,6 +118,7 @@ public class MaskOperation extends AbstractOperation {
 		try {
 			Collection<MaskPoint> vl = getVertexList();
 			for (MaskPoint mp : vl)  maskDataset.set(!mp.is(), mp.getY(), mp.getX());
+			fillSpans(true);
 			return Status.OK_STATUS;
 		} catch (Throwable ne) {
 			throw new ExecutionException(ne.getMessage(), ne);
@@ -166,6 +177,44 @@ public class MaskOperation extends AbstractOperation {
 		
 	}
 
+	/**
+	 * Fills the spans, in reverse order with the opposite value to undo.
+	 * @param undo
+	 */
+	private synchronized void fillSpans(boolean undo) {
+		if (spanCount==0) return;
+		final boolean[] data  = maskDataset.getData();
+		final int       width = maskDataset.getShape()[1];
+		for (int s = 0; s < spanCount; s++) {
+			final int i   = 4*(undo ? spanCount-1-s : s);
+			final int row = spans[i]*width;
+			boolean mv = spans[i+3]==1;
+			if (undo) mv = !mv;
+			Arrays.fill(data, row+spans[i+1], row+spans[i+2]+1, mv);
+		}
+		maskDataset.setDirty();
+	}
+
+	/**
+	 * Add a run of pixels in a row which all change to mv, filled in one go
+	 * rather than pixel by pixel.
+	 * 
+	 * @param mv
+	 * @param y
+	 * @param xStart first pixel
+	 * @param xEnd last pixel
+	 */
+	public synchronized void addSpan(boolean mv, int y, int xStart, int xEnd) {
+		if (4*spanCount+4>spans.length) spans = Arrays.copyOf(spans, 2*spans.length);
+		final int i = 4*spanCount;
+		spans[i]   = y;
+		spans[i+1] = xStart;
+		spans[i+2] = xEnd;
+		spans[i+3] = mv ? 1 : 0;
+		++spanCount;
+		spanPixels += xEnd-xStart+1;
+	}
+
 	public void addVertex(boolean mv, int y, int x) {
 		vertexList.add(new MaskPoint(mv, x, y));
 	}
@@ -182,7 +231,7 @@ public class MaskOperation extends AbstractOperation {
 	}
 
 	public int getSize() {
-		return vertexList.size();
+		return vertexList.size()+spanPixels;
 	}
 	
 	/**
@@ -192,6 +241,8 @@ public class MaskOperation extends AbstractOperation {
 		super.dispose();
 		if (vertexList!=null) vertexList.clear();
 		vertexList  = null;
+		spans       = null;
+		spanCount   = 0;
 		maskDataset = null;
 	}
 }
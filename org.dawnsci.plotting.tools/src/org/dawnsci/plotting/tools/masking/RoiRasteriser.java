@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.tools.masking;
+
+import java.util.Arrays;
+
+import org.eclipse.dawnsci.analysis.api.roi.IPolylineROI;
+import org.eclipse.dawnsci.analysis.api.roi.IROI;
+import org.eclipse.dawnsci.analysis.api.roi.IRectangularROI;
+import org.eclipse.dawnsci.analysis.dataset.roi.LinearROI;
+import org.eclipse.dawnsci.analysis.dataset.roi.PointROI;
+import org.eclipse.dawnsci.analysis.dataset.roi.PolygonalROI;
+import org.eclipse.dawnsci.analysis.dataset.roi.RectangularROI;
+
+/**
+ * Turns a region into the runs of pixels it covers in each row of the image,
+ * so that masking a region costs the area it covers rather than testing every
+ * pixel of the image.
+ *
+ * Boxes, polygons and thick lines are filled from their edges. Other regions
+ * (rings, sectors, ellipses...) use the intersections of the row with the
+ * outline which the region works out itself, testing the middle of each run
+ * between intersections to see if it is inside.
+ *
+ * A pixel is covered if its integer coordinate is in the region, or on the
+ * outline of a box or polygon, as for containsPoint.
+ */
+abstract class RoiRasteriser {
+
+	protected final int width, height;
+
+	protected RoiRasteriser(int[] shape) {
+		this.height = shape[0];
+		this.width  = shape[1];
+	}
+
+	/**
+	 *
+	 * @param roi
+	 * @param lineWidth only used for lines, the distance either side in data coordinates is half of this.
+	 * @param shape of the image
+	 * @return rasteriser or null if the region is not bounded.
+	 */
+	static RoiRasteriser create(IROI roi, double lineWidth, int[] shape) {
+		if (roi instanceof PointROI) {
+			return new PointRasteriser(roi, shape);
+		} else if (roi instanceof LinearROI) {
+			return new LineRasteriser((LinearROI)roi, Math.max(0.5, lineWidth/2.), shape);
+		} else if (roi.getClass()==RectangularROI.class) {
+			return new PolygonRasteriser(getCorners((RectangularROI)roi), shape);
+		} else if (roi.getClass()==PolygonalROI.class) {
+			return new PolygonRasteriser(getVertices((IPolylineROI)roi), shape);
+		} else if (roi.getBounds()!=null) {
+			return new OutlineRasteriser(roi, shape);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the first and last row which might have covered pixels, or null if none.
+	 */
+	abstract int[] getRows();
+
+	/**
+	 * @param y
+	 * @return pairs of first and last x of the runs of covered pixels in the row, in order
+	 *         and inside the image, or null if the row has none.
+	 */
+	abstract int[] getSpans(int y);
+
+	/**
+	 * @return rows between lo and hi clipped to the image, or null if none are in it.
+	 */
+	protected int[] clipRows(double lo, double hi) {
+		final int y0 = Math.max(0, (int)Math.ceil(lo));
+		final int y1 = Math.min(height-1, (int)Math.floor(hi));
+		return y0<=y1 ? new int[]{y0, y1} : null;
+	}
+
+	/**
+	 * Sorts pairs of x values by their first value.
+	 */
+	protected static void sortRuns(double[] xs, int count) {
+		for (int i = 2; i+1 < count; i+=2) {
+			final double a = xs[i], b = xs[i+1];
+			int j = i;
+			for (; j > 0 && xs[j-2]>a; j-=2) {
+				xs[j]   = xs[j-2];
+				xs[j+1] = xs[j-1];
+			}
+			xs[j]   = a;
+			xs[j+1] = b;
+		}
+	}
+
+	/**
+	 * Runs of pixels from pairs of x values, in order, clipped to the image.
+	 * Runs which touch or overlap are joined.
+	 * @param xs pairs of start and end of covered parts of the row
+	 * @param count number of values in xs
+	 */
+	protected int[] toSpans(double[] xs, int count) {
+		final int[] spans = new int[count];
+		int n = 0;
+		for (int i = 0; i+1 < count; i+=2) {
+			final int x0 = Math.max(0, (int)Math.ceil(xs[i]));
+			final int x1 = Math.min(width-1, (int)Math.floor(xs[i+1]));
+			if (x0>x1) continue;
+			if (n>0 && x0<=spans[n-1]+1) {
+				spans[n-1] = Math.max(spans[n-1], x1);
+				continue;
+			}
+			spans[n++] = x0;
+			spans[n++] = x1;
+		}
+		if (n==0) return null;
+		return n==spans.length ? spans : Arrays.copyOf(spans, n);
+	}
+
+	private static double[][] getCorners(RectangularROI roi) {
+		final double[] pt  = roi.getPointRef();
+		final double[] len = roi.getLengths();
+		final double   cos = Math.cos(roi.getAngle()), sin = Math.sin(roi.getAngle());
+		return new double[][]{
+				{pt[0], pt[1]},
+				{pt[0]+cos*len[0], pt[1]+sin*len[0]},
+				{pt[0]+cos*len[0]-sin*len[1], pt[1]+sin*len[0]+cos*len[1]},
+				{pt[0]-sin*len[1], pt[1]+cos*len[1]}
+		};
+	}
+
+	private static double[][] getVertices(IPolylineROI roi) {
+		final double[][] vertices = new double[roi.getNumberOfPoints()][];
+		for (int i = 0; i < vertices.length; i++) vertices[i] = roi.getPoint(i).getPoint();
+		return vertices;
+	}
+
+	private static class PointRasteriser extends RoiRasteriser {
+
+		private final int x, y;
+
+		PointRasteriser(IROI roi, int[] shape) {
+			super(shape);
+			final double[] pt = roi.getPointRef();
+			this.x = (int)Math.round(pt[0]);
+			this.y = (int)Math.round(pt[1]);
+		}
+
+		@Override
+		int[] getRows() {
+			return x>=0 && x<width && y>=0 && y<height ? new int[]{y, y} : null;
+		}
+
+		@Override
+		int[] getSpans(int y) {
+			return y==this.y ? new int[]{x, x} : null;
+		}
+	}
+
+	/**
+	 * Even-odd scanline fill of a closed polygon.
+	 */
+	private static class PolygonRasteriser extends RoiRasteriser {
+
+		private final double[] x0, y0, x1, y1;
+		private double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+
+		PolygonRasteriser(double[][] vertices, int[] shape) {
+			super(shape);
+			final int n = vertices.length;
+			x0 = new double[n];
+			y0 = new double[n];
+			x1 = new double[n];
+			y1 = new double[n];
+			for (int i = 0; i < n; i++) {
+				final double[] a = vertices[i], b = vertices[(i+1)%n];
+				x0[i] = a[0]; y0[i] = a[1];
+				x1[i] = b[0]; y1[i] = b[1];
+				minY = Math.min(minY, a[1]);
+				maxY = Math.max(maxY, a[1]);
+			}
+		}
+
+		@Override
+		int[] getRows() {
+			if (x0.length<3) return null;
+			return clipRows(minY, maxY);
+		}
+
+		@Override
+		int[] getSpans(int y) {
+			final double[] xs = new double[3*x0.length];
+			int count = getCrossings(y, xs);
+			Arrays.sort(xs, 0, count);
+			count = addOutline(y, xs, count);
+			if (count<2) return null;
+			sortRuns(xs, count);
+			return toSpans(xs, count);
+		}
+
+		/**
+		 * Adds the parts of the edges which are on the row as runs, so that pixels
+		 * on the outline are covered. The crossings alone leave out the bottom
+		 * row of a polygon whose bottom is on a whole pixel.
+		 * @return the new count
+		 */
+		protected int addOutline(double y, double[] xs, int count) {
+			for (int i = 0; i < x0.length; i++) {
+				if (Math.min(y0[i], y1[i])>y || Math.max(y0[i], y1[i])<y) continue;
+				if (y0[i]==y1[i]) {
+					xs[count++] = Math.min(x0[i], x1[i]);
+					xs[count++] = Math.max(x0[i], x1[i]);
+				} else {
+					final double x = x0[i] + (y-y0[i])*(x1[i]-x0[i])/(y1[i]-y0[i]);
+					xs[count++] = x;
+					xs[count++] = x;
+				}
+			}
+			return count;
+		}
+
+		/**
+		 * Edges are half open in y so a vertex on the row is only counted once.
+		 */
+		protected int getCrossings(double y, double[] xs) {
+			int count = 0;
+			for (int i = 0; i < x0.length; i++) {
+				if ((y0[i]<=y) == (y1[i]<=y)) continue;
+				xs[count++] = x0[i] + (y-y0[i])*(x1[i]-x0[i])/(y1[i]-y0[i]);
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * The pixels within a distance of a line, a box along the line with round ends.
+	 * It is convex so each row has one run.
+	 */
+	private static class LineRasteriser extends PolygonRasteriser {
+
+		private final double[] start, end;
+		private final double   distance;
+
+		LineRasteriser(LinearROI roi, double distance, int[] shape) {
+			super(getBox(roi.getPointRef(), roi.getEndPoint(), distance), shape);
+			this.start    = roi.getPointRef();
+			this.end      = roi.getEndPoint();
+			this.distance = distance;
+		}
+
+		private static double[][] getBox(double[] start, double[] end, double distance) {
+			final double len = Math.hypot(end[0]-start[0], end[1]-start[1]);
+			if (len==0) return new double[0][];
+			final double nx = -(end[1]-start[1])/len*distance;
+			final double ny =  (end[0]-start[0])/len*distance;
+			return new double[][]{
+					{start[0]+nx, start[1]+ny},
+					{end[0]+nx,   end[1]+ny},
+					{end[0]-nx,   end[1]-ny},
+					{start[0]-nx, start[1]-ny}
+			};
+		}
+
+		@Override
+		int[] getRows() {
+			return clipRows(Math.min(start[1], end[1])-distance, Math.max(start[1], end[1])+distance);
+		}
+
+		@Override
+		int[] getSpans(int y) {
+			final double[] range = new double[]{Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+			addDisc(start, y, range);
+			addDisc(end,   y, range);
+
+			final double[] xs    = new double[12];
+			final int      count = addOutline(y, xs, getCrossings(y, xs));
+			for (int i = 0; i < count; i++) {
+				range[0] = Math.min(range[0], xs[i]);
+				range[1] = Math.max(range[1], xs[i]);
+			}
+			if (range[0]>range[1]) return null;
+			return toSpans(range, 2);
+		}
+
+		private void addDisc(double[] centre, double y, double[] range) {
+			final double dy = y-centre[1];
+			final double h2 = distance*distance - dy*dy;
+			if (h2<0) return;
+			final double h = Math.sqrt(h2);
+			range[0] = Math.min(range[0], centre[0]-h);
+			range[1] = Math.max(range[1], centre[0]+h);
+		}
+	}
+
+	/**
+	 * Any other bounded region, using its own intersections with the row.
+	 */
+	private static class OutlineRasteriser extends RoiRasteriser {
+
+		private final IROI roi;
+
+		OutlineRasteriser(IROI roi, int[] shape) {
+			super(shape);
+			this.roi = roi;
+		}
+
+		@Override
+		int[] getRows() {
+			final IRectangularROI bounds = roi.getBounds();
+			final double[] beg = bounds.getPointRef();
+			final double[] end = bounds.getEndPoint();
+			return clipRows(Math.floor(Math.min(beg[1], end[1])), Math.ceil(Math.max(beg[1], end[1])));
+		}
+
+		@Override
+		int[] getSpans(int y) {
+			double[] xs = roi.findHorizontalIntersections(y);
+			if (xs==null || xs.length==0) return null;
+			xs = xs.clone();
+			Arrays.sort(xs);
+
+			if (xs.length==1) { // Touches the row
+				final long x = Math.round(xs[0]);
+				return x>=0 && x<width && roi.containsPoint(x, y) ? new int[]{(int)x, (int)x} : null;
+			}
+
+			final double[] runs  = new double[2*(xs.length-1)];
+			int            count = 0;
+			for (int i = 0; i+1 < xs.length; i++) {
+				if (xs[i+1]<=xs[i]) continue;
+				if (!roi.containsPoint((xs[i]+xs[i+1])/2, y)) continue;
+				runs[count++] = xs[i];
+				runs[count++] = xs[i+1];
+			}
+			return count>0 ? toSpans(runs, count) : null;
+		}
+	}
+}
@@ -65,6 +65,7 @@ public class PowderCheckJob extends Job {
 	private static final double REL_TOL = 1e-10;
 	private static final double ABS_TOL = 1e-10;
 	private static final int MAX_EVAL = 100000;
+	private static final int SECTOR_WIDTH = 10; // Degrees
 	
 	IPlottingSystem system;
 	Dataset dataset;
@@ -196,15 +197,19 @@ public class PowderCheckJob extends Job {
 		//((ILineTrace)traces.get(0)).setTraceColor(ColorConstants.lightGreen);
 		
 		
-		NonPixelSplittingIntegration npsi = new NonPixelSplittingIntegration(md);
-		npsi.setAxisType(xAxis);
+		// All the sectors in one pass over the image
+		SectorIntegration sectors = SectorIntegration.getInstance(md, data.getShape(), xAxis, 360/SECTOR_WIDTH);
+		Dataset[] profiles = sectors.integrate(data);
+		Dataset axis = sectors.getAxis();
 		
-		for (int i = -180; i <= 170; i+=10) {
-			npsi.setAzimuthalRange(new double[]{i, i+10});
-			List<Dataset> out = npsi.integrate(data);
-			out.get(1).setName("Line: " + i +" to " + (i+10));
-			system.updatePlot1D(out.get(0), Arrays.asList(new IDataset[]{out.get(1)}), null);
+		List<IDataset> lines = new ArrayList<IDataset>(profiles.length);
+		for (int s = 0; s < profiles.length; s++) {
+			if (monitor.isCanceled()) return Status.CANCEL_STATUS;
+			int i = -180 + s*SECTOR_WIDTH;
+			profiles[s].setName("Line: " + i +" to " + (i+SECTOR_WIDTH));
+			lines.add(profiles[s]);
 		}
+		system.updatePlot1D(axis, lines, null);
 
 //		system.updatePlot1D(out.get(0), Arrays.asList(new IDataset[]{out.get(1)}), null);
 		setPlottingSystemAxes();
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.tools.powdercheck;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.eclipse.dawnsci.analysis.api.diffraction.DetectorProperties;
+import org.eclipse.dawnsci.analysis.api.diffraction.DiffractionCrystalEnvironment;
+import org.eclipse.dawnsci.analysis.api.metadata.IDiffractionMetadata;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+
+import uk.ac.diamond.scisoft.analysis.diffraction.powder.AbstractPixelIntegration;
+import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelIntegrationUtils;
+import uk.ac.diamond.scisoft.analysis.roi.XAxis;
+
+/**
+ * Integrates an image into a radial profile for each of a number of equal azimuthal
+ * sectors going round from -180 to 180 degrees, going over the pixels only once.
+ * Each pixel is added to the bin for its radius in its sector.
+ *
+ * The bin and sector of each pixel are worked out once for each geometry and kept,
+ * so checking a new image with the same calibration only has to bin it. Bins are
+ * the same for every sector and cover the whole image, as with a non pixel splitting
+ * integration with only an azimuthal range set. Empty bins are zero.
+ */
+class SectorIntegration {
+
+	private static final int CACHE_SIZE = 4;
+
+	/**
+	 * Number of pixels below which the image is not split between threads.
+	 */
+	private static final int MIN_PARALLEL_SIZE = 128*1024;
+
+	private static final Map<GeometryKey, SectorIntegration> cache = new LinkedHashMap<GeometryKey, SectorIntegration>(8, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<GeometryKey, SectorIntegration> eldest) {
+			return size()>CACHE_SIZE;
+		}
+	};
+
+	private static ForkJoinPool pool;
+
+	private static synchronized ForkJoinPool getPool() {
+		if (pool==null) pool = new ForkJoinPool();
+		return pool;
+	}
+
+	/**
+	 * @param md
+	 * @param shape of the image
+	 * @param xAxis - ANGLE for 2theta in degrees or Q in inverse Angstroms
+	 * @param sectors - number of sectors
+	 * @return integration for the geometry, made if it is not already cached.
+	 */
+	static SectorIntegration getInstance(IDiffractionMetadata md, int[] shape, XAxis xAxis, int sectors) {
+		final GeometryKey key = new GeometryKey(md, shape, xAxis, sectors);
+		synchronized (cache) {
+			final SectorIntegration integration = cache.get(key);
+			if (integration!=null) return integration;
+		}
+
+		// Worked out outside the lock, two threads may both make it the first time.
+		final SectorIntegration integration = new SectorIntegration(md, shape, xAxis, sectors);
+		synchronized (cache) {
+			cache.put(key, integration);
+		}
+		return integration;
+	}
+
+	private final int      size, bins, sectors;
+	private final int[]    index;  // sector*bins+bin for each pixel
+	private final double[] axis;
+
+	private SectorIntegration(IDiffractionMetadata md, int[] shape, XAxis xAxis, int sectors) {
+
+		this.sectors = sectors;
+		this.bins    = AbstractPixelIntegration.calculateNumberOfBins(md.getDetector2DProperties().getBeamCentreCoords(), shape);
+
+		final Dataset tth = PixelIntegrationUtils.generate2ThetaArrayRadians(shape, md);
+		final Dataset az  = PixelIntegrationUtils.generateAzimuthalArray(shape, md, false);
+		this.size = tth.getSize();
+
+		final double   wavelength = md.getDiffractionCrystalEnvironment().getWavelength();
+		final double[] radial     = new double[size];
+		double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < size; i++) {
+			final double angle = tth.getElementDoubleAbs(i);
+			final double r = xAxis==XAxis.Q ? 4*Math.PI*Math.sin(angle/2)/wavelength : Math.toDegrees(angle);
+			radial[i] = r;
+			if (r<min) min = r;
+			if (r>max) max = r;
+		}
+
+		final double width = max>min ? (max-min)/bins : 1;
+		this.axis = new double[bins];
+		for (int b = 0; b < bins; b++) axis[b] = min+(b+0.5)*width;
+
+		final double sectorWidth = 360d/sectors;
+		this.index = new int[size];
+		for (int i = 0; i < size; i++) {
+			final int b = Math.min(bins-1,    (int)((radial[i]-min)/width));
+			final int s = Math.min(sectors-1, Math.max(0, (int)Math.floor((az.getElementDoubleAbs(i)+180)/sectorWidth)));
+			index[i] = s*bins+b;
+		}
+	}
+
+	/**
+	 * @return radial axis, the centres of the bins.
+	 */
+	Dataset getAxis() {
+		return new DoubleDataset(axis.clone(), bins);
+	}
+
+	/**
+	 * @param data - image of the shape this was made for
+	 * @return mean intensity of each radial bin, one profile for each sector in order from -180 degrees.
+	 */
+	Dataset[] integrate(Dataset data) {
+
+		if (data.getSize()!=size) throw new IllegalArgumentException("Image is not the shape of the geometry!");
+		final Object buf = data.getBuffer();
+		final Dataset set = buf!=null && Array.getLength(buf)==size ? data : data.clone();
+
+		final Bin bin = new Bin(set, 0, size);
+		getPool().invoke(bin);
+
+		final Dataset[] profiles = new Dataset[sectors];
+		for (int s = 0; s < sectors; s++) {
+			final double[] profile = new double[bins];
+			for (int b = 0; b < bins; b++) {
+				final int i = s*bins+b;
+				if (bin.counts[i]>0) profile[b] = bin.sums[i]/bin.counts[i];
+			}
+			profiles[s] = new DoubleDataset(profile, bins);
+		}
+		return profiles;
+	}
+
+	/**
+	 * Adds pixels from to to into sums and counts for each bin of each sector,
+	 * parts are added up in accumulators of their own and merged.
+	 */
+	private final class Bin extends RecursiveTask<Bin> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Dataset set;
+		private final int     from, to;
+
+		private double[] sums;
+		private int[]    counts;
+
+		Bin(Dataset set, int from, int to) {
+			this.set  = set;
+			this.from = from;
+			this.to   = to;
+		}
+
+		@Override
+		protected Bin compute() {
+			final int split = Math.max(MIN_PARALLEL_SIZE, size/(4*getPool().getParallelism()));
+			if (to-from > split) {
+				final int mid = (from+to) >>> 1;
+				final Bin lo  = new Bin(set, from, mid);
+				final Bin hi  = new Bin(set, mid,  to);
+				invokeAll(lo, hi);
+				sums   = lo.sums;
+				counts = lo.counts;
+				for (int i = 0; i < sums.length; i++) {
+					sums[i]   += hi.sums[i];
+					counts[i] += hi.counts[i];
+				}
+				return this;
+			}
+
+			sums   = new double[sectors*bins];
+			counts = new int[sectors*bins];
+			for (int i = from; i < to; i++) {
+				final double val = set.getElementDoubleAbs(i);
+				if (Double.isNaN(val)) continue;
+				final int j = index[i];
+				sums[j] += val;
+				++counts[j];
+			}
+			return this;
+		}
+	}
+
+	/**
+	 * Everything which changes the bin and sector of the pixels. The geometry is
+	 * copied so that a later change to the metadata makes a different key.
+	 */
+	private static final class GeometryKey {
+
+		private final DetectorProperties            detector;
+		private final DiffractionCrystalEnvironment environment;
+		private final int[] shape;
+		private final XAxis axis;
+		private final int   sectors;
+
+		GeometryKey(IDiffractionMetadata md, int[] shape, XAxis axis, int sectors) {
+			this.detector    = md.getDetector2DProperties().clone();
+			this.environment = md.getDiffractionCrystalEnvironment().clone();
+			this.shape       = shape.clone();
+			this.axis        = axis;
+			this.sectors     = sectors;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + detector.hashCode();
+			result = prime * result + environment.hashCode();
+			result = prime * result + Arrays.hashCode(shape);
+			result = prime * result + (axis == null ? 0 : axis.hashCode());
+			result = prime * result + sectors;
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof GeometryKey)) return false;
+			final GeometryKey other = (GeometryKey) obj;
+			return detector.equals(other.detector) &&
+				   environment.equals(other.environment) &&
+				   Arrays.equals(shape, other.shape) &&
+				   axis == other.axis &&
+				   sectors == other.sectors;
+		}
+	}
+}
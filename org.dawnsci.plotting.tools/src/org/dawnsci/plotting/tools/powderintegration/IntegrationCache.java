@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.tools.powderintegration;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.dawnsci.plotting.services.util.BitMask;
+import org.eclipse.dawnsci.analysis.api.diffraction.DetectorProperties;
+import org.eclipse.dawnsci.analysis.api.diffraction.DiffractionCrystalEnvironment;
+import org.eclipse.dawnsci.analysis.api.metadata.IDiffractionMetadata;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
+
+import uk.ac.diamond.scisoft.analysis.diffraction.powder.AbstractPixelIntegration;
+import uk.ac.diamond.scisoft.analysis.diffraction.powder.AbstractPixelIntegration1D;
+import uk.ac.diamond.scisoft.analysis.diffraction.powder.AbstractPixelIntegration2D;
+import uk.ac.diamond.scisoft.analysis.diffraction.powder.NonPixelSplittingIntegration;
+import uk.ac.diamond.scisoft.analysis.diffraction.powder.NonPixelSplittingIntegration2D;
+import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelIntegrationUtils;
+import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelIntegrationUtils.IntegrationMode;
+import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelSplittingIntegration;
+import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelSplittingIntegration2D;
+import uk.ac.diamond.scisoft.analysis.roi.XAxis;
+
+/**
+ * Integrators and correction arrays kept between frames and between tool sessions.
+ *
+ * An integrator works out its 2theta, azimuthal and bin arrays the first time it is
+ * used and keeps them until one of its settings changes. Integrators are kept against
+ * the geometry, image shape, mask and integration settings so those arrays are only
+ * made once for each set up, instead of every time the job runs.
+ *
+ * An integrator is not thread safe so each thread borrows its own and gives it back
+ * when it has finished, several frames can then be integrated at once with the same
+ * set up.
+ */
+class IntegrationCache {
+
+	/**
+	 * The number of set ups to keep integrators and corrections for.
+	 */
+	private static final int CACHE_SIZE = 4;
+
+	private static final Map<IntegrationKey, Deque<AbstractPixelIntegration>> integrators = new LinkedHashMap<IntegrationKey, Deque<AbstractPixelIntegration>>(8, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<IntegrationKey, Deque<AbstractPixelIntegration>> eldest) {
+			return size()>CACHE_SIZE;
+		}
+	};
+
+	private static final Map<CorrectionKey, Dataset> corrections = new LinkedHashMap<CorrectionKey, Dataset>(8, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<CorrectionKey, Dataset> eldest) {
+			return size()>CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * Get an integrator for this set up, one which has been used already if there is one free.
+	 * Give it back with {@link #release(IntegrationKey, AbstractPixelIntegration)} when done.
+	 *
+	 * @param key
+	 * @param md
+	 * @param model
+	 * @param nBins default number of bins
+	 * @return integrator, not shared with any other thread until it is released
+	 */
+	static AbstractPixelIntegration acquire(IntegrationKey key, IDiffractionMetadata md, PowderIntegrationModel model, int nBins) {
+		synchronized (integrators) {
+			final Deque<AbstractPixelIntegration> free = integrators.get(key);
+			if (free!=null && !free.isEmpty()) return free.pop();
+		}
+		// The integrator has its own copy of the mask of the key, so that a change
+		// to the mask dataset does not change integrators kept for the old mask.
+		return createIntegrator(md, key.mask==null ? null : key.mask.toDataset(), model, nBins);
+	}
+
+	/**
+	 * Give an integrator back so that it can be used again.
+	 * @param key
+	 * @param integrator
+	 */
+	static void release(IntegrationKey key, AbstractPixelIntegration integrator) {
+		if (key==null || integrator==null) return;
+		synchronized (integrators) {
+			Deque<AbstractPixelIntegration> free = integrators.get(key);
+			if (free==null) {
+				free = new ArrayDeque<AbstractPixelIntegration>();
+				integrators.put(key, free);
+			}
+			free.push(integrator);
+		}
+	}
+
+	/**
+	 * Get the array the image is multiplied by to make the corrections, making it if
+	 * it is not there already. The array must not be changed.
+	 *
+	 * @param md
+	 * @param shape
+	 * @param corModel
+	 * @return correction array or null if there are no corrections to apply.
+	 */
+	static Dataset getCorrection(IDiffractionMetadata md, int[] shape, PowderCorrectionModel corModel) {
+
+		if (corModel == null) return null;
+
+		if (!corModel.isApplyPolarisationCorrection() &&
+				!corModel.isApplySolidAngleCorrection() &&
+				!corModel.isAppyDetectorTransmissionCorrection()) return null;
+
+		final CorrectionKey key = new CorrectionKey(md, shape, corModel);
+		synchronized (corrections) {
+			final Dataset correction = corrections.get(key);
+			if (correction!=null) return correction;
+		}
+
+		// Worked out outside the lock, two threads may both make it the first time.
+		final Dataset correction = DatasetFactory.ones(shape, Dataset.FLOAT32);
+		Dataset tth = PixelIntegrationUtils.generate2ThetaArrayRadians(shape, md);
+
+		if (corModel.isApplySolidAngleCorrection()) {
+			PixelIntegrationUtils.solidAngleCorrection(correction,tth);
+		}
+
+		if (corModel.isApplyPolarisationCorrection()) {
+			Dataset az = PixelIntegrationUtils.generateAzimuthalArray(shape, md, true);
+			az.iadd(Math.toRadians(corModel.getPolarisationAngularOffset()));
+			PixelIntegrationUtils.polarisationCorrection(correction, tth, az, corModel.getPolarisationFactor());
+		}
+
+		if (corModel.isAppyDetectorTransmissionCorrection()) {
+			PixelIntegrationUtils.detectorTranmissionCorrection(correction, tth, corModel.getTransmittedFraction());
+		}
+
+		synchronized (corrections) {
+			corrections.put(key, correction);
+		}
+		return correction;
+	}
+
+	private static AbstractPixelIntegration createIntegrator(IDiffractionMetadata md, Dataset mask, PowderIntegrationModel model, int nBins) {
+
+		AbstractPixelIntegration integrator = null;
+		switch (model.getIntegrationMode()) {
+		case NONSPLITTING:
+			integrator = new NonPixelSplittingIntegration(md, nBins);
+			break;
+		case SPLITTING:
+			integrator = new PixelSplittingIntegration(md, nBins);
+			break;
+		case SPLITTING2D:
+			integrator = new PixelSplittingIntegration2D(md, nBins,nBins);
+			break;
+		case NONSPLITTING2D:
+			integrator = new NonPixelSplittingIntegration2D(md, nBins,nBins);
+			break;
+		}
+
+		//clone incase they get nulled
+		integrator.setAxisType(model.getAxisType());
+
+		if (model.getRadialRange() == null) integrator.setRadialRange(null);
+		else integrator.setRadialRange(model.getRadialRange().clone());
+
+		if (model.getAzimuthalRange() == null) integrator.setAzimuthalRange(null);
+		else integrator.setAzimuthalRange(model.getAzimuthalRange().clone());
+
+		integrator.setNumberOfBins(model.getNumberOfPrimaryBins());
+
+		if (integrator instanceof AbstractPixelIntegration2D) {
+			((AbstractPixelIntegration2D)integrator).setNumberOfAzimuthalBins(model.getNumberOfSecondaryBins());
+		}
+
+		if (integrator instanceof AbstractPixelIntegration1D) {
+			((AbstractPixelIntegration1D)integrator).setAzimuthalIntegration(model.isAzimuthal());
+		}
+
+		integrator.setMask(mask);
+		return integrator;
+	}
+
+	/**
+	 * Everything which changes the arrays an integrator works out. The geometry is
+	 * copied so that a later change to the metadata makes a different key.
+	 */
+	static final class IntegrationKey {
+
+		private final DetectorProperties            detector;
+		private final DiffractionCrystalEnvironment environment;
+		private final int[]           shape;
+		private final BitMask         mask;
+		private final int             maskHash;
+		private final IntegrationMode mode;
+		private final XAxis           axis;
+		private final int             primaryBins, secondaryBins;
+		private final boolean         azimuthal;
+		private final double[]        radialRange, azimuthalRange;
+
+		/**
+		 * @param md
+		 * @param shape
+		 * @param mask packed once by the caller for each mask it is given, may be null
+		 * @param model
+		 */
+		IntegrationKey(IDiffractionMetadata md, int[] shape, BitMask mask, PowderIntegrationModel model) {
+			this.detector       = md.getDetector2DProperties().clone();
+			this.environment    = md.getDiffractionCrystalEnvironment().clone();
+			this.shape          = shape.clone();
+			this.mask           = mask;
+			this.maskHash       = mask==null ? 0 : mask.hashCode();
+			this.mode           = model.getIntegrationMode();
+			this.axis           = model.getAxisType();
+			this.primaryBins    = model.getNumberOfPrimaryBins();
+			this.secondaryBins  = model.getNumberOfSecondaryBins();
+			this.azimuthal      = model.isAzimuthal();
+			this.radialRange    = model.getRadialRange()==null ? null : model.getRadialRange().clone();
+			this.azimuthalRange = model.getAzimuthalRange()==null ? null : model.getAzimuthalRange().clone();
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + detector.hashCode();
+			result = prime * result + environment.hashCode();
+			result = prime * result + Arrays.hashCode(shape);
+			result = prime * result + maskHash;
+			result = prime * result + (mode == null ? 0 : mode.hashCode());
+			result = prime * result + (axis == null ? 0 : axis.hashCode());
+			result = prime * result + primaryBins;
+			result = prime * result + secondaryBins;
+			result = prime * result + (azimuthal ? 1231 : 1237);
+			result = prime * result + Arrays.hashCode(radialRange);
+			result = prime * result + Arrays.hashCode(azimuthalRange);
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof IntegrationKey)) return false;
+			final IntegrationKey other = (IntegrationKey) obj;
+			return detector.equals(other.detector) &&
+				   environment.equals(other.environment) &&
+				   Arrays.equals(shape, other.shape) &&
+				   maskHash == other.maskHash &&
+				   mode == other.mode &&
+				   axis == other.axis &&
+				   primaryBins == other.primaryBins &&
+				   secondaryBins == other.secondaryBins &&
+				   azimuthal == other.azimuthal &&
+				   Arrays.equals(radialRange, other.radialRange) &&
+				   Arrays.equals(azimuthalRange, other.azimuthalRange) &&
+				   (mask == null ? other.mask == null : mask.equals(other.mask));
+		}
+	}
+
+	/**
+	 * Everything which changes the correction array.
+	 */
+	private static final class CorrectionKey {
+
+		private final DetectorProperties            detector;
+		private final DiffractionCrystalEnvironment environment;
+		private final int[]   shape;
+		private final boolean solidAngle, polarisation, transmission;
+		private final double  polarisationFactor, polarisationOffset, transmittedFraction;
+
+		CorrectionKey(IDiffractionMetadata md, int[] shape, PowderCorrectionModel corModel) {
+			this.detector            = md.getDetector2DProperties().clone();
+			this.environment         = md.getDiffractionCrystalEnvironment().clone();
+			this.shape               = shape.clone();
+			this.solidAngle          = corModel.isApplySolidAngleCorrection();
+			this.polarisation        = corModel.isApplyPolarisationCorrection();
+			this.transmission        = corModel.isAppyDetectorTransmissionCorrection();
+			this.polarisationFactor  = corModel.getPolarisationFactor();
+			this.polarisationOffset  = corModel.getPolarisationAngularOffset();
+			this.transmittedFraction = corModel.getTransmittedFraction();
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + detector.hashCode();
+			result = prime * result + environment.hashCode();
+			result = prime * result + Arrays.hashCode(shape);
+			result = prime * result + (solidAngle ? 1231 : 1237);
+			result = prime * result + (polarisation ? 1231 : 1237);
+			result = prime * result + (transmission ? 1231 : 1237);
+			long temp = Double.doubleToLongBits(polarisationFactor);
+			result = prime * result + (int) (temp ^ (temp >>> 32));
+			temp = Double.doubleToLongBits(polarisationOffset);
+			result = prime * result + (int) (temp ^ (temp >>> 32));
+			temp = Double.doubleToLongBits(transmittedFraction);
+			result = prime * result + (int) (temp ^ (temp >>> 32));
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof CorrectionKey)) return false;
+			final CorrectionKey other = (CorrectionKey) obj;
+			return detector.equals(other.detector) &&
+				   environment.equals(other.environment) &&
+				   Arrays.equals(shape, other.shape) &&
+				   solidAngle == other.solidAngle &&
+				   polarisation == other.polarisation &&
+				   transmission == other.transmission &&
+				   Double.doubleToLongBits(polarisationFactor) == Double.doubleToLongBits(other.polarisationFactor) &&
+				   Double.doubleToLongBits(polarisationOffset) == Double.doubleToLongBits(other.polarisationOffset) &&
+				   Double.doubleToLongBits(transmittedFraction) == Double.doubleToLongBits(other.transmittedFraction);
+		}
+	}
+}
@@ -8,9 +8,18 @@
  */
 package org.dawnsci.plotting.tools.powderintegration;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.dawnsci.plotting.services.util.BitMask;
+import org.dawnsci.plotting.tools.powderintegration.IntegrationCache.IntegrationKey;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
@@ -19,8 +28,9 @@ import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.metadata.IDiffractionMetadata;
 import org.eclipse.dawnsci.analysis.api.roi.IROI;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
-import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
-import org.eclipse.dawnsci.analysis.dataset.impl.Maths;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.FloatDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.IndexIterator;
 import org.eclipse.dawnsci.plotting.api.IPlottingSystem;
 import org.eclipse.swt.widgets.Display;
 import org.slf4j.Logger;
@@ -28,27 +38,49 @@ import org.slf4j.LoggerFactory;
 
 import uk.ac.diamond.scisoft.analysis.diffraction.QSpace;
 import uk.ac.diamond.scisoft.analysis.diffraction.powder.AbstractPixelIntegration;
-import uk.ac.diamond.scisoft.analysis.diffraction.powder.AbstractPixelIntegration1D;
-import uk.ac.diamond.scisoft.analysis.diffraction.powder.AbstractPixelIntegration2D;
-import uk.ac.diamond.scisoft.analysis.diffraction.powder.NonPixelSplittingIntegration;
-import uk.ac.diamond.scisoft.analysis.diffraction.powder.NonPixelSplittingIntegration2D;
-import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelIntegrationUtils;
 import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelIntegrationUtils.IntegrationMode;
-import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelSplittingIntegration;
-import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelSplittingIntegration2D;
 
+/**
+ * Integrates the image for the powder integration tool and, through process(...),
+ * the frames of a data reduction.
+ * 
+ * Integrators and correction arrays come from the {@link IntegrationCache} so the
+ * geometry is only worked out once for each set up. Frames can be integrated
+ * in parallel with {@link #process(List, IProgressMonitor)}, the number of threads
+ * is set with org.dawnsci.plotting.tools.powder.threads (default the number of processors).
+ */
 public class PowderIntegrationJob extends Job {
 
 	private final static Logger logger = LoggerFactory.getLogger(PowderIntegrationJob.class);
 	
+	private static final String THREADS_PROPERTY = "org.dawnsci.plotting.tools.powder.threads";
+	
+	private static ExecutorService workers;
+	
+	private static synchronized ExecutorService getWorkers() {
+		if (workers==null) {
+			final int threads = Math.max(1, Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+			workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "Powder integration "+count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return workers;
+	}
+	
 	IPlottingSystem system;
 	IDiffractionMetadata md;
 	QSpace qSpace;
-	AbstractPixelIntegration integrator;
 //	XAxis xAxis = XAxis.Q;
 //	IntegrationMode mode = IntegrationMode.NONSPLITTING;
 	Dataset data;
 	Dataset mask;
+	BitMask maskBits; // packed when the mask is set, not for every frame
 	Dataset correction;
 	PowderIntegrationModel model;
 	PowderCorrectionModel corModel;
@@ -65,6 +97,7 @@ public class PowderIntegrationJob extends Job {
 	public void setData(Dataset data, Dataset mask, IROI roi) {
 		this.data = data;
 		this.mask = mask;
+		this.maskBits = BitMask.valueOf(mask);
 		this.roi = roi;
 		this.nBins = AbstractPixelIntegration.calculateNumberOfBins(md.getDetector2DProperties().getBeamCentreCoords(),
 				data.getShape());
@@ -78,70 +111,21 @@ public class PowderIntegrationJob extends Job {
 	public void setModels(PowderIntegrationModel model, PowderCorrectionModel corModel) {
 		
 		if (this.model == null) this.model = model;
-		if (!isCompatibleIntegrator(integrator, model.getIntegrationMode())) integrator = null;
 		this.corModel = corModel;
-		updateIntegratorFromModel();
-	}
-	
-	public void updateIntegratorFromModel() {
-		if (integrator == null) {
-			updateIntegrator();
-		}
-		if (model != null) {
-			//clone incase they get nulled
-			
-			integrator.setAxisType(model.getAxisType());
-			
-			if (model.getRadialRange() == null) integrator.setRadialRange(null);
-			else integrator.setRadialRange(model.getRadialRange().clone());
-			
-			if (model.getAzimuthalRange() == null) integrator.setAzimuthalRange(null);
-			else integrator.setAzimuthalRange(model.getAzimuthalRange().clone());
-			
-			integrator.setNumberOfBins(model.getNumberOfPrimaryBins());
-			
-			if (integrator instanceof AbstractPixelIntegration2D) {
-				((AbstractPixelIntegration2D)integrator).setNumberOfAzimuthalBins(model.getNumberOfSecondaryBins());
-			}
-			
-			if (integrator instanceof AbstractPixelIntegration1D) {
-				((AbstractPixelIntegration1D)integrator).setAzimuthalIntegration(model.isAzimuthal());
-			}
-		}
 	}
 
 	@Override
 	protected IStatus run(IProgressMonitor monitor) {
-		if (integrator != null) {
-			if (!isCompatibleIntegrator(integrator, model.getIntegrationMode())) integrator = null;
-		} 
-		
-		updateIntegratorFromModel();
-		
-		if (monitor.isCanceled()) return Status.CANCEL_STATUS;
-		
-		integrator.setMask(mask);
-//		integrator.setROI(roi);
-//		integrator.setAxisType(model.axisType);
 		
 		if (monitor.isCanceled()) return Status.CANCEL_STATUS;
 		
 		//all accept 2d no splitting should be fast
 		if (model.getIntegrationMode() == IntegrationMode.SPLITTING2D) system.setEnabled(false);
 
-		Dataset processed = applyCorrections(data);
-		
-		if (monitor.isCanceled()) return Status.CANCEL_STATUS;
-		
-		double maxd = data.max().doubleValue();
-		double max = processed.max().doubleValue();
-		max = max + 0;
-		maxd = maxd + 0;
-		
 		final List<Dataset> out;
 		
 		try {
-			out = integrator.integrate(processed);
+			out = integrate(data, applyCorrections(data));
 		} catch (Exception e) {
 			logger.error("Someones probably just toggling buttons to quickly, but if something looks wrong check here!");
 			return Status.CANCEL_STATUS;
@@ -177,94 +161,138 @@ public class PowderIntegrationJob extends Job {
 	
 	public List<Dataset> process(Dataset data) {
 		
-		if (integrator == null) {
-			updateIntegratorFromModel();
-			integrator.setMask(mask);
-//			integrator.setROI(roi);
-//			integrator.setAxisType(xAxis);
-		}
-		
-		Dataset processed = applyCorrections(data);
+		return integrate(data, applyCorrections(data));
 		
-		List<Dataset> out = integrator.integrate(processed);
+	}
+	
+	/**
+	 * Integrates one frame with an integrator of its own from the cache,
+	 * so several threads can call this at once.
+	 * 
+	 * @param data
+	 * @return the integration of the frame
+	 */
+	public List<Dataset> processConcurrently(Dataset data) {
 		
-		return out;
+		final Dataset cor = IntegrationCache.getCorrection(md, data.getShape(), corModel);
+		return integrate(data, applyCorrections(data, cor, null));
+	}
+	
+	/**
+	 * Integrates with an integrator borrowed from the cache for this call only,
+	 * so it is never given back while it is still integrating.
+	 * 
+	 * @param data frame, for its shape
+	 * @param processed frame with the corrections applied
+	 * @return the integration of the frame
+	 */
+	private List<Dataset> integrate(Dataset data, Dataset processed) {
 		
+		final IntegrationKey key = new IntegrationKey(md, data.getShape(), maskBits, model);
+		final AbstractPixelIntegration integrator = IntegrationCache.acquire(key, md, model, nBins);
+		try {
+			return integrator.integrate(processed);
+		} finally {
+			IntegrationCache.release(key, integrator);
+		}
 	}
 	
-	private Dataset applyCorrections(Dataset data) {
+	/**
+	 * Integrates several frames at once, each thread has its own integrator
+	 * set up from the model and the frames share the correction array.
+	 * 
+	 * @param frames all with the same shape
+	 * @param monitor may be null
+	 * @return the integration of each frame, in the order of the frames
+	 * @throws Exception if any frame cannot be integrated
+	 */
+	public List<List<Dataset>> process(final List<Dataset> frames, final IProgressMonitor monitor) throws Exception {
 		
-		if (corModel == null) return data;
+		final List<List<Dataset>> ret = new ArrayList<List<Dataset>>(frames.size());
+		if (frames.isEmpty()) return ret;
 		
-		if (!corModel.isApplyPolarisationCorrection() &&
-				!corModel.isApplySolidAngleCorrection() &&
-				!corModel.isAppyDetectorTransmissionCorrection()) return data;
+		final int[] shape = frames.get(0).getShape();
+		for (Dataset frame : frames) {
+			if (!Arrays.equals(shape, frame.getShape())) throw new IllegalArgumentException("Frames must all be the same shape!");
+		}
 		
-		Dataset localRef;
+		final IntegrationKey key = new IntegrationKey(md, shape, maskBits, model);
+		final Dataset        cor = IntegrationCache.getCorrection(md, shape, corModel);
 		
-		if (correction == null) {
-			correction = DatasetFactory.ones(data, Dataset.FLOAT32);
-			
-			//incase correction gets nulled while job is running
-			localRef = correction;
-			Dataset tth = PixelIntegrationUtils.generate2ThetaArrayRadians(data.getShape(), md);
-			
-			if (corModel.isApplySolidAngleCorrection()) {
-				PixelIntegrationUtils.solidAngleCorrection(localRef,tth);
-			}
-			
-			if (corModel.isApplyPolarisationCorrection()) {
-				Dataset az = PixelIntegrationUtils.generateAzimuthalArray(data.getShape(), md, true);
-				az.iadd(Math.toRadians(corModel.getPolarisationAngularOffset()));
-				PixelIntegrationUtils.polarisationCorrection(localRef, tth, az, corModel.getPolarisationFactor());
-			}
-			
-			if (corModel.isAppyDetectorTransmissionCorrection()) {
-				PixelIntegrationUtils.detectorTranmissionCorrection(localRef, tth, corModel.getTransmittedFraction());
+		@SuppressWarnings("unchecked")
+		final List<Dataset>[] out = new List[frames.size()];
+		final AtomicInteger   next = new AtomicInteger();
+		
+		final int tasks = Math.min(frames.size(), Math.max(1, Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors())));
+		final List<Future<?>> futures = new ArrayList<Future<?>>(tasks);
+		for (int i = 0; i < tasks; i++) {
+			futures.add(getWorkers().submit(new Runnable() {
+				@Override
+				public void run() {
+					final AbstractPixelIntegration integrator = IntegrationCache.acquire(key, md, model, nBins);
+					DoubleDataset buffer = null;
+					try {
+						for (int f = next.getAndIncrement(); f < out.length; f = next.getAndIncrement()) {
+							if (monitor!=null && monitor.isCanceled()) return;
+							final Dataset processed = applyCorrections(frames.get(f), cor, buffer);
+							if (processed instanceof DoubleDataset && processed!=frames.get(f)) buffer = (DoubleDataset)processed;
+							out[f] = integrator.integrate(processed);
+						}
+					} finally {
+						IntegrationCache.release(key, integrator);
+					}
+				}
+			}));
+		}
+		
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException ne) {
+				if (ne.getCause() instanceof Exception) throw (Exception)ne.getCause();
+				throw ne;
 			}
-			
-		} else {
-			localRef = correction;
 		}
 		
-		return Maths.multiply(data,localRef);
+		ret.addAll(Arrays.asList(out));
+		return ret;
 	}
 	
-	private void updateIntegrator() {
-		switch (model.getIntegrationMode()) {
-		case NONSPLITTING:
-			integrator = new NonPixelSplittingIntegration(md, nBins);
-			break;
-		case SPLITTING:
-			integrator = new PixelSplittingIntegration(md, nBins);
-			break;
-		case SPLITTING2D:
-			integrator = new PixelSplittingIntegration2D(md, nBins,nBins);
-			break;
-		case NONSPLITTING2D:
-			integrator = new NonPixelSplittingIntegration2D(md, nBins,nBins);
-			break;
+	private Dataset applyCorrections(Dataset data) {
+		//incase correction gets nulled while job is running
+		Dataset localRef = correction;
+		if (localRef == null || !Arrays.equals(localRef.getShape(), data.getShape())) {
+			localRef   = IntegrationCache.getCorrection(md, data.getShape(), corModel);
+			correction = localRef;
 		}
-		
-		integrator.setAxisType(model.getAxisType());
+		return applyCorrections(data, localRef, null);
 	}
 	
-	private boolean isCompatibleIntegrator(AbstractPixelIntegration integrator, IntegrationMode mode) {
+	/**
+	 * Multiplies the data by the correction.
+	 * 
+	 * @param data
+	 * @param correction may be null
+	 * @param buffer to write the result to if it is the right shape, may be null
+	 * @return the corrected data, which is buffer if it was used
+	 */
+	private static Dataset applyCorrections(Dataset data, Dataset correction, DoubleDataset buffer) {
 		
-		if (integrator == null) return false;
+		if (correction == null) return data;
 		
-		switch (mode) {
-		case NONSPLITTING:
-			return integrator instanceof NonPixelSplittingIntegration;
-		case SPLITTING:
-			return integrator instanceof PixelSplittingIntegration;
-		case SPLITTING2D:
-			return integrator instanceof PixelSplittingIntegration2D;
-		case NONSPLITTING2D:
-			return integrator instanceof NonPixelSplittingIntegration2D;
+		DoubleDataset processed = buffer;
+		if (processed == null || !Arrays.equals(processed.getShape(), data.getShape())) {
+			processed = new DoubleDataset(data.getShape());
 		}
-		return false;
 		
+		final double[] out = processed.getData();
+		final float[]  cor = ((FloatDataset)correction).getData();
+		final IndexIterator it = data.getIterator();
+		for (int i = 0; it.hasNext(); i++) {
+			out[i] = data.getElementDoubleAbs(it.index)*cor[i];
+		}
+		processed.setDirty();
+		return processed;
 	}
 
 }
@@ -18,12 +18,12 @@ import javax.measure.unit.UnitFormat;
 
 import org.dawb.common.services.ServiceManager;
 import org.dawb.common.ui.menu.MenuAction;
-import org.dawb.common.ui.plot.tools.IDataReductionToolPage;
 import org.dawb.common.ui.util.EclipseUtils;
 import org.dawb.common.util.eclipse.BundleUtils;
 import org.dawnsci.common.widgets.dialog.FileSelectionDialog;
 import org.dawnsci.plotting.tools.Activator;
 import org.dawnsci.plotting.tools.diffraction.DiffractionUtils;
+import org.dawnsci.plotting.tools.reduction.IParallelReductionToolPage;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.diffraction.DetectorProperties;
@@ -72,7 +72,7 @@ import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelIntegrationUtils.I
 import uk.ac.diamond.scisoft.analysis.io.NexusDiffractionMetaReader;
 import uk.ac.diamond.scisoft.analysis.roi.XAxis;
 
-public class PowderIntegrationTool extends AbstractToolPage implements IDataReductionToolPage {
+public class PowderIntegrationTool extends AbstractToolPage implements IParallelReductionToolPage {
 	
 	IPlottingSystem system;
 	private ITraceListener traceListener;
@@ -593,6 +593,25 @@ public class PowderIntegrationTool extends AbstractToolPage implements IDataRedu
 	public DataReductionInfo export(DataReductionSlice slice) throws Exception {
 		
 		if (fullImageJob == null) throw new IllegalArgumentException("Integration not correctly configured!");
+		return export(slice, fullImageJob.process(DatasetUtils.convertToDataset(slice.getData())));
+	}
+	
+	/**
+	 * Integrates a slice for the DataReductionWizard, from several threads at once.
+	 */
+	@Override
+	public Object process(IDataset slice) throws Exception {
+		
+		if (fullImageJob == null) throw new IllegalArgumentException("Integration not correctly configured!");
+		return fullImageJob.processConcurrently(DatasetUtils.convertToDataset(slice));
+	}
+	
+	/**
+	 * Writes the integration of a slice, in order.
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public DataReductionInfo export(DataReductionSlice slice, Object processed) throws Exception {
 		
 		IHierarchicalDataFile file = slice.getFile();
 		String resultGroup = slice.getParent();
@@ -613,7 +632,7 @@ public class PowderIntegrationTool extends AbstractToolPage implements IDataRedu
 //		file.setNexusAttribute(resultGroup, Nexus.DATA);
 //		slice.setParent(resultGroup);
 		
-		List<Dataset> out = fullImageJob.process(DatasetUtils.convertToDataset(slice.getData()));
+		List<Dataset> out = (List<Dataset>)processed;
 		
 		Dataset axis = out.get(0);
 
@@ -12,6 +12,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
+import org.dawnsci.plotting.tools.utils.IntegralImage;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
@@ -124,9 +125,12 @@ public class BoxProfileTool extends ProfileTool {
 
 		if (monitor.isCanceled()) return null;
 		
-		Dataset data = (Dataset)image.getData();
-		if (data instanceof RGBDataset) data = ((RGBDataset)data).getRedView();
-		Dataset[] box = ROIProfile.box(data, (Dataset)image.getMask(), bounds, true);
+		Dataset[] box = getIntegralBox(image, bounds);
+		if (box==null) {
+			Dataset data = (Dataset)image.getData();
+			if (data instanceof RGBDataset) data = ((RGBDataset)data).getRedView();
+			box = ROIProfile.box(data, (Dataset)image.getMask(), bounds, true);
+		}
         if (box==null) return null;
         
         Dataset xi = null;
@@ -185,6 +189,28 @@ public class BoxProfileTool extends ProfileTool {
         return new Dataset[]{x_indices, x_intensity, y_indices, y_intensity};
 	}
 	
+	/**
+	 * Profiles of an unrotated box from the summed-area table of the image, which
+	 * costs the width and height of the box rather than its area when dragging.
+	 * 
+	 * @param image
+	 * @param bounds
+	 * @return x and y profiles or null if the box must be done by ROIProfile.
+	 */
+	private static Dataset[] getIntegralBox(IImageTrace image, RectangularROI bounds) {
+		// Masked and NaN pixels are left out by ROIProfile
+		if (bounds.getAngle()!=0 || image.getMask()!=null) return null;
+		final IntegralImage integral = IntegralImage.getInstance(image);
+		if (integral==null || !integral.isExact() || integral.hasNaN()) return null;
+
+		final int[] spt = bounds.getIntPoint();
+		final int[] len = bounds.getIntLengths();
+		final Dataset xProfile = integral.getXProfile(spt[0], spt[1], spt[0]+len[0], spt[1]+len[1]);
+		final Dataset yProfile = integral.getYProfile(spt[0], spt[1], spt[0]+len[0], spt[1]+len[1]);
+		if (xProfile==null || yProfile==null) return null;
+		return new Dataset[]{xProfile, yProfile};
+	}
+
 	@Override
 	protected boolean isRegionTypeSupported(RegionType type) {
 		return (type==RegionType.BOX)||(type==RegionType.XAXIS)||(type==RegionType.YAXIS)||type==RegionType.PERIMETERBOX;
@@ -16,6 +16,7 @@ import java.util.Map;
 
 import org.dawb.common.ui.plot.tools.IDataReductionToolPage;
 import org.dawnsci.plotting.tools.Activator;
+import org.dawnsci.plotting.tools.utils.IntegralImage;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
@@ -96,6 +97,7 @@ public abstract class ProfileTool extends AbstractToolPage  implements IROIListe
 				}
 				@Override
 				protected void update(TraceEvent evt) {
+					if (evt.getSource() instanceof IImageTrace) IntegralImage.invalidate((IImageTrace)evt.getSource());
 					ProfileTool.this.update(null, null, false);
 				}
 			};
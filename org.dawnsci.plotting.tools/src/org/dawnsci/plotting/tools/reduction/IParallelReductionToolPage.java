@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.tools.reduction;
+
+import org.dawb.common.ui.plot.tools.IDataReductionToolPage;
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+
+/**
+ * A data reduction tool which can work out the result of a slice apart from
+ * writing it. The data reduction wizard then processes several slices at once
+ * and writes the results in order, one at a time.
+ */
+public interface IParallelReductionToolPage extends IDataReductionToolPage {
+
+	/**
+	 * Works out the result for a slice. This is called from several threads at
+	 * once and must not write to the file.
+	 *
+	 * @param slice
+	 * @return result to give to {@link #export(DataReductionSlice, Object)}
+	 * @throws Exception
+	 */
+	public Object process(IDataset slice) throws Exception;
+
+	/**
+	 * Writes the result of a slice, called for each slice in order from one thread.
+	 *
+	 * @param slice
+	 * @param processed - what {@link #process(IDataset)} gave for this slice
+	 * @return info as for {@link #export(DataReductionSlice)}
+	 * @throws Exception
+	 */
+	public DataReductionInfo export(DataReductionSlice slice, Object processed) throws Exception;
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.tools.reduction;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.Slice;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs data reduction as a pipeline so that reading slices, working out their
+ * results and writing them overlap. Slices are read by the caller of {@link #submit(Task)},
+ * processed by worker threads (if there are any) and written by one thread in
+ * the order they were submitted.
+ *
+ * The number of slices between being submitted and written is limited so that
+ * reading cannot run too far ahead of writing; submit blocks until there is room.
+ * The first error stops the pipeline and is thrown from the next submit or from
+ * {@link #finish()}.
+ */
+abstract class ReductionPipeline {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReductionPipeline.class);
+
+	/**
+	 * Number of threads to process slices, by default the number of processors.
+	 */
+	static final String THREADS_PROPERTY = "org.dawnsci.plotting.tools.reduction.threads";
+
+	/**
+	 * Number of slices which may be read but not yet written, by default twice the number of threads.
+	 */
+	static final String QUEUE_PROPERTY = "org.dawnsci.plotting.tools.reduction.queue";
+
+	/**
+	 * A slice and the parts of the conversion context which go with it, as the
+	 * context has moved on to the next slice by the time it is written.
+	 */
+	static final class Task {
+
+		final IDataset slice;
+		final String   h5Path;
+		final Slice[]  selectedSlice;
+		final int[]    selectedShape;
+
+		private Object    processed;
+		private Exception error;
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		Task(IDataset slice, String h5Path, Slice[] selectedSlice, int[] selectedShape) {
+			this.slice         = slice;
+			this.h5Path        = h5Path;
+			this.selectedSlice = selectedSlice!=null ? selectedSlice.clone() : null;
+			this.selectedShape = selectedShape!=null ? selectedShape.clone() : null;
+		}
+
+		/**
+		 * @return what {@link ReductionPipeline#process(Task)} gave or null if there are no workers.
+		 */
+		Object getProcessed() {
+			return processed;
+		}
+	}
+
+	private static final Task END = new Task(null, null, null, null);
+
+	private final BlockingQueue<Task> input;   // To the workers
+	private final BlockingQueue<Task> ordered; // To the writer, in order
+	private final Semaphore           room;
+	private final Thread[]            workers;
+	private final Thread              writer;
+
+	private volatile Exception        failure;
+	private volatile boolean          cancelled;
+
+	private final AtomicLong readTime    = new AtomicLong();
+	private final AtomicLong waitTime    = new AtomicLong();
+	private final AtomicLong processTime = new AtomicLong();
+	private final AtomicLong writeTime   = new AtomicLong();
+	private long             lastSubmit;
+	private int              count;
+
+	/**
+	 * @param parallel - if false there are no workers and the writer does all the work.
+	 */
+	ReductionPipeline(String name, boolean parallel) {
+
+		final int threads = parallel ? Math.max(1, Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors())) : 0;
+		this.room    = new Semaphore(Math.max(1, Integer.getInteger(QUEUE_PROPERTY, Math.max(2, 2*threads))));
+		this.input   = new LinkedBlockingQueue<Task>();
+		this.ordered = new LinkedBlockingQueue<Task>();
+
+		this.workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					runWorker();
+				}
+			}, name+" reduction "+(i+1));
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runWriter();
+			}
+		}, name+" reduction writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Called from the worker threads, must be thread safe.
+	 */
+	protected abstract Object process(Task task) throws Exception;
+
+	/**
+	 * Called from the writer thread for each slice in order.
+	 */
+	protected abstract void write(Task task) throws Exception;
+
+	/**
+	 * Adds a slice to the pipeline, waiting if too many slices have not been written yet.
+	 * @param task
+	 * @throws Exception if an earlier slice failed.
+	 */
+	void submit(Task task) throws Exception {
+
+		final long start = System.nanoTime();
+		if (lastSubmit>0) readTime.addAndGet(start-lastSubmit);
+
+		if (failure!=null) throw failure;
+		room.acquire();
+		if (failure!=null) { // Happened while we waited
+			room.release();
+			throw failure;
+		}
+		waitTime.addAndGet(System.nanoTime()-start);
+
+		ordered.put(task);
+		if (workers.length>0) input.put(task);
+		++count;
+		lastSubmit = System.nanoTime();
+	}
+
+	private void runWorker() {
+		try {
+			for (Task task = input.take(); task!=END; task = input.take()) {
+				try {
+					if (failure==null && !cancelled) {
+						final long start = System.nanoTime();
+						task.processed = process(task);
+						processTime.addAndGet(System.nanoTime()-start);
+					}
+				} catch (Exception ne) {
+					task.error = ne;
+				} finally {
+					task.done.countDown();
+				}
+			}
+		} catch (InterruptedException ne) {
+			return;
+		}
+	}
+
+	private void runWriter() {
+		try {
+			for (Task task = ordered.take(); task!=END; task = ordered.take()) {
+				try {
+					if (failure==null && !cancelled) {
+						if (workers.length>0) task.done.await();
+						if (task.error!=null) throw task.error;
+
+						final long start = System.nanoTime();
+						write(task);
+						writeTime.addAndGet(System.nanoTime()-start);
+					}
+				} catch (Exception ne) {
+					if (failure==null) failure = ne;
+				} finally {
+					room.release();
+				}
+			}
+		} catch (InterruptedException ne) {
+			return;
+		}
+	}
+
+	/**
+	 * Stops processing and writing, slices not yet written are dropped.
+	 */
+	void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Waits for all the slices to be written and stops the threads.
+	 * @throws Exception the first error from processing or writing, unless cancelled.
+	 */
+	void finish() throws Exception {
+
+		for (int i = 0; i < workers.length; i++) input.put(END);
+		ordered.put(END);
+
+		writer.join();
+		for (Thread worker : workers) worker.join();
+
+		if (logger.isDebugEnabled()) logger.debug(getTimes());
+		if (failure!=null && !cancelled) throw failure;
+	}
+
+	/**
+	 * @return time spent in each stage, for tuning the threads and queue.
+	 */
+	String getTimes() {
+		return "Reduced "+count+" slices with "+workers.length+" workers: read "+millis(readTime)+" ms, waited for room "+millis(waitTime)+
+			   " ms, processed "+millis(processTime)+" ms, wrote "+millis(writeTime)+" ms";
+	}
+
+	private static long millis(AtomicLong time) {
+		return time.get()/1000000;
+	}
+}
@@ -29,6 +29,11 @@ import org.eclipse.dawnsci.plotting.api.tool.IToolPage;
 
 /**
  * A conversion visitor that delegates to a tool.
+ * 
+ * The tool is run in a {@link ReductionPipeline} so that the next slices are
+ * read while the tool works, tools which are {@link IParallelReductionToolPage}s
+ * process several slices at once.
+ * 
  * @author Matthew Gerring
  *
  */
@@ -50,11 +55,24 @@ class ToolConversionVisitor implements IConversionVisitor {
 	private IHierarchicalDataFile output;
 	private String                group;
 	private String                initName;
+	private ReductionPipeline     pipeline;
 	
 	@Override
-	public void init(IConversionContext context) throws Exception {
+	public void init(final IConversionContext context) throws Exception {
 		output = HierarchicalDataFactory.getWriter(context.getOutputPath());
 		initName = tool.exportInit();
+		
+		final boolean parallel = tool instanceof IParallelReductionToolPage;
+		pipeline = new ReductionPipeline(tool.getTitle(), parallel) {
+			@Override
+			protected Object process(Task task) throws Exception {
+				return ((IParallelReductionToolPage)tool).process(task.slice);
+			}
+			@Override
+			protected void write(Task task) throws Exception {
+				ToolConversionVisitor.this.write(context, task, parallel);
+			}
+		};
 	}
 
 	private Object  object;
@@ -62,13 +80,31 @@ class ToolConversionVisitor implements IConversionVisitor {
 	@Override
 	public void visit(IConversionContext context, IDataset slice) throws Exception {
 		
-		if (context.getMonitor()!=null && context.getMonitor().isCancelled()) throw new Exception("Execution cancelled!");
+		if (context.getMonitor()!=null && context.getMonitor().isCancelled()) {
+			pipeline.cancel();
+			throw new Exception("Execution cancelled!");
+		}
+		
+		pipeline.submit(new ReductionPipeline.Task(slice, context.getSelectedH5Path(), context.getSelectedSlice(), context.getSelectedShape()));
+	}
+	
+	/**
+	 * Exports one slice, called in order from the writer thread of the pipeline.
+	 */
+	private void write(IConversionContext context, ReductionPipeline.Task task, boolean parallel) throws Exception {
 		
-		String grp = createGroupIfRequired(context);
-		DataReductionSlice bean = new DataReductionSlice(output, grp, slice, object, context.getSelectedSlice(), context.getSelectedShape(), context.getMonitor());
-		bean.setAxes(getAxes(context, slice));
+		if (context.getMonitor()!=null && context.getMonitor().isCancelled()) {
+			pipeline.cancel();
+			return;
+		}
+		
+		String grp = createGroupIfRequired(task.h5Path);
+		DataReductionSlice bean = new DataReductionSlice(output, grp, task.slice, object, task.selectedSlice, task.selectedShape, context.getMonitor());
+		bean.setAxes(getAxes(context, task.slice));
 		bean.setExpandedDatasetNames(getExpandedDatasets());
-		DataReductionInfo  info = tool.export(bean);
+		DataReductionInfo  info = parallel
+				                ? ((IParallelReductionToolPage)tool).export(bean, task.getProcessed())
+				                : tool.export(bean);
 		if (info.getStatus().isOK()) object = info.getUserData();
 
 		if (context.getMonitor()!=null) context.getMonitor().worked(1);
@@ -143,19 +179,19 @@ class ToolConversionVisitor implements IConversionVisitor {
 
 	private String  currentH5Path;     
 
-	private String createGroupIfRequired(IConversionContext context) throws Exception {
+	private String createGroupIfRequired(String selectedH5Path) throws Exception {
 		
 		//Group made and not h5, return group
-		if (group != null && context.getSelectedH5Path() == null) {
+		if (group != null && selectedH5Path == null) {
 			
 			return output.group(group);
 		}
 		
 		String path = initName == null ?"data" : initName;
 		
-		if (context.getSelectedH5Path() != null) {
+		if (selectedH5Path != null) {
 			
-			String flatPath = context.getSelectedH5Path();
+			String flatPath = selectedH5Path;
 			if (flatPath.startsWith("/entry/"))  flatPath = flatPath.substring("/entry/".length());
 			if (flatPath.startsWith("/entry1/")) flatPath = flatPath.substring("/entry1/".length());
 			flatPath = flatPath.replace("/", "_");
@@ -195,13 +231,21 @@ class ToolConversionVisitor implements IConversionVisitor {
 	@Override
 	public void close(IConversionContext context) throws Exception {
 		
-		// Notify tool of closure
+		// Write the slices still in the pipeline
 		Exception onFinish = null;
 		try {
-		    tool.exportFinished();
+			if (pipeline!=null) pipeline.finish();
 		} catch (Exception ne) {
 			onFinish = ne;
 		}
+		pipeline = null;
+		
+		// Notify tool of closure
+		try {
+		    tool.exportFinished();
+		} catch (Exception ne) {
+			if (onFinish==null) onFinish = ne;
+		}
 		
 		// Close actual file.
 		if (output!=null) output.close();
@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.plotting.tools.utils;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.eclipse.dawnsci.analysis.api.dataset.DataEvent;
+import org.eclipse.dawnsci.analysis.api.dataset.IDataListener;
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.IDynamicDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.IndexIterator;
+import org.eclipse.dawnsci.analysis.dataset.impl.RGBDataset;
+import org.eclipse.dawnsci.plotting.api.trace.IImageTrace;
+
+/**
+ * Summed-area table of an image so that the sum, mean and variance of any
+ * box, and the profiles of a box along x and y, do not have to go over every
+ * pixel in the box. Sums for a box cost four lookups and a profile one lookup
+ * per point.
+ *
+ * One is kept for each image trace and made again when the data of the trace
+ * is replaced, changes (for dynamic datasets) or {@link #invalidate(IImageTrace)}
+ * is called from a trace listener.
+ *
+ * NaNs are left out of the sums, as with sum(true). The table of squares is only
+ * made the first time a variance is asked for and the table of counts only if
+ * the image has NaNs in it. RGB images use the red channel, as the box profile does.
+ *
+ * The tables hold sums of the difference from a reference value, the mean of the
+ * image rounded to a whole number, which is added back for each pixel. The sums
+ * of a bright image get large across the table and the sum of a box is the small
+ * difference of large sums, which loses precision, worst of all for the sums of
+ * squares. Rounding keeps the sums of integer images exact.
+ *
+ * Boxes are in pixels, from x0, y0 (inclusive) to x1, y1 (exclusive) and are clipped
+ * to the image.
+ */
+public class IntegralImage implements IDataListener {
+
+	private static final Map<IImageTrace, IntegralImage> cache = new WeakHashMap<IImageTrace, IntegralImage>(4);
+
+	/**
+	 * @param trace
+	 * @return table for the current data of the trace or null if it has none or is not 2D.
+	 */
+	public static IntegralImage getInstance(IImageTrace trace) {
+		if (trace==null) return null;
+		final IDataset data = trace.getData();
+		if (data==null || data.getRank()!=2) return null;
+
+		synchronized (cache) {
+			IntegralImage image = cache.get(trace);
+			if (image!=null && image.data==data && !image.stale) return image;
+			if (image!=null) image.disconnect();
+
+			image = new IntegralImage(data);
+			cache.put(trace, image);
+			return image;
+		}
+	}
+
+	/**
+	 * Drops the table for the trace, call when the trace has been updated.
+	 * @param trace
+	 */
+	public static void invalidate(IImageTrace trace) {
+		synchronized (cache) {
+			final IntegralImage image = cache.remove(trace);
+			if (image!=null) image.disconnect();
+		}
+	}
+
+	private final IDataset data;
+	private final int      width, height;
+	private final double   reference;
+	private final double[] sums;
+	private int[]          counts;
+	private double[]       squares;
+	private boolean        hasNaN, hasInfinity;
+	private volatile boolean stale;
+
+	IntegralImage(IDataset data) {
+		this.data   = data;
+		this.height = data.getShape()[0];
+		this.width  = data.getShape()[1];
+		this.sums   = new double[(width+1)*(height+1)];
+
+		final Dataset image = getImage();
+		this.reference = getReference(image);
+		final int     w     = width+1;
+		final IndexIterator it = image.getIterator();
+		for (int y = 0; y < height; y++) {
+			double rowSum = 0;
+			int    rowNaN = 0;
+			for (int x = 0; x < width; x++) {
+				it.hasNext();
+				final double value = image.getElementDoubleAbs(it.index);
+				if (Double.isNaN(value)) {
+					if (!hasNaN) createCounts(y, x);
+					hasNaN = true;
+					++rowNaN;
+				} else {
+					if (Double.isInfinite(value)) hasInfinity = true;
+					rowSum += value-reference;
+				}
+				final int i = (y+1)*w + x+1;
+				sums[i] = sums[i-w] + rowSum;
+				if (counts!=null) counts[i] = counts[i-w] + x+1 - rowNaN;
+			}
+		}
+
+		if (data instanceof IDynamicDataset) ((IDynamicDataset)data).addDataListener(this);
+	}
+
+	/**
+	 * @return the mean of the finite values of the image, rounded, or 0 if it has none.
+	 */
+	private static double getReference(Dataset image) {
+		double sum   = 0;
+		long   count = 0;
+		final IndexIterator it = image.getIterator();
+		while (it.hasNext()) {
+			final double value = image.getElementDoubleAbs(it.index);
+			if (Double.isNaN(value) || Double.isInfinite(value)) continue;
+			sum += value;
+			++count;
+		}
+		return count>0 ? Math.rint(sum/count) : 0;
+	}
+
+	/**
+	 * Counts of the rows and pixels before the first NaN, which are all counted.
+	 */
+	private void createCounts(int row, int column) {
+		final int w = width+1;
+		counts = new int[sums.length];
+		for (int y = 1; y <= row; y++) {
+			for (int x = 1; x <= width; x++) counts[y*w+x] = y*x;
+		}
+		for (int x = 1; x <= column; x++) counts[(row+1)*w+x] = (row+1)*x;
+	}
+
+	private Dataset getImage() {
+		Dataset image = DatasetUtils.convertToDataset(data);
+		if (image instanceof RGBDataset) image = ((RGBDataset)image).getRedView();
+		return image;
+	}
+
+	private synchronized double[] getSquares() {
+		if (squares!=null) return squares;
+		final double[] sq    = new double[sums.length];
+		final Dataset  image = getImage();
+		final int      w     = width+1;
+		final IndexIterator it = image.getIterator();
+		for (int y = 0; y < height; y++) {
+			double rowSum = 0;
+			for (int x = 0; x < width; x++) {
+				it.hasNext();
+				final double value = image.getElementDoubleAbs(it.index);
+				if (!Double.isNaN(value)) rowSum += (value-reference)*(value-reference);
+				final int i = (y+1)*w + x+1;
+				sq[i] = sq[i-w] + rowSum;
+			}
+		}
+		squares = sq;
+		return squares;
+	}
+
+	@Override
+	public void dataChangePerformed(DataEvent evt) {
+		stale = true;
+	}
+
+	private void disconnect() {
+		stale = true;
+		if (data instanceof IDynamicDataset) ((IDynamicDataset)data).removeDataListener(this);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return true if the image has NaNs, which are left out of the sums.
+	 */
+	public boolean hasNaN() {
+		return hasNaN;
+	}
+
+	/**
+	 * Infinite values cannot be taken away again so the sums of boxes
+	 * are not right if the image has any.
+	 * @return true if the sums of boxes are right.
+	 */
+	public boolean isExact() {
+		return !hasInfinity;
+	}
+
+	public double getSum(int x0, int y0, int x1, int y1) {
+		return area(sums, x0, y0, x1, y1) + reference*getCount(x0, y0, x1, y1);
+	}
+
+	/**
+	 * @return the number of pixels in the box which are not NaN.
+	 */
+	public int getCount(int x0, int y0, int x1, int y1) {
+		x0 = clip(x0, width); x1 = clip(x1, width);
+		y0 = clip(y0, height); y1 = clip(y1, height);
+		if (x0>=x1 || y0>=y1) return 0;
+		if (counts==null) return (x1-x0)*(y1-y0);
+		final int w = width+1;
+		return counts[y1*w+x1] - counts[y0*w+x1] - counts[y1*w+x0] + counts[y0*w+x0];
+	}
+
+	public double getMean(int x0, int y0, int x1, int y1) {
+		final int count = getCount(x0, y0, x1, y1);
+		return count>0 ? getSum(x0, y0, x1, y1)/count : Double.NaN;
+	}
+
+	/**
+	 * @return the sample variance of the box, as stdDeviation() uses.
+	 */
+	public double getVariance(int x0, int y0, int x1, int y1) {
+		final int count = getCount(x0, y0, x1, y1);
+		if (count<2) return Double.NaN;
+		// Both about the reference, which does not change the variance
+		final double sum = area(sums, x0, y0, x1, y1);
+		final double sq  = area(getSquares(), x0, y0, x1, y1);
+		return Math.max(0, (sq - sum*sum/count)/(count-1));
+	}
+
+	/**
+	 * @return sums of the columns from x0 to x1 over the rows y0 to y1 or null if the box is outside the image.
+	 */
+	public DoubleDataset getXProfile(int x0, int y0, int x1, int y1) {
+		x0 = clip(x0, width); x1 = clip(x1, width);
+		y0 = clip(y0, height); y1 = clip(y1, height);
+		if (x0>=x1 || y0>=y1) return null;
+		final int      w       = width+1;
+		final double[] profile = new double[x1-x0];
+		for (int x = x0; x < x1; x++) {
+			final int count = counts==null ? y1-y0 : counts[y1*w+x+1] - counts[y0*w+x+1] - counts[y1*w+x] + counts[y0*w+x];
+			profile[x-x0] = sums[y1*w+x+1] - sums[y0*w+x+1] - sums[y1*w+x] + sums[y0*w+x] + reference*count;
+		}
+		return new DoubleDataset(profile, profile.length);
+	}
+
+	/**
+	 * @return sums of the rows from y0 to y1 over the columns x0 to x1 or null if the box is outside the image.
+	 */
+	public DoubleDataset getYProfile(int x0, int y0, int x1, int y1) {
+		x0 = clip(x0, width); x1 = clip(x1, width);
+		y0 = clip(y0, height); y1 = clip(y1, height);
+		if (x0>=x1 || y0>=y1) return null;
+		final int      w       = width+1;
+		final double[] profile = new double[y1-y0];
+		for (int y = y0; y < y1; y++) {
+			final int count = counts==null ? x1-x0 : counts[(y+1)*w+x1] - counts[y*w+x1] - counts[(y+1)*w+x0] + counts[y*w+x0];
+			profile[y-y0] = sums[(y+1)*w+x1] - sums[y*w+x1] - sums[(y+1)*w+x0] + sums[y*w+x0] + reference*count;
+		}
+		return new DoubleDataset(profile, profile.length);
+	}
+
+	private double area(double[] table, int x0, int y0, int x1, int y1) {
+		x0 = clip(x0, width); x1 = clip(x1, width);
+		y0 = clip(y0, height); y1 = clip(y1, height);
+		if (x0>=x1 || y0>=y1) return 0;
+		final int w = width+1;
+		return table[y1*w+x1] - table[y0*w+x1] - table[y1*w+x0] + table[y0*w+x0];
+	}
+
+	private static int clip(int value, int max) {
+		return Math.max(0, Math.min(max, value));
+	}
+}
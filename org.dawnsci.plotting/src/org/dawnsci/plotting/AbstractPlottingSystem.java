@@ -379,6 +379,27 @@ public abstract class AbstractPlottingSystem implements IPlottingSystem, IToolPa
 		//TODO
 		throw new Exception("updatePlot not implemented for "+getClass().getName());
 	}
+
+	/**
+	 * Append a block of points to a 1D trace. Plotters which can stream
+	 * should override this to add the points in one go and repaint once,
+	 * the default adds them one at a time.
+	 * 
+	 * @param dataSetName
+	 * @param xValues
+	 * @param yValues - same length as xValues
+	 * @param monitor
+	 * @throws Exception
+	 */
+	public void append( final String           dataSetName, 
+			            final double[]         xValues,
+					    final double[]         yValues,
+					    final IProgressMonitor monitor) throws Exception {
+		if (xValues.length!=yValues.length) throw new IllegalArgumentException("The x and y values must be the same length!");
+		for (int i = 0; i < xValues.length; i++) {
+			append(dataSetName, xValues[i], yValues[i], monitor);
+		}
+	}
 	
 	@Override
 	public void repaint() {
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.spectrum.ui.processing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.dawnsci.spectrum.ui.file.IContain1DData;
+import org.dawnsci.spectrum.ui.utils.Contain1DDataImpl;
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Maths;
+
+import uk.ac.diamond.scisoft.analysis.optimize.ApachePolynomial;
+
+/**
+ * Times the sliding window processes against the ways they were done before and
+ * prints the largest difference between the results.
+ *
+ * Arguments are the number of points, 100000 by default, and the rolling ball
+ * width, 1000 by default. The old rolling ball takes minutes for a million points.
+ */
+class SlidingWindowBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		final int size  = args.length>0 ? Integer.parseInt(args[0]) : 100000;
+		final int width = args.length>1 ? Integer.parseInt(args[1]) : 1000;
+
+		final Dataset x = DatasetFactory.createRange(size, Dataset.FLOAT64);
+		final Dataset y = createSpectrum(size, 1);
+		System.out.println(String.format("%d points, rolling ball width %d", size, width));
+
+		final RollingBallBaselineProcess ball = new RollingBallBaselineProcess();
+		ball.setWidth(width);
+		long start = System.nanoTime();
+		final Dataset ballNew = ball.process(x, y);
+		final double ballNewTime = seconds(start);
+		start = System.nanoTime();
+		final Dataset ballOld = SlidingWindowTest.oldRollingBall(y, width);
+		final double ballOldTime = seconds(start);
+		System.out.println(String.format("Rolling ball:   %8.3f s, was %8.3f s, largest difference %g",
+				ballNewTime, ballOldTime, largestDifference(ballNew, ballOld)));
+
+		final PolySmoothProcess smooth = new PolySmoothProcess();
+		start = System.nanoTime();
+		final Dataset smoothNew = smooth.process(x, y);
+		final double smoothNewTime = seconds(start);
+		start = System.nanoTime();
+		final Dataset smoothOld = ApachePolynomial.getPolynomialSmoothed(x, y, 13, 9);
+		final double smoothOldTime = seconds(start);
+		System.out.println(String.format("Poly smoothing: %8.3f s, was %8.3f s, largest difference %g",
+				smoothNewTime, smoothOldTime, largestDifference(smoothNew, smoothOld)));
+
+		// A list of spectra together against one at a time
+		final List<IContain1DData> list = new ArrayList<IContain1DData>();
+		for (int i = 0; i < Runtime.getRuntime().availableProcessors(); i++) {
+			list.add(new Contain1DDataImpl(x, Arrays.asList(new IDataset[]{createSpectrum(size, i+2)}), "spectrum"+i, "spectrum"+i));
+		}
+		start = System.nanoTime();
+		for (IContain1DData data : list) ball.process(Arrays.asList(data));
+		final double oneTime = seconds(start);
+		start = System.nanoTime();
+		ball.process(list);
+		final double listTime = seconds(start);
+		System.out.println(String.format("Rolling ball of %d spectra: %8.3f s together, %8.3f s one at a time",
+				list.size(), listTime, oneTime));
+	}
+
+	/**
+	 * Peaks on a curved background with noise.
+	 */
+	private static Dataset createSpectrum(int size, long seed) {
+		final Random   random = new Random(seed);
+		final double[] data   = new double[size];
+		for (int i = 0; i < size; i++) {
+			final double t = (double)i/size;
+			data[i] = 100+50*Math.sin(3*t)+random.nextGaussian();
+			for (int p = 1; p < 10; p++) {
+				final double d = (t-p/10d)*size/200;
+				data[i] += 40*Math.exp(-d*d);
+			}
+		}
+		return new DoubleDataset(data, size);
+	}
+
+	private static double largestDifference(Dataset a, Dataset b) {
+		return Maths.abs(Maths.subtract(a, b)).max().doubleValue();
+	}
+
+	private static double seconds(long start) {
+		return (System.nanoTime()-start)/1e9;
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.spectrum.ui.processing;
+
+import java.util.Random;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.QRDecomposition;
+import org.apache.commons.math3.linear.RealVector;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Maths;
+import org.junit.Assert;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.optimize.ApachePolynomial;
+
+/**
+ * Checks the sliding window kernels against working out each window on its
+ * own, and the processes using them against the slicing loop and the
+ * ApachePolynomial fits they replace.
+ */
+public class SlidingWindowTest {
+
+	private static final int[][] WINDOWS = {{0, 0}, {1, 0}, {0, 1}, {3, 2}, {10, 9}, {200, 199}};
+
+	@Test
+	public void testMinMaxMean() {
+		final Random random = new Random(1);
+		for (int length : new int[]{1, 2, 5, 100}) {
+			final double[] in = new double[length+3]; // Points past the length are left out
+			for (int i = 0; i < in.length; i++) in[i] = random.nextInt(20)-10+random.nextDouble();
+
+			for (int[] window : WINDOWS) {
+				final int before = window[0], after = window[1];
+				final double[] min = new double[length], max = new double[length], mean = new double[length];
+				SlidingWindow.min(in, length, before, after, min);
+				SlidingWindow.max(in, length, before, after, max);
+				SlidingWindow.mean(in, length, before, after, mean);
+
+				for (int i = 0; i < length; i++) {
+					final int lo = Math.max(0, i-before), hi = Math.min(length-1, i+after);
+					double low = Double.POSITIVE_INFINITY, high = Double.NEGATIVE_INFINITY, sum = 0;
+					for (int j = lo; j <= hi; j++) {
+						low  = Math.min(low, in[j]);
+						high = Math.max(high, in[j]);
+						sum += in[j];
+					}
+					final String point = "Point "+i+" of "+length+" window "+before+","+after;
+					Assert.assertEquals(point, low, min[i], 0);
+					Assert.assertEquals(point, high, max[i], 0);
+					Assert.assertEquals(point, sum/(hi-lo+1), mean[i], 1e-12);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSavitzkyGolay() {
+		final Random random = new Random(2);
+		final double[] in = new double[60];
+		for (int i = 0; i < in.length; i++) in[i] = 50*Math.sin(i/7.)+random.nextGaussian();
+
+		for (int[] fit : new int[][]{{1, 0}, {5, 2}, {7, 6}, {13, 9}, {13, 4}}) {
+			checkSavitzkyGolay(in, in.length, fit[0], fit[1]);
+		}
+		// Shorter than the window, which is cut to the length
+		checkSavitzkyGolay(in, 8, 13, 9);
+		checkSavitzkyGolay(in, 9, 13, 9);
+	}
+
+	@Test
+	public void testRollingBall() throws Exception {
+		final Dataset x = DatasetFactory.createRange(300, Dataset.FLOAT64);
+		final Dataset y = createSpectrum(x.getSize(), 3);
+		final RollingBallBaselineProcess ball = new RollingBallBaselineProcess();
+		for (int width : new int[]{1, 2, 10, 150, 400}) {
+			ball.setWidth(width);
+			final Dataset actual   = ball.process(x, y);
+			final Dataset expected = oldRollingBall(y, width);
+			Assert.assertArrayEquals("Width "+width, expected.getShape(), actual.getShape());
+			for (int i = 0; i < y.getSize(); i++) {
+				Assert.assertEquals("Point "+i+" width "+width, expected.getDouble(i), actual.getDouble(i), 1e-9);
+			}
+			// The last point has no baseline
+			Assert.assertEquals(y.getDouble(y.getSize()-1), actual.getDouble(y.getSize()-1), 0);
+		}
+	}
+
+	@Test
+	public void testPolySmooth() throws Exception {
+		final Dataset x = DatasetFactory.createRange(200, Dataset.FLOAT64);
+		final Dataset y = createSpectrum(x.getSize(), 4);
+		final Dataset actual   = new PolySmoothProcess().process(x, y);
+		final Dataset expected = ApachePolynomial.getPolynomialSmoothed(x, y, 13, 9);
+		Assert.assertArrayEquals(expected.getShape(), actual.getShape());
+		// The polynomials are fitted iteratively, so are close but not exact
+		final double tolerance = 1e-4*(y.max().doubleValue()-y.min().doubleValue());
+		for (int i = 0; i < y.getSize(); i++) {
+			Assert.assertEquals("Point "+i, expected.getDouble(i), actual.getDouble(i), tolerance);
+		}
+	}
+
+	/**
+	 * Fits the polynomial to the window of each point, the first or last whole
+	 * window near the ends, and compares its value at the point.
+	 */
+	private static void checkSavitzkyGolay(double[] in, int length, int window, int order) {
+
+		final double[] out = new double[length];
+		SlidingWindow.savitzkyGolay(in, length, window, order, out);
+
+		final int points = Math.min(window, length%2==0 ? length-1 : length);
+		final int half   = points/2;
+		order = Math.min(order, points-1);
+		for (int i = 0; i < length; i++) {
+			final int start = Math.max(0, Math.min(length-points, i-half));
+			final double[][] powers = new double[points][order+1];
+			final double[]   values = new double[points];
+			for (int j = 0; j < points; j++) {
+				final double u = (start+j-i)/(double)Math.max(1, half);
+				double p = 1;
+				for (int k = 0; k <= order; k++, p *= u) powers[j][k] = p;
+				values[j] = in[start+j];
+			}
+			final RealVector coefficients = new QRDecomposition(new Array2DRowRealMatrix(powers, false)).getSolver().solve(new ArrayRealVector(values, false));
+			Assert.assertEquals("Point "+i+" of "+length+" window "+window+" order "+order, coefficients.getEntry(0), out[i], 1e-9);
+		}
+	}
+
+	/**
+	 * Peaks on a curved background with noise.
+	 */
+	private static Dataset createSpectrum(int size, long seed) {
+		final Random   random = new Random(seed);
+		final double[] data   = new double[size];
+		for (int i = 0; i < size; i++) {
+			final double t = (double)i/size;
+			data[i] = 100+50*Math.sin(3*t)+random.nextGaussian();
+			for (int p = 1; p < 5; p++) {
+				final double d = (t-p/5d)*size/20;
+				data[i] += 40*Math.exp(-d*d);
+			}
+		}
+		return new DoubleDataset(data, size);
+	}
+
+	/**
+	 * How RollingBallBaselineProcess used to work, slicing the window for each point.
+	 */
+	static Dataset oldRollingBall(Dataset y, int width) {
+
+		Dataset t1 = DatasetFactory.zeros(y);
+		Dataset t2 = DatasetFactory.zeros(y);
+
+		for (int i = 0 ; i < y.getSize()-1; i++) {
+			int start = (i-width) < 0 ? 0 : (i - width);
+			int end = (i+width) > (y.getSize()-1) ? (y.getSize()-1) : (i+width);
+			double val = y.getSlice(new int[]{start}, new int[]{end}, null).min().doubleValue();
+			t1.set(val, i);
+		}
+
+		for (int i = 0 ; i < y.getSize()-1; i++) {
+			int start = (i-width) < 0 ? 0 : (i - width);
+			int end = (i+width) > (y.getSize()-1) ? (y.getSize()-1) : (i+width);
+			double val = t1.getSlice(new int[]{start}, new int[]{end}, null).max().doubleValue();
+			t2.set(val, i);
+		}
+
+		for (int i = 0 ; i < y.getSize()-1; i++) {
+			int start = (i-width) < 0 ? 0 : (i - width);
+			int end = (i+width) > (y.getSize()-1) ? (y.getSize()-1) : (i+width);
+			double val = (Double)t2.getSlice(new int[]{start}, new int[]{end}, null).mean();
+			t1.set(val, i);
+		}
+
+		return Maths.subtract(y, t1);
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.spectrum.ui.utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
+import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
+import org.eclipse.dawnsci.analysis.api.metadata.IMetadata;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the datasets are those of the data holder in its order, whatever
+ * names and order its metadata has.
+ */
+public class DatasetManagerTest {
+
+	private static final String[] NAMES  = {"energy", "I0", "It", "image", "time"};
+	private static final int[][]  SHAPES = {{100}, {100}, {1, 100}, {10, 20}, {50}};
+
+	@Test
+	public void testHolderOrder() {
+		// Metadata in a hash map, with a name the holder does not have and one missing
+		final Map<String, int[]> metaShapes = new HashMap<String, int[]>();
+		for (int i = 0; i < NAMES.length-1; i++) metaShapes.put(NAMES[i], SHAPES[i]);
+		metaShapes.put("header_only", new int[]{100});
+
+		check(DatasetManager.create(createHolder(metaShapes)));
+	}
+
+	@Test
+	public void testNoMetadata() {
+		check(DatasetManager.create(createHolder(null)));
+	}
+
+	@Test
+	public void testFromShapes() {
+		final DatasetManager manager = DatasetManager.create(createHolder(null));
+		check(DatasetManager.create(manager.getDataShapes()));
+	}
+
+	private static void check(DatasetManager manager) {
+		Assert.assertEquals(Arrays.asList(NAMES), new ArrayList<String>(manager.getDatasetNames()));
+		Assert.assertEquals(Arrays.asList(NAMES), new ArrayList<String>(manager.getDataShapes().keySet()));
+		for (int i = 0; i < NAMES.length; i++) {
+			Assert.assertArrayEquals(NAMES[i], SHAPES[i], manager.getDataShapes().get(NAMES[i]));
+		}
+		Assert.assertEquals(Arrays.asList("energy", "I0", "It"), manager.getPossibleAxisDatasets(100));
+		Assert.assertEquals(Arrays.asList("time"), manager.getPossibleAxisDatasets(50));
+		Assert.assertNull(manager.getPossibleAxisDatasets(20));
+		Assert.assertEquals(Arrays.asList("image"), manager.getAllowedDatasets(20));
+	}
+
+	/**
+	 * @param metaShapes of the metadata of the holder, or null for none
+	 * @return a data holder of the datasets in NAMES
+	 */
+	private static IDataHolder createHolder(final Map<String, int[]> metaShapes) {
+
+		final IMetadata meta = metaShapes == null ? null : proxy(IMetadata.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getDataShapes")) return metaShapes;
+				return null;
+			}
+		});
+
+		return proxy(IDataHolder.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getNames")) return NAMES.clone();
+				if (method.getName().equals("getMetadata")) return meta;
+				if (method.getName().equals("getLazyDataset") && args[0] instanceof String) {
+					final List<String> names = Arrays.asList(NAMES);
+					if (!names.contains(args[0])) return null;
+					final int[] shape = SHAPES[names.indexOf(args[0])];
+					return proxy(ILazyDataset.class, new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+							if (method.getName().equals("getShape")) return shape.clone();
+							return null;
+						}
+					});
+				}
+				return null;
+			}
+		});
+	}
+
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(DatasetManagerTest.class.getClassLoader(), new Class<?>[]{type}, handler));
+	}
+}
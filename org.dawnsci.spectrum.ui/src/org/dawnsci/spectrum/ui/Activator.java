@@ -8,6 +8,11 @@
  */
 package org.dawnsci.spectrum.ui;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
@@ -23,6 +28,9 @@ public class Activator extends AbstractUIPlugin {
 
 	// The shared instance
 	private static Activator plugin;
+
+	// The threads processing spectra, shared by the whole plug-in
+	private static ExecutorService pool;
 	
 	/**
 	 * The constructor
@@ -45,6 +53,10 @@ public class Activator extends AbstractUIPlugin {
 	 */
 	public void stop(BundleContext context) throws Exception {
 		plugin = null;
+		synchronized (Activator.class) {
+			if (pool!=null) pool.shutdown();
+			pool = null;
+		}
 		super.stop(context);
 	}
 
@@ -57,6 +69,27 @@ public class Activator extends AbstractUIPlugin {
 		return plugin;
 	}
 	
+	/**
+	 * Returns the pool of daemon threads shared by the plug-in, one for each
+	 * processor, which is shut down when the plug-in stops.
+	 *
+	 * @return the shared pool
+	 */
+	public static synchronized ExecutorService getPool() {
+		if (pool==null) {
+			pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "Spectrum processing "+count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return pool;
+	}
+
 	public static ImageDescriptor getImageDescriptor(String path) {
 		return imageDescriptorFromPlugin("org.dawnsci.spectrum.ui", path);
 	}
@@ -15,6 +15,7 @@ import java.util.Collection;
 import java.util.List;
 
 import org.dawnsci.spectrum.ui.utils.DatasetManager;
+import org.dawnsci.spectrum.ui.utils.SpectrumMetadataIndex;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
@@ -42,10 +43,19 @@ public class SpectrumFile extends AbstractSpectrumFile implements ISpectrumFile
 		this.system = system;
 	}
 	
+	/**
+	 * Gets the dataset names and shapes from the SpectrumMetadataIndex if the file
+	 * has been read before, without opening the file. Otherwise the file is loaded
+	 * to find them, as not every loader gives them from the header, and they are
+	 * put in the index for next time.
+	 */
 	public static SpectrumFile create(String path, IPlottingSystem system) {
 		
-		DatasetManager dsManager = DatasetManager.create(path);
+		SpectrumMetadataIndex index = SpectrumMetadataIndex.getDefault();
+		SpectrumMetadataIndex.Entry entry = index.get(path);
+		DatasetManager dsManager = entry != null ? DatasetManager.create(entry.getShapes()) : DatasetManager.create(path);
 		if (dsManager == null) return null;
+		if (entry == null) index.put(path, dsManager.getDataShapes());
 		return new SpectrumFile(path, dsManager,system);
 	}
 	
@@ -78,6 +88,28 @@ public class SpectrumFile extends AbstractSpectrumFile implements ISpectrumFile
 		return xDatasetName;
 	}
 	
+	@Override
+	public void setxDatasetName(String xDatasetName) {
+		super.setxDatasetName(xDatasetName);
+		saveAxes();
+	}
+	
+	@Override
+	public void addyDatasetName(String name) {
+		super.addyDatasetName(name);
+		saveAxes();
+	}
+	
+	@Override
+	public void removeyDatasetName(String name) {
+		super.removeyDatasetName(name);
+		saveAxes();
+	}
+	
+	private void saveAxes() {
+		SpectrumMetadataIndex.getDefault().setAxes(path, xDatasetName, yDatasetNames);
+	}
+	
 	public IDataset getxDataset() {
 		return getDataset(xDatasetName);
 	}
@@ -14,19 +14,19 @@ import java.io.FileWriter;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.dawnsci.spectrum.ui.Activator;
 import org.dawnsci.spectrum.ui.preferences.SpectrumConstants;
-import org.eclipse.core.runtime.IProgressMonitor;
-import org.eclipse.core.runtime.IStatus;
-import org.eclipse.core.runtime.Status;
-import org.eclipse.core.runtime.jobs.ISchedulingRule;
-import org.eclipse.core.runtime.jobs.Job;
+import org.dawnsci.spectrum.ui.utils.SpectrumMetadataIndex;
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.plotting.api.IPlottingSystem;
 import org.eclipse.jface.preference.IPreferenceStore;
@@ -46,9 +46,31 @@ public class SpectrumFileManager implements IDataMailListener {
 	private Map<String,ISpectrumFile> spectrumFiles;
 	private HashSet<ISpectrumFileListener> listeners;
 	private final static Logger logger = LoggerFactory.getLogger(SpectrumFileManager.class);
-	private final static ISchedulingRule mutex = new Mutex();
 	private IContain1DData cachedFile;
 
+	/**
+	 * Number of files opened at once.
+	 */
+	private static final int LOADER_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+	private static ExecutorService loaders;
+
+	private static synchronized ExecutorService getLoaders() {
+		if (loaders==null) loaders = Executors.newFixedThreadPool(LOADER_THREADS, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Spectrum file loader");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		return loaders;
+	}
+
+	// Files being loaded, in the order they were added, which is the order they are plotted in
+	private final Map<String, SpectrumFileLoader> loading = new LinkedHashMap<String, SpectrumFileLoader>();
+	private final Object publishLock = new Object();
+
 
 	/**
 	 * There should be one of these per TraceProcessPage
@@ -64,6 +86,10 @@ public class SpectrumFileManager implements IDataMailListener {
 	
 
 	public void dispose() {
+		synchronized (loading) {
+			loading.clear();
+		}
+		SpectrumMetadataIndex.getDefault().save();
 		spectrumFiles.clear();
 		listeners.clear();
 		DatasetMailman.getLocalManager().removeMailListener(this);
@@ -102,9 +128,13 @@ public class SpectrumFileManager implements IDataMailListener {
 		
 		if (spectrumFiles.containsKey(path)) return;
 		
-		SpectrumFileLoaderJob job = new SpectrumFileLoaderJob("File loader job", path);
-		job.setRule(mutex);
-		job.schedule();
+		SpectrumFileLoader loader;
+		synchronized (loading) {
+			if (loading.containsKey(path)) return;
+			loader = new SpectrumFileLoader(path);
+			loading.put(path, loader);
+		}
+		getLoaders().execute(loader);
 	}
 	
 	public Set<String> getFileNames() {
@@ -136,6 +166,24 @@ public class SpectrumFileManager implements IDataMailListener {
 		for (ISpectrumFileListener listener : listeners) listener.fileLoaded(event);
 	}
 	
+	private void setAxes(SpectrumFile file) {
+		SpectrumMetadataIndex.Entry entry = SpectrumMetadataIndex.getDefault().get(file.getPath());
+		if (entry == null || !entry.hasAxes()) {
+			setXandYdatasets(file);
+			return;
+		}
+		
+		// As they were chosen the last time the file was open
+		String xName = entry.getxDatasetName();
+		List<String> yNames = entry.getyDatasetNames();
+		if (xName != null && file.getPossibleAxisNames().contains(xName)) {
+			file.setxDatasetName(xName);
+		}
+		for (String name : yNames) {
+			if (file.contains(name)) file.addyDatasetName(name);
+		}
+	}
+	
 	private void setXandYdatasets(SpectrumFile file) {
 		IPreferenceStore store = Activator.getDefault().getPreferenceStore();
 		String xdatasetNamesCombined = store.getString(SpectrumConstants.X_DATASETS);
@@ -195,45 +243,67 @@ public class SpectrumFileManager implements IDataMailListener {
 		return found;
 	}
 	
-	private class SpectrumFileLoaderJob extends Job {
+	/**
+	 * Reads the dataset names of a file, several at once, then adds the files
+	 * which have been read in the order they were added.
+	 */
+	private class SpectrumFileLoader implements Runnable {
 
 		private final String path;
+		private boolean      done; // Guarded by loading
+		private SpectrumFile file;
 
-		public SpectrumFileLoaderJob(String name, final String path) {
-			super(name);
+		public SpectrumFileLoader(final String path) {
 			this.path = path;
 		}
 
 		@Override
-		protected IStatus run(IProgressMonitor monitor) {
-			SpectrumFile file = SpectrumFile.create(path,system);
+		public void run() {
+			SpectrumFile file = null;
+			try {
+				file = SpectrumFile.create(path,system);
+			} catch (Exception e) {
+				logger.error("Could not load file "+path, e);
+			}
 
 			if (file == null) {
 				logger.error("Could not load file!");
-				return Status.CANCEL_STATUS;
 			}
 
-			setXandYdatasets(file);
-
-			spectrumFiles.put(file.getPath(), file);
-
-			fireFileListeners(new SpectrumFileOpenedEvent(this, file));
-
-			return Status.OK_STATUS;
+			synchronized (loading) {
+				if (loading.get(path) != this) return; // Disposed
+				this.file = file;
+				this.done = true;
+			}
+			publishLoaded();
 		}
-
 	}
 
-	public static class Mutex implements ISchedulingRule {
+	/**
+	 * Adds the files which have been read, in the order they were added, up to
+	 * the first which is still being read.
+	 */
+	private void publishLoaded() {
+		synchronized (publishLock) {
+			while (true) {
+				SpectrumFileLoader next;
+				synchronized (loading) {
+					if (loading.isEmpty()) break;
+					next = loading.values().iterator().next();
+					if (!next.done) return;
+					loading.remove(next.path);
+				}
+				if (next.file == null) continue;
+
+				setAxes(next.file);
 
-		public boolean contains(ISchedulingRule rule) {
-			return (rule == this);
-		}
+				spectrumFiles.put(next.file.getPath(), next.file);
 
-		public boolean isConflicting(ISchedulingRule rule) {
-			return (rule == this);
+				fireFileListeners(new SpectrumFileOpenedEvent(this, next.file));
+			}
 		}
-
+		// Everything added has been read
+		SpectrumMetadataIndex.getDefault().save();
 	}
 
 	/**
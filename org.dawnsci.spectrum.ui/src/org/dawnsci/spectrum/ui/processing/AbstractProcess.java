@@ -10,7 +10,11 @@ package org.dawnsci.spectrum.ui.processing;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import org.dawnsci.spectrum.ui.Activator;
 import org.dawnsci.spectrum.ui.file.IContain1DData;
 import org.dawnsci.spectrum.ui.utils.Contain1DDataImpl;
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
@@ -18,19 +22,34 @@ import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
 
 public abstract class AbstractProcess {
-	
+
 	public List<IContain1DData> process(List<IContain1DData> list) {
 
+		// Every spectrum of every file is processed at once, in parallel
+		final Dataset[]     fileXs = new Dataset[list.size()];
+		final List<Dataset> xs     = new ArrayList<Dataset>();
+		final List<Dataset> ys     = new ArrayList<Dataset>();
+		for (int f = 0; f < fileXs.length; f++) {
+			fileXs[f] = DatasetUtils.convertToDataset(list.get(f).getxDataset());
+			for (IDataset y : list.get(f).getyDatasets()) {
+				xs.add(fileXs[f]);
+				ys.add(DatasetUtils.convertToDataset(y));
+			}
+		}
+		final Dataset[] results = processSpectra(xs, ys);
+
 		List<IContain1DData> output = new ArrayList<IContain1DData>();
 
-		for (IContain1DData data : list) {
+		int index = 0;
+		for (int f = 0; f < fileXs.length; f++) {
 
+			IContain1DData data = list.get(f);
 			List<IDataset> out = new ArrayList<IDataset>();
 
-			Dataset x = DatasetUtils.convertToDataset(data.getxDataset());
+			Dataset x = fileXs[f];
 
-			for (IDataset y : data.getyDatasets()) {
-				out.add(process(x, DatasetUtils.convertToDataset(y)));
+			for (int i = 0; i < data.getyDatasets().size(); i++) {
+				out.add(results[index++]);
 			}
 
 			output.add(new Contain1DDataImpl(x, out, data.getName() + getAppendingName(), data.getLongName() + getAppendingName()));
@@ -38,7 +57,57 @@ public abstract class AbstractProcess {
 
 		return output;
 	}
-	
+
+	/**
+	 * Processes each spectrum on the pool of the plug-in.
+	 * @return the processed spectra in order
+	 */
+	private Dataset[] processSpectra(List<Dataset> xs, List<Dataset> ys) {
+		final Dataset[] results = new Dataset[ys.size()];
+		if (results.length<2) {
+			for (int i = 0; i < results.length; i++) results[i] = process(xs.get(i), ys.get(i));
+			return results;
+		}
+
+		final List<Spectrum> tasks = new ArrayList<Spectrum>(results.length);
+		for (int i = 0; i < results.length; i++) tasks.add(new Spectrum(xs.get(i), ys.get(i)));
+		try {
+			final List<Future<Dataset>> futures = Activator.getPool().invokeAll(tasks);
+			for (int i = 0; i < results.length; i++) results[i] = futures.get(i).get();
+		} catch (InterruptedException ne) {
+			// Keep the interrupt for the caller but still process the spectra.
+			Thread.currentThread().interrupt();
+			for (int i = 0; i < results.length; i++) results[i] = process(xs.get(i), ys.get(i));
+		} catch (ExecutionException ne) {
+			final Throwable cause = ne.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if (cause instanceof Error)            throw (Error)cause;
+			throw new RuntimeException(cause);
+		}
+		return results;
+	}
+
+	/**
+	 * Processes one spectrum.
+	 */
+	private class Spectrum implements Callable<Dataset> {
+
+		private final Dataset x, y;
+
+		Spectrum(Dataset x, Dataset y) {
+			this.x = x;
+			this.y = y;
+		}
+
+		@Override
+		public Dataset call() {
+			return process(x, y);
+		}
+	}
+
+	/**
+	 * May be called for several spectra at once from different threads.
+	 */
 	protected abstract Dataset process(Dataset x, Dataset y);
 	
 	protected abstract String getAppendingName();
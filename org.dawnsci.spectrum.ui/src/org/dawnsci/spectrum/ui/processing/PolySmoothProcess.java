@@ -9,15 +9,25 @@
 package org.dawnsci.spectrum.ui.processing;
 
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
 
 import uk.ac.diamond.scisoft.analysis.optimize.ApachePolynomial;
 
 public class PolySmoothProcess extends AbstractProcess {
 
+	private static final int WINDOW = 13;
+	private static final int ORDER  = 9;
+
 	@Override
 	protected Dataset process(Dataset x, Dataset y) {
+		if (isEvenlySpaced(x)) {
+			// The same fit at every point, so it is a convolution
+			final double[] out = new double[y.getSize()];
+			SlidingWindow.savitzkyGolay(SlidingWindow.getData(y), out.length, WINDOW, ORDER, out);
+			return new DoubleDataset(out, y.getShape());
+		}
 		try {
-			return ApachePolynomial.getPolynomialSmoothed(x,y,13,9);
+			return ApachePolynomial.getPolynomialSmoothed(x,y,WINDOW,ORDER);
 		} catch (Exception e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -31,4 +41,16 @@ public class PolySmoothProcess extends AbstractProcess {
 		return "_smooth";
 	}
 
+	private static boolean isEvenlySpaced(Dataset x) {
+		if (x==null) return true;
+		final double[] data = SlidingWindow.getData(x);
+		if (data.length<3) return true;
+		final double step = (data[data.length-1]-data[0])/(data.length-1);
+		final double tolerance = Math.abs(step)*1e-3;
+		for (int i = 1; i < data.length; i++) {
+			if (Math.abs(data[i]-data[i-1]-step)>tolerance) return false;
+		}
+		return true;
+	}
+
 }
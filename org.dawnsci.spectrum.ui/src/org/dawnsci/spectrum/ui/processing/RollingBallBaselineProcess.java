@@ -9,7 +9,8 @@
 package org.dawnsci.spectrum.ui.processing;
 
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
-import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Maths;
 
 public class RollingBallBaselineProcess extends AbstractProcess {
@@ -37,31 +38,21 @@ public class RollingBallBaselineProcess extends AbstractProcess {
 	
 	private  Dataset rollingBallBaselineCorrection(Dataset y, int width) {
 
-		Dataset t1 = DatasetFactory.zeros(y);
-		Dataset t2 = DatasetFactory.zeros(y);
-
-		for (int i = 0 ; i < y.getSize()-1; i++) {
-			int start = (i-width) < 0 ? 0 : (i - width);
-			int end = (i+width) > (y.getSize()-1) ? (y.getSize()-1) : (i+width);
-			double val = y.getSlice(new int[]{start}, new int[]{end}, null).min().doubleValue();
-			t1.set(val, i);
-		}
-
-		for (int i = 0 ; i < y.getSize()-1; i++) {
-			int start = (i-width) < 0 ? 0 : (i - width);
-			int end = (i+width) > (y.getSize()-1) ? (y.getSize()-1) : (i+width);
-			double val = t1.getSlice(new int[]{start}, new int[]{end}, null).max().doubleValue();
-			t2.set(val, i);
-		}
-
-		for (int i = 0 ; i < y.getSize()-1; i++) {
-			int start = (i-width) < 0 ? 0 : (i - width);
-			int end = (i+width) > (y.getSize()-1) ? (y.getSize()-1) : (i+width);
-			double val = (Double)t2.getSlice(new int[]{start}, new int[]{end}, null).mean();
-			t1.set(val, i);
-		}
-
-		return Maths.subtract(y, t1);
+		final int      size = y.getSize();
+		final double[] data = SlidingWindow.getData(y);
+		final double[] t1   = new double[size];
+		final double[] t2   = new double[size];
+
+		// Each point is compared with the points from width before it to width-1
+		// after it, leaving out the last point, which keeps a baseline of zero.
+		final int length = Math.max(0, size-1);
+		SlidingWindow.min(data, length, width, width-1, t1);
+		SlidingWindow.max(t1,   length, width, width-1, t2);
+		SlidingWindow.mean(t2,  length, width, width-1, t1);
+
+		Dataset baseline = new DoubleDataset(t1, y.getShape());
+		if (y.getDtype()!=Dataset.FLOAT64) baseline = DatasetUtils.cast(baseline, y.getDtype());
+		return Maths.subtract(y, baseline);
 	}
 
 }
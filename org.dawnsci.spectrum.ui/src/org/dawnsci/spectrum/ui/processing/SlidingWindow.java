@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.spectrum.ui.processing;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.QRDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+
+/**
+ * Kernels which work out a value for each point of a spectrum from a window of
+ * the points around it, in time proportional to the length of the spectrum
+ * whatever the size of the window.
+ *
+ * The window of point i is from i-before to i+after inclusive, cut to the first
+ * length points of the input. Output must not be the same array as input.
+ */
+public final class SlidingWindow {
+
+	private SlidingWindow() {
+	}
+
+	/**
+	 * @param set
+	 * @return the values of the dataset as doubles in order, which may be its
+	 *         own buffer and must not be changed.
+	 */
+	public static double[] getData(Dataset set) {
+		final Dataset d   = DatasetUtils.cast(set, Dataset.FLOAT64);
+		final Object  buf = d.getBuffer();
+		if (buf instanceof double[] && ((double[])buf).length==d.getSize()) return (double[])buf;
+		return (double[])d.clone().getBuffer();
+	}
+
+	/**
+	 * Sets each output point to the minimum of the window of input around it.
+	 */
+	public static void min(double[] in, int length, int before, int after, double[] out) {
+		extreme(in, length, before, after, out, false);
+	}
+
+	/**
+	 * Sets each output point to the maximum of the window of input around it.
+	 */
+	public static void max(double[] in, int length, int before, int after, double[] out) {
+		extreme(in, length, before, after, out, true);
+	}
+
+	/**
+	 * Keeps the indices of the window which could still be its extreme in a
+	 * deque, best first. An index is added once and removed once.
+	 */
+	private static void extreme(double[] in, int length, int before, int after, double[] out, boolean max) {
+
+		check(in, length, before, after, out);
+		final int[] deque = new int[length];
+		int head = 0, tail = 0; // Indices in deque[head..tail)
+		int next = 0;           // Next index of in to add
+		for (int i = 0; i < length; i++) {
+			final int hi = Math.min(length-1, i+after);
+			while (next<=hi) {
+				final double value = in[next];
+				while (tail>head && (max ? in[deque[tail-1]]<=value : in[deque[tail-1]]>=value)) tail--;
+				deque[tail++] = next++;
+			}
+			final int lo = i-before;
+			while (deque[head]<lo) head++;
+			out[i] = in[deque[head]];
+		}
+	}
+
+	/**
+	 * Sets each output point to the mean of the window of input around it, from
+	 * the running sum of the input.
+	 */
+	public static void mean(double[] in, int length, int before, int after, double[] out) {
+
+		check(in, length, before, after, out);
+		final double[] sum = new double[length+1];
+		for (int i = 0; i < length; i++) sum[i+1] = sum[i]+in[i];
+
+		for (int i = 0; i < length; i++) {
+			final int lo = Math.max(0, i-before);
+			final int hi = Math.min(length-1, i+after);
+			out[i] = (sum[hi+1]-sum[lo])/(hi-lo+1);
+		}
+	}
+
+	/**
+	 * Smooths evenly spaced points with a Savitzky-Golay filter: each point is
+	 * the value at that point of the least squares polynomial through the window
+	 * centred on it. Points less than half a window from the ends use the first or
+	 * last whole window instead.
+	 *
+	 * @param in
+	 * @param length - number of points of in to smooth
+	 * @param window - odd number of points fitted, cut to the length if longer
+	 * @param order  - of the polynomial, less than the window
+	 * @param out
+	 */
+	public static void savitzkyGolay(double[] in, int length, int window, int order, double[] out) {
+
+		if (window%2==0) throw new IllegalArgumentException("The window must be an odd number of points!");
+		if (length<1) return;
+		if (window>length) window = length%2==0 ? length-1 : length;
+		order = Math.min(order, window-1);
+		final int half = window/2;
+		check(in, length, half, half, out);
+
+		final double[] centre = getSavitzkyGolayCoefficients(window, order, half);
+		for (int i = half; i < length-half; i++) {
+			double value = 0;
+			for (int j = 0, k = i-half; j < window; j++, k++) value += centre[j]*in[k];
+			out[i] = value;
+		}
+
+		for (int p = 0; p < half; p++) {
+			final double[] start = getSavitzkyGolayCoefficients(window, order, p);
+			final double[] end   = getSavitzkyGolayCoefficients(window, order, window-1-p);
+			double first = 0, last = 0;
+			for (int j = 0; j < window; j++) {
+				first += start[j]*in[j];
+				last  += end[j]*in[length-window+j];
+			}
+			out[p] = first;
+			out[length-1-p] = last;
+		}
+	}
+
+	/**
+	 * @param window - number of points fitted
+	 * @param order  - of the polynomial
+	 * @param position - in the window of the point to get the value at
+	 * @return the weights of the points of the window which give the value at the
+	 *         position of the least squares polynomial through them.
+	 */
+	static double[] getSavitzkyGolayCoefficients(int window, int order, int position) {
+
+		// The least squares coefficients of the polynomial are the pseudo-inverse
+		// of the powers of the point offsets times the values. The offsets are
+		// scaled to [-1,1] so the powers do not overflow the precision.
+		final int    half  = window/2;
+		final double scale = Math.max(1, half);
+		final double[][] powers = new double[window][order+1];
+		for (int j = 0; j < window; j++) {
+			final double u = (j-half)/scale;
+			double p = 1;
+			for (int k = 0; k <= order; k++, p *= u) powers[j][k] = p;
+		}
+		// getInverse only works for square matrices, the least squares solution
+		// for the identity is the pseudo-inverse of any shape.
+		final RealMatrix inverse = new QRDecomposition(new Array2DRowRealMatrix(powers, false)).getSolver()
+				.solve(MatrixUtils.createRealIdentityMatrix(window));
+
+		final double   u   = (position-half)/scale;
+		final double[] ret = new double[window];
+		double p = 1;
+		for (int k = 0; k <= order; k++, p *= u) {
+			for (int j = 0; j < window; j++) ret[j] += p*inverse.getEntry(k, j);
+		}
+		return ret;
+	}
+
+	private static void check(double[] in, int length, int before, int after, double[] out) {
+		if (before<0 || after<0) throw new IllegalArgumentException("The window must include the point!");
+		if (in==out) throw new IllegalArgumentException("The output must not be the input!");
+		if (in.length<length || out.length<length) throw new IllegalArgumentException("The arrays are shorter than the length!");
+	}
+}
@@ -9,28 +9,34 @@
 package org.dawnsci.spectrum.ui.utils;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
 import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
 import org.eclipse.dawnsci.analysis.api.metadata.IMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
 
 public class DatasetManager {
 	
+	private static Logger logger = LoggerFactory.getLogger(DatasetManager.class);
+	
 	Collection<String> names;
 	Map<Integer, List<String>> possibleAxisDatasets;
 	Map<Integer, List<String>> datasetMap;
+	Map<String, int[]> shapes;
 	
-	private DatasetManager(Collection<String> names, Map<Integer, List<String>> possibleAxisDatasets ,Map<Integer, List<String>> datasetMap) {
+	private DatasetManager(Collection<String> names, Map<Integer, List<String>> possibleAxisDatasets ,Map<Integer, List<String>> datasetMap, Map<String, int[]> shapes) {
 		this.possibleAxisDatasets = possibleAxisDatasets;
 		this.datasetMap = datasetMap;
 		this.names = names;
+		this.shapes = shapes;
 	}
 	
 	public static DatasetManager create(String path) {
@@ -39,31 +45,72 @@ public class DatasetManager {
 			
 			//should work, doesn't
 			//IMetadata meta = LoaderFactory.getMetaData(path, null);
+			//Not every loader gives the names of its data holder from the header,
+			//so the names always come from the data holder, whose datasets are lazy
 			IDataHolder dh = LoaderFactory.getData(path);
-			IMetadata meta =dh.getMetadata();
-
-			
-			if (meta != null) {
-				return getDatasetManager(meta);
+			if (dh != null) {
+				return create(dh);
 			}
 			
 		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			logger.error("Cannot read the datasets of "+path, e);
 		}
 		
-		try {
-			IDataHolder dh = LoaderFactory.getData(path);
-			if (dh != null) {
-				return getDatasetManager(dh);
+		return null;
+		
+	}
+	
+	/**
+	 * @param dh
+	 * @return the datasets of the data holder, in its order, with the shapes
+	 *         from its metadata where it has them.
+	 */
+	static DatasetManager create(IDataHolder dh) {
+		
+		IMetadata meta = dh.getMetadata();
+		Map<String, int[]> shapeMap = meta != null ? meta.getDataShapes() : null;
+		Map<String, int[]> shapes = new LinkedHashMap<String, int[]>();
+		
+		for (String name : dh.getNames()) {
+			
+			int[] shape = shapeMap != null ? shapeMap.get(name) : null;
+			
+			if (shape == null) {
+				try {
+					ILazyDataset ds = dh.getLazyDataset(name);
+					if (ds != null) shape = ds.getShape();
+				} catch (Exception e) {
+					logger.warn("Cannot get the shape of "+name, e);
+				}
 			}
-		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			
+			if (shape == null) continue;
+			
+			shapes.put(name, shape);
 		}
 		
-		return null;
+		return create(shapes);
+	}
+	
+	/**
+	 * @param shapes of the datasets of a file, in order
+	 * @return the datasets of a file which has been read before.
+	 */
+	public static DatasetManager create(Map<String, int[]> shapes) {
+		
+		Map<Integer, List<String>> axis = new HashMap<Integer, List<String>>();
+		Map<Integer, List<String>> all = new HashMap<Integer, List<String>>();
 		
+		for (String name : shapes.keySet()) {
+			int[] shape = shapes.get(name);
+			updateDatasetMap(all,name,shape);
+			int size = getSuitableAxisSize(shape);
+			if (size != 0) {
+				updateMap(axis,name,size);
+			}
+		}
+		
+		return new DatasetManager(shapes.keySet(), axis, all, shapes);
 	}
 	
 	public List<String> getPossibleAxisDatasets(int size) {
@@ -94,60 +141,11 @@ public class DatasetManager {
 		return names;
 	}
 	
-	private static DatasetManager getDatasetManager(IMetadata meta) {
-		
-		Map<Integer, List<String>> axis = new HashMap<Integer, List<String>>();
-		Map<Integer, List<String>> all = new HashMap<Integer, List<String>>();
-		
-		Map<String, int[]> shapeMap = meta.getDataShapes();
-		
-		for (String name : shapeMap.keySet()) {
-			
-			int[] shape = shapeMap.get(name);
-			
-			if (shape == null) {
-				try {
-					IDataHolder dh = LoaderFactory.getData(meta.getFilePath());
-					shape = dh.getLazyDataset(name).getShape();
-				} catch (Exception e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-					continue;
-				}
-			}
-			
-			if (shape == null) continue;
-			
-			updateDatasetMap(all,name,shape);
-			
-			int size = getSuitableAxisSize(shape);
-			
-			if (size != 0) {
-				updateMap(axis,name,size);
-			}
-		}
-		
-		return new DatasetManager(shapeMap.keySet(), axis, all);
-	}
-	
-	private static DatasetManager getDatasetManager(IDataHolder dh) {
-//		
-		String[] names = dh.getNames();
-		Map<Integer, List<String>> axis = new HashMap<Integer, List<String>>();
-		Map<Integer, List<String>> all = new HashMap<Integer, List<String>>();
-		
-		for (String name : names) {
-			ILazyDataset ds = dh.getLazyDataset(name);
-			
-			updateDatasetMap(all,name,ds.getShape());
-			
-			int size = getSuitableAxisSize(ds.getShape());
-			if (size != 0) {
-				updateMap(axis,name,size);
-			}
-		}
-		
-		return new DatasetManager(Arrays.asList(names), axis, all);
+	/**
+	 * @return the shapes of the datasets, as given to create(Map) to make this again.
+	 */
+	public Map<String, int[]> getDataShapes() {
+		return shapes;
 	}
 	
 	private static int getSuitableAxisSize(int[] shape) {
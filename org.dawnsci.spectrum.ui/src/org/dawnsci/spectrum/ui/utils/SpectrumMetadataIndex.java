@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2012 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.dawnsci.spectrum.ui.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dawnsci.spectrum.ui.Activator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the dataset names and shapes of spectrum files and the x and y
+ * datasets chosen for them, so that opening them again does not need to read
+ * them. A file is only found if its size and modification time are the same
+ * as when it was added.
+ *
+ * The index is kept in the state location of the plugin. It holds the files
+ * used most recently, up to MAX_FILES.
+ */
+public class SpectrumMetadataIndex {
+
+	private static final Logger logger = LoggerFactory.getLogger(SpectrumMetadataIndex.class);
+
+	private static final int    VERSION    = 2; // 1 could hold names from the file header, not the data holder
+	private static final int    MAX_FILES  = 2000;
+	private static final String INDEX_NAME = "spectrum_metadata.index";
+
+	private static SpectrumMetadataIndex instance;
+
+	/**
+	 * @return the index of this workspace, read the first time it is needed.
+	 */
+	public static synchronized SpectrumMetadataIndex getDefault() {
+		if (instance==null) {
+			final Activator activator = Activator.getDefault();
+			instance = new SpectrumMetadataIndex(activator!=null ? activator.getStateLocation().append(INDEX_NAME).toFile() : null);
+		}
+		return instance;
+	}
+
+	/**
+	 * What is known about one file.
+	 */
+	public static class Entry {
+
+		private final long                  length, modified;
+		private final Map<String, int[]>    shapes;
+		private String                      xDatasetName;
+		private List<String>                yDatasetNames; // null until chosen
+
+		private Entry(long length, long modified, Map<String, int[]> shapes) {
+			this.length   = length;
+			this.modified = modified;
+			this.shapes   = shapes;
+		}
+
+		/**
+		 * @return the shapes of the datasets in the order of the file.
+		 */
+		public Map<String, int[]> getShapes() {
+			return Collections.unmodifiableMap(shapes);
+		}
+
+		/**
+		 * @return true if the x and y datasets have been chosen for the file.
+		 */
+		public synchronized boolean hasAxes() {
+			return yDatasetNames!=null;
+		}
+
+		public synchronized String getxDatasetName() {
+			return xDatasetName;
+		}
+
+		public synchronized List<String> getyDatasetNames() {
+			return yDatasetNames!=null ? new ArrayList<String>(yDatasetNames) : null;
+		}
+	}
+
+	private final File               file;
+	private final Map<String, Entry> entries;
+	private boolean                  dirty;
+
+	/**
+	 * @param file - to keep the index in, or null to only keep it in memory.
+	 */
+	SpectrumMetadataIndex(File file) {
+		this.file    = file;
+		this.entries = new LinkedHashMap<String, Entry>(64, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size()>MAX_FILES;
+			}
+		};
+		if (file!=null && file.exists()) {
+			try {
+				read();
+			} catch (IOException e) {
+				logger.warn("Cannot read spectrum metadata index "+file+", starting a new one", e);
+				entries.clear();
+			}
+		}
+	}
+
+	/**
+	 * @param path
+	 * @return what is known about the file, or null if it is not in the index or
+	 *         has changed since it was added.
+	 */
+	public synchronized Entry get(String path) {
+		final Entry entry = entries.get(path);
+		if (entry==null) return null;
+		final File f = new File(path);
+		if (f.length()!=entry.length || f.lastModified()!=entry.modified) {
+			entries.remove(path);
+			dirty = true;
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Adds a file or replaces what is known about it.
+	 * @param path
+	 * @param shapes of the datasets of the file
+	 */
+	public synchronized void put(String path, Map<String, int[]> shapes) {
+		final File f = new File(path);
+		entries.put(path, new Entry(f.length(), f.lastModified(), new LinkedHashMap<String, int[]>(shapes)));
+		dirty = true;
+	}
+
+	/**
+	 * Records the x and y datasets chosen for a file in the index.
+	 * @param path
+	 * @param xDatasetName - may be null
+	 * @param yDatasetNames
+	 */
+	public void setAxes(String path, String xDatasetName, List<String> yDatasetNames) {
+		final Entry entry;
+		synchronized (this) {
+			entry = entries.get(path);
+			if (entry==null) return;
+			dirty = true;
+		}
+		synchronized (entry) {
+			entry.xDatasetName  = xDatasetName;
+			entry.yDatasetNames = new ArrayList<String>(yDatasetNames);
+		}
+	}
+
+	/**
+	 * Writes the index if it has changed since it was read or last saved.
+	 */
+	public synchronized void save() {
+		if (file==null || !dirty) return;
+		try {
+			write();
+			dirty = false;
+		} catch (IOException e) {
+			logger.warn("Cannot save spectrum metadata index "+file, e);
+		}
+	}
+
+	private void read() throws IOException {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt()!=VERSION) return;
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				final String path     = in.readUTF();
+				final long   length   = in.readLong();
+				final long   modified = in.readLong();
+
+				final int names = in.readInt();
+				final Map<String, int[]> shapes = new LinkedHashMap<String, int[]>(names*2);
+				for (int n = 0; n < names; n++) {
+					final String name  = in.readUTF();
+					final int[]  shape = new int[in.readInt()];
+					for (int d = 0; d < shape.length; d++) shape[d] = in.readInt();
+					shapes.put(name, shape);
+				}
+
+				final Entry entry = new Entry(length, modified, shapes);
+				if (in.readBoolean()) entry.xDatasetName = in.readUTF();
+				final int ys = in.readInt();
+				if (ys>=0) {
+					entry.yDatasetNames = new ArrayList<String>(ys);
+					for (int y = 0; y < ys; y++) entry.yDatasetNames.add(in.readUTF());
+				}
+				entries.put(path, entry);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private void write() throws IOException {
+		// Written next to the index and then renamed, so it is never half written.
+		final File tmp = new File(file.getPath()+".tmp");
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(VERSION);
+			out.writeInt(entries.size());
+			for (Map.Entry<String, Entry> e : entries.entrySet()) {
+				final Entry entry = e.getValue();
+				out.writeUTF(e.getKey());
+				out.writeLong(entry.length);
+				out.writeLong(entry.modified);
+
+				out.writeInt(entry.shapes.size());
+				for (Map.Entry<String, int[]> s : entry.shapes.entrySet()) {
+					out.writeUTF(s.getKey());
+					out.writeInt(s.getValue().length);
+					for (int d : s.getValue()) out.writeInt(d);
+				}
+
+				synchronized (entry) {
+					out.writeBoolean(entry.xDatasetName!=null);
+					if (entry.xDatasetName!=null) out.writeUTF(entry.xDatasetName);
+					out.writeInt(entry.yDatasetNames!=null ? entry.yDatasetNames.size() : -1);
+					if (entry.yDatasetNames!=null) for (String name : entry.yDatasetNames) out.writeUTF(name);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		if (file.exists() && !file.delete()) throw new IOException("Cannot replace "+file);
+		if (!tmp.renameTo(file)) throw new IOException("Cannot rename "+tmp+" to "+file);
+	}
+}
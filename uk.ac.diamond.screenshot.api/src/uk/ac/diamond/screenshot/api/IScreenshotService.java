@@ -11,6 +11,8 @@
  */
 package uk.ac.diamond.screenshot.api;
 
+import java.util.List;
+
 /**
  * Implementations of this service provide screenshot methods to Eclipse
  * applications.
@@ -28,4 +30,16 @@ public interface IScreenshotService {
 	 */
 	public void takeScreenshot(ScreenshotConfiguration config);
 
+	/**
+	 * Takes several screenshots from a single copy of the display, so they all
+	 * show the display at the same moment and it is only copied once.
+	 * 
+	 * @param configs
+	 *            The screenshot configurations to use
+	 * @param deduplicate
+	 *            <code>true</code> to not save screenshots which are the same
+	 *            as the last one this method saved to the same file
+	 */
+	public void takeScreenshots(List<ScreenshotConfiguration> configs, boolean deduplicate);
+
 }
@@ -14,7 +14,9 @@ package uk.ac.diamond.screenshot.api;
 import org.eclipse.swt.graphics.Rectangle;
 
 /**
- * Immutable configuration object to define screenshot parameters.
+ * Immutable configuration object to define screenshot parameters. The service
+ * taking the screenshot records how long it took in the configuration, these
+ * timings are not part of its equality.
  * 
  * @author lbq76021
  * 
@@ -32,6 +34,9 @@ public class ScreenshotConfiguration {
 	private final ScreenshotType type;
 	private final Rectangle area;
 
+	private volatile long captureNanos = -1;
+	private volatile long encodeNanos = -1;
+
 	/**
 	 * Creates a new screenshot configuration.
 	 * 
@@ -128,4 +133,44 @@ public class ScreenshotConfiguration {
 		return area;
 	}
 
+	/**
+	 * Get the time taken to copy the screenshot from the display. Screenshots
+	 * taken together share one copy, and each has the time of that copy.
+	 * 
+	 * @return The capture time in nanoseconds, or -1 if not yet captured
+	 */
+	public long getCaptureNanos() {
+		return captureNanos;
+	}
+
+	/**
+	 * Set the time taken to copy the screenshot from the display.
+	 * 
+	 * @param captureNanos
+	 *            The capture time in nanoseconds
+	 */
+	public void setCaptureNanos(final long captureNanos) {
+		this.captureNanos = captureNanos;
+	}
+
+	/**
+	 * Get the time taken to encode and save the screenshot, which happens
+	 * after the screenshot method has returned.
+	 * 
+	 * @return The encode time in nanoseconds, or -1 if not yet saved
+	 */
+	public long getEncodeNanos() {
+		return encodeNanos;
+	}
+
+	/**
+	 * Set the time taken to encode and save the screenshot.
+	 * 
+	 * @param encodeNanos
+	 *            The encode time in nanoseconds
+	 */
+	public void setEncodeNanos(final long encodeNanos) {
+		this.encodeNanos = encodeNanos;
+	}
+
 }
@@ -14,8 +14,12 @@ package uk.ac.diamond.screenshot.gui.survey;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
+import org.eclipse.e4.ui.model.application.ui.basic.MPart;
 import org.eclipse.swt.graphics.Rectangle;
+import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.ui.IPerspectiveDescriptor;
 import org.eclipse.ui.IWorkbenchPage;
@@ -44,6 +48,7 @@ public class GUISurveyController {
 	private static final String FILE_NAME_PART_SEPARATOR = "_";
 	private static final int PART_ACTIVATION_RETRIES = 3;
 	private static final String PERSPECTIVE_DIRECTORY_NAME = "perspective-";
+	private static final String SINGLE_CAPTURE_DIRECTORY_NAME = "single_capture";
 	private static final String SPY_SUFFIX = "_spy";
 	private static final String VIEW_FILE_NAME = "view-";
 	private static final String WHOLE_DISPLAY_FILE_NAME = "whole_display";
@@ -103,6 +108,39 @@ public class GUISurveyController {
 		takeScreenshotsOfCurrentPerspective(saveDir);
 	}
 
+	/**
+	 * Takes screenshots of the whole display, the active window and each
+	 * visible workbench part from a single copy of the display, without
+	 * activating the parts. Parts hidden behind others are not included.
+	 * Screenshots which are the same as in the last such survey are not saved.
+	 */
+	public void takeSingleCaptureScreenshotsOfVisibleWorkbenchParts() {
+		if (getBaseSaveDir() == null) {
+			logger.debug("No target directory supplied, returning silently without taking screenshot");
+			return;
+		}
+
+		final IScreenshotService screenshotService = ScreenshotController.getScreenshotService();
+		if (screenshotService == null) {
+			logger.warn("Screenshot service is not set - no screenshot was taken");
+			return;
+		}
+
+		final Path saveDir = createSubDirectory(getBaseSaveDir(), SINGLE_CAPTURE_DIRECTORY_NAME);
+		final List<ScreenshotConfiguration> configs = new ArrayList<>();
+		configs.add(new ScreenshotConfiguration(buildPathName(saveDir, WHOLE_DISPLAY_FILE_NAME),
+				ScreenshotType.WHOLE_DISPLAY));
+		configs.add(new ScreenshotConfiguration(buildPathName(saveDir, ACTIVE_WINDOW_FILE_NAME),
+				ScreenshotType.RECTANGLE, GuiUtils.getActiveWorkbenchWindow().getShell().getBounds()));
+
+		final IWorkbenchPage page = GuiUtils.getActiveWorkbenchWindow().getActivePage();
+		addVisiblePartConfigurations(configs, saveDir, page, page.getViewReferences(), VIEW_FILE_NAME);
+		addVisiblePartConfigurations(configs, saveDir, page, page.getEditorReferences(), EDITOR_FILE_NAME);
+
+		logger.debug("Taking {} screenshots from a single capture", configs.size());
+		screenshotService.takeScreenshots(configs, true);
+	}
+
 	private Path getBaseSaveDir() {
 		return SaveDirectoryTracker.checkOrGetSaveDirectory();
 	}
@@ -209,6 +247,44 @@ public class GUISurveyController {
 		}
 	}
 
+	private void addVisiblePartConfigurations(final List<ScreenshotConfiguration> configs, final Path saveDir,
+			final IWorkbenchPage page, final IWorkbenchPartReference[] partReferences, final String category) {
+		for (final IWorkbenchPartReference partReference : partReferences) {
+			final IWorkbenchPart part = partReference.getPart(false);
+			if (part == null || !page.isPartVisible(part)) {
+				logger.debug("Not visible, no screenshot of {} {}", category, partReference.getPartName());
+				continue;
+			}
+			final Rectangle bounds = getPartBounds(part);
+			if (bounds == null) {
+				logger.debug("Could not find area of {} {}", category, partReference.getPartName());
+				continue;
+			}
+			final String savePath = buildPathName(saveDir, category + partReference.getPartName());
+			configs.add(new ScreenshotConfiguration(savePath, ScreenshotType.RECTANGLE, bounds));
+		}
+	}
+
+	/**
+	 * Gets the area of the display covered by a part.
+	 * 
+	 * @param part
+	 *            the part
+	 * @return the area in display coordinates, or <code>null</code> if the part
+	 *         is not showing
+	 */
+	private Rectangle getPartBounds(final IWorkbenchPart part) {
+		final MPart mPart = (MPart) part.getSite().getService(MPart.class);
+		if (mPart == null || !(mPart.getWidget() instanceof Control)) {
+			return null;
+		}
+		final Control control = (Control) mPart.getWidget();
+		if (control.isDisposed() || !control.isVisible()) {
+			return null;
+		}
+		return control.getDisplay().map(control.getParent(), null, control.getBounds());
+	}
+
 	private void takeScreenshotOfPart(final String savePath, final IWorkbenchPart part) {
 		logger.debug("Preparing to take screenshot of part: {}", part.getTitle());
 		final Rectangle bounds = part.getSite().getShell().getBounds();
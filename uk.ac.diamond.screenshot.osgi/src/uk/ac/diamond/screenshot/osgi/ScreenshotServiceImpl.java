@@ -11,10 +11,21 @@
  */
 package uk.ac.diamond.screenshot.osgi;
 
-import org.eclipse.core.runtime.IProgressMonitor;
-import org.eclipse.core.runtime.IStatus;
-import org.eclipse.core.runtime.Status;
-import org.eclipse.core.runtime.jobs.Job;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.GC;
 import org.eclipse.swt.graphics.Image;
@@ -50,42 +61,217 @@ public class ScreenshotServiceImpl implements IScreenshotService {
 	 */
 	private static final long TIMEOUT_MILLIS = 5000L;
 
+	/**
+	 * The number of threads encoding and saving images.
+	 */
+	private static final int ENCODER_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+	/**
+	 * The number of copies of the display which may be waiting to be saved,
+	 * a survey being one copy however many screenshots are cropped from it.
+	 * Taking another screenshot waits until one of them has been saved.
+	 */
+	private static final int MAX_PENDING_COPIES = 8;
+
+	private final ExecutorService encoders;
+	private final Semaphore pendingCopies;
+
+	/**
+	 * The content hash of the last deduplicated screenshot saved to each file
+	 * path.
+	 */
+	private final ConcurrentMap<String, String> savedHashes = new ConcurrentHashMap<String, String>();
+
 	/**
 	 * The constructor.
 	 */
 	public ScreenshotServiceImpl() {
 		logger.trace("Constructor called: {}", this);
+		encoders = Executors.newFixedThreadPool(ENCODER_THREADS, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, "Screenshot encoder " + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		pendingCopies = new Semaphore(MAX_PENDING_COPIES);
+	}
+
+	/**
+	 * Called when the service is deactivated. Screenshots already taken are
+	 * still saved.
+	 */
+	public void deactivate() {
+		encoders.shutdown();
 	}
 
 	/**
 	 * {@inheritDoc}
+	 * 
+	 * If MAX_PENDING_COPIES copies of the display are still being saved, this
+	 * waits for one of them before copying the display again. Called from the
+	 * UI thread that wait blocks the UI, so callers taking many screenshots
+	 * should call from another thread, where it waits before going to the UI
+	 * thread.
 	 */
 	@Override
 	public void takeScreenshot(final ScreenshotConfiguration config) {
-		// Check if we are in the UI thread
-		if (Display.getCurrent() != null) {
-			logger.debug("Taking screenshot");
-			takeScreenshotInUIThread(config);
-		} else {
-			logger.debug("Not in UI thread - starting synchronous task to take screenshot");
-			getDisplay().syncExec(new Runnable() {
+		final AtomicBoolean queued = new AtomicBoolean();
+		acquireCopy();
+		try {
+			runInUIThread(new Runnable() {
+
+				@Override
+				public void run() {
+					logger.debug("Taking screenshot");
+					queued.set(takeScreenshotInUIThread(config));
+				}
+			});
+		} finally {
+			if (!queued.get()) {
+				pendingCopies.release();
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * If MAX_PENDING_COPIES copies of the display are still being saved, this
+	 * waits for one of them before copying the display again. Called from the
+	 * UI thread that wait blocks the UI, so callers should call from another
+	 * thread, where it waits before going to the UI thread.
+	 */
+	@Override
+	public void takeScreenshots(final List<ScreenshotConfiguration> configs, final boolean deduplicate) {
+		if (configs.isEmpty()) {
+			return;
+		}
+		final AtomicBoolean queued = new AtomicBoolean();
+		acquireCopy();
+		try {
+			runInUIThread(new Runnable() {
 
 				@Override
 				public void run() {
-					takeScreenshotInUIThread(config);
+					logger.debug("Taking {} screenshots", configs.size());
+					queued.set(takeScreenshotsInUIThread(configs, deduplicate));
 				}
 			});
+		} finally {
+			if (!queued.get()) {
+				pendingCopies.release();
+			}
+		}
+	}
+
+	/**
+	 * Waits until fewer than MAX_PENDING_COPIES copies of the display are
+	 * waiting to be saved, so that taking screenshots faster than they can be
+	 * saved does not use more and more memory. The permit is released when
+	 * the screenshots taken from the copy have been saved.
+	 */
+	private void acquireCopy() {
+		if (!pendingCopies.tryAcquire()) {
+			if (Display.getCurrent() != null) {
+				logger.debug("Waiting in the UI thread for screenshots to be saved");
+			}
+			pendingCopies.acquireUninterruptibly();
+		}
+	}
+
+	/**
+	 * Runs a task in the UI thread, synchronously if not already in it.
+	 * 
+	 * @param runnable
+	 *            The task to run
+	 */
+	private void runInUIThread(final Runnable runnable) {
+		// Check if we are in the UI thread
+		if (Display.getCurrent() != null) {
+			runnable.run();
+		} else {
+			logger.debug("Not in UI thread - starting synchronous task to take screenshot");
+			getDisplay().syncExec(runnable);
 		}
 	}
 
 	/**
 	 * Takes a screenshot using the given configuration. Must be run from the UI
-	 * thread.
+	 * thread, holding a permit of pendingCopies.
 	 * 
 	 * @param config
 	 *            The screenshot configuration
+	 * @return <code>true</code> if the screenshot was queued to be saved, which
+	 *         then releases the permit
+	 */
+	private boolean takeScreenshotInUIThread(final ScreenshotConfiguration config) {
+		final Rectangle bounds = getBounds(config);
+		if (!flushUIEventQueue()) {
+			logger.info("UI was not idle before taking screenshot {}", config.getFilePath());
+		}
+		takeRectangleScreenshot(config, bounds);
+		return true;
+	}
+
+	/**
+	 * Copies the area covering all the configurations from the display once,
+	 * then crops and saves the area of each configuration from that copy. Must
+	 * be run from the UI thread, holding a permit of pendingCopies.
+	 * 
+	 * @param configs
+	 *            The screenshot configurations
+	 * @param deduplicate
+	 *            <code>true</code> to not save screenshots which are the same
+	 *            as the last one saved to the same file
+	 * @return <code>true</code> if the screenshots were queued to be saved,
+	 *         which then releases the permit
 	 */
-	private void takeScreenshotInUIThread(final ScreenshotConfiguration config) {
+	private boolean takeScreenshotsInUIThread(final List<ScreenshotConfiguration> configs, final boolean deduplicate) {
+		final Rectangle[] bounds = new Rectangle[configs.size()];
+		Rectangle union = null;
+		for (int i = 0; i < bounds.length; i++) {
+			bounds[i] = getBounds(configs.get(i));
+			union = union == null ? bounds[i] : union.union(bounds[i]);
+		}
+		final Rectangle area = union.intersection(getDisplay().getBounds());
+		if (!flushUIEventQueue()) {
+			logger.info("UI was not idle before taking {} screenshots", configs.size());
+		}
+
+		final long start = System.nanoTime();
+		final ImageData imageData = copyArea(area);
+		final long captureNanos = System.nanoTime() - start;
+
+		final Survey survey = new Survey(configs.size(), captureNanos, deduplicate);
+		for (int i = 0; i < bounds.length; i++) {
+			final ScreenshotConfiguration config = configs.get(i);
+			config.setCaptureNanos(captureNanos);
+			final Rectangle crop = bounds[i].intersection(area);
+			if (crop.isEmpty()) {
+				logger.warn("Area of screenshot {} is not on the display", config.getFilePath());
+				survey.done(0, false);
+				continue;
+			}
+			crop.x -= area.x;
+			crop.y -= area.y;
+			saveImage(new SaveTask(config, imageData, crop, survey));
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the area of the display to take a screenshot of. Must be run from
+	 * the UI thread.
+	 * 
+	 * @param config
+	 *            The screenshot configuration
+	 * @return The area of the display
+	 */
+	private Rectangle getBounds(final ScreenshotConfiguration config) {
 		Rectangle bounds;
 		switch (config.getType()) {
 		case ACTIVE_WINDOW:
@@ -102,10 +288,7 @@ public class ScreenshotServiceImpl implements IScreenshotService {
 			bounds = getDisplay().getBounds();
 			break;
 		}
-		if (!flushUIEventQueue()) {
-			logger.info("UI was not idle before taking screenshot {}", config.getFilePath());
-		}
-		takeRectangleScreenshot(config.getFilePath(), bounds);
+		return bounds;
 	}
 
 	/**
@@ -148,60 +331,212 @@ public class ScreenshotServiceImpl implements IScreenshotService {
 	}
 
 	/**
-	 * Sets up an Eclipse Job to save an image to a file, and disposes of the
-	 * image afterwards (even if the save operation was unsuccessful).
+	 * Queues an image to be saved by the encoders.
 	 * 
-	 * @param image
+	 * @param task
 	 *            the image to save
-	 * @param filePath
-	 *            the path of the file to save the image to
-	 * @param fileType
-	 *            the file type as defined by
-	 *            {@link ImageLoader#save(String, int)}
-	 * @throws RuntimeException
-	 *             if the file couldn't be saved
-	 */
-	private void saveAndDisposeImage(final Image image, final String filePath, final int fileType) {
-		logger.debug("Setting up job to save image file: {}", filePath);
-		final Job job = new Job("Saving image " + filePath) {
-
-			@Override
-			protected IStatus run(final IProgressMonitor monitor) {
-				try {
-					final ImageLoader imageLoader = new ImageLoader();
-					imageLoader.data = new ImageData[] { image.getImageData() };
-					logger.info("Saving image file: {}", filePath);
-					imageLoader.save(filePath, fileType);
-				} catch (final Exception e) {
-					logger.warn("Error saving image file: {}", filePath, e);
-					throw new RuntimeException(e);
-				} finally {
-					image.dispose();
-				}
-				return Status.OK_STATUS;
-			}
-		};
-		job.setPriority(Job.SHORT);
-		job.schedule();
+	 */
+	private void saveImage(final SaveTask task) {
+		logger.debug("Queueing image file to save: {}", task.config.getFilePath());
+		try {
+			encoders.execute(task);
+		} catch (final RejectedExecutionException e) {
+			logger.warn("Screenshot service has been deactivated, not saving image file: {}", task.config.getFilePath());
+			task.done(0, false);
+		}
 	}
 
 	/**
 	 * Copies a rectangular area of the display into an image and saves it.
 	 * 
-	 * @param filePath
-	 *            The path of the image file to save
+	 * @param config
+	 *            The configuration of the screenshot to save
+	 * @param area
+	 *            The area of the display to copy
+	 */
+	private void takeRectangleScreenshot(final ScreenshotConfiguration config, final Rectangle area) {
+		final long start = System.nanoTime();
+		final ImageData imageData = copyArea(area);
+		config.setCaptureNanos(System.nanoTime() - start);
+		saveImage(new SaveTask(config, imageData, null, null));
+	}
+
+	/**
+	 * Copies a rectangular area of the display. Must be run from the UI
+	 * thread.
+	 * 
 	 * @param area
 	 *            The area of the display to copy
+	 * @return The image data of the area, which does not need disposing
 	 */
-	private void takeRectangleScreenshot(final String filePath, final Rectangle area) {
+	private ImageData copyArea(final Rectangle area) {
 		final Display display = getDisplay();
 		final Image image = new Image(display, area);
 		final GC displayGC = new GC(display);
 		try {
 			displayGC.copyArea(image, area.x, area.y);
+			return image.getImageData();
 		} finally {
 			displayGC.dispose();
+			image.dispose();
+		}
+	}
+
+	/**
+	 * Copies a rectangular area of an image.
+	 * 
+	 * @param source
+	 *            The image to copy from
+	 * @param area
+	 *            The area to copy, which must be inside the image
+	 * @return The image data of the area
+	 */
+	private static ImageData crop(final ImageData source, final Rectangle area) {
+		final ImageData ret = new ImageData(area.width, area.height, source.depth, source.palette);
+		if (source.depth % 8 == 0) {
+			final int bytesPerPixel = source.depth / 8;
+			for (int y = 0; y < area.height; y++) {
+				System.arraycopy(source.data, (area.y + y) * source.bytesPerLine + area.x * bytesPerPixel, ret.data,
+						y * ret.bytesPerLine, area.width * bytesPerPixel);
+			}
+		} else {
+			final int[] pixels = new int[area.width];
+			for (int y = 0; y < area.height; y++) {
+				source.getPixels(area.x, area.y + y, area.width, pixels, 0);
+				ret.setPixels(0, y, area.width, pixels, 0);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Gets a hash of the pixels of an image, the same for images which look
+	 * the same.
+	 * 
+	 * @param imageData
+	 *            The image data to hash
+	 * @return The hash as a hexadecimal string
+	 */
+	private static String getContentHash(final ImageData imageData) {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(imageData.data);
+			digest.update(new byte[] { (byte) (imageData.width >> 24), (byte) (imageData.width >> 16),
+					(byte) (imageData.width >> 8), (byte) imageData.width, (byte) imageData.depth });
+			return new BigInteger(1, digest.digest()).toString(16);
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Screenshots taken together from one copy of the display, which records
+	 * their timings as they are saved and releases the copy after the last.
+	 */
+	private final class Survey {
+		private final long captureNanos;
+		private final boolean deduplicate;
+		private final AtomicInteger remaining;
+		private final AtomicInteger saved;
+		private final AtomicLong encodeNanos;
+
+		Survey(final int size, final long captureNanos, final boolean deduplicate) {
+			this.captureNanos = captureNanos;
+			this.deduplicate = deduplicate;
+			this.remaining = new AtomicInteger(size);
+			this.saved = new AtomicInteger();
+			this.encodeNanos = new AtomicLong();
+		}
+
+		void done(final long nanos, final boolean wasSaved) {
+			encodeNanos.addAndGet(nanos);
+			if (wasSaved) {
+				saved.incrementAndGet();
+			}
+			if (remaining.decrementAndGet() == 0) {
+				pendingCopies.release();
+				logger.info("Saved {} screenshots from one copy of the display, copying took {} ms and encoding {} ms",
+						saved.get(), captureNanos / 1000000, encodeNanos.get() / 1000000);
+			}
+		}
+	}
+
+	/**
+	 * Crops, encodes and saves a screenshot in an encoder thread.
+	 */
+	private final class SaveTask implements Runnable {
+		private final ScreenshotConfiguration config;
+		private final ImageData source;
+		private final Rectangle crop;
+		private final Survey survey;
+
+		/**
+		 * @param config
+		 *            the configuration of the screenshot
+		 * @param source
+		 *            the image data copied from the display
+		 * @param crop
+		 *            the area of the source to save, or <code>null</code> for
+		 *            all of it
+		 * @param survey
+		 *            the survey the screenshot is part of, or <code>null</code>
+		 */
+		SaveTask(final ScreenshotConfiguration config, final ImageData source, final Rectangle crop, final Survey survey) {
+			this.config = config;
+			this.source = source;
+			this.crop = crop;
+			this.survey = survey;
+		}
+
+		@Override
+		public void run() {
+			final String filePath = config.getFilePath();
+			final long start = System.nanoTime();
+			boolean saved = false;
+			try {
+				final ImageData imageData = crop != null ? crop(source, crop) : source;
+				String hash = null;
+				if (survey != null && survey.deduplicate) {
+					hash = getContentHash(imageData);
+					if (hash.equals(savedHashes.get(filePath))) {
+						logger.debug("Image is the same as the last one saved, not saving image file: {}", filePath);
+						return;
+					}
+				}
+				// Forget the last hash first, the file is not it while saving or if saving fails
+				savedHashes.remove(filePath);
+				final ImageLoader imageLoader = new ImageLoader();
+				imageLoader.data = new ImageData[] { imageData };
+				logger.info("Saving image file: {}", filePath);
+				imageLoader.save(filePath, FILE_TYPE);
+				if (hash != null) {
+					savedHashes.put(filePath, hash);
+				}
+				saved = true;
+			} catch (final Exception e) {
+				logger.warn("Error saving image file: {}", filePath, e);
+			} finally {
+				final long nanos = System.nanoTime() - start;
+				config.setEncodeNanos(nanos);
+				done(nanos, saved);
+			}
+		}
+
+		/**
+		 * Records the screenshot as done and releases the copy of the display
+		 * when nothing else is saved from it.
+		 * 
+		 * @param nanos
+		 *            the time taken to save it
+		 * @param saved
+		 *            <code>true</code> if the image file was saved
+		 */
+		void done(final long nanos, final boolean saved) {
+			if (survey != null) {
+				survey.done(nanos, saved);
+			} else {
+				pendingCopies.release();
+			}
 		}
-		saveAndDisposeImage(image, filePath, FILE_TYPE);
 	}
 }